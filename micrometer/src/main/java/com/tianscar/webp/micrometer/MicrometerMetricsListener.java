@@ -0,0 +1,97 @@
+package com.tianscar.webp.micrometer;
+
+import com.tianscar.webp.WebPFactory;
+import com.tianscar.webp.WebPMetrics;
+import com.tianscar.webp.WebPMetricsListener;
+import com.tianscar.webp.WebPOperation;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This publishes the library's metrics to a Micrometer {@link MeterRegistry}. 
+ * Every meter is tagged with the operation and the chunk type. The thread is 
+ * deliberately not used as a tag, since thread names are unbounded.
+ * <ul>
+ * <li>{@code webp.operation} (timer) the total time of each operation</li>
+ * <li>{@code webp.operation.native} (timer) the time spent inside libwebp</li>
+ * <li>{@code webp.operation.input} (summary, bytes) the bytes read</li>
+ * <li>{@code webp.operation.output} (summary, bytes) the bytes produced</li>
+ * <li>{@code webp.operation.pixels} (summary) the pixels decoded or encoded</li>
+ * </ul>
+ * <pre>{@code
+ * WebPFactory.addMetricsListener(new MicrometerMetricsListener(registry));
+ * }</pre>
+ * @see WebPFactory#addMetricsListener(com.tianscar.webp.WebPMetricsListener) 
+ */
+public class MicrometerMetricsListener implements WebPMetricsListener {
+
+    private final MeterRegistry registry;
+    private final String prefix;
+    /**
+     * This caches the meters for each operation and chunk type pair, so that 
+     * recording does not go through the meter builders every time.
+     */
+    private final ConcurrentMap<String, Meters> meters = new ConcurrentHashMap<>();
+
+    public MicrometerMetricsListener(MeterRegistry registry) {
+        this(registry, "webp.operation");
+    }
+
+    /**
+     * @param registry The registry to publish to.
+     * @param prefix The name of the operation timer, which the other meter 
+     * names are built from.
+     */
+    public MicrometerMetricsListener(MeterRegistry registry, String prefix) {
+        this.registry = Objects.requireNonNull(registry);
+        this.prefix = Objects.requireNonNull(prefix);
+    }
+
+    @Override
+    public void record(WebPMetrics metrics) {
+        WebPOperation operation = metrics.getOperation();
+        String chunkType = metrics.getChunkType().trim();
+        Meters m = meters.computeIfAbsent(operation.name() + ':' + chunkType, key -> new Meters(operation, chunkType));
+        m.wallTime.record(metrics.getWallTimeNanos(), TimeUnit.NANOSECONDS);
+        m.nativeTime.record(metrics.getNativeTimeNanos(), TimeUnit.NANOSECONDS);
+        m.input.record(metrics.getInputBytes());
+        m.output.record(metrics.getOutputBytes());
+        if (metrics.getPixelCount() > 0) m.pixels.record(metrics.getPixelCount());
+    }
+
+    private final class Meters {
+
+        final Timer wallTime;
+        final Timer nativeTime;
+        final DistributionSummary input;
+        final DistributionSummary output;
+        final DistributionSummary pixels;
+
+        Meters(WebPOperation operation, String chunkType) {
+            String op = operation.name().toLowerCase();
+            wallTime = Timer.builder(prefix)
+                    .tag("operation", op).tag("chunk.type", chunkType)
+                    .register(registry);
+            nativeTime = Timer.builder(prefix + ".native")
+                    .tag("operation", op).tag("chunk.type", chunkType)
+                    .register(registry);
+            input = DistributionSummary.builder(prefix + ".input").baseUnit("bytes")
+                    .tag("operation", op).tag("chunk.type", chunkType)
+                    .register(registry);
+            output = DistributionSummary.builder(prefix + ".output").baseUnit("bytes")
+                    .tag("operation", op).tag("chunk.type", chunkType)
+                    .register(registry);
+            pixels = DistributionSummary.builder(prefix + ".pixels").baseUnit("pixels")
+                    .tag("operation", op).tag("chunk.type", chunkType)
+                    .register(registry);
+        }
+
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.tianscar.webp.benchmark;
+
+import com.tianscar.webp.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This compares the per-call overhead of the Foreign Function and Memory
+ * binding with that of jnr-ffi, on images small enough for the call itself to
+ * dominate. The binding is chosen once per JVM, so each pair of benchmarks runs
+ * the same code in forks that differ only in the {@code webp.binding} property.
+ * On runtimes older than Java 22 both run through jnr-ffi.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class BindingBenchmark {
+
+    private static final String FFM = "--enable-native-access=ALL-UNNAMED";
+    private static final String JNR = "-Dwebp.binding=jnr";
+
+    @Param({"1", "16", "64"})
+    public int size;
+
+    private int[] pixels;
+    private VP8LChunk chunk;
+    private final int[] outSize = new int[2];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Corpus.addLibrarySearchPath();
+        pixels = Corpus.pixels(size, size, true, Corpus.SEED);
+        chunk = WebPFactory.encodeLosslessBGRA(pixels, size, size, size);
+    }
+
+    @Benchmark
+    @Fork(value = 2, jvmArgsAppend = FFM)
+    public int[] decodeFFM() {
+        return WebPFactory.decodeBGRA(chunk, outSize);
+    }
+
+    @Benchmark
+    @Fork(value = 2, jvmArgsAppend = JNR)
+    public int[] decodeJNR() {
+        return WebPFactory.decodeBGRA(chunk, outSize);
+    }
+
+    @Benchmark
+    @Fork(value = 2, jvmArgsAppend = FFM)
+    public VP8LChunk encodeFFM() {
+        return WebPFactory.encodeLosslessBGRA(pixels, size, size, size);
+    }
+
+    @Benchmark
+    @Fork(value = 2, jvmArgsAppend = JNR)
+    public VP8LChunk encodeJNR() {
+        return WebPFactory.encodeLosslessBGRA(pixels, size, size, size);
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.tianscar.webp.benchmark;
+
+import com.tianscar.webp.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This measures playing an animation all the way through: decoding every frame 
+ * and compositing it onto the canvas, honoring the blending and disposal flags. 
+ * The player benchmark does the same on the threads of a {@link WebPPlayer}, 
+ * which overlaps compositing with delivering the frames.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CompositeBenchmark {
+
+    @Param({"256", "1024"})
+    public int canvasSize;
+
+    @Param({"24"})
+    public int frames;
+
+    @Param({"true", "false"})
+    public boolean alpha;
+
+    private WebPChunk animation;
+    private WebPCompositor compositor;
+    private ANMFChunk[] anmfChunks;
+    private int[][] decodedFrames;
+    private int[] canvas;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Corpus.addLibrarySearchPath();
+        animation = Corpus.animation(canvasSize, canvasSize, frames, alpha, Corpus.SEED);
+        List<Chunk> chunks = animation.subchunks();
+        anmfChunks = new ANMFChunk[frames];
+        decodedFrames = new int[frames][];
+        int index = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk instanceof ANMFChunk) {
+                anmfChunks[index] = (ANMFChunk) chunk;
+                decodedFrames[index] = decodeFrame(anmfChunks[index]);
+                index ++;
+            }
+        }
+        canvas = new int[canvasSize * canvasSize];
+        compositor = new WebPCompositor(animation);
+        // The hand-written loop only measures something if it draws what the compositor draws
+        if (!Arrays.equals(compositeOnly(), decodeAndComposite())) {
+            throw new IllegalStateException("compositeOnly does not match WebPCompositor");
+        }
+    }
+
+    @Benchmark
+    public int[] decodeAndComposite() {
+        compositor.reset();
+        for (int i = 0; i < frames; i ++) {
+            compositor.composite(i);
+        }
+        return compositor.getCanvas();
+    }
+
+    @Benchmark
+    public long player() throws InterruptedException {
+        long[] checksum = new long[1];
+        WebPPlayer player = new WebPPlayer(animation, (p, frame, index, time) -> checksum[0] += frame[0])
+                .setRealTime(false)
+                .setLoopCount(1);
+        player.start();
+        player.await();
+        return checksum[0];
+    }
+
+    @Benchmark
+    public int[] compositeOnly() {
+        Arrays.fill(canvas, 0);
+        for (int i = 0; i < anmfChunks.length; i ++) {
+            if (i > 0) dispose(anmfChunks[i - 1]);
+            composite(anmfChunks[i], decodedFrames[i]);
+        }
+        return canvas;
+    }
+
+    private static int[] decodeFrame(ANMFChunk anmfChunk) {
+        ALPHChunk alphChunk = null;
+        VP8Chunk vp8Chunk = null;
+        int[] size = new int[2];
+        for (Chunk chunk : anmfChunk.subchunks()) {
+            if (chunk instanceof VP8LChunk) return WebPFactory.decodeBGRA((BitstreamChunk) chunk, size);
+            else if (chunk instanceof ALPHChunk) alphChunk = (ALPHChunk) chunk;
+            else if (chunk instanceof VP8Chunk) vp8Chunk = (VP8Chunk) chunk;
+        }
+        if (vp8Chunk == null) throw new IllegalStateException("No VP8 data found");
+        return alphChunk != null ? WebPFactory.decodeBGRA(alphChunk, vp8Chunk, size)
+                : WebPFactory.decodeBGRA(vp8Chunk, size);
+    }
+
+    /**
+     * This draws one frame onto the canvas the way the WebP container 
+     * specification describes.
+     */
+    private void composite(ANMFChunk anmfChunk, int[] frame) {
+        int frameX = anmfChunk.getFrameX() * 2;
+        int frameY = anmfChunk.getFrameY() * 2;
+        int width = anmfChunk.getFrameWidth();
+        int height = anmfChunk.getFrameHeight();
+        boolean blend = anmfChunk.getBlendingFlag() == ANMFChunk.FLAG_ALPHA_BLENDING;
+        for (int y = 0; y < height; y ++) {
+            int src = y * width;
+            int dst = (frameY + y) * canvasSize + frameX;
+            if (blend) WebPPixels.blend(frame, src, canvas, dst, width);
+            else System.arraycopy(frame, src, canvas, dst, width);
+        }
+    }
+
+    /**
+     * This applies the disposal method of a frame, right before the next 
+     * frame is drawn.
+     */
+    private void dispose(ANMFChunk anmfChunk) {
+        if (anmfChunk.getDisposalMethodFlag() == ANMFChunk.FLAG_DISPOSE_TO_BACKGROUND) {
+            int frameX = anmfChunk.getFrameX() * 2;
+            int frameY = anmfChunk.getFrameY() * 2;
+            int width = anmfChunk.getFrameWidth();
+            int height = anmfChunk.getFrameHeight();
+            for (int y = 0; y < height; y ++) {
+                int dst = (frameY + y) * canvasSize + frameX;
+                Arrays.fill(canvas, dst, dst + width, 0);
+            }
+        }
+    }
+
+}
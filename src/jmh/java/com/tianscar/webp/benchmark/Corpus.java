@@ -0,0 +1,189 @@
+package com.tianscar.webp.benchmark;
+
+import com.tianscar.webp.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+/**
+ * This generates the inputs used by the benchmarks. Everything is derived from 
+ * a fixed seed, so every run (and every fork) works on exactly the same bytes.
+ */
+final class Corpus {
+
+    static final long SEED = 0x5745425050L;
+
+    private static boolean librarySearchPathAdded = false;
+
+    private Corpus() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * This adds the directory given by the "webp.library.path" system property, 
+     * if any, to the directories searched for libwebp.
+     */
+    static synchronized void addLibrarySearchPath() {
+        if (librarySearchPathAdded) return;
+        String path = System.getProperty("webp.library.path");
+        if (path != null) WebPFactory.addSearchDirectoy(path);
+        librarySearchPathAdded = true;
+    }
+
+    /**
+     * This generates an image with smooth gradients, a few hard edged shapes 
+     * and a little noise, which compresses roughly like a real photo or UI 
+     * capture would. The pixels are packed as 0xAARRGGBB, which is the layout 
+     * expected by the BGRA encode functions on little-endian machines.
+     */
+    static int[] pixels(int width, int height, boolean alpha, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        int shapes = 8;
+        int[] rects = new int[shapes * 5];
+        for (int i = 0; i < shapes; i ++) {
+            rects[i * 5] = random.nextInt(width);
+            rects[i * 5 + 1] = random.nextInt(height);
+            rects[i * 5 + 2] = 1 + random.nextInt(Math.max(1, width / 3));
+            rects[i * 5 + 3] = 1 + random.nextInt(Math.max(1, height / 3));
+            rects[i * 5 + 4] = random.nextInt();
+        }
+        for (int y = 0; y < height; y ++) {
+            for (int x = 0; x < width; x ++) {
+                int r = x * 255 / Math.max(1, width - 1);
+                int g = y * 255 / Math.max(1, height - 1);
+                int b = (x + y) * 255 / Math.max(1, width + height - 2);
+                int a = 0xFF;
+                for (int i = 0; i < shapes; i ++) {
+                    int rx = rects[i * 5], ry = rects[i * 5 + 1];
+                    if (x >= rx && y >= ry && x < rx + rects[i * 5 + 2] && y < ry + rects[i * 5 + 3]) {
+                        int color = rects[i * 5 + 4];
+                        r = (color >>> 16) & 0xFF;
+                        g = (color >>> 8) & 0xFF;
+                        b = color & 0xFF;
+                        if (alpha) a = (color >>> 24) & 0xFF;
+                    }
+                }
+                int noise = random.nextInt(9) - 4;
+                r = clamp(r + noise);
+                g = clamp(g + noise);
+                b = clamp(b + noise);
+                if (alpha && x < width / 4) a = x * 255 / Math.max(1, width / 4);
+                pixels[y * width + x] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    static byte[] toRGBA(int[] argb) {
+        byte[] rgba = new byte[argb.length * 4];
+        for (int i = 0; i < argb.length; i ++) {
+            rgba[i * 4] = (byte) (argb[i] >>> 16);
+            rgba[i * 4 + 1] = (byte) (argb[i] >>> 8);
+            rgba[i * 4 + 2] = (byte) argb[i];
+            rgba[i * 4 + 3] = (byte) (argb[i] >>> 24);
+        }
+        return rgba;
+    }
+
+    static byte[] toRGB(int[] argb) {
+        byte[] rgb = new byte[argb.length * 3];
+        for (int i = 0; i < argb.length; i ++) {
+            rgb[i * 3] = (byte) (argb[i] >>> 16);
+            rgb[i * 3 + 1] = (byte) (argb[i] >>> 8);
+            rgb[i * 3 + 2] = (byte) argb[i];
+        }
+        return rgb;
+    }
+
+    static byte[] toBGR(int[] argb) {
+        byte[] bgr = new byte[argb.length * 3];
+        for (int i = 0; i < argb.length; i ++) {
+            bgr[i * 3] = (byte) argb[i];
+            bgr[i * 3 + 1] = (byte) (argb[i] >>> 8);
+            bgr[i * 3 + 2] = (byte) (argb[i] >>> 16);
+        }
+        return bgr;
+    }
+
+    /**
+     * This builds a WebP file whose bitstream chunks hold random bytes instead 
+     * of real VP8L data. The muxer and demuxer never look inside bitstreams, so 
+     * this is enough to measure them without needing libwebp.
+     * @param frames The number of frames, or 0 for a single frame file.
+     */
+    static WebPChunk syntheticWebP(int frames, int payloadSize, long seed) {
+        Random random = new Random(seed);
+        if (frames == 0) return new WebPChunk(new VP8LChunk(randomBytes(random, payloadSize)));
+        Chunk[] chunks = new Chunk[frames + 2];
+        chunks[0] = new VP8XChunk(VP8XChunk.FLAG_ANIM | VP8XChunk.FLAG_ALPH, 512, 512);
+        chunks[1] = new ANIMChunk(0, 0);
+        for (int i = 0; i < frames; i ++) {
+            // Vary the payload size a little so that both even and padded odd 
+            // sized chunks are exercised.
+            int size = Math.max(1, payloadSize + random.nextInt(17) - 8);
+            chunks[i + 2] = new ANMFChunk(random.nextInt(64), random.nextInt(64), 64 + random.nextInt(128),
+                    64 + random.nextInt(128), 40, ANMFChunk.FLAG_NO_BLEND, new VP8LChunk(randomBytes(random, size)));
+        }
+        return new WebPChunk(chunks);
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * This builds a real, decodable animation using libwebp. Frames are smaller 
+     * than the canvas, move around it, and mix blending and disposal modes.
+     */
+    static WebPChunk animation(int canvasWidth, int canvasHeight, int frames, boolean alpha, long seed) {
+        Random random = new Random(seed);
+        Chunk[] chunks = new Chunk[frames + 2];
+        chunks[0] = new VP8XChunk(VP8XChunk.FLAG_ANIM | (alpha ? VP8XChunk.FLAG_ALPH : 0), canvasWidth, canvasHeight);
+        chunks[1] = new ANIMChunk(0, 0);
+        for (int i = 0; i < frames; i ++) {
+            int width, height, x, y;
+            if (i == 0) {
+                width = canvasWidth;
+                height = canvasHeight;
+                x = 0;
+                y = 0;
+            }
+            else {
+                width = canvasWidth / 2 + random.nextInt(canvasWidth / 2);
+                height = canvasHeight / 2 + random.nextInt(canvasHeight / 2);
+                // Frame offsets are stored in units of 2 pixels
+                x = random.nextInt((canvasWidth - width) / 2 + 1);
+                y = random.nextInt((canvasHeight - height) / 2 + 1);
+            }
+            int[] pixels = pixels(width, height, alpha, seed + i);
+            Chunk[] subchunks = (i % 2 == 0)
+                    ? new Chunk[] { WebPFactory.encodeLosslessBGRA(pixels, width, height, width) }
+                    : WebPFactory.encodeBGRA(pixels, width, height, width, 75);
+            int flags = (random.nextBoolean() ? ANMFChunk.FLAG_ALPHA_BLENDING : ANMFChunk.FLAG_NO_BLEND) |
+                    (random.nextBoolean() ? ANMFChunk.FLAG_DISPOSE_TO_BACKGROUND : ANMFChunk.FLAG_NO_DISPOSE);
+            chunks[i + 2] = new ANMFChunk(x, y, width, height, 40, flags, subchunks);
+        }
+        return new WebPChunk(chunks);
+    }
+
+    static byte[] toByteArray(Chunk chunk) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) chunk.getFullSize());
+        try {
+            chunk.write(out);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.tianscar.webp.benchmark;
+
+import com.tianscar.webp.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This measures the decode functions that take a lossy bitstream together 
+ * with its separately stored alpha.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DecodeAlphaBenchmark {
+
+    @Param({"64", "512", "2048"})
+    public int size;
+
+    private ALPHChunk alphChunk;
+    private VP8Chunk vp8Chunk;
+    private final int[] outSize = new int[2];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Corpus.addLibrarySearchPath();
+        Chunk[] chunks = WebPFactory.encodeBGRA(Corpus.pixels(size, size, true, Corpus.SEED), size, size, size, 75);
+        alphChunk = (ALPHChunk) chunks[0];
+        vp8Chunk = (VP8Chunk) chunks[1];
+    }
+
+    @Benchmark
+    public byte[] decodeARGB() {
+        return WebPFactory.decodeARGB(alphChunk, vp8Chunk, outSize);
+    }
+
+    @Benchmark
+    public int[] decodeBGRA() {
+        return WebPFactory.decodeBGRA(alphChunk, vp8Chunk, outSize);
+    }
+
+}
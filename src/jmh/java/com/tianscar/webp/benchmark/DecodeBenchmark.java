@@ -0,0 +1,75 @@
+package com.tianscar.webp.benchmark;
+
+import com.tianscar.webp.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+
+    @Param({"64", "512", "2048"})
+    public int size;
+
+    /**
+     * lossy: an opaque VP8 bitstream, lossless: an opaque VP8L bitstream, 
+     * lossless-alpha: a VP8L bitstream with transparency. Lossy images with 
+     * transparency are split into ALPH and VP8 chunks, and are covered by 
+     * {@link DecodeAlphaBenchmark}.
+     */
+    @Param({"lossy", "lossless", "lossless-alpha"})
+    public String codec;
+
+    private BitstreamChunk chunk;
+    private final int[] outSize = new int[2];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Corpus.addLibrarySearchPath();
+        switch (codec) {
+            case "lossy":
+                chunk = (VP8Chunk) WebPFactory.encodeBGRA(Corpus.pixels(size, size, false, Corpus.SEED),
+                        size, size, size, 75)[0];
+                break;
+            case "lossless":
+                chunk = WebPFactory.encodeLosslessBGRA(Corpus.pixels(size, size, false, Corpus.SEED), size, size, size);
+                break;
+            case "lossless-alpha":
+                chunk = WebPFactory.encodeLosslessBGRA(Corpus.pixels(size, size, true, Corpus.SEED), size, size, size);
+                break;
+            default:
+                throw new IllegalArgumentException(codec);
+        }
+    }
+
+    @Benchmark
+    public byte[] decodeRGBA() {
+        return WebPFactory.decodeRGBA(chunk, outSize);
+    }
+
+    @Benchmark
+    public byte[] decodeARGB() {
+        return WebPFactory.decodeARGB(chunk, outSize);
+    }
+
+    @Benchmark
+    public int[] decodeBGRA() {
+        return WebPFactory.decodeBGRA(chunk, outSize);
+    }
+
+    @Benchmark
+    public byte[] decodeRGB() {
+        return WebPFactory.decodeRGB(chunk, outSize);
+    }
+
+    @Benchmark
+    public byte[] decodeBGR() {
+        return WebPFactory.decodeBGR(chunk, outSize);
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.tianscar.webp.benchmark;
+
+import com.tianscar.webp.WebPChunk;
+import com.tianscar.webp.WebPDemuxLimits;
+import com.tianscar.webp.WebPFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DemuxBenchmark {
+
+    /**
+     * small: a single 1 KiB bitstream, large: a single 8 MiB bitstream, 
+     * frames: an animation with 2000 frames of about 256 bytes each.
+     */
+    @Param({"small", "large", "frames"})
+    public String file;
+
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (file) {
+            case "small":
+                bytes = Corpus.toByteArray(Corpus.syntheticWebP(0, 1024, Corpus.SEED));
+                break;
+            case "large":
+                bytes = Corpus.toByteArray(Corpus.syntheticWebP(0, 8 * 1024 * 1024, Corpus.SEED));
+                break;
+            case "frames":
+                bytes = Corpus.toByteArray(Corpus.syntheticWebP(2000, 256, Corpus.SEED));
+                break;
+            default:
+                throw new IllegalArgumentException(file);
+        }
+    }
+
+    @Benchmark
+    public WebPChunk demux() throws IOException {
+        return WebPFactory.demux(new ByteArrayInputStream(bytes));
+    }
+
+    @Benchmark
+    public WebPChunk demuxArray() throws IOException {
+        return WebPFactory.demux(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public WebPChunk demuxShared() throws IOException {
+        return WebPFactory.demux(bytes, 0, bytes.length, new WebPDemuxLimits(), true);
+    }
+
+}
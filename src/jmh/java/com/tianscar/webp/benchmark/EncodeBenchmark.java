@@ -0,0 +1,93 @@
+package com.tianscar.webp.benchmark;
+
+import com.tianscar.webp.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class EncodeBenchmark {
+
+    @Param({"64", "512", "2048"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean alpha;
+
+    @Param({"75"})
+    public float quality;
+
+    private int[] bgra;
+    private byte[] rgba;
+    private byte[] rgb;
+    private byte[] bgr;
+    private ByteBuffer directRGBA;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Corpus.addLibrarySearchPath();
+        bgra = Corpus.pixels(size, size, alpha, Corpus.SEED);
+        rgba = Corpus.toRGBA(bgra);
+        rgb = Corpus.toRGB(bgra);
+        bgr = Corpus.toBGR(bgra);
+        directRGBA = ByteBuffer.allocateDirect(rgba.length);
+        directRGBA.put(rgba).flip();
+    }
+
+    @Benchmark
+    public Chunk[] encodeBGRA() {
+        return WebPFactory.encodeBGRA(bgra, size, size, size, quality);
+    }
+
+    @Benchmark
+    public Chunk[] encodeRGBA() {
+        return WebPFactory.encodeRGBA(rgba, size, size, size, quality);
+    }
+
+    @Benchmark
+    public Chunk[] encodeDirectRGBA() {
+        return WebPFactory.encodeRGBA(directRGBA, size, size, size, quality);
+    }
+
+    @Benchmark
+    public VP8Chunk encodeRGB() {
+        return WebPFactory.encodeRGB(rgb, size, size, size, quality);
+    }
+
+    @Benchmark
+    public VP8Chunk encodeBGR() {
+        return WebPFactory.encodeBGR(bgr, size, size, size, quality);
+    }
+
+    @Benchmark
+    public VP8LChunk encodeLosslessBGRA() {
+        return WebPFactory.encodeLosslessBGRA(bgra, size, size, size);
+    }
+
+    @Benchmark
+    public VP8LChunk encodeLosslessRGBA() {
+        return WebPFactory.encodeLosslessRGBA(rgba, size, size, size);
+    }
+
+    @Benchmark
+    public VP8LChunk encodeLosslessDirectRGBA() {
+        return WebPFactory.encodeLosslessRGBA(directRGBA, size, size, size);
+    }
+
+    @Benchmark
+    public VP8LChunk encodeLosslessRGB() {
+        return WebPFactory.encodeLosslessRGB(rgb, size, size, size);
+    }
+
+    @Benchmark
+    public VP8LChunk encodeLosslessBGR() {
+        return WebPFactory.encodeLosslessBGR(bgr, size, size, size);
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.tianscar.webp.benchmark;
+
+import com.tianscar.webp.WebPChunk;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class MuxBenchmark {
+
+    /**
+     * See {@link DemuxBenchmark#file}.
+     */
+    @Param({"small", "large", "frames"})
+    public String file;
+
+    private WebPChunk webPChunk;
+    private ByteArrayOutputStream out;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (file) {
+            case "small":
+                webPChunk = Corpus.syntheticWebP(0, 1024, Corpus.SEED);
+                break;
+            case "large":
+                webPChunk = Corpus.syntheticWebP(0, 8 * 1024 * 1024, Corpus.SEED);
+                break;
+            case "frames":
+                webPChunk = Corpus.syntheticWebP(2000, 256, Corpus.SEED);
+                break;
+            default:
+                throw new IllegalArgumentException(file);
+        }
+        // Reuse one sink sized to fit, so that the benchmark measures muxing 
+        // and not the growth of the output buffer.
+        out = new ByteArrayOutputStream((int) webPChunk.getFullSize());
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        out.reset();
+        webPChunk.write(out);
+        return out.size();
+    }
+
+}
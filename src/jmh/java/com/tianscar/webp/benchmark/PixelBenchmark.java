@@ -0,0 +1,86 @@
+package com.tianscar.webp.benchmark;
+
+import com.tianscar.webp.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This measures the pixel conversions of {@link WebPPixels} on the Vector API, 
+ * which {@link ScalarPixelBenchmark} repeats with the scalar loops. The pixels 
+ * come from the corpus with transparency, so blending and unpremultiplying 
+ * see every kind of alpha.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class PixelBenchmark {
+
+    @Param({"256", "1024"})
+    public int size;
+
+    private int[] argb;
+    private int[] canvas;
+    private int[] intOut;
+    private byte[] rgba;
+    private byte[] rgb;
+    private byte[] byteOut;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int pixels = size * size;
+        argb = Corpus.pixels(size, size, true, Corpus.SEED);
+        canvas = Corpus.pixels(size, size, true, Corpus.SEED + 1);
+        intOut = new int[pixels];
+        rgba = Corpus.toRGBA(argb);
+        rgb = Corpus.toRGB(argb);
+        byteOut = new byte[pixels * 4];
+    }
+
+    @Benchmark
+    public byte[] swizzle() {
+        WebPPixels.swizzle(WebPColorMode.RGBA, rgba, 0, WebPColorMode.BGRA, byteOut, 0, argb.length);
+        return byteOut;
+    }
+
+    @Benchmark
+    public int[] swapRedBlue() {
+        WebPPixels.swapRedBlue(argb, 0, intOut, 0, argb.length);
+        return intOut;
+    }
+
+    @Benchmark
+    public int[] premultiply() {
+        WebPPixels.premultiply(argb, 0, intOut, 0, argb.length);
+        return intOut;
+    }
+
+    @Benchmark
+    public int[] unpremultiply() {
+        WebPPixels.unpremultiply(argb, 0, intOut, 0, argb.length);
+        return intOut;
+    }
+
+    @Benchmark
+    public byte[] expand() {
+        WebPPixels.expand(rgb, 0, byteOut, 0, argb.length);
+        return byteOut;
+    }
+
+    @Benchmark
+    public byte[] strip() {
+        WebPPixels.strip(rgba, 0, byteOut, 0, argb.length);
+        return byteOut;
+    }
+
+    @Benchmark
+    public int[] blend() {
+        System.arraycopy(canvas, 0, intOut, 0, canvas.length);
+        WebPPixels.blend(argb, 0, intOut, 0, argb.length);
+        return intOut;
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.tianscar.webp.benchmark;
+
+import com.tianscar.webp.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This compares encoding three sizes of an image with {@link
+ * WebPFactory#encodeRenditions(BitstreamChunk, WebPRendition...)} to decoding
+ * the image, resizing it in Java and encoding each size on its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class RenditionBenchmark {
+
+    @Param({"2048"})
+    public int size;
+
+    private VP8LChunk source;
+    private WebPRendition[] renditions;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Corpus.addLibrarySearchPath();
+        source = WebPFactory.encodeLosslessBGRA(Corpus.pixels(size, size, false, Corpus.SEED), size, size, size);
+        renditions = new WebPRendition[] {
+                new WebPRendition(size / 2, 0), new WebPRendition(size / 4, 0), new WebPRendition(size / 8, 0)
+        };
+    }
+
+    @Benchmark
+    public WebPChunk[] renditions() {
+        return WebPFactory.encodeRenditions(source, renditions);
+    }
+
+    @Benchmark
+    public long resizeInJava() {
+        BufferedImage image = WebPFactory.decodeImage(source, BufferedImage.TYPE_INT_ARGB);
+        long total = 0;
+        for (WebPRendition rendition : renditions) {
+            BufferedImage scaled = new BufferedImage(rendition.getWidth(), rendition.getWidth(), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = scaled.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, rendition.getWidth(), rendition.getWidth(), null);
+            g.dispose();
+            for (Chunk chunk : WebPFactory.encodeImage(scaled, 75)) total += chunk.getFullSize();
+        }
+        return total;
+    }
+
+}
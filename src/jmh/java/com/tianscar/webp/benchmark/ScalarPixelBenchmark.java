@@ -0,0 +1,11 @@
+package com.tianscar.webp.benchmark;
+
+import org.openjdk.jmh.annotations.Fork;
+
+/**
+ * This runs {@link PixelBenchmark} with the scalar loops, which are chosen 
+ * once per JVM.
+ */
+@Fork(value = 2, jvmArgsAppend = "-Dwebp.vector=false")
+public class ScalarPixelBenchmark extends PixelBenchmark {
+}
@@ -0,0 +1,73 @@
+package com.tianscar.webp.benchmark;
+
+import com.tianscar.webp.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This compares making a quarter size copy of an animation with {@link
+ * WebPThumbnailer} to compositing each frame at full size, resizing it in
+ * Java and encoding it whole.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ThumbnailBenchmark {
+
+    @Param({"1024"})
+    public int canvasSize;
+
+    @Param({"24"})
+    public int frames;
+
+    private WebPChunk animation;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Corpus.addLibrarySearchPath();
+        animation = Corpus.animation(canvasSize, canvasSize, frames, true, Corpus.SEED);
+        target = Files.createTempFile("thumbnail", ".webp");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public Path thumbnailer() throws IOException {
+        new WebPThumbnailer(canvasSize / 4, canvasSize / 4).write(animation, target);
+        return target;
+    }
+
+    @Benchmark
+    public long resizeInJava() {
+        WebPCompositor compositor = new WebPCompositor(animation);
+        BufferedImage canvas = new BufferedImage(canvasSize, canvasSize, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage thumbnail = new BufferedImage(canvasSize / 4, canvasSize / 4, BufferedImage.TYPE_INT_ARGB);
+        long size = 0;
+        for (int i = 0; i < frames; i ++) {
+            canvas.setRGB(0, 0, canvasSize, canvasSize, compositor.composite(i), 0, canvasSize);
+            Graphics2D g = thumbnail.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(canvas, 0, 0, canvasSize / 4, canvasSize / 4, null);
+            g.dispose();
+            for (Chunk chunk : WebPFactory.encodeImage(thumbnail, 75)) size += chunk.getFullSize();
+        }
+        return size;
+    }
+
+}
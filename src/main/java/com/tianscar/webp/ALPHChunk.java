@@ -1,5 +1,7 @@
 package com.tianscar.webp;
 
+import java.nio.ByteBuffer;
+
 public class ALPHChunk extends RawDataChunk {
 
     static final byte[] ALPH = new byte[] { 'A', 'L', 'P', 'H' };
@@ -18,6 +20,11 @@ public class ALPHChunk extends RawDataChunk {
     public static final int FLAG_LOSSLESS_COMPRESSION = 1 << 0;
 
     private final int rsvPFC;
+    public ALPHChunk(ByteBuffer data) {
+        super(ALPH, data);
+        rsvPFC = data.get(data.position());
+    }
+
     public ALPHChunk(byte[] data) {
         super(ALPH, data);
         rsvPFC = data[0];
@@ -26,6 +26,14 @@ public class ANIMChunk extends Chunk {
         return loopCount;
     }
 
+    public ANIMChunk withBackgroundColor(int backgroundColor) {
+        return new ANIMChunk(backgroundColor, loopCount);
+    }
+
+    public ANIMChunk withLoopCount(int loopCount) {
+        return new ANIMChunk(backgroundColor, loopCount);
+    }
+
     @Override
     public void writePayload(OutputStream out) throws IOException {
         writeInt32(out, backgroundColor);
@@ -10,6 +10,8 @@ public class ANMFChunk extends LISTChunk {
     static final byte[] ANMF = new byte[] { 'A', 'N', 'M', 'F' };
 
     private final int x, y, width, height, duration, reservedBD;
+    private final long encodeNanos;
+    private final WebPEncodeStats encodeStats;
 
     public static final int BLENDING_MASK = 1 << 1;
     public static final int DISPOSAL_METHOD_MASK = 1 << 0;
@@ -20,6 +22,15 @@ public class ANMFChunk extends LISTChunk {
     public static final int FLAG_DISPOSE_TO_BACKGROUND = 1 << 0;
 
     public ANMFChunk(int x, int y, int width, int height, int duration, int flags, Chunk... subchunks) {
+        this(x, y, width, height, duration, flags, -1, null, subchunks);
+    }
+
+    /**
+     * This creates a frame that was just encoded, which keeps how long the 
+     * encode took and, if they were gathered, its statistics.
+     */
+    ANMFChunk(int x, int y, int width, int height, int duration, int flags, long encodeNanos, 
+            WebPEncodeStats encodeStats, Chunk... subchunks) {
         super(ANMF, 3 + 3 + 3 + 3 + 3 + 1, subchunks);
         this.x = checkUInt24(x);
         this.y = checkUInt24(y);
@@ -27,6 +38,8 @@ public class ANMFChunk extends LISTChunk {
         this.height = checkUInt24(height);
         this.duration = checkUInt24(duration);
         this.reservedBD = flags;
+        this.encodeNanos = encodeNanos;
+        this.encodeStats = encodeStats;
     }
 
     public int getFrameX() {
@@ -61,6 +74,71 @@ public class ANMFChunk extends LISTChunk {
         return reservedBD & DISPOSAL_METHOD_MASK;
     }
 
+    /**
+     * This returns how long encoding the bitstream of this frame took, for 
+     * frames encoded by this library.
+     * @return The time in nanoseconds, or -1 if this frame was not encoded 
+     * here, e.g. because it was demuxed from a file.
+     */
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    /**
+     * This returns the size of the bitstream of this frame, that is its ALPH, 
+     * VP8 and VP8L chunks with their headers.
+     * @return The size in bytes.
+     */
+    public long getBitstreamSize() {
+        long size = 0;
+        for (Chunk chunk : subchunks()) {
+            if (chunk instanceof BitstreamChunk || chunk instanceof ALPHChunk) size += chunk.getFullSize();
+        }
+        return size;
+    }
+
+    /**
+     * This returns the statistics libwebp gathered while encoding this frame.
+     * @return The statistics, or null if none were gathered.
+     */
+    public WebPEncodeStats getEncodeStats() {
+        return encodeStats;
+    }
+
+    /**
+     * This returns a copy of this frame with a different duration. The 
+     * subchunks are shared with this frame rather than copied.
+     * @param duration The new duration in milliseconds.
+     * @return The new frame.
+     */
+    public ANMFChunk withFrameDuration(int duration) {
+        return new ANMFChunk(x, y, width, height, duration, reservedBD, encodeNanos, encodeStats,
+                subchunks().toArray(new Chunk[0]));
+    }
+
+    /**
+     * This returns a copy of this frame at a different offset. The subchunks 
+     * are shared with this frame rather than copied.
+     * @param x The new X offset, as returned by {@link #getFrameX()}.
+     * @param y The new Y offset, as returned by {@link #getFrameY()}.
+     * @return The new frame.
+     */
+    public ANMFChunk withFrameOffset(int x, int y) {
+        return new ANMFChunk(x, y, width, height, duration, reservedBD, encodeNanos, encodeStats,
+                subchunks().toArray(new Chunk[0]));
+    }
+
+    /**
+     * This returns a copy of this frame with different blending and disposal 
+     * flags. The subchunks are shared with this frame rather than copied.
+     * @param flags The new flags.
+     * @return The new frame.
+     */
+    public ANMFChunk withFlags(int flags) {
+        return new ANMFChunk(x, y, width, height, duration, flags, encodeNanos, encodeStats,
+                subchunks().toArray(new Chunk[0]));
+    }
+
     @Override
     public void writePayload(OutputStream out) throws IOException {
         writeUInt24(out, x);
@@ -1,7 +1,13 @@
 package com.tianscar.webp;
 
+import java.nio.ByteBuffer;
+
 public class BitstreamChunk extends RawDataChunk {
 
+    public BitstreamChunk(byte[] fourCC, ByteBuffer data) {
+        super(fourCC, data);
+    }
+
     public BitstreamChunk(byte[] fourCC, byte[] data) {
         super(fourCC, data);
     }
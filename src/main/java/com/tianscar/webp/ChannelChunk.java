@@ -0,0 +1,172 @@
+package com.tianscar.webp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.tianscar.webp.ANMFChunk.ANMF;
+import static com.tianscar.webp.RIFFChunk.RIFF;
+import static com.tianscar.webp.Util.*;
+import static com.tianscar.webp.WebPChunk.WEBP;
+
+/**
+ * This is a chunk that is left in its file and known only by the position of
+ * its header. Its payload is read or transferred on demand, so that a file
+ * can be rewritten without copying its bitstreams to the heap.
+ */
+final class ChannelChunk {
+
+    final byte[] fourCC;
+    final long position;
+    final long size;
+
+    ChannelChunk(byte[] fourCC, long position, long size) {
+        this.fourCC = fourCC;
+        this.position = position;
+        this.size = size;
+    }
+
+    boolean is(byte[] fourCC) {
+        return arrayEquals(this.fourCC, fourCC);
+    }
+
+    long getFullSize() {
+        return size + (isOdd(size) ? 1 : 0) + 8;
+    }
+
+    /**
+     * This reads the start of the payload of this chunk.
+     * @param channel The file this chunk is in.
+     * @param length The maximum number of bytes to read.
+     * @return The bytes read, which are fewer than requested if the payload is
+     * shorter.
+     */
+    byte[] readPayload(FileChannel channel, int length) throws IOException {
+        byte[] payload = new byte[(int) Math.min(length, size)];
+        readFully(channel, ByteBuffer.wrap(payload), position + 8);
+        return payload;
+    }
+
+    /**
+     * This copies this chunk, with its header and padding, without reading it
+     * into the heap.
+     */
+    void transferTo(FileChannel channel, WritableByteChannel out) throws IOException {
+        transferFully(channel, position, getFullSize(), out);
+    }
+
+    /**
+     * This reads the chunk headers of a WebP file, without reading any
+     * payload.
+     * @param channel The file to read.
+     * @return The top-level chunks of the file, in order.
+     * @throws IOException If the file is not a WebP file or is truncated.
+     */
+    static List<ChannelChunk> scan(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12);
+        readFully(channel, header, 0);
+        byte[] buf = header.array();
+        if (!arrayEquals(copyFourCC(buf, 0), RIFF)) {
+            throw new IOException("Illegal magic number: " + new String(buf, 0, 4));
+        }
+        if (!arrayEquals(copyFourCC(buf, 8), WEBP)) {
+            throw new IOException("Illegal magic number: " + new String(buf, 0, 4) + new String(buf, 8, 4));
+        }
+        long end = 8 + toUInt32(new byte[] { buf[4], buf[5], buf[6], buf[7] });
+        if (end > channel.size()) throw new EOFException("RIFF size exceeds the file");
+        List<ChannelChunk> chunks = new ArrayList<>();
+        long position = 12;
+        while (position + 8 <= end) {
+            ((Buffer) header).clear();
+            ((Buffer) header).limit(8);
+            readFully(channel, header, position);
+            ChannelChunk chunk = new ChannelChunk(copyFourCC(buf, 0), position,
+                    toUInt32(new byte[] { buf[4], buf[5], buf[6], buf[7] }));
+            if (position + 8 + chunk.size > end) {
+                throw new IOException("Chunk " + new String(chunk.fourCC) + " exceeds the RIFF size");
+            }
+            chunks.add(chunk);
+            position += chunk.getFullSize();
+        }
+        if (chunks.isEmpty()) throw new IOException("No VP8 data found");
+        return chunks;
+    }
+
+    private static byte[] copyFourCC(byte[] buf, int offset) {
+        return new byte[] { buf[offset], buf[offset + 1], buf[offset + 2], buf[offset + 3] };
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new EOFException();
+            position += n;
+        }
+    }
+
+    static void transferFully(FileChannel channel, long position, long count, WritableByteChannel out) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long n = channel.transferTo(position, end - position, out);
+            if (n <= 0 && position >= channel.size()) throw new EOFException();
+            position += n;
+        }
+    }
+
+    static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * This writes a chunk that lives on the heap, such as a replacement for
+     * one that was in the file.
+     */
+    static void write(Chunk chunk, WritableByteChannel out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(chunk.getFullSize(), Integer.MAX_VALUE));
+        chunk.write(bytes);
+        writeFully(out, ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    /**
+     * This writes the header of an ANMF chunk, which is to be followed by 
+     * {@code payloadSize - 16} bytes of frame data.
+     */
+    static void writeFrameHeader(long payloadSize, int x, int y, int width, int height, int duration, int flags, 
+            WritableByteChannel out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(24);
+        writeFourCC(bytes, ANMF);
+        writeUInt32(bytes, checkUInt32(payloadSize));
+        writeUInt24(bytes, checkUInt24(x));
+        writeUInt24(bytes, checkUInt24(y));
+        write1Based(bytes, width);
+        write1Based(bytes, height);
+        writeUInt24(bytes, checkUInt24(duration));
+        writeInt8(bytes, flags);
+        writeFully(out, ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    static int uint24(byte[] buf, int offset) {
+        return (buf[offset] & 0xff) | (buf[offset + 1] & 0xff) << 8 | (buf[offset + 2] & 0xff) << 16;
+    }
+
+    /**
+     * This writes the header of a RIFF WebP file.
+     * @param riffSize The size of everything after the RIFF size field.
+     */
+    static void writeRIFFHeader(long riffSize, WritableByteChannel out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(12);
+        writeFourCC(bytes, RIFF);
+        writeUInt32(bytes, checkUInt32(riffSize));
+        writeFourCC(bytes, WEBP);
+        writeFully(out, ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.tianscar.webp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * This is where {@link WebPFactory#demux(InputStream, WebPDemuxLimits)} reads
+ * from, so that the same parser can read a stream or parse a buffer in place.
+ */
+abstract class DemuxInput {
+
+    abstract byte[] readFourCC() throws IOException;
+
+    abstract long readUInt32() throws IOException;
+
+    abstract int readInt32() throws IOException;
+
+    abstract int readUInt24() throws IOException;
+
+    abstract int readUInt16() throws IOException;
+
+    abstract int readInt8() throws IOException;
+
+    int read1Based() throws IOException {
+        return readUInt24() + 1;
+    }
+
+    abstract void skip(long n) throws IOException;
+
+    /**
+     * This reads the payload of a chunk, whose size has already been checked
+     * against the limits.
+     */
+    abstract ByteBuffer readPayload(int size) throws IOException;
+
+    /**
+     * This is called once the whole RIFF has been read.
+     */
+    abstract void finish() throws IOException;
+
+    static DemuxInput of(InputStream in, boolean closeStream) {
+        return new StreamInput(in, closeStream);
+    }
+
+    static DemuxInput of(ByteBuffer buffer, boolean shareData) {
+        return new BufferInput(buffer, shareData);
+    }
+
+    private static final class StreamInput extends DemuxInput {
+
+        private final InputStream in;
+        private final boolean closeStream;
+
+        StreamInput(InputStream in, boolean closeStream) {
+            this.in = in;
+            this.closeStream = closeStream;
+        }
+
+        @Override
+        byte[] readFourCC() throws IOException {
+            return Util.readFourCC(in);
+        }
+
+        @Override
+        long readUInt32() throws IOException {
+            return Util.readUInt32(in);
+        }
+
+        @Override
+        int readInt32() throws IOException {
+            return Util.readInt32(in);
+        }
+
+        @Override
+        int readUInt24() throws IOException {
+            return Util.readUInt24(in);
+        }
+
+        @Override
+        int readUInt16() throws IOException {
+            return Util.readUInt16(in);
+        }
+
+        @Override
+        int readInt8() throws IOException {
+            return Util.readInt8(in);
+        }
+
+        @Override
+        void skip(long n) throws IOException {
+            if (n < 0) throw new IllegalArgumentException("n < 0");
+            Util.skipNBytes(in, n);
+        }
+
+        @Override
+        ByteBuffer readPayload(int size) throws IOException {
+            return ByteBuffer.wrap(Util.readNBytes(in, size));
+        }
+
+        @Override
+        void finish() throws IOException {
+            if (closeStream) in.close();
+        }
+
+    }
+
+    /**
+     * This reads a buffer with absolute gets, leaving the buffer itself
+     * untouched until {@link #finish()} moves its position past the RIFF.
+     */
+    private static final class BufferInput extends DemuxInput {
+
+        private final ByteBuffer source;
+        private final ByteBuffer buffer;
+        private final boolean shareData;
+        private int position;
+
+        BufferInput(ByteBuffer buffer, boolean shareData) {
+            this.source = buffer;
+            this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.shareData = shareData;
+            this.position = buffer.position();
+        }
+
+        private int advance(int n) throws IOException {
+            if (buffer.limit() - position < n) throw new EOFException();
+            int start = position;
+            position += n;
+            return start;
+        }
+
+        @Override
+        byte[] readFourCC() throws IOException {
+            int start = advance(4);
+            return new byte[] { buffer.get(start), buffer.get(start + 1), buffer.get(start + 2), buffer.get(start + 3) };
+        }
+
+        @Override
+        long readUInt32() throws IOException {
+            return buffer.getInt(advance(4)) & 0xFFFFFFFFL;
+        }
+
+        @Override
+        int readInt32() throws IOException {
+            return buffer.getInt(advance(4));
+        }
+
+        @Override
+        int readUInt24() throws IOException {
+            int start = advance(3);
+            return (buffer.get(start) & 0xFF) | (buffer.get(start + 1) & 0xFF) << 8 | (buffer.get(start + 2) & 0xFF) << 16;
+        }
+
+        @Override
+        int readUInt16() throws IOException {
+            return buffer.getShort(advance(2)) & 0xFFFF;
+        }
+
+        @Override
+        int readInt8() throws IOException {
+            return buffer.get(advance(1)) & 0xFF;
+        }
+
+        @Override
+        void skip(long n) throws IOException {
+            if (n < 0) throw new IllegalArgumentException("n < 0");
+            if (n > buffer.limit() - position) throw new EOFException();
+            position += (int) n;
+        }
+
+        @Override
+        ByteBuffer readPayload(int size) throws IOException {
+            int start = advance(size);
+            if (shareData) {
+                ByteBuffer view = buffer.duplicate();
+                ((Buffer) view).limit(start + size);
+                ((Buffer) view).position(start);
+                return view.slice();
+            }
+            byte[] payload = new byte[size];
+            ByteBuffer view = buffer.duplicate();
+            ((Buffer) view).position(start);
+            view.get(payload);
+            return ByteBuffer.wrap(payload);
+        }
+
+        @Override
+        void finish() {
+            ((Buffer) source).position(position);
+        }
+
+    }
+
+}
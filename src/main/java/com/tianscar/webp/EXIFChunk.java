@@ -1,9 +1,15 @@
 package com.tianscar.webp;
 
+import java.nio.ByteBuffer;
+
 public class EXIFChunk extends RawDataChunk {
 
     static final byte[] EXIF = new byte[] { 'E', 'X', 'I', 'F' };
 
+    public EXIFChunk(ByteBuffer data) {
+        super(EXIF, data);
+    }
+
     public EXIFChunk(byte[] data) {
         super(EXIF, data);
     }
@@ -1,9 +1,15 @@
 package com.tianscar.webp;
 
+import java.nio.ByteBuffer;
+
 public class ICCPChunk extends RawDataChunk {
 
     static final byte[] ICCP = new byte[] { 'I', 'C', 'C', 'P' };
 
+    public ICCPChunk(ByteBuffer data) {
+        super(ICCP, data);
+    }
+
     public ICCPChunk(byte[] data) {
         super(ICCP, data);
     }
@@ -1,12 +1,20 @@
 package com.tianscar.webp;
 
 import jnr.ffi.LibraryLoader;
+import jnr.ffi.Memory;
 import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
+import jnr.ffi.Struct;
+import jnr.ffi.Union;
+import jnr.ffi.annotations.Delegate;
 import jnr.ffi.annotations.In;
 import jnr.ffi.annotations.Out;
+import jnr.ffi.annotations.Pinned;
 import jnr.ffi.byref.IntByReference;
 import jnr.ffi.byref.PointerByReference;
 
+import java.nio.ByteBuffer;
+
 final class JNRFFI {
 
     private JNRFFI() {
@@ -26,6 +34,294 @@ final class JNRFFI {
             // Load the libwebp library
         return libwebpLoader.load(WebPFactory.getWebPLibraryName());
     }
+    /**
+     * This gives the given struct its own zeroed native memory, so that it can 
+     * be passed to libwebp and read back without any copying.
+     * @param struct The struct to allocate.
+     * @return The given struct.
+     */
+    static <T extends Struct> T allocate(T struct) {
+        struct.useMemory(Memory.allocateDirect(struct.getRuntime(), Struct.size(struct), true));
+        return struct;
+    }
+    /**
+     * This returns the runtime used to create the structs passed to libwebp.
+     * @return The runtime of the libwebp library.
+     */
+    static Runtime runtime() {
+        return Runtime.getRuntime(WebP.INSTANCE);
+    }
+
+    /**
+     * This is the WEBP_DECODER_ABI_VERSION the structs below were written 
+     * against. libwebp accepts any version with the same major byte.
+     */
+    static final int WEBP_DECODER_ABI_VERSION = 0x0209;
+
+    // WEBP_CSP_MODE
+    static final int MODE_RGB = 0;
+    static final int MODE_RGBA = 1;
+    static final int MODE_BGR = 2;
+    static final int MODE_BGRA = 3;
+    static final int MODE_ARGB = 4;
+    static final int MODE_RGBA_4444 = 5;
+    static final int MODE_RGB_565 = 6;
+    static final int MODE_rgbA = 7;
+    static final int MODE_bgrA = 8;
+    static final int MODE_Argb = 9;
+    static final int MODE_rgbA_4444 = 10;
+    static final int MODE_YUV = 11;
+    static final int MODE_YUVA = 12;
+
+    // VP8StatusCode
+    static final int VP8_STATUS_OK = 0;
+    private static final String[] VP8_STATUS_NAMES = {
+            "OK", "out of memory", "invalid param", "bitstream error", "unsupported feature",
+            "suspended", "user abort", "not enough data"
+    };
+
+    static String statusName(int status) {
+        return status >= 0 && status < VP8_STATUS_NAMES.length ? VP8_STATUS_NAMES[status] : "status " + status;
+    }
+
+    static final class WebPBitstreamFeatures extends Struct {
+        final Signed32 width = new Signed32();
+        final Signed32 height = new Signed32();
+        final Signed32 has_alpha = new Signed32();
+        final Signed32 has_animation = new Signed32();
+        final Signed32 format = new Signed32();
+        final Unsigned32[] pad = array(new Unsigned32[5]);
+
+        WebPBitstreamFeatures(Runtime runtime) {
+            super(runtime);
+        }
+    }
+
+    static final class WebPRGBABuffer extends Struct {
+        final Pointer rgba = new Pointer();
+        final Signed32 stride = new Signed32();
+        final size_t size = new size_t();
+
+        WebPRGBABuffer(Runtime runtime) {
+            super(runtime);
+        }
+    }
+
+    static final class WebPYUVABuffer extends Struct {
+        final Pointer y = new Pointer();
+        final Pointer u = new Pointer();
+        final Pointer v = new Pointer();
+        final Pointer a = new Pointer();
+        final Signed32 y_stride = new Signed32();
+        final Signed32 u_stride = new Signed32();
+        final Signed32 v_stride = new Signed32();
+        final Signed32 a_stride = new Signed32();
+        final size_t y_size = new size_t();
+        final size_t u_size = new size_t();
+        final size_t v_size = new size_t();
+        final size_t a_size = new size_t();
+
+        WebPYUVABuffer(Runtime runtime) {
+            super(runtime);
+        }
+    }
+
+    static final class WebPDecBufferUnion extends Union {
+        final WebPRGBABuffer RGBA = inner(new WebPRGBABuffer(getRuntime()));
+        final WebPYUVABuffer YUVA = inner(new WebPYUVABuffer(getRuntime()));
+
+        WebPDecBufferUnion(Runtime runtime) {
+            super(runtime);
+        }
+    }
+
+    static final class WebPDecBuffer extends Struct {
+        final Signed32 colorspace = new Signed32();
+        final Signed32 width = new Signed32();
+        final Signed32 height = new Signed32();
+        final Signed32 is_external_memory = new Signed32();
+        final WebPDecBufferUnion u = inner(new WebPDecBufferUnion(getRuntime()));
+        final Unsigned32[] pad = array(new Unsigned32[4]);
+        final Pointer private_memory = new Pointer();
+
+        WebPDecBuffer(Runtime runtime) {
+            super(runtime);
+        }
+    }
+
+    static final class WebPDecoderOptions extends Struct {
+        final Signed32 bypass_filtering = new Signed32();
+        final Signed32 no_fancy_upsampling = new Signed32();
+        final Signed32 use_cropping = new Signed32();
+        final Signed32 crop_left = new Signed32();
+        final Signed32 crop_top = new Signed32();
+        final Signed32 crop_width = new Signed32();
+        final Signed32 crop_height = new Signed32();
+        final Signed32 use_scaling = new Signed32();
+        final Signed32 scaled_width = new Signed32();
+        final Signed32 scaled_height = new Signed32();
+        final Signed32 use_threads = new Signed32();
+        final Signed32 dithering_strength = new Signed32();
+        final Signed32 flip = new Signed32();
+        final Signed32 alpha_dithering_strength = new Signed32();
+        final Unsigned32[] pad = array(new Unsigned32[5]);
+
+        WebPDecoderOptions(Runtime runtime) {
+            super(runtime);
+        }
+    }
+
+    static final class WebPDecoderConfig extends Struct {
+        final WebPBitstreamFeatures input = inner(new WebPBitstreamFeatures(getRuntime()));
+        final WebPDecBuffer output = inner(new WebPDecBuffer(getRuntime()));
+        final WebPDecoderOptions options = inner(new WebPDecoderOptions(getRuntime()));
+
+        WebPDecoderConfig(Runtime runtime) {
+            super(runtime);
+        }
+    }
+
+    /**
+     * This is the WEBP_ENCODER_ABI_VERSION the structs below were written 
+     * against. libwebp accepts any version with the same major byte.
+     */
+    static final int WEBP_ENCODER_ABI_VERSION = 0x020e;
+
+    // WebPPreset
+    static final int WEBP_PRESET_DEFAULT = 0;
+
+    // WebPEncCSP
+    static final int WEBP_YUV420 = 0;
+    static final int WEBP_YUV420A = 4;
+
+    private static final String[] ENCODING_ERROR_NAMES = {
+            "OK", "out of memory", "bitstream out of memory", "NULL parameter", "invalid configuration",
+            "bad dimension", "partition0 overflow", "partition overflow", "bad write", "file too big",
+            "user abort"
+    };
+
+    static final int VP8_ENC_ERROR_USER_ABORT = 10;
+
+    static String encodingErrorName(int error) {
+        return error >= 0 && error < ENCODING_ERROR_NAMES.length ? ENCODING_ERROR_NAMES[error] : "error " + error;
+    }
+
+    static final class WebPConfig extends Struct {
+        final Signed32 lossless = new Signed32();
+        final Float quality = new Float();
+        final Signed32 method = new Signed32();
+        final Signed32 image_hint = new Signed32();
+        final Signed32 target_size = new Signed32();
+        final Float target_PSNR = new Float();
+        final Signed32 segments = new Signed32();
+        final Signed32 sns_strength = new Signed32();
+        final Signed32 filter_strength = new Signed32();
+        final Signed32 filter_sharpness = new Signed32();
+        final Signed32 filter_type = new Signed32();
+        final Signed32 autofilter = new Signed32();
+        final Signed32 alpha_compression = new Signed32();
+        final Signed32 alpha_filtering = new Signed32();
+        final Signed32 alpha_quality = new Signed32();
+        final Signed32 pass = new Signed32();
+        final Signed32 show_compressed = new Signed32();
+        final Signed32 preprocessing = new Signed32();
+        final Signed32 partitions = new Signed32();
+        final Signed32 partition_limit = new Signed32();
+        final Signed32 emulate_jpeg_size = new Signed32();
+        final Signed32 thread_level = new Signed32();
+        final Signed32 low_memory = new Signed32();
+        final Signed32 near_lossless = new Signed32();
+        final Signed32 exact = new Signed32();
+        final Signed32 use_delta_palette = new Signed32();
+        final Signed32 use_sharp_yuv = new Signed32();
+        // qmin and qmax since libwebp 1.2
+        final Unsigned32[] pad = array(new Unsigned32[2]);
+
+        WebPConfig(Runtime runtime) {
+            super(runtime);
+        }
+    }
+
+    /**
+     * This receives the encoded bytes as libwebp produces them.
+     */
+    public interface WebPWriterFunction {
+        @Delegate
+        int write(Pointer data, long data_size, Pointer picture);
+    }
+
+    static final class WebPAuxStats extends Struct {
+        final Signed32 coded_size = new Signed32();
+        final Float[] PSNR = array(new Float[5]);
+        final Signed32[] block_count = array(new Signed32[3]);
+        final Signed32[] header_bytes = array(new Signed32[2]);
+        // residual_bytes[3][4], row by row
+        final Signed32[] residual_bytes = array(new Signed32[12]);
+        final Signed32[] segment_size = array(new Signed32[4]);
+        final Signed32[] segment_quant = array(new Signed32[4]);
+        final Signed32[] segment_level = array(new Signed32[4]);
+        final Signed32 alpha_data_size = new Signed32();
+        final Signed32 layer_data_size = new Signed32();
+        final Unsigned32 lossless_features = new Unsigned32();
+        final Signed32 histogram_bits = new Signed32();
+        final Signed32 transform_bits = new Signed32();
+        final Signed32 cache_bits = new Signed32();
+        final Signed32 palette_size = new Signed32();
+        final Signed32 lossless_size = new Signed32();
+        final Signed32 lossless_hdr_size = new Signed32();
+        final Signed32 lossless_data_size = new Signed32();
+        final Unsigned32[] pad = array(new Unsigned32[2]);
+
+        WebPAuxStats(Runtime runtime) {
+            super(runtime);
+        }
+    }
+
+    /**
+     * This is called at checkpoints of the encoder, which aborts if it 
+     * returns 0.
+     */
+    public interface WebPProgressHook {
+        @Delegate
+        int progress(int percent, Pointer picture);
+    }
+
+    static final class WebPPicture extends Struct {
+        final Signed32 use_argb = new Signed32();
+        final Signed32 colorspace = new Signed32();
+        final Signed32 width = new Signed32();
+        final Signed32 height = new Signed32();
+        final Pointer y = new Pointer();
+        final Pointer u = new Pointer();
+        final Pointer v = new Pointer();
+        final Signed32 y_stride = new Signed32();
+        final Signed32 uv_stride = new Signed32();
+        final Pointer a = new Pointer();
+        final Signed32 a_stride = new Signed32();
+        final Unsigned32[] pad1 = array(new Unsigned32[2]);
+        final Pointer argb = new Pointer();
+        final Signed32 argb_stride = new Signed32();
+        final Unsigned32[] pad2 = array(new Unsigned32[3]);
+        final Function<WebPWriterFunction> writer = function(WebPWriterFunction.class);
+        final Pointer custom_ptr = new Pointer();
+        final Signed32 extra_info_type = new Signed32();
+        final Pointer extra_info = new Pointer();
+        final Pointer stats = new Pointer();
+        final Signed32 error_code = new Signed32();
+        final Function<WebPProgressHook> progress_hook = function(WebPProgressHook.class);
+        final Pointer user_data = new Pointer();
+        final Unsigned32[] pad3 = array(new Unsigned32[3]);
+        final Pointer pad4 = new Pointer();
+        final Pointer pad5 = new Pointer();
+        final Unsigned32[] pad6 = array(new Unsigned32[8]);
+        final Pointer memory_ = new Pointer();
+        final Pointer memory_argb_ = new Pointer();
+        final Pointer[] pad7 = array(new Pointer[2]);
+
+        WebPPicture(Runtime runtime) {
+            super(runtime);
+        }
+    }
 
     protected interface WebP {
 
@@ -33,6 +329,8 @@ final class JNRFFI {
 
         void WebPFree(@In Pointer ptr);
 
+        Pointer WebPMalloc(@In long size);
+
         long WebPEncodeRGB(@In byte[] rgb, @In int width, @In int height, @In int stride,
                            @In float quality_factor, @Out PointerByReference output);
 
@@ -72,6 +370,113 @@ final class JNRFFI {
         Pointer WebPDecodeBGR(@In byte[] data, @In long data_size,
                               @Out IntByReference width, @Out IntByReference height);
 
+        // The Into variants decode straight into the given array, which is
+        // pinned rather than copied in and out
+        Pointer WebPDecodeRGBAInto(@In byte[] data, @In long data_size,
+                                   @Pinned @Out byte[] output_buffer, @In long output_buffer_size, @In int output_stride);
+
+        Pointer WebPDecodeBGRAInto(@In byte[] data, @In long data_size,
+                                   @Pinned @Out int[] output_buffer, @In long output_buffer_size, @In int output_stride);
+
+        Pointer WebPDecodeARGBInto(@In byte[] data, @In long data_size,
+                                   @Pinned @Out int[] output_buffer, @In long output_buffer_size, @In int output_stride);
+
+        Pointer WebPDecodeBGRInto(@In byte[] data, @In long data_size,
+                                  @Pinned @Out byte[] output_buffer, @In long output_buffer_size, @In int output_stride);
+
+        Pointer WebPDecodeYUVInto(@In byte[] data, @In long data_size,
+                                  @Pinned @Out byte[] luma, @In long luma_size, @In int luma_stride,
+                                  @Pinned @Out byte[] u, @In long u_size, @In int u_stride,
+                                  @Pinned @Out byte[] v, @In long v_size, @In int v_stride);
+
+        int WebPGetInfo(@In byte[] data, @In long data_size,
+                        @Out IntByReference width, @Out IntByReference height);
+
+        int WebPInitDecoderConfigInternal(WebPDecoderConfig config, @In int version);
+
+        int WebPGetFeaturesInternal(@In byte[] data, @In long data_size,
+                                    WebPBitstreamFeatures features, @In int version);
+
+        int WebPDecode(@In byte[] data, @In long data_size, WebPDecoderConfig config);
+
+        int WebPDecode(@In Pointer data, @In long data_size, WebPDecoderConfig config);
+
+        void WebPFreeDecBuffer(WebPDecBuffer buffer);
+
+        // These read the pixels from native memory, for batches packed into 
+        // a single buffer
+
+        long WebPEncodeRGB(@In Pointer rgb, @In int width, @In int height, @In int stride,
+                           @In float quality_factor, @Out PointerByReference output);
+
+        long WebPEncodeBGR(@In Pointer bgr, @In int width, @In int height, @In int stride,
+                           @In float quality_factor, @Out PointerByReference output);
+
+        long WebPEncodeRGBA(@In Pointer rgba, @In int width, @In int height, @In int stride,
+                            @In float quality_factor, @Out PointerByReference output);
+
+        long WebPEncodeBGRA(@In Pointer bgra, @In int width, @In int height, @In int stride,
+                            @In float quality_factor, @Out PointerByReference output);
+
+        long WebPEncodeLosslessRGB(@In Pointer rgb, @In int width, @In int height,
+                                   @In int stride, @Out PointerByReference output);
+
+        long WebPEncodeLosslessBGR(@In Pointer bgr, @In int width, @In int height,
+                                   @In int stride, @Out PointerByReference output);
+
+        long WebPEncodeLosslessRGBA(@In Pointer rgba, @In int width, @In int height,
+                                    @In int stride, @Out PointerByReference output);
+
+        long WebPEncodeLosslessBGRA(@In Pointer bgra, @In int width, @In int height,
+                                    @In int stride, @Out PointerByReference output);
+
+        // These read the pixels in place from direct buffers, starting at 
+        // their position
+
+        long WebPEncodeRGB(@In ByteBuffer rgb, @In int width, @In int height, @In int stride,
+                           @In float quality_factor, @Out PointerByReference output);
+
+        long WebPEncodeBGR(@In ByteBuffer bgr, @In int width, @In int height, @In int stride,
+                           @In float quality_factor, @Out PointerByReference output);
+
+        long WebPEncodeRGBA(@In ByteBuffer rgba, @In int width, @In int height, @In int stride,
+                            @In float quality_factor, @Out PointerByReference output);
+
+        long WebPEncodeBGRA(@In ByteBuffer bgra, @In int width, @In int height, @In int stride,
+                            @In float quality_factor, @Out PointerByReference output);
+
+        long WebPEncodeLosslessRGB(@In ByteBuffer rgb, @In int width, @In int height,
+                                   @In int stride, @Out PointerByReference output);
+
+        long WebPEncodeLosslessBGR(@In ByteBuffer bgr, @In int width, @In int height,
+                                   @In int stride, @Out PointerByReference output);
+
+        long WebPEncodeLosslessRGBA(@In ByteBuffer rgba, @In int width, @In int height,
+                                    @In int stride, @Out PointerByReference output);
+
+        long WebPEncodeLosslessBGRA(@In ByteBuffer bgra, @In int width, @In int height,
+                                    @In int stride, @Out PointerByReference output);
+
+        int WebPConfigInitInternal(WebPConfig config, @In int preset, @In float quality, @In int version);
+
+        int WebPValidateConfig(WebPConfig config);
+
+        int WebPPictureInitInternal(WebPPicture picture, @In int version);
+
+        int WebPPictureAlloc(WebPPicture picture);
+
+        void WebPPictureFree(WebPPicture picture);
+
+        int WebPPictureImportRGBA(WebPPicture picture, @In byte[] rgba, @In int rgba_stride);
+
+        int WebPPictureImportBGRA(WebPPicture picture, @In int[] bgra, @In int bgra_stride);
+
+        int WebPPictureCopy(WebPPicture src, WebPPicture dst);
+
+        int WebPPictureRescale(WebPPicture picture, @In int width, @In int height);
+
+        int WebPEncode(WebPConfig config, WebPPicture picture);
+
     }
 
 }
@@ -0,0 +1,88 @@
+package com.tianscar.webp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This is a second binding to the simple decoding and encoding functions of
+ * libwebp, used in place of jnr-ffi when it is available. On Java 22 and
+ * later the multi-release jar provides one written with the Foreign Function
+ * and Memory API, which hands heap arrays to libwebp without copying them
+ * into temporary native memory. On older runtimes, when libwebp cannot be
+ * found that way, or when the system property {@code webp.binding} is set to
+ * {@code jnr}, every call goes through jnr-ffi as before.
+ * <p>
+ * Native memory the binding gets from libwebp, or allocates to pass data to 
+ * it, is held in {@link NativeBuffer}s on the trace of the call, so that it is 
+ * counted by {@link WebPNativeMemory} and its frees are traced as on jnr-ffi.
+ */
+abstract class NativeBinding {
+
+    /**
+     * This is the binding to use instead of jnr-ffi, or null if there is none.
+     */
+    static final NativeBinding FOREIGN = loadForeign();
+
+    private static NativeBinding loadForeign() {
+        if ("jnr".equalsIgnoreCase(System.getProperty("webp.binding"))) return null;
+        try {
+            Class<?> binding = Class.forName("com.tianscar.webp.ForeignBinding", true, NativeBinding.class.getClassLoader());
+            return (NativeBinding) binding.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // Not on Java 22, native access is denied or libwebp was not found
+            return null;
+        }
+    }
+
+    /**
+     * This returns the name of the binding, as reported by {@link
+     * WebPFactory#getNativeBindingName()}.
+     */
+    abstract String getName();
+
+    /**
+     * This reads the size of an image with WebPGetInfo.
+     * @return Whether the header is valid.
+     */
+    abstract boolean getInfo(byte[] data, long dataSize, int[] size);
+
+    /**
+     * This decodes with one of the WebPDecode*Into functions.
+     * @param mode The WEBP_CSP_MODE, one of RGB, RGBA, BGR, BGRA and ARGB.
+     * @return Whether the bitstream was decoded.
+     */
+    abstract boolean decodeInto(int mode, byte[] data, long dataSize, byte[] output, int stride, Trace trace);
+
+    /**
+     * This decodes with WebPDecodeBGRAInto or WebPDecodeARGBInto.
+     * @param mode The WEBP_CSP_MODE, either BGRA or ARGB.
+     * @param stride The stride of the rows in bytes.
+     * @return Whether the bitstream was decoded.
+     */
+    abstract boolean decodeInto(int mode, byte[] data, long dataSize, int[] output, int stride, Trace trace);
+
+    /**
+     * This encodes with one of the simple encoding functions.
+     * @param mode The WEBP_CSP_MODE, one of RGB, RGBA, BGR and BGRA.
+     * @param stride The stride of the rows in bytes.
+     * @return The encoded WebP file, or null if encoding failed.
+     */
+    abstract byte[] encode(int mode, boolean lossless, byte[] pixels, int width, int height, int stride, float quality, 
+            Trace trace);
+
+    /**
+     * This encodes BGRA pixels stored as ints.
+     * @see #encode(int, boolean, byte[], int, int, int, float, Trace)
+     */
+    abstract byte[] encode(int mode, boolean lossless, int[] pixels, int width, int height, int stride, float quality, 
+            Trace trace);
+
+    /**
+     * This encodes pixels read in place from a direct buffer, starting at its 
+     * position.
+     * @see #encode(int, boolean, byte[], int, int, int, float, Trace)
+     */
+    abstract byte[] encode(int mode, boolean lossless, ByteBuffer pixels, int width, int height, int stride, float quality, 
+            Trace trace);
+
+}
@@ -0,0 +1,124 @@
+package com.tianscar.webp;
+
+import jnr.ffi.Pointer;
+import jnr.ffi.Struct;
+
+/**
+ * This owns a buffer that libwebp allocated and that must be released with 
+ * WebPFree, or with WebPFreeDecBuffer and WebPPictureFree for the memory held 
+ * by a decoding buffer or a picture. The Foreign Function and Memory binding 
+ * wraps its buffers with the action that frees them instead. It is meant to be used with try-with-resources, so that the buffer 
+ * is freed even when copying out of it fails.
+ * @see WebPNativeMemory
+ */
+final class NativeBuffer implements AutoCloseable {
+
+    private final Pointer pointer;
+    private final long address;
+    private final Struct owner;
+    private final Runnable release;
+    private final long size;
+    private final Trace trace;
+    private final Throwable allocationSite;
+    private boolean freed = false;
+
+    private NativeBuffer(Pointer pointer, long address, Struct owner, Runnable release, long size, Trace trace) {
+        this.pointer = pointer;
+        this.address = address;
+        this.owner = owner;
+        this.release = release;
+        this.size = size;
+        this.trace = trace;
+        this.allocationSite = WebPNativeMemory.isDebugEnabled() ? new Throwable("Allocated here") : null;
+    }
+
+    /**
+     * This takes ownership of a buffer returned by libwebp.
+     * @param pointer The buffer (cannot be null).
+     * @param size The size of the buffer in bytes.
+     * @param trace The trace to add the time spent freeing the buffer to.
+     */
+    static NativeBuffer wrap(Pointer pointer, long size, Trace trace) {
+        if (pointer == null) throw new NullPointerException();
+        NativeBuffer buffer = new NativeBuffer(pointer, pointer.address(), null, null, size, trace);
+        WebPNativeMemory.allocated(buffer);
+        return buffer;
+    }
+
+    /**
+     * This takes ownership of native memory that the Foreign Function and 
+     * Memory binding got from libwebp or allocated for a call into it.
+     * @param address The address of the memory.
+     * @param size The size of the memory in bytes.
+     * @param trace The trace to add the time spent freeing the memory to.
+     * @param release The action that frees the memory.
+     */
+    static NativeBuffer wrap(long address, long size, Trace trace, Runnable release) {
+        if (release == null) throw new NullPointerException();
+        NativeBuffer buffer = new NativeBuffer(null, address, null, release, size, trace);
+        WebPNativeMemory.allocated(buffer);
+        return buffer;
+    }
+
+    /**
+     * This takes ownership of the memory libwebp allocated for a decoding 
+     * buffer.
+     * @param decBuffer The decoding buffer, which must stay allocated until 
+     * this is closed.
+     * @param pointer The pixels of the decoding buffer (cannot be null).
+     * @param size The size of the allocated memory in bytes.
+     * @param trace The trace to add the time spent freeing the buffer to.
+     */
+    static NativeBuffer wrap(JNRFFI.WebPDecBuffer decBuffer, Pointer pointer, long size, Trace trace) {
+        if (pointer == null) throw new NullPointerException();
+        NativeBuffer buffer = new NativeBuffer(pointer, pointer.address(), decBuffer, null, size, trace);
+        WebPNativeMemory.allocated(buffer);
+        return buffer;
+    }
+
+    /**
+     * This takes ownership of the memory libwebp allocated for the planes of 
+     * a picture.
+     * @param picture The picture, which must stay allocated until this is 
+     * closed.
+     * @param pointer The start of the allocated memory (cannot be null).
+     * @param size The size of the allocated memory in bytes.
+     * @param trace The trace to add the time spent freeing the picture to.
+     */
+    static NativeBuffer wrap(JNRFFI.WebPPicture picture, Pointer pointer, long size, Trace trace) {
+        if (pointer == null) throw new NullPointerException();
+        NativeBuffer buffer = new NativeBuffer(pointer, pointer.address(), picture, null, size, trace);
+        WebPNativeMemory.allocated(buffer);
+        return buffer;
+    }
+
+    Pointer getPointer() {
+        if (freed) throw new IllegalStateException("buffer already freed");
+        if (pointer == null) throw new IllegalStateException("buffer not allocated through jnr-ffi");
+        return pointer;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    Throwable getAllocationSite() {
+        return allocationSite;
+    }
+
+    @Override
+    public void close() {
+        if (freed) return;
+        freed = true;
+        Object freeEvent = Trace.JFR_AVAILABLE ? WebPEvents.beginNativeFree() : null;
+        trace.nativeStart();
+        if (release != null) release.run();
+        else if (owner instanceof JNRFFI.WebPDecBuffer) JNRFFI.WebP.INSTANCE.WebPFreeDecBuffer((JNRFFI.WebPDecBuffer) owner);
+        else if (owner instanceof JNRFFI.WebPPicture) JNRFFI.WebP.INSTANCE.WebPPictureFree((JNRFFI.WebPPicture) owner);
+        else JNRFFI.WebP.INSTANCE.WebPFree(pointer);
+        trace.nativeEnd();
+        if (freeEvent != null) WebPEvents.commitNativeFree(freeEvent, address, size);
+        WebPNativeMemory.freed(this);
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.tianscar.webp;
+
+/**
+ * These are the loops behind {@link WebPPixels}, one pixel at a time. On Java
+ * 17 and later, when the {@code jdk.incubator.vector} module is added with
+ * {@code --add-modules}, the multi-release jar provides a subclass that runs
+ * them on SIMD registers and leaves only the last few pixels of each call to
+ * these. Setting the system property {@code webp.vector} to {@code false}
+ * always selects these. The arguments have already been checked.
+ */
+class PixelKernels {
+
+    /**
+     * This is the order for {@link #swizzle} that turns RGBA into ABGR and
+     * back, which libwebp cannot decode to or encode from.
+     */
+    static final int[] REVERSE = { 3, 2, 1, 0 };
+
+    static final PixelKernels INSTANCE = load();
+
+    private static PixelKernels load() {
+        if ("false".equalsIgnoreCase(System.getProperty("webp.vector"))) return new PixelKernels();
+        try {
+            Class<?> kernels = Class.forName("com.tianscar.webp.VectorPixelKernels", true, PixelKernels.class.getClassLoader());
+            return (PixelKernels) kernels.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // Not on Java 17, the module was not added or there is no SIMD
+            return new PixelKernels();
+        }
+    }
+
+    boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * This reorders the bytes of 4 byte pixels, so that byte {@code k} of each
+     * destination pixel is byte {@code order[k]} of the source pixel.
+     */
+    void swizzle(byte[] src, int srcOffset, byte[] dst, int dstOffset, int pixels, int[] order) {
+        int o0 = order[0], o1 = order[1], o2 = order[2], o3 = order[3];
+        for (int i = srcOffset, j = dstOffset, end = srcOffset + pixels * 4; i < end; i += 4, j += 4) {
+            byte b0 = src[i + o0], b1 = src[i + o1], b2 = src[i + o2], b3 = src[i + o3];
+            dst[j] = b0;
+            dst[j + 1] = b1;
+            dst[j + 2] = b2;
+            dst[j + 3] = b3;
+        }
+    }
+
+    void swapRedBlue(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        for (int i = 0; i < pixels; i ++) {
+            int pixel = src[srcOffset + i];
+            dst[dstOffset + i] = (pixel & 0xFF00FF00) | (pixel >>> 16) & 0xFF | (pixel & 0xFF) << 16;
+        }
+    }
+
+    void premultiply(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        for (int i = 0; i < pixels; i ++) {
+            dst[dstOffset + i] = premultiply(src[srcOffset + i]);
+        }
+    }
+
+    static int premultiply(int pixel) {
+        int alpha = pixel >>> 24;
+        if (alpha == 0xff) return pixel;
+        if (alpha == 0) return 0;
+        int r = (((pixel >> 16) & 0xff) * alpha + 127) / 255;
+        int g = (((pixel >> 8) & 0xff) * alpha + 127) / 255;
+        int b = ((pixel & 0xff) * alpha + 127) / 255;
+        return alpha << 24 | r << 16 | g << 8 | b;
+    }
+
+    void unpremultiply(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        for (int i = 0; i < pixels; i ++) {
+            dst[dstOffset + i] = unpremultiply(src[srcOffset + i]);
+        }
+    }
+
+    static int unpremultiply(int pixel) {
+        int alpha = pixel >>> 24;
+        if (alpha == 0xff) return pixel;
+        if (alpha == 0) return 0;
+        int half = alpha >> 1;
+        int r = Math.min(255, (((pixel >> 16) & 0xff) * 255 + half) / alpha);
+        int g = Math.min(255, (((pixel >> 8) & 0xff) * 255 + half) / alpha);
+        int b = Math.min(255, ((pixel & 0xff) * 255 + half) / alpha);
+        return alpha << 24 | r << 16 | g << 8 | b;
+    }
+
+    void expand(byte[] src, int srcOffset, byte[] dst, int dstOffset, int pixels) {
+        for (int i = srcOffset, j = dstOffset, end = srcOffset + pixels * 3; i < end; i += 3, j += 4) {
+            dst[j] = src[i];
+            dst[j + 1] = src[i + 1];
+            dst[j + 2] = src[i + 2];
+            dst[j + 3] = (byte) 0xFF;
+        }
+    }
+
+    void strip(byte[] src, int srcOffset, byte[] dst, int dstOffset, int pixels) {
+        for (int i = srcOffset, j = dstOffset, end = srcOffset + pixels * 4; i < end; i += 4, j += 3) {
+            dst[j] = src[i];
+            dst[j + 1] = src[i + 1];
+            dst[j + 2] = src[i + 2];
+        }
+    }
+
+    void blend(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        for (int i = 0; i < pixels; i ++) {
+            dst[dstOffset + i] = blend(src[srcOffset + i], dst[dstOffset + i]);
+        }
+    }
+
+    /**
+     * This blends a pixel over another as the WebP container specification
+     * describes, without premultiplied alpha.
+     */
+    static int blend(int src, int dst) {
+        int srcA = src >>> 24;
+        if (srcA == 0xFF) return src;
+        if (srcA == 0) return dst;
+        int dstA = dst >>> 24;
+        int dstFactorA = dstA * (255 - srcA) / 255;
+        int a = srcA + dstFactorA;
+        int r = (((src >>> 16) & 0xFF) * srcA + ((dst >>> 16) & 0xFF) * dstFactorA) / a;
+        int g = (((src >>> 8) & 0xFF) * srcA + ((dst >>> 8) & 0xFF) * dstFactorA) / a;
+        int b = ((src & 0xFF) * srcA + (dst & 0xFF) * dstFactorA) / a;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    void blendPremultiplied(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        for (int i = 0; i < pixels; i ++) {
+            dst[dstOffset + i] = blendPremultiplied(src[srcOffset + i], dst[dstOffset + i]);
+        }
+    }
+
+    /**
+     * This blends a premultiplied pixel over another, which scales each
+     * channel of the destination, alpha included, by the transparency of the
+     * source, rounding to the nearest value.
+     */
+    static int blendPremultiplied(int src, int dst) {
+        int factor = 255 - (src >>> 24);
+        int a = Math.min(255, (src >>> 24) + ((dst >>> 24) * factor + 127) / 255);
+        int r = Math.min(255, ((src >>> 16) & 0xFF) + (((dst >>> 16) & 0xFF) * factor + 127) / 255);
+        int g = Math.min(255, ((src >>> 8) & 0xFF) + (((dst >>> 8) & 0xFF) * factor + 127) / 255);
+        int b = Math.min(255, (src & 0xFF) + ((dst & 0xFF) * factor + 127) / 255);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+}
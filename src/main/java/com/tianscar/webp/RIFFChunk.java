@@ -22,8 +22,10 @@ public class RIFFChunk extends LISTChunk {
 
     @Override
     public void writePayload(OutputStream out) throws IOException {
+        Trace trace = Trace.start(WebPOperation.MUX, null);
         writeFourCC(out, fourCC);
         writeSubchunks(out);
+        trace.end(fourCC, getSize(), getFullSize(), 0, 0);
     }
 
 }
@@ -2,19 +2,50 @@ package com.tianscar.webp;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public class RawDataChunk extends Chunk {
 
-    private final byte[] rawData;
+    private final ByteBuffer data;
+    private volatile byte[] rawData;
 
     public RawDataChunk(byte[] fourCC, byte[] data) {
         super(fourCC, data.length);
         this.rawData = Objects.requireNonNull(data);
+        this.data = null;
+    }
+
+    /**
+     * This creates a chunk whose payload is a view of the remaining bytes of 
+     * the given buffer, which are not copied. The bytes must not change while 
+     * the chunk is in use.
+     * @param fourCC The FourCC of the chunk.
+     * @param data The payload.
+     */
+    public RawDataChunk(byte[] fourCC, ByteBuffer data) {
+        super(fourCC, data.remaining());
+        this.data = data.slice();
     }
 
     protected void writeRawData(OutputStream out) throws IOException {
-        out.write(rawData);
+        byte[] raw = rawData;
+        if (raw != null) {
+            out.write(raw);
+        }
+        else if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset(), data.remaining());
+        }
+        else {
+            ByteBuffer view = data.duplicate();
+            byte[] buf = new byte[Math.min(view.remaining(), 8192)];
+            while (view.hasRemaining()) {
+                int n = Math.min(buf.length, view.remaining());
+                view.get(buf, 0, n);
+                out.write(buf, 0, n);
+            }
+        }
     }
 
     @Override
@@ -22,8 +53,36 @@ public class RawDataChunk extends Chunk {
         writeRawData(out);
     }
 
+    /**
+     * This returns the payload of this chunk as an array. If the chunk is a 
+     * view of a buffer, the bytes are copied the first time this is called, 
+     * unless the view covers a whole array.
+     * @return The payload.
+     */
     public byte[] getRawData() {
-        return rawData;
+        byte[] raw = rawData;
+        if (raw == null) {
+            if (data.hasArray() && data.arrayOffset() == 0 && data.array().length == data.remaining()) {
+                raw = data.array();
+            }
+            else {
+                raw = new byte[data.remaining()];
+                data.duplicate().get(raw);
+            }
+            rawData = raw;
+        }
+        return raw;
+    }
+
+    /**
+     * This returns the payload of this chunk without copying it.
+     * @return A read-only buffer over the payload.
+     */
+    public ByteBuffer getData() {
+        if (data == null) return ByteBuffer.wrap(rawData).asReadOnlyBuffer();
+        ByteBuffer view = data.asReadOnlyBuffer();
+        ((Buffer) view).rewind();
+        return view;
     }
 
 }
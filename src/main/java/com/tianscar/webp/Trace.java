@@ -0,0 +1,99 @@
+package com.tianscar.webp;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This measures a single operation for the registered metrics listeners and 
+ * for Flight Recorder. When there are no listeners and the matching event is 
+ * not being recorded, {@link #start(WebPOperation, String)} returns a shared 
+ * instance that does nothing, so untraced calls do not read the clock.
+ */
+final class Trace {
+
+    /**
+     * This is whether the jdk.jfr API can be used on this runtime. When it is 
+     * false, {@link WebPEvents} and the event classes are never loaded.
+     */
+    static final boolean JFR_AVAILABLE = isJFRAvailable();
+
+    private static final Trace DISABLED = new Trace(null, null, null, null);
+
+    private final WebPOperation operation;
+    private final String mode;
+    private final WebPMetricsListener[] listeners;
+    private final Object event;
+    private final boolean timed;
+    private final long startTime;
+    private long nativeStartTime;
+    private long nativeTime;
+    private int nativeDepth;
+
+    private Trace(WebPOperation operation, String mode, WebPMetricsListener[] listeners, Object event) {
+        this.operation = operation;
+        this.mode = mode;
+        this.listeners = listeners;
+        this.event = event;
+        this.timed = listeners != null && listeners.length != 0;
+        this.startTime = timed ? System.nanoTime() : 0;
+    }
+
+    private static boolean isJFRAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Trace.class.getClassLoader());
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param operation The operation being started.
+     * @param mode The pixel layout that is decoded to or encoded from, or null 
+     * for operations that do not deal with pixels.
+     */
+    static Trace start(WebPOperation operation, String mode) {
+        WebPMetricsListener[] listeners = WebPFactory.metricsListeners;
+        Object event = JFR_AVAILABLE ? WebPEvents.begin(operation) : null;
+        if (listeners.length == 0 && event == null) return DISABLED;
+        return new Trace(operation, mode, listeners, event);
+    }
+
+    /**
+     * This returns the instance that measures nothing, for native work that 
+     * belongs to no single operation, such as the shared buffers of a batch.
+     */
+    static Trace disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * This marks the start of a call into libwebp. Calls may be measured more 
+     * than once, the times are added together. A call measured within another, 
+     * such as a buffer freed by a binding during its call, is part of the 
+     * outer one.
+     */
+    void nativeStart() {
+        if (!timed) return;
+        if (nativeDepth ++ == 0) nativeStartTime = System.nanoTime();
+    }
+
+    void nativeEnd() {
+        if (!timed) return;
+        if (-- nativeDepth == 0) nativeTime += System.nanoTime() - nativeStartTime;
+    }
+
+    void end(byte[] fourCC, long inputBytes, long outputBytes, int width, int height) {
+        if (this == DISABLED) return;
+        String chunkType = new String(fourCC, StandardCharsets.US_ASCII);
+        if (event != null) WebPEvents.commit(event, chunkType, mode, width, height, inputBytes, outputBytes);
+        if (!timed) return;
+        long wallTime = System.nanoTime() - startTime;
+        WebPMetrics metrics = new WebPMetrics(operation, chunkType, wallTime, nativeTime,
+                inputBytes, outputBytes, (long) width * height, Thread.currentThread());
+        for (WebPMetricsListener listener : listeners) {
+            listener.record(metrics);
+        }
+    }
+
+}
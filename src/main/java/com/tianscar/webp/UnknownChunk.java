@@ -1,7 +1,13 @@
 package com.tianscar.webp;
 
+import java.nio.ByteBuffer;
+
 public class UnknownChunk extends RawDataChunk {
 
+    public UnknownChunk(byte[] fourCC, ByteBuffer data) {
+        super(fourCC, data);
+    }
+
     public UnknownChunk(byte[] fourCC, byte[] data) {
         super(fourCC, data);
     }
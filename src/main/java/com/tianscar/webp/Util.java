@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Objects;
 
 final class Util {
@@ -216,9 +217,23 @@ final class Util {
         out.write(c4);
     }
 
+    private static final int INITIAL_READ_SIZE = 65536;
+
+    /**
+     * This reads exactly {@code len} bytes. The buffer grows with the bytes 
+     * actually received, so a length declared by a truncated file is never 
+     * allocated up front.
+     */
     public static byte[] readNBytes(InputStream in, int len) throws IOException {
-        byte[] buf = new byte[len];
-        if (readNBytes(in, buf, 0, len) != len) throw new EOFException();
+        if (len < 0) throw new IllegalArgumentException("len < 0");
+        byte[] buf = new byte[Math.min(len, INITIAL_READ_SIZE)];
+        int n = 0;
+        while (n < len) {
+            if (n == buf.length) buf = Arrays.copyOf(buf, (int) Math.min(len, (long) buf.length * 2));
+            int count = readNBytes(in, buf, n, buf.length - n);
+            if (count < buf.length - n) throw new EOFException();
+            n += count;
+        }
         return buf;
     }
 
@@ -263,4 +278,24 @@ final class Util {
         }
     }
 
+    /**
+     * This reads the size of the image from the header of a VP8 or VP8L 
+     * bitstream, without decoding it.
+     * @param lossless Whether the bitstream is VP8L.
+     * @param data The bitstream.
+     * @return The width and height of the image.
+     */
+    public static int[] bitstreamSize(boolean lossless, byte[] data) {
+        if (lossless) {
+            if (data.length < 5 || data[0] != 0x2f) throw new IllegalArgumentException("Illegal VP8L signature");
+            int bits = (data[1] & 0xff) | (data[2] & 0xff) << 8 | (data[3] & 0xff) << 16 | (data[4] & 0xff) << 24;
+            return new int[] { (bits & 0x3fff) + 1, (bits >>> 14 & 0x3fff) + 1 };
+        }
+        if (data.length < 10 || (data[3] & 0xff) != 0x9d || data[4] != 0x01 || data[5] != 0x2a) {
+            throw new IllegalArgumentException("Illegal VP8 start code");
+        }
+        return new int[] { ((data[6] & 0xff) | (data[7] & 0xff) << 8) & 0x3fff,
+                ((data[8] & 0xff) | (data[9] & 0xff) << 8) & 0x3fff };
+    }
+
 }
@@ -1,9 +1,15 @@
 package com.tianscar.webp;
 
+import java.nio.ByteBuffer;
+
 public class VP8Chunk extends BitstreamChunk {
 
     static final byte[] VP8  = new byte[] { 'V', 'P', '8', ' ' };
 
+    public VP8Chunk(ByteBuffer data) {
+        super(VP8, data);
+    }
+
     public VP8Chunk(byte[] data) {
         super(VP8, data);
     }
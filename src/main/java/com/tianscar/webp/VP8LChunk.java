@@ -1,9 +1,15 @@
 package com.tianscar.webp;
 
+import java.nio.ByteBuffer;
+
 public class VP8LChunk extends BitstreamChunk {
 
     static final byte[] VP8L = new byte[] { 'V', 'P', '8', 'L' };
 
+    public VP8LChunk(ByteBuffer data) {
+        super(VP8L, data);
+    }
+
     public VP8LChunk(byte[] data) {
         super(VP8L, data);
     }
@@ -0,0 +1,349 @@
+package com.tianscar.webp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static com.tianscar.webp.ALPHChunk.ALPH;
+import static com.tianscar.webp.ANIMChunk.ANIM;
+import static com.tianscar.webp.ANMFChunk.ANMF;
+import static com.tianscar.webp.ChannelChunk.uint24;
+import static com.tianscar.webp.Util.*;
+import static com.tianscar.webp.VP8LChunk.VP8L;
+import static com.tianscar.webp.VP8XChunk.VP8X;
+import static com.tianscar.webp.WebPChunk.WEBP;
+
+/**
+ * This changes the loop count, background color and frame timing of an
+ * animated WebP file, and drops or reorders its frames, without a demux.
+ * Opening a file reads only its chunk headers and frame headers. Writing
+ * rewrites those headers and transfers the frame bitstreams from the source
+ * file as they are, so re-timing or trimming an animation runs at the speed
+ * of the disk rather than of the codec. The source channel must stay open
+ * until the edited file has been written.
+ * <p>
+ * Frame offsets are in the units of {@link ANMFChunk#getFrameX()}, which is
+ * half the offset in pixels. The ALPH flag of the VP8X chunk is set from the
+ * frames that are written.
+ */
+public final class WebPAnimationEditor {
+
+    private static final class Frame {
+        final ChannelChunk chunk;
+        final int width, height;
+        final boolean hasAlpha;
+        int x, y, duration, flags;
+
+        Frame(ChannelChunk chunk, byte[] header, boolean hasAlpha) {
+            this.chunk = chunk;
+            this.hasAlpha = hasAlpha;
+            x = uint24(header, 0);
+            y = uint24(header, 3);
+            width = uint24(header, 6) + 1;
+            height = uint24(header, 9) + 1;
+            duration = uint24(header, 12);
+            flags = header[15] & 0xff;
+        }
+    }
+
+    private final FileChannel channel;
+    private final List<ChannelChunk> leadingChunks = new ArrayList<>();
+    private final List<ChannelChunk> trailingChunks = new ArrayList<>();
+    private final List<Frame> frames = new ArrayList<>();
+    private final int canvasWidth, canvasHeight;
+    private final int flags;
+    private int backgroundColor, loopCount;
+
+    /**
+     * This reads the headers of an animated WebP file.
+     * @param channel The file to edit.
+     * @throws IOException If the file is not an animated WebP file or an I/O
+     * error occurs.
+     */
+    public WebPAnimationEditor(FileChannel channel) throws IOException {
+        this.channel = Objects.requireNonNull(channel);
+        List<ChannelChunk> chunks = ChannelChunk.scan(channel);
+        if (!chunks.get(0).is(VP8X)) throw new IOException("Not an animated WebP file");
+        byte[] vp8x = chunks.get(0).readPayload(channel, 10);
+        if (vp8x.length < 10) throw new IOException("VP8X chunk too short");
+        flags = toInt32(vp8x);
+        canvasWidth = uint24(vp8x, 4) + 1;
+        canvasHeight = uint24(vp8x, 7) + 1;
+        boolean hasANIM = false;
+        for (ChannelChunk chunk : chunks) {
+            if (chunk.is(ANMF)) {
+                if (chunk.size < 16) throw new IOException("ANMF chunk too short");
+                frames.add(new Frame(chunk, chunk.readPayload(channel, 16), hasAlpha(channel, chunk)));
+            }
+            else {
+                if (chunk.is(ANIM) && !hasANIM) {
+                    byte[] anim = chunk.readPayload(channel, 6);
+                    if (anim.length < 6) throw new IOException("ANIM chunk too short");
+                    backgroundColor = toInt32(anim);
+                    loopCount = (anim[4] & 0xff) | (anim[5] & 0xff) << 8;
+                    hasANIM = true;
+                }
+                if (frames.isEmpty()) leadingChunks.add(chunk);
+                else trailingChunks.add(chunk);
+            }
+        }
+        if (!hasANIM) throw new IOException("Not an animated WebP file");
+    }
+
+    /**
+     * This reads the subchunk headers of a frame to tell whether it has an
+     * alpha channel: an ALPH chunk before a VP8 bitstream, or the
+     * alpha_is_used bit of a VP8L one.
+     */
+    private static boolean hasAlpha(FileChannel channel, ChannelChunk frame) throws IOException {
+        long position = frame.position + 24;
+        long end = frame.position + 8 + frame.size;
+        while (position + 8 <= end) {
+            byte[] header = new byte[8];
+            ChannelChunk.readFully(channel, ByteBuffer.wrap(header), position);
+            ChannelChunk subchunk = new ChannelChunk(Arrays.copyOf(header, 4), position,
+                    toUInt32(Arrays.copyOfRange(header, 4, 8)));
+            if (subchunk.is(ALPH)) return true;
+            if (subchunk.is(VP8L)) {
+                byte[] data = subchunk.readPayload(channel, 5);
+                return data.length < 5 || (data[4] & 0x10) != 0;
+            }
+            position += subchunk.getFullSize();
+        }
+        return false;
+    }
+
+    public int getCanvasWidth() {
+        return canvasWidth;
+    }
+
+    public int getCanvasHeight() {
+        return canvasHeight;
+    }
+
+    public int getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    public WebPAnimationEditor setBackgroundColor(int backgroundColor) {
+        this.backgroundColor = backgroundColor;
+        return this;
+    }
+
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    /**
+     * This sets how many times the animation plays.
+     * @param loopCount The number of loops, or 0 to loop forever.
+     * @return This object.
+     */
+    public WebPAnimationEditor setLoopCount(int loopCount) {
+        this.loopCount = checkUInt16(loopCount);
+        return this;
+    }
+
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    public int getFrameX(int index) {
+        return frames.get(index).x;
+    }
+
+    public int getFrameY(int index) {
+        return frames.get(index).y;
+    }
+
+    public int getFrameWidth(int index) {
+        return frames.get(index).width;
+    }
+
+    public int getFrameHeight(int index) {
+        return frames.get(index).height;
+    }
+
+    public int getFrameDuration(int index) {
+        return frames.get(index).duration;
+    }
+
+    public int getFrameFlags(int index) {
+        return frames.get(index).flags;
+    }
+
+    /**
+     * This sets how long a frame is shown.
+     * @param index The index of the frame.
+     * @param duration The duration in milliseconds.
+     * @return This object.
+     */
+    public WebPAnimationEditor setFrameDuration(int index, int duration) {
+        frames.get(index).duration = checkUInt24(duration);
+        return this;
+    }
+
+    /**
+     * This multiplies the duration of every frame, which speeds the
+     * animation up or slows it down. Durations are rounded to the nearest
+     * millisecond.
+     * @param factor The factor to multiply the durations by.
+     * @return This object.
+     */
+    public WebPAnimationEditor scaleFrameDurations(double factor) {
+        if (!(factor >= 0) || Double.isInfinite(factor)) throw new IllegalArgumentException("Illegal factor: " + factor);
+        int[] durations = new int[frames.size()];
+        for (int i = 0; i < durations.length; i ++) {
+            durations[i] = checkUInt24((int) Math.min(Math.round(frames.get(i).duration * factor), Integer.MAX_VALUE));
+        }
+        for (int i = 0; i < durations.length; i ++) {
+            frames.get(i).duration = durations[i];
+        }
+        return this;
+    }
+
+    /**
+     * This moves a frame on the canvas. The frame must stay within the
+     * canvas.
+     * @param index The index of the frame.
+     * @param x The new X offset.
+     * @param y The new Y offset.
+     * @return This object.
+     */
+    public WebPAnimationEditor setFrameOffset(int index, int x, int y) {
+        Frame frame = frames.get(index);
+        checkUInt24(x);
+        checkUInt24(y);
+        if (2L * x + frame.width > canvasWidth || 2L * y + frame.height > canvasHeight) {
+            throw new IllegalArgumentException("frame out of canvas");
+        }
+        frame.x = x;
+        frame.y = y;
+        return this;
+    }
+
+    /**
+     * This sets the blending and disposal flags of a frame.
+     * @param index The index of the frame.
+     * @param flags The new flags.
+     * @return This object.
+     * @see ANMFChunk#FLAG_NO_BLEND
+     * @see ANMFChunk#FLAG_DISPOSE_TO_BACKGROUND
+     */
+    public WebPAnimationEditor setFrameFlags(int index, int flags) {
+        frames.get(index).flags = flags & (ANMFChunk.BLENDING_MASK | ANMFChunk.DISPOSAL_METHOD_MASK);
+        return this;
+    }
+
+    public WebPAnimationEditor removeFrame(int index) {
+        frames.remove(index);
+        return this;
+    }
+
+    /**
+     * This moves a frame to another place in the animation.
+     * @param from The index of the frame.
+     * @param to The index of the frame after it has been moved.
+     * @return This object.
+     */
+    public WebPAnimationEditor moveFrame(int from, int to) {
+        Frame frame = frames.get(from);
+        if (to < 0 || to >= frames.size()) throw new IndexOutOfBoundsException("to: " + to);
+        frames.remove(from);
+        frames.add(to, frame);
+        return this;
+    }
+
+    /**
+     * This keeps only a range of frames, trimming the others.
+     * @param from The index of the first frame to keep.
+     * @param to The index after the last frame to keep.
+     * @return This object.
+     */
+    public WebPAnimationEditor retainFrames(int from, int to) {
+        if (from < 0 || to > frames.size() || from > to) {
+            throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", frames: " + frames.size());
+        }
+        frames.subList(to, frames.size()).clear();
+        frames.subList(0, from).clear();
+        return this;
+    }
+
+    /**
+     * This writes the edited animation.
+     * @param out Where to write the edited file.
+     * @throws IOException If an I/O error occurs.
+     * @throws IllegalStateException If every frame has been removed.
+     */
+    public void write(WritableByteChannel out) throws IOException {
+        Objects.requireNonNull(out);
+        if (frames.isEmpty()) throw new IllegalStateException("No frames left");
+        Trace trace = Trace.start(WebPOperation.MUX, null);
+        boolean hasAlpha = false;
+        for (Frame frame : frames) {
+            hasAlpha |= frame.hasAlpha;
+        }
+        VP8XChunk vp8x = new VP8XChunk((flags & ~VP8XChunk.FLAG_ALPH) | (hasAlpha ? VP8XChunk.FLAG_ALPH : 0),
+                canvasWidth, canvasHeight);
+        ANIMChunk anim = new ANIMChunk(backgroundColor, loopCount);
+        long riffSize = 4;
+        boolean countedANIM = false;
+        for (int i = 0; i < leadingChunks.size(); i ++) {
+            ChannelChunk chunk = leadingChunks.get(i);
+            if (i == 0) riffSize += vp8x.getFullSize();
+            else if (chunk.is(ANIM) && !countedANIM) {
+                riffSize += anim.getFullSize();
+                countedANIM = true;
+            }
+            else riffSize += chunk.getFullSize();
+        }
+        for (Frame frame : frames) {
+            riffSize += frame.chunk.getFullSize();
+        }
+        for (ChannelChunk chunk : trailingChunks) {
+            riffSize += chunk.getFullSize();
+        }
+        ChannelChunk.writeRIFFHeader(riffSize, out);
+        boolean wroteANIM = false;
+        for (int i = 0; i < leadingChunks.size(); i ++) {
+            ChannelChunk chunk = leadingChunks.get(i);
+            if (i == 0) ChannelChunk.write(vp8x, out);
+            else if (chunk.is(ANIM) && !wroteANIM) {
+                ChannelChunk.write(anim, out);
+                wroteANIM = true;
+            }
+            else chunk.transferTo(channel, out);
+        }
+        for (Frame frame : frames) {
+            ChannelChunk.writeFrameHeader(frame.chunk.size, frame.x, frame.y, frame.width, frame.height, 
+                    frame.duration, frame.flags, out);
+            ChannelChunk.transferFully(channel, frame.chunk.position + 24, frame.chunk.getFullSize() - 24, out);
+        }
+        for (ChannelChunk chunk : trailingChunks) {
+            chunk.transferTo(channel, out);
+        }
+        trace.end(WEBP, channel.size(), riffSize + 8, canvasWidth, canvasHeight);
+    }
+
+    /**
+     * This writes the edited animation to a file, which must not be the
+     * source file.
+     * @param target The file to write.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void write(Path target) throws IOException {
+        Objects.requireNonNull(target);
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out);
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+package com.tianscar.webp;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This builds an animation, choosing the codec of each frame on its own. Each
+ * frame is analyzed and encoded on the common pool as soon as it is added:
+ * <ul>
+ *     <li>Frames with at most 256 colors, such as flat UI content, are
+ *     encoded losslessly, where the palette makes them small and exact.</li>
+ *     <li>Other frames are encoded lossy and, with trial encoding, losslessly
+ *     at the same time, and the smaller one is kept, unless the lossy one
+ *     falls under the PSNR floor.</li>
+ * </ul>
+ * Frames whose pixels are all opaque are encoded without alpha, and the ALPH
+ * flag of the VP8X chunk is set from the frames as they were encoded.
+ */
+public final class WebPAnimationEncoder {
+
+    private static final int PALETTE_COLORS = 256;
+
+    private float quality = 75;
+    private int method = 4;
+    private float minPSNR = 0;
+    private boolean trialEncoding = true;
+    private int backgroundColor = 0x00000000;
+    private int loopCount = 0;
+    private final List<CompletableFuture<ANMFChunk>> frames = new ArrayList<>();
+    private int joined = 0;
+
+    /**
+     * This sets the quality of the lossy frames. The default is 75.
+     * @param quality The quality factor, from 0 to 100.
+     * @return This object.
+     */
+    public WebPAnimationEncoder setQuality(float quality) {
+        if (!(quality >= 0 && quality <= 100)) throw new IllegalArgumentException("quality out of range [0, 100]");
+        this.quality = quality;
+        return this;
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    /**
+     * This sets the trade-off between encoding speed and size of every frame.
+     * The default is 4.
+     * @param method The method, from 0 (fastest) to 6 (smallest).
+     * @return This object.
+     */
+    public WebPAnimationEncoder setMethod(int method) {
+        if (method < 0 || method > 6) throw new IllegalArgumentException("method out of range [0, 6]");
+        this.method = method;
+        return this;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    /**
+     * This sets the lowest PSNR a lossy frame may have. Frames that fall
+     * under it are encoded losslessly instead. The default is 0, which
+     * accepts any lossy frame and saves computing the PSNR.
+     * @param minPSNR The PSNR in dB.
+     * @return This object.
+     */
+    public WebPAnimationEncoder setMinPSNR(float minPSNR) {
+        if (!(minPSNR >= 0 && minPSNR <= 99)) throw new IllegalArgumentException("minPSNR out of range [0, 99]");
+        this.minPSNR = minPSNR;
+        return this;
+    }
+
+    public float getMinPSNR() {
+        return minPSNR;
+    }
+
+    /**
+     * This sets whether frames with many colors are also encoded losslessly,
+     * at the same time as the lossy encode, to keep the smaller of the two.
+     * The default is true. Otherwise they are only encoded lossy.
+     * @param trialEncoding Whether to try both codecs.
+     * @return This object.
+     */
+    public WebPAnimationEncoder setTrialEncoding(boolean trialEncoding) {
+        this.trialEncoding = trialEncoding;
+        return this;
+    }
+
+    public boolean isTrialEncoding() {
+        return trialEncoding;
+    }
+
+    public WebPAnimationEncoder setBackgroundColor(int backgroundColor) {
+        this.backgroundColor = backgroundColor;
+        return this;
+    }
+
+    public int getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    /**
+     * This sets the number of times the animation is played.
+     * @param loopCount The loop count, or 0 for forever.
+     * @return This object.
+     */
+    public WebPAnimationEncoder setLoopCount(int loopCount) {
+        this.loopCount = Util.checkUInt16(loopCount);
+        return this;
+    }
+
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    /**
+     * This adds a frame at the top left corner of the canvas, which replaces
+     * the pixels under it.
+     * @param image The frame.
+     * @param duration The duration of the frame in milliseconds.
+     * @return This object.
+     */
+    public WebPAnimationEncoder addFrame(BufferedImage image, int duration) {
+        return addFrame(image, 0, 0, duration, ANMFChunk.FLAG_NO_BLEND | ANMFChunk.FLAG_NO_DISPOSE);
+    }
+
+    /**
+     * This adds a frame, which starts being encoded right away. Only a few
+     * frames are encoded at a time, so this waits for the oldest ones when
+     * frames are added faster than they are encoded.
+     * @param image The frame.
+     * @param x The X offset of the frame in units of 2 pixels, as returned by
+     * {@link ANMFChunk#getFrameX()}.
+     * @param y The Y offset of the frame in units of 2 pixels.
+     * @param duration The duration of the frame in milliseconds.
+     * @param flags The blending and disposal flags of the frame.
+     * @return This object.
+     * @throws IllegalArgumentException If an earlier frame could not be
+     * encoded.
+     */
+    public WebPAnimationEncoder addFrame(BufferedImage image, int x, int y, int duration, int flags) {
+        Objects.requireNonNull(image);
+        Util.checkUInt24(x);
+        Util.checkUInt24(y);
+        Util.checkUInt24(duration);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        // The pixels are taken now, as the image may change once this returns
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        float quality = this.quality;
+        int method = this.method;
+        float minPSNR = this.minPSNR;
+        boolean trialEncoding = this.trialEncoding;
+        frames.add(CompletableFuture.supplyAsync(() -> encodeFrame(argb, width, height, x, y, duration, flags,
+                quality, method, minPSNR, trialEncoding)));
+        int window = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+        while (frames.size() - joined > window) join(frames.get(joined ++));
+        return this;
+    }
+
+    /**
+     * This waits for every frame to be encoded and returns the animation.
+     * The encoder can go on with more frames afterwards.
+     * @return The animated WebP file.
+     * @throws IllegalStateException If no frames were added.
+     * @throws IllegalArgumentException If a frame could not be encoded.
+     */
+    public WebPChunk encode() {
+        if (frames.isEmpty()) throw new IllegalStateException("No frames were added");
+        Chunk[] chunks = new Chunk[2 + frames.size()];
+        int canvasWidth = 0, canvasHeight = 0;
+        boolean hasAlpha = false;
+        for (int i = 0; i < frames.size(); i ++) {
+            ANMFChunk frame = join(frames.get(i));
+            canvasWidth = Math.max(canvasWidth, frame.getFrameX() * 2 + frame.getFrameWidth());
+            canvasHeight = Math.max(canvasHeight, frame.getFrameY() * 2 + frame.getFrameHeight());
+            if (WebPCompositor.hasAlpha(frame)) hasAlpha = true;
+            chunks[2 + i] = frame;
+        }
+        joined = frames.size();
+        chunks[0] = new VP8XChunk(VP8XChunk.FLAG_ANIM | (hasAlpha ? VP8XChunk.FLAG_ALPH : 0), canvasWidth, canvasHeight);
+        chunks[1] = new ANIMChunk(backgroundColor, loopCount);
+        return new WebPChunk(chunks);
+    }
+
+    private static ANMFChunk encodeFrame(int[] argb, int width, int height, int x, int y, int duration, int flags,
+            float quality, int method, float minPSNR, boolean trialEncoding) {
+        WebPEncoderOptions lossless = new WebPEncoderOptions().setLossless(true).setMethod(method);
+        WebPEncodeProgress losslessProgress = new WebPEncodeProgress();
+        if (countColors(argb, PALETTE_COLORS + 1) <= PALETTE_COLORS) {
+            Chunk[] chunks = WebPFactory.encodeARGB(argb, width, height, lossless, losslessProgress);
+            return new ANMFChunk(x, y, width, height, duration, flags, losslessProgress.getElapsedNanos(), null, chunks);
+        }
+        WebPEncoderOptions lossy = new WebPEncoderOptions().setQuality(quality).setMethod(method);
+        WebPEncodeProgress lossyProgress = new WebPEncodeProgress().setStatsEnabled(minPSNR > 0);
+        CompletableFuture<Chunk[]> losslessTrial = trialEncoding
+                ? CompletableFuture.supplyAsync(() -> WebPFactory.encodeARGB(argb, width, height, lossless, losslessProgress))
+                : null;
+        Chunk[] lossyChunks;
+        try {
+            lossyChunks = WebPFactory.encodeARGB(argb, width, height, lossy, lossyProgress);
+        }
+        catch (RuntimeException | Error e) {
+            if (losslessTrial != null) losslessTrial.cancel(false);
+            throw e;
+        }
+        WebPEncodeStats stats = lossyProgress.getStats();
+        boolean lossyOk = stats == null || stats.getPSNR(WebPEncodeStats.PSNR_ALL) >= minPSNR;
+        Chunk[] losslessChunks = null;
+        if (losslessTrial != null) losslessChunks = join(losslessTrial);
+        else if (!lossyOk) losslessChunks = WebPFactory.encodeARGB(argb, width, height, lossless, losslessProgress);
+        if (losslessChunks != null && (!lossyOk || size(losslessChunks) < size(lossyChunks))) {
+            return new ANMFChunk(x, y, width, height, duration, flags, losslessProgress.getElapsedNanos(), null,
+                    losslessChunks);
+        }
+        return new ANMFChunk(x, y, width, height, duration, flags, lossyProgress.getElapsedNanos(), stats, lossyChunks);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    private static long size(Chunk[] chunks) {
+        long size = 0;
+        for (Chunk chunk : chunks) size += chunk.getFullSize();
+        return size;
+    }
+
+    /**
+     * This counts the distinct colors of the pixels, stopping at the given
+     * limit.
+     * @return The number of colors, or the limit if there are more.
+     */
+    static int countColors(int[] argb, int limit) {
+        // An open addressing set, at most half full
+        int capacity = Integer.highestOneBit(limit * 2 - 1) << 1;
+        int[] colors = new int[capacity];
+        boolean[] used = new boolean[capacity];
+        int count = 0;
+        int last = 0;
+        boolean first = true;
+        for (int pixel : argb) {
+            // Runs of the same color are common and skip the lookup
+            if (pixel == last && !first) continue;
+            first = false;
+            last = pixel;
+            int slot = (pixel * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(capacity));
+            while (used[slot] && colors[slot] != pixel) slot = (slot + 1) & (capacity - 1);
+            if (used[slot]) continue;
+            used[slot] = true;
+            colors[slot] = pixel;
+            if (++ count >= limit) return limit;
+        }
+        return count;
+    }
+
+}
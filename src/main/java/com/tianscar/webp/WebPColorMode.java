@@ -0,0 +1,48 @@
+package com.tianscar.webp;
+
+/**
+ * These are the pixel layouts libwebp can decode into, named after the order
+ * of the bytes in memory. The premultiplied modes have their color channels
+ * multiplied by alpha, and the 16-bit modes pack each pixel into two bytes,
+ * with the first byte holding the most significant bits.
+ * @see WebPFactory#decode(BitstreamChunk, WebPColorMode, WebPDecoderOptions, int[])
+ */
+public enum WebPColorMode {
+
+    RGB(JNRFFI.MODE_RGB, 3, false, false),
+    RGBA(JNRFFI.MODE_RGBA, 4, true, false),
+    BGR(JNRFFI.MODE_BGR, 3, false, false),
+    BGRA(JNRFFI.MODE_BGRA, 4, true, false),
+    ARGB(JNRFFI.MODE_ARGB, 4, true, false),
+    RGBA_4444(JNRFFI.MODE_RGBA_4444, 2, true, false),
+    RGB_565(JNRFFI.MODE_RGB_565, 2, false, false),
+    PREMULTIPLIED_RGBA(JNRFFI.MODE_rgbA, 4, true, true),
+    PREMULTIPLIED_BGRA(JNRFFI.MODE_bgrA, 4, true, true),
+    PREMULTIPLIED_ARGB(JNRFFI.MODE_Argb, 4, true, true),
+    PREMULTIPLIED_RGBA_4444(JNRFFI.MODE_rgbA_4444, 2, true, true);
+
+    final int mode;
+    private final int bytesPerPixel;
+    private final boolean alpha;
+    private final boolean premultiplied;
+
+    WebPColorMode(int mode, int bytesPerPixel, boolean alpha, boolean premultiplied) {
+        this.mode = mode;
+        this.bytesPerPixel = bytesPerPixel;
+        this.alpha = alpha;
+        this.premultiplied = premultiplied;
+    }
+
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    public boolean isPremultiplied() {
+        return premultiplied;
+    }
+
+}
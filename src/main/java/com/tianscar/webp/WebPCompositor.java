@@ -0,0 +1,329 @@
+package com.tianscar.webp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This reconstructs the canvas of an animation frame by frame, honoring the
+ * offsets, blending and disposal methods of the frames as the WebP container
+ * specification describes. The canvas holds ints with the channels of its
+ * {@link WebPColorMode} from the most to the least significant byte, by
+ * default {@link WebPColorMode#ARGB}, which gives 0xAARRGGBB ints as in {@link
+ * java.awt.image.BufferedImage#TYPE_INT_ARGB}. Frames are decoded straight
+ * into that mode, and with a premultiplied mode, as in {@link
+ * java.awt.image.BufferedImage#TYPE_INT_ARGB_PRE}, they are blended
+ * premultiplied as well.
+ * <p>
+ * Like the animation decoder of libwebp, the canvas starts out and is
+ * disposed to transparent black rather than to the background color of the
+ * ANIM chunk, which is only a hint. Jumping to a frame starts over from the
+ * closest key frame before it, i.e. the closest frame that does not depend on
+ * the canvas left by the frames before it.
+ * <p>
+ * This is not thread safe.
+ */
+public final class WebPCompositor {
+
+    private final ANMFChunk[] frames;
+    private final WebPColorMode colorMode;
+    private final boolean[] keyFrames;
+    /**
+     * These are the offset and size of each frame on the canvas, four ints
+     * per frame, scaled if the canvas is.
+     */
+    private final int[] bounds;
+    private final boolean scaled;
+    private final int sourceWidth, sourceHeight;
+    private final int canvasWidth, canvasHeight;
+    private final int backgroundColor, loopCount;
+    private final int[] canvas;
+    private final int[] size = new int[2];
+    private final WebPDecoderOptions options = new WebPDecoderOptions();
+    private int frameIndex = -1;
+
+    /**
+     * This creates a compositor for the frames of an animated WebP file.
+     * @param animation The animation, which must have a VP8X chunk and at
+     * least one ANMF chunk.
+     */
+    public WebPCompositor(WebPChunk animation) {
+        this(animation, WebPColorMode.ARGB);
+    }
+
+    /**
+     * This creates a compositor whose canvas holds pixels of the given mode.
+     * @param animation The animation, which must have a VP8X chunk and at
+     * least one ANMF chunk.
+     * @param colorMode The layout of the canvas, one of {@code ARGB}, {@code
+     * BGRA}, {@code PREMULTIPLIED_ARGB} and {@code PREMULTIPLIED_BGRA}.
+     * @throws IllegalArgumentException If the mode cannot be packed into
+     * ints.
+     */
+    public WebPCompositor(WebPChunk animation, WebPColorMode colorMode) {
+        this(animation, colorMode, 0, 0);
+    }
+
+    /**
+     * This creates a compositor whose canvas is scaled to the given size.
+     * Each frame is decoded already scaled, with its offset and size scaled
+     * and rounded to whole pixels of the canvas.
+     * @param width The width of the canvas, or 0 for the width of the
+     * animation.
+     * @param height The height of the canvas, or 0 for the height of the
+     * animation.
+     */
+    WebPCompositor(WebPChunk animation, WebPColorMode colorMode, int width, int height) {
+        Objects.requireNonNull(animation);
+        WebPFactory.intMode(colorMode);
+        this.colorMode = colorMode;
+        VP8XChunk vp8xChunk = null;
+        ANIMChunk animChunk = null;
+        List<ANMFChunk> anmfChunks = new ArrayList<>();
+        for (Chunk chunk : animation.subchunks()) {
+            if (chunk instanceof VP8XChunk) vp8xChunk = (VP8XChunk) chunk;
+            else if (chunk instanceof ANIMChunk) animChunk = (ANIMChunk) chunk;
+            else if (chunk instanceof ANMFChunk) anmfChunks.add((ANMFChunk) chunk);
+        }
+        if (vp8xChunk == null) throw new IllegalArgumentException("No VP8X chunk found");
+        if (anmfChunks.isEmpty()) throw new IllegalArgumentException("No ANMF chunk found");
+        sourceWidth = vp8xChunk.getCanvasWidth();
+        sourceHeight = vp8xChunk.getCanvasHeight();
+        canvasWidth = width == 0 ? sourceWidth : width;
+        canvasHeight = height == 0 ? sourceHeight : height;
+        scaled = canvasWidth != sourceWidth || canvasHeight != sourceHeight;
+        backgroundColor = animChunk == null ? 0 : animChunk.getBackgroundColor();
+        loopCount = animChunk == null ? 0 : animChunk.getLoopCount();
+        frames = anmfChunks.toArray(new ANMFChunk[0]);
+        keyFrames = new boolean[frames.length];
+        for (int i = 0; i < frames.length; i ++) keyFrames[i] = computeKeyFrame(i);
+        bounds = new int[frames.length * 4];
+        for (int i = 0; i < frames.length; i ++) {
+            ANMFChunk frame = frames[i];
+            int left = scale(frame.getFrameX() * 2, sourceWidth, canvasWidth);
+            int top = scale(frame.getFrameY() * 2, sourceHeight, canvasHeight);
+            int right = scale(frame.getFrameX() * 2 + frame.getFrameWidth(), sourceWidth, canvasWidth);
+            int bottom = scale(frame.getFrameY() * 2 + frame.getFrameHeight(), sourceHeight, canvasHeight);
+            // Every frame keeps at least one pixel
+            bounds[i * 4] = left;
+            bounds[i * 4 + 1] = top;
+            bounds[i * 4 + 2] = Math.max(1, right - left);
+            bounds[i * 4 + 3] = Math.max(1, bottom - top);
+        }
+        canvas = new int[Math.multiplyExact(canvasWidth, canvasHeight)];
+    }
+
+    private static int scale(int position, int from, int to) {
+        return (int) (((long) position * to + from / 2) / from);
+    }
+
+    private boolean isFullFrame(ANMFChunk frame) {
+        return frame.getFrameX() == 0 && frame.getFrameY() == 0
+                && frame.getFrameWidth() == sourceWidth && frame.getFrameHeight() == sourceHeight;
+    }
+
+    /**
+     * This follows the animation decoder of libwebp, which treats frames with
+     * an alpha channel as if they were blended, since it cannot tell whether
+     * any of their pixels are actually transparent.
+     */
+    private boolean computeKeyFrame(int index) {
+        if (index == 0) return true;
+        ANMFChunk frame = frames[index];
+        if (isFullFrame(frame) && (frame.getBlendingFlag() == ANMFChunk.FLAG_NO_BLEND || !hasAlpha(frame))) return true;
+        ANMFChunk previous = frames[index - 1];
+        return previous.getDisposalMethodFlag() == ANMFChunk.FLAG_DISPOSE_TO_BACKGROUND
+                && (isFullFrame(previous) || keyFrames[index - 1]);
+    }
+
+    static boolean hasAlpha(ANMFChunk frame) {
+        for (Chunk subchunk : frame.subchunks()) {
+            if (subchunk instanceof ALPHChunk) return true;
+            if (subchunk instanceof VP8LChunk) {
+                // The alpha_is_used bit follows the signature and the 14 bit width and height
+                byte[] data = ((VP8LChunk) subchunk).getRawData();
+                return data.length < 5 || (data[4] & 0x10) != 0;
+            }
+        }
+        return false;
+    }
+
+    public WebPColorMode getColorMode() {
+        return colorMode;
+    }
+
+    public int getCanvasWidth() {
+        return canvasWidth;
+    }
+
+    public int getCanvasHeight() {
+        return canvasHeight;
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    /**
+     * This returns the background color of the ANIM chunk, or 0 if there is
+     * none. The compositor itself does not use it.
+     * @return The background color, as stored in the ANIM chunk.
+     */
+    public int getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    /**
+     * This returns the loop count of the ANIM chunk, or 0 if there is none.
+     * @return The number of times to play the animation, or 0 for forever.
+     */
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    /**
+     * This returns a frame of the animation.
+     * @param index The index of the frame.
+     * @return The ANMF chunk of the frame.
+     */
+    public ANMFChunk getFrame(int index) {
+        return frames[checkIndex(index)];
+    }
+
+    /**
+     * This returns how long a frame is shown, in milliseconds.
+     * @param index The index of the frame.
+     * @return The duration of the frame.
+     */
+    public int getFrameDuration(int index) {
+        return getFrame(index).getFrameDuration();
+    }
+
+    /**
+     * This returns whether a frame can be composited without compositing the
+     * frames before it.
+     * @param index The index of the frame.
+     * @return Whether the frame is a key frame.
+     */
+    public boolean isKeyFrame(int index) {
+        return keyFrames[checkIndex(index)];
+    }
+
+    /**
+     * This returns the index of the frame the canvas currently shows.
+     * @return The index of the frame, or -1 if no frame has been composited
+     * yet.
+     */
+    public int getFrameIndex() {
+        return frameIndex;
+    }
+
+    /**
+     * This returns the canvas itself, not a copy. Its contents change with
+     * each call to {@link #composite(int)}.
+     * @return The pixels of the canvas, row by row.
+     */
+    public int[] getCanvas() {
+        return canvas;
+    }
+
+    /**
+     * This brings the canvas to the given frame. Moving to the next frame
+     * only decodes that frame. Moving anywhere else starts over from the
+     * closest key frame, or continues from the current frame if that is
+     * closer.
+     * @param index The index of the frame.
+     * @return The canvas.
+     * @throws IllegalArgumentException If a frame cannot be decoded.
+     */
+    public int[] composite(int index) {
+        checkIndex(index);
+        if (index == frameIndex) return canvas;
+        int start = index;
+        while (!keyFrames[start]) start --;
+        if (frameIndex < start || frameIndex > index) {
+            Arrays.fill(canvas, 0);
+            frameIndex = start - 1;
+        }
+        while (frameIndex < index) {
+            if (frameIndex >= 0 && frames[frameIndex].getDisposalMethodFlag() == ANMFChunk.FLAG_DISPOSE_TO_BACKGROUND) {
+                dispose(frameIndex);
+            }
+            draw(frameIndex + 1);
+            frameIndex ++;
+        }
+        return canvas;
+    }
+
+    /**
+     * This clears the canvas, so that the next frame composited starts over.
+     */
+    public void reset() {
+        Arrays.fill(canvas, 0);
+        frameIndex = -1;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= frames.length) throw new IndexOutOfBoundsException("index: " + index + ", frames: " + frames.length);
+        return index;
+    }
+
+    private void draw(int index) {
+        ANMFChunk frame = frames[index];
+        int frameX = bounds[index * 4];
+        int frameY = bounds[index * 4 + 1];
+        if (scaled) options.setScaling(bounds[index * 4 + 2], bounds[index * 4 + 3]);
+        int[] pixels;
+        try {
+            pixels = WebPFactory.decodeFrame(frame, colorMode, options, size);
+        }
+        catch (RuntimeException e) {
+            // The canvas no longer matches any frame
+            reset();
+            throw e;
+        }
+        int width = Math.min(size[0], canvasWidth - frameX);
+        int height = Math.min(size[1], canvasHeight - frameY);
+        if (width <= 0 || height <= 0) return;
+        boolean blend = frame.getBlendingFlag() == ANMFChunk.FLAG_ALPHA_BLENDING;
+        for (int y = 0; y < height; y ++) {
+            int src = y * size[0];
+            int dst = (frameY + y) * canvasWidth + frameX;
+            if (!blend) System.arraycopy(pixels, src, canvas, dst, width);
+            else if (colorMode == WebPColorMode.ARGB) PixelKernels.INSTANCE.blend(pixels, src, canvas, dst, width);
+            else if (colorMode == WebPColorMode.PREMULTIPLIED_ARGB) {
+                PixelKernels.INSTANCE.blendPremultiplied(pixels, src, canvas, dst, width);
+            }
+            else blendAlphaLast(pixels, src, dst, width);
+        }
+    }
+
+    /**
+     * This blends BGRA pixels, whose alpha is in the lowest byte, by rotating
+     * it into the highest byte the kernels expect.
+     */
+    private void blendAlphaLast(int[] pixels, int src, int dst, int width) {
+        boolean premultiplied = colorMode.isPremultiplied();
+        for (int x = 0; x < width; x ++) {
+            int source = Integer.rotateRight(pixels[src + x], 8);
+            int destination = Integer.rotateRight(canvas[dst + x], 8);
+            int blended = premultiplied ? PixelKernels.blendPremultiplied(source, destination)
+                    : PixelKernels.blend(source, destination);
+            canvas[dst + x] = Integer.rotateLeft(blended, 8);
+        }
+    }
+
+    private void dispose(int index) {
+        int frameX = bounds[index * 4];
+        int frameY = bounds[index * 4 + 1];
+        int width = Math.min(bounds[index * 4 + 2], canvasWidth - frameX);
+        int height = Math.min(bounds[index * 4 + 3], canvasHeight - frameY);
+        if (width <= 0 || height <= 0) return;
+        for (int y = 0; y < height; y ++) {
+            int dst = (frameY + y) * canvasWidth + frameX;
+            Arrays.fill(canvas, dst, dst + width, 0);
+        }
+    }
+
+}
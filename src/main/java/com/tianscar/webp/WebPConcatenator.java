@@ -0,0 +1,344 @@
+package com.tianscar.webp;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static com.tianscar.webp.ALPHChunk.ALPH;
+import static com.tianscar.webp.ANIMChunk.ANIM;
+import static com.tianscar.webp.ANMFChunk.ANMF;
+import static com.tianscar.webp.ChannelChunk.uint24;
+import static com.tianscar.webp.Util.*;
+import static com.tianscar.webp.VP8Chunk.VP8;
+import static com.tianscar.webp.VP8LChunk.VP8L;
+import static com.tianscar.webp.VP8XChunk.VP8X;
+import static com.tianscar.webp.WebPChunk.WEBP;
+
+/**
+ * This joins several WebP files, animated or still, into one animation. The
+ * canvas is made large enough to hold every source, and smaller sources are
+ * centered on it. Frames are carried over by transferring their bitstreams
+ * from the source files, and only the headers are rewritten. Sources are
+ * read while the animation is written, so they must stay open until then.
+ * <p>
+ * Each source after the first must start from a clear canvas. When its first
+ * frame covers the whole canvas, it is simply written without blending.
+ * Otherwise that one frame is decoded and re-encoded losslessly as a
+ * transition frame the size of the canvas, which clears whatever the previous
+ * source left behind. ICC profiles and metadata of the sources are not
+ * carried over.
+ */
+public final class WebPConcatenator {
+
+    private static final class Frame {
+        final FileChannel channel;
+        final long position, length;
+        final boolean still, first;
+        int x, y, width, height, duration, flags;
+        ANMFChunk transition;
+
+        Frame(FileChannel channel, long position, long length, boolean still, boolean first) {
+            this.channel = channel;
+            this.position = position;
+            this.length = length;
+            this.still = still;
+            this.first = first;
+        }
+    }
+
+    private static final class Source {
+        final List<Frame> frames = new ArrayList<>();
+        int canvasWidth, canvasHeight;
+    }
+
+    private final List<Source> sources = new ArrayList<>();
+    private int canvasWidth, canvasHeight;
+    private int backgroundColor = 0;
+    private int loopCount = 0;
+    private boolean backgroundColorSet = false;
+    private boolean loopCountSet = false;
+    private int stillFrameDuration = 1000;
+
+    public WebPConcatenator() {
+    }
+
+    /**
+     * This adds a file to the end of the animation. Only the chunk headers
+     * of the file are read now.
+     * @param channel The file to add.
+     * @return This object.
+     * @throws IOException If the file is not a WebP file or an I/O error
+     * occurs.
+     */
+    public WebPConcatenator add(FileChannel channel) throws IOException {
+        Objects.requireNonNull(channel);
+        List<ChannelChunk> chunks = ChannelChunk.scan(channel);
+        Source source = new Source();
+        ChannelChunk first = chunks.get(0);
+        if (first.is(VP8X)) {
+            byte[] vp8x = first.readPayload(channel, 10);
+            if (vp8x.length < 10) throw new IOException("VP8X chunk too short");
+            source.canvasWidth = uint24(vp8x, 4) + 1;
+            source.canvasHeight = uint24(vp8x, 7) + 1;
+        }
+        ChannelChunk bitstreamStart = null;
+        for (ChannelChunk chunk : chunks) {
+            if (chunk.is(ANMF)) {
+                if (chunk.size < 16) throw new IOException("ANMF chunk too short");
+                byte[] header = chunk.readPayload(channel, 16);
+                Frame frame = new Frame(channel, chunk.position + 24, chunk.getFullSize() - 24, false,
+                        source.frames.isEmpty());
+                frame.x = uint24(header, 0);
+                frame.y = uint24(header, 3);
+                frame.width = uint24(header, 6) + 1;
+                frame.height = uint24(header, 9) + 1;
+                frame.duration = uint24(header, 12);
+                frame.flags = header[15] & (ANMFChunk.BLENDING_MASK | ANMFChunk.DISPOSAL_METHOD_MASK);
+                source.frames.add(frame);
+            }
+            else if (chunk.is(ANIM)) {
+                byte[] anim = chunk.readPayload(channel, 6);
+                if (anim.length < 6) throw new IOException("ANIM chunk too short");
+                if (!backgroundColorSet) backgroundColor = toInt32(anim);
+                if (!loopCountSet) loopCount = (anim[4] & 0xff) | (anim[5] & 0xff) << 8;
+                backgroundColorSet = loopCountSet = true;
+            }
+            else if (chunk.is(ALPH) && bitstreamStart == null) {
+                bitstreamStart = chunk;
+            }
+            else if ((chunk.is(VP8) || chunk.is(VP8L)) && source.frames.isEmpty()) {
+                if (bitstreamStart == null) bitstreamStart = chunk;
+                long end = chunk.position + chunk.getFullSize();
+                Frame frame = new Frame(channel, bitstreamStart.position, end - bitstreamStart.position, true, true);
+                int[] size = bitstreamSize(chunk.is(VP8L), chunk.readPayload(channel, 10));
+                frame.width = size[0];
+                frame.height = size[1];
+                source.frames.add(frame);
+            }
+        }
+        if (source.frames.isEmpty()) throw new IOException("No VP8 data found");
+        if (source.canvasWidth == 0) {
+            source.canvasWidth = source.frames.get(0).width;
+            source.canvasHeight = source.frames.get(0).height;
+        }
+        sources.add(source);
+        canvasWidth = Math.max(canvasWidth, source.canvasWidth);
+        canvasHeight = Math.max(canvasHeight, source.canvasHeight);
+        return this;
+    }
+
+    public int getCanvasWidth() {
+        return canvasWidth;
+    }
+
+    public int getCanvasHeight() {
+        return canvasHeight;
+    }
+
+    /**
+     * This returns the number of frames that have been added.
+     * @return The number of frames.
+     */
+    public int getFrameCount() {
+        int count = 0;
+        for (Source source : sources) {
+            count += source.frames.size();
+        }
+        return count;
+    }
+
+    /**
+     * This sets the background color. By default it is taken from the first
+     * animated source.
+     * @param backgroundColor The background color, in the byte order of
+     * {@link ANIMChunk#getBackgroundColor()}.
+     * @return This object.
+     */
+    public WebPConcatenator setBackgroundColor(int backgroundColor) {
+        this.backgroundColor = backgroundColor;
+        backgroundColorSet = true;
+        return this;
+    }
+
+    public int getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    /**
+     * This sets how many times the animation plays. By default it is taken
+     * from the first animated source.
+     * @param loopCount The number of loops, or 0 to loop forever.
+     * @return This object.
+     */
+    public WebPConcatenator setLoopCount(int loopCount) {
+        this.loopCount = checkUInt16(loopCount);
+        loopCountSet = true;
+        return this;
+    }
+
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    /**
+     * This sets how long still images are shown. The default is one second.
+     * @param duration The duration in milliseconds.
+     * @return This object.
+     */
+    public WebPConcatenator setStillFrameDuration(int duration) {
+        stillFrameDuration = checkUInt24(duration);
+        return this;
+    }
+
+    public int getStillFrameDuration() {
+        return stillFrameDuration;
+    }
+
+    /**
+     * This writes the joined animation.
+     * @param out Where to write the animation.
+     * @throws IOException If an I/O error occurs.
+     * @throws IllegalStateException If no source has been added.
+     */
+    public void write(WritableByteChannel out) throws IOException {
+        Objects.requireNonNull(out);
+        if (sources.isEmpty()) throw new IllegalStateException("No sources added");
+        Trace trace = Trace.start(WebPOperation.MUX, null);
+        VP8XChunk vp8x = new VP8XChunk(VP8XChunk.FLAG_ANIM | VP8XChunk.FLAG_ALPH, canvasWidth, canvasHeight);
+        ANIMChunk anim = new ANIMChunk(backgroundColor, loopCount);
+        long riffSize = 4 + vp8x.getFullSize() + anim.getFullSize();
+        long inputBytes = 0;
+        for (int i = 0; i < sources.size(); i ++) {
+            Source source = sources.get(i);
+            int offsetX = (canvasWidth - source.canvasWidth) / 2 / 2;
+            int offsetY = (canvasHeight - source.canvasHeight) / 2 / 2;
+            for (Frame frame : source.frames) {
+                inputBytes += frame.length;
+                int x = frame.x + offsetX;
+                int y = frame.y + offsetY;
+                frame.transition = null;
+                if (i > 0 && frame.first && (x != 0 || y != 0 || frame.width != canvasWidth || frame.height != canvasHeight)) {
+                    frame.transition = transitionFrame(frame, x, y, frame.still ? stillFrameDuration : frame.duration);
+                    riffSize += frame.transition.getFullSize();
+                }
+                else riffSize += 8 + 16 + frame.length;
+            }
+        }
+        ChannelChunk.writeRIFFHeader(riffSize, out);
+        ChannelChunk.write(vp8x, out);
+        ChannelChunk.write(anim, out);
+        for (int i = 0; i < sources.size(); i ++) {
+            Source source = sources.get(i);
+            int offsetX = (canvasWidth - source.canvasWidth) / 2 / 2;
+            int offsetY = (canvasHeight - source.canvasHeight) / 2 / 2;
+            for (Frame frame : source.frames) {
+                if (frame.transition != null) {
+                    ChannelChunk.write(frame.transition, out);
+                    continue;
+                }
+                int flags = i > 0 && frame.first ? frame.flags | ANMFChunk.FLAG_NO_BLEND : frame.flags;
+                ChannelChunk.writeFrameHeader(16 + frame.length, frame.x + offsetX, frame.y + offsetY,
+                        frame.width, frame.height, frame.still ? stillFrameDuration : frame.duration, flags, out);
+                ChannelChunk.transferFully(frame.channel, frame.position, frame.length, out);
+            }
+        }
+        trace.end(WEBP, inputBytes, riffSize + 8, canvasWidth, canvasHeight);
+    }
+
+    /**
+     * This writes the joined animation to a file.
+     * @param target The file to write, which must not be one of the sources.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void write(Path target) throws IOException {
+        Objects.requireNonNull(target);
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out);
+        }
+    }
+
+    /**
+     * This joins several files into one animation.
+     * @param sources The files to join, in order.
+     * @param target The file to write.
+     * @throws IOException If a source is not a WebP file or an I/O error
+     * occurs.
+     */
+    public static void concatenate(List<Path> sources, Path target) throws IOException {
+        Objects.requireNonNull(sources);
+        Objects.requireNonNull(target);
+        List<FileChannel> channels = new ArrayList<>();
+        try {
+            WebPConcatenator concatenator = new WebPConcatenator();
+            for (Path source : sources) {
+                FileChannel channel = FileChannel.open(source, StandardOpenOption.READ);
+                channels.add(channel);
+                concatenator.add(channel);
+            }
+            concatenator.write(target);
+        }
+        finally {
+            IOException exception = null;
+            for (FileChannel channel : channels) {
+                try {
+                    channel.close();
+                }
+                catch (IOException e) {
+                    if (exception == null) exception = e;
+                }
+            }
+            if (exception != null) throw exception;
+        }
+    }
+
+    /**
+     * This decodes the first frame of a source onto a clear canvas and
+     * encodes the whole canvas as one frame that replaces everything before
+     * it.
+     */
+    private ANMFChunk transitionFrame(Frame frame, int x, int y, int duration) throws IOException {
+        if (frame.length > Integer.MAX_VALUE) throw new IOException("frame too large to decode");
+        ByteBuffer data = ByteBuffer.allocate((int) frame.length);
+        ChannelChunk.readFully(frame.channel, data, frame.position);
+        byte[] bytes = data.array();
+        ALPHChunk alphChunk = null;
+        BitstreamChunk bitstreamChunk = null;
+        int position = 0;
+        while (position + 8 <= bytes.length) {
+            byte[] fourCC = new byte[] { bytes[position], bytes[position + 1], bytes[position + 2], bytes[position + 3] };
+            long size = toUInt32(new byte[] { bytes[position + 4], bytes[position + 5], bytes[position + 6], bytes[position + 7] });
+            if (position + 8 + size > bytes.length) throw new IOException("Chunk " + new String(fourCC) + " exceeds its frame");
+            byte[] payload = new byte[(int) size];
+            System.arraycopy(bytes, position + 8, payload, 0, payload.length);
+            if (arrayEquals(fourCC, ALPH)) alphChunk = new ALPHChunk(payload);
+            else if (arrayEquals(fourCC, VP8)) bitstreamChunk = new VP8Chunk(payload);
+            else if (arrayEquals(fourCC, VP8L)) bitstreamChunk = new VP8LChunk(payload);
+            position += 8 + size + (isOdd(size) ? 1 : 0);
+        }
+        if (bitstreamChunk == null) throw new IOException("No VP8 data found");
+        BufferedImage image = alphChunk != null && bitstreamChunk instanceof VP8Chunk
+                ? WebPFactory.decodeImage(alphChunk, (VP8Chunk) bitstreamChunk, BufferedImage.TYPE_INT_ARGB)
+                : WebPFactory.decodeImage(bitstreamChunk, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage canvas = new BufferedImage(canvasWidth, canvasHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = canvas.createGraphics();
+        try {
+            g.drawImage(image, x * 2, y * 2, null);
+        }
+        finally {
+            g.dispose();
+        }
+        VP8LChunk vp8lChunk = WebPFactory.encodeLosslessImage(canvas);
+        return new ANMFChunk(0, 0, canvasWidth, canvasHeight, duration,
+                ANMFChunk.FLAG_NO_BLEND | (frame.flags & ANMFChunk.DISPOSAL_METHOD_MASK), vp8lChunk);
+    }
+
+}
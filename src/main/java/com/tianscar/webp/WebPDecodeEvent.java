@@ -0,0 +1,11 @@
+package com.tianscar.webp;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.tianscar.webp.WebPDecode")
+@Label("WebP Decode")
+@Description("The decoding of a bitstream into pixels by libwebp")
+final class WebPDecodeEvent extends WebPEvent {
+}
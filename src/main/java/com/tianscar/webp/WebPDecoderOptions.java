@@ -0,0 +1,259 @@
+package com.tianscar.webp;
+
+/**
+ * These are the options for decoding a bitstream through libwebp's advanced
+ * decoding API. Cropping and scaling are done by the decoder itself while the
+ * image is being reconstructed, so only the requested pixels are ever
+ * produced. Cropping is applied before scaling.
+ * @see WebPFactory#decodeRGBA(BitstreamChunk, WebPDecoderOptions, int[])
+ */
+public class WebPDecoderOptions {
+
+    private boolean bypassFiltering = false;
+    private boolean noFancyUpsampling = false;
+    private boolean useCropping = false;
+    private int cropLeft, cropTop, cropWidth, cropHeight;
+    private boolean useScaling = false;
+    private int scaledWidth, scaledHeight;
+    private boolean useThreads = false;
+    private int ditheringStrength = 0;
+    private boolean flip = false;
+    private int alphaDitheringStrength = 0;
+
+    public WebPDecoderOptions() {
+    }
+
+    public WebPDecoderOptions(WebPDecoderOptions options) {
+        bypassFiltering = options.bypassFiltering;
+        noFancyUpsampling = options.noFancyUpsampling;
+        useCropping = options.useCropping;
+        cropLeft = options.cropLeft;
+        cropTop = options.cropTop;
+        cropWidth = options.cropWidth;
+        cropHeight = options.cropHeight;
+        useScaling = options.useScaling;
+        scaledWidth = options.scaledWidth;
+        scaledHeight = options.scaledHeight;
+        useThreads = options.useThreads;
+        ditheringStrength = options.ditheringStrength;
+        flip = options.flip;
+        alphaDitheringStrength = options.alphaDitheringStrength;
+    }
+
+    /**
+     * This sets the region of the image to decode. The region must lie within
+     * the image, otherwise decoding fails.
+     * @param x The left edge of the region.
+     * @param y The top edge of the region.
+     * @param width The width of the region.
+     * @param height The height of the region.
+     * @return This object.
+     */
+    public WebPDecoderOptions setCropping(int x, int y, int width, int height) {
+        if (x < 0 || y < 0) throw new IllegalArgumentException("crop offset < 0");
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("crop size <= 0");
+        useCropping = true;
+        cropLeft = x;
+        cropTop = y;
+        cropWidth = width;
+        cropHeight = height;
+        return this;
+    }
+
+    /**
+     * This removes the cropping region, so that the whole image is decoded.
+     * @return This object.
+     */
+    public WebPDecoderOptions clearCropping() {
+        useCropping = false;
+        cropLeft = cropTop = cropWidth = cropHeight = 0;
+        return this;
+    }
+
+    public boolean isCropping() {
+        return useCropping;
+    }
+
+    public int getCropLeft() {
+        return cropLeft;
+    }
+
+    public int getCropTop() {
+        return cropTop;
+    }
+
+    public int getCropWidth() {
+        return cropWidth;
+    }
+
+    public int getCropHeight() {
+        return cropHeight;
+    }
+
+    /**
+     * This sets the size to scale the (cropped) image to. If one of the
+     * dimensions is zero, it is computed from the other so as to preserve the
+     * aspect ratio.
+     * @param width The width of the decoded image.
+     * @param height The height of the decoded image.
+     * @return This object.
+     */
+    public WebPDecoderOptions setScaling(int width, int height) {
+        if (width < 0 || height < 0) throw new IllegalArgumentException("scaled size < 0");
+        if (width == 0 && height == 0) throw new IllegalArgumentException("scaled size == 0");
+        useScaling = true;
+        scaledWidth = width;
+        scaledHeight = height;
+        return this;
+    }
+
+    /**
+     * This removes the scaling, so that the image is decoded at its own size.
+     * @return This object.
+     */
+    public WebPDecoderOptions clearScaling() {
+        useScaling = false;
+        scaledWidth = scaledHeight = 0;
+        return this;
+    }
+
+    public boolean isScaling() {
+        return useScaling;
+    }
+
+    public int getScaledWidth() {
+        return scaledWidth;
+    }
+
+    public int getScaledHeight() {
+        return scaledHeight;
+    }
+
+    /**
+     * This sets whether the in-loop filtering of lossy images is skipped,
+     * which is faster but lowers the quality.
+     * @param bypassFiltering Whether to skip the filtering.
+     * @return This object.
+     */
+    public WebPDecoderOptions setBypassFiltering(boolean bypassFiltering) {
+        this.bypassFiltering = bypassFiltering;
+        return this;
+    }
+
+    public boolean isBypassFiltering() {
+        return bypassFiltering;
+    }
+
+    /**
+     * This sets whether the chroma of lossy images is upsampled with the
+     * faster point-sampling instead of the default fancy upsampler.
+     * @param noFancyUpsampling Whether to disable fancy upsampling.
+     * @return This object.
+     */
+    public WebPDecoderOptions setNoFancyUpsampling(boolean noFancyUpsampling) {
+        this.noFancyUpsampling = noFancyUpsampling;
+        return this;
+    }
+
+    public boolean isNoFancyUpsampling() {
+        return noFancyUpsampling;
+    }
+
+    /**
+     * This sets whether libwebp may use a second thread to decode.
+     * @param useThreads Whether to use multi-threaded decoding.
+     * @return This object.
+     */
+    public WebPDecoderOptions setUseThreads(boolean useThreads) {
+        this.useThreads = useThreads;
+        return this;
+    }
+
+    public boolean isUseThreads() {
+        return useThreads;
+    }
+
+    /**
+     * This sets the strength of the dithering applied to lossy images.
+     * @param ditheringStrength The strength, from 0 (off) to 100.
+     * @return This object.
+     */
+    public WebPDecoderOptions setDitheringStrength(int ditheringStrength) {
+        if (ditheringStrength < 0 || ditheringStrength > 100)
+            throw new IllegalArgumentException("dithering strength must be in [0, 100]");
+        this.ditheringStrength = ditheringStrength;
+        return this;
+    }
+
+    public int getDitheringStrength() {
+        return ditheringStrength;
+    }
+
+    /**
+     * This sets the strength of the dithering applied to quantized alpha.
+     * @param alphaDitheringStrength The strength, from 0 (off) to 100.
+     * @return This object.
+     */
+    public WebPDecoderOptions setAlphaDitheringStrength(int alphaDitheringStrength) {
+        if (alphaDitheringStrength < 0 || alphaDitheringStrength > 100)
+            throw new IllegalArgumentException("alpha dithering strength must be in [0, 100]");
+        this.alphaDitheringStrength = alphaDitheringStrength;
+        return this;
+    }
+
+    public int getAlphaDitheringStrength() {
+        return alphaDitheringStrength;
+    }
+
+    /**
+     * This sets whether the decoded image is flipped vertically.
+     * @param flip Whether to flip the image.
+     * @return This object.
+     */
+    public WebPDecoderOptions setFlip(boolean flip) {
+        this.flip = flip;
+        return this;
+    }
+
+    public boolean isFlip() {
+        return flip;
+    }
+
+    /**
+     * This copies these options into the native options struct. libwebp
+     * snaps the crop offset down to an even value, so an odd offset is
+     * widened by one pixel here and the extra row or column is returned in
+     * {@code skip} to be dropped when the pixels are copied out. With scaling
+     * the extra pixel cannot be separated again, so the snapped offset is used
+     * as is.
+     * @param options The native options.
+     * @param skip An array of length 2 receiving the number of leading columns
+     * and rows to drop.
+     */
+    void apply(JNRFFI.WebPDecoderOptions options, int[] skip) {
+        options.bypass_filtering.set(bypassFiltering ? 1 : 0);
+        options.no_fancy_upsampling.set(noFancyUpsampling ? 1 : 0);
+        options.use_threads.set(useThreads ? 1 : 0);
+        options.dithering_strength.set(ditheringStrength);
+        options.alpha_dithering_strength.set(alphaDitheringStrength);
+        options.flip.set(flip ? 1 : 0);
+        skip[0] = skip[1] = 0;
+        if (useCropping) {
+            if (!useScaling) {
+                skip[0] = cropLeft & 1;
+                skip[1] = cropTop & 1;
+            }
+            options.use_cropping.set(1);
+            options.crop_left.set(cropLeft - skip[0]);
+            options.crop_top.set(cropTop - skip[1]);
+            options.crop_width.set(cropWidth + skip[0]);
+            options.crop_height.set(cropHeight + skip[1]);
+        }
+        if (useScaling) {
+            options.use_scaling.set(1);
+            options.scaled_width.set(scaledWidth);
+            options.scaled_height.set(scaledHeight);
+        }
+    }
+
+}
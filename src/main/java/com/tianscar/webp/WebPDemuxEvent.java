@@ -0,0 +1,11 @@
+package com.tianscar.webp;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.tianscar.webp.WebPDemux")
+@Label("WebP Demux")
+@Description("The parsing of a WebP file into chunks")
+final class WebPDemuxEvent extends WebPEvent {
+}
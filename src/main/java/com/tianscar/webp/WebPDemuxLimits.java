@@ -0,0 +1,107 @@
+package com.tianscar.webp;
+
+/**
+ * These are the limits that {@link WebPFactory#demux(java.io.InputStream,
+ * WebPDemuxLimits)} enforces on a file. Each limit is checked against the
+ * sizes declared in the headers before anything is allocated for them, so a
+ * file that claims more than it is allowed fails at once, however short it
+ * really is. By default nothing is limited.
+ */
+public class WebPDemuxLimits {
+
+    private long maxChunkBytes = Long.MAX_VALUE;
+    private int maxFrames = Integer.MAX_VALUE;
+    private long maxCanvasPixels = Long.MAX_VALUE;
+    private long maxFramePixels = Long.MAX_VALUE;
+    private long maxTotalBytes = Long.MAX_VALUE;
+
+    public WebPDemuxLimits() {
+    }
+
+    public WebPDemuxLimits(WebPDemuxLimits limits) {
+        maxChunkBytes = limits.maxChunkBytes;
+        maxFrames = limits.maxFrames;
+        maxCanvasPixels = limits.maxCanvasPixels;
+        maxFramePixels = limits.maxFramePixels;
+        maxTotalBytes = limits.maxTotalBytes;
+    }
+
+    /**
+     * This sets the largest payload a single chunk or frame subchunk may
+     * declare.
+     * @param maxChunkBytes The maximum size in bytes.
+     * @return This object.
+     */
+    public WebPDemuxLimits setMaxChunkBytes(long maxChunkBytes) {
+        if (maxChunkBytes <= 0) throw new IllegalArgumentException("maxChunkBytes <= 0");
+        this.maxChunkBytes = maxChunkBytes;
+        return this;
+    }
+
+    public long getMaxChunkBytes() {
+        return maxChunkBytes;
+    }
+
+    /**
+     * This sets the largest number of ANMF chunks an animation may have.
+     * @param maxFrames The maximum number of frames.
+     * @return This object.
+     */
+    public WebPDemuxLimits setMaxFrames(int maxFrames) {
+        if (maxFrames <= 0) throw new IllegalArgumentException("maxFrames <= 0");
+        this.maxFrames = maxFrames;
+        return this;
+    }
+
+    public int getMaxFrames() {
+        return maxFrames;
+    }
+
+    /**
+     * This sets the largest canvas, in pixels, that a VP8X chunk or the
+     * bitstream of a simple file may declare.
+     * @param maxCanvasPixels The maximum width times height.
+     * @return This object.
+     */
+    public WebPDemuxLimits setMaxCanvasPixels(long maxCanvasPixels) {
+        if (maxCanvasPixels <= 0) throw new IllegalArgumentException("maxCanvasPixels <= 0");
+        this.maxCanvasPixels = maxCanvasPixels;
+        return this;
+    }
+
+    public long getMaxCanvasPixels() {
+        return maxCanvasPixels;
+    }
+
+    /**
+     * This sets the largest frame, in pixels, that an ANMF chunk may
+     * declare.
+     * @param maxFramePixels The maximum width times height.
+     * @return This object.
+     */
+    public WebPDemuxLimits setMaxFramePixels(long maxFramePixels) {
+        if (maxFramePixels <= 0) throw new IllegalArgumentException("maxFramePixels <= 0");
+        this.maxFramePixels = maxFramePixels;
+        return this;
+    }
+
+    public long getMaxFramePixels() {
+        return maxFramePixels;
+    }
+
+    /**
+     * This sets the largest file, as declared by its RIFF header.
+     * @param maxTotalBytes The maximum size in bytes.
+     * @return This object.
+     */
+    public WebPDemuxLimits setMaxTotalBytes(long maxTotalBytes) {
+        if (maxTotalBytes <= 0) throw new IllegalArgumentException("maxTotalBytes <= 0");
+        this.maxTotalBytes = maxTotalBytes;
+        return this;
+    }
+
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+}
@@ -0,0 +1,11 @@
+package com.tianscar.webp;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.tianscar.webp.WebPEncode")
+@Label("WebP Encode")
+@Description("The encoding of pixels into a bitstream by libwebp")
+final class WebPEncodeEvent extends WebPEvent {
+}
@@ -0,0 +1,187 @@
+package com.tianscar.webp;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * This follows and controls one encode at a time. libwebp calls back at
+ * checkpoints of its passes with the percentage done, which is handed to the
+ * listener, and the encode is aborted at the next checkpoint once this is
+ * cancelled or its deadline has passed. An aborted encode throws a {@link
+ * CancellationException}, and how far it got stays readable here.
+ * <p>
+ * Checkpoints are closer together for lossy than for lossless images, whose
+ * analysis can run for a while between two of them.
+ * <p>
+ * With statistics enabled, the {@link WebPEncodeStats} of libwebp are kept
+ * for each successful encode.
+ * @see WebPFactory#encodeImage(java.awt.image.BufferedImage, WebPEncoderOptions, WebPEncodeProgress)
+ */
+public final class WebPEncodeProgress {
+
+    private final IntConsumer listener;
+    private volatile boolean cancelled = false;
+    private volatile boolean hasDeadline = false;
+    private volatile long deadline;
+    private volatile int percent = 0;
+    private volatile long startTime, endTime;
+    private volatile boolean running = false, aborted = false, deadlineExceeded = false;
+    private volatile boolean statsEnabled = false;
+    private volatile WebPEncodeStats stats;
+
+    public WebPEncodeProgress() {
+        this(percent -> {});
+    }
+
+    /**
+     * This creates a progress that reports to a listener.
+     * @param listener The receiver of the percentage done, called on the
+     * encoding thread, which it holds up.
+     */
+    public WebPEncodeProgress(IntConsumer listener) {
+        this.listener = Objects.requireNonNull(listener);
+    }
+
+    /**
+     * This sets when the encode is aborted.
+     * @param deadline The deadline, in terms of {@link System#nanoTime()}.
+     * @return This object.
+     */
+    public WebPEncodeProgress setDeadline(long deadline) {
+        this.deadline = deadline;
+        hasDeadline = true;
+        return this;
+    }
+
+    /**
+     * This sets the deadline to the given time from now.
+     * @param timeout The time left.
+     * @param unit The unit of the time left.
+     * @return This object.
+     */
+    public WebPEncodeProgress setTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) throw new IllegalArgumentException("timeout < 0");
+        return setDeadline(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * This aborts the encode at its next checkpoint, or before it starts.
+     * This may be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * This returns the last percentage libwebp reported.
+     * @return The percentage done, from 0 to 100.
+     */
+    public int getPercent() {
+        return percent;
+    }
+
+    /**
+     * This returns how long the encode has been running, or ran.
+     * @return The time in nanoseconds, or 0 if it has not started.
+     */
+    public long getElapsedNanos() {
+        long start = startTime;
+        if (start == 0) return 0;
+        return (running ? System.nanoTime() : endTime) - start;
+    }
+
+    /**
+     * This sets whether libwebp gathers statistics during the encode. The 
+     * default is false, as computing the PSNR of lossy images takes some 
+     * time.
+     * @param statsEnabled Whether to gather statistics.
+     * @return This object.
+     */
+    public WebPEncodeProgress setStatsEnabled(boolean statsEnabled) {
+        this.statsEnabled = statsEnabled;
+        return this;
+    }
+
+    public boolean isStatsEnabled() {
+        return statsEnabled;
+    }
+
+    /**
+     * This returns the statistics of the last encode.
+     * @return The statistics, or null if they were not enabled or the encode 
+     * did not complete.
+     */
+    public WebPEncodeStats getStats() {
+        return stats;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * This returns whether the last encode was aborted, because this was
+     * cancelled or the deadline passed.
+     * @return Whether the encode was aborted.
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    public boolean isDeadlineExceeded() {
+        return deadlineExceeded;
+    }
+
+    /**
+     * This is called before encoding, and aborts right away if this is
+     * already cancelled or past its deadline.
+     */
+    void start() {
+        percent = 0;
+        aborted = deadlineExceeded = false;
+        stats = null;
+        startTime = System.nanoTime();
+        running = true;
+        if (!shouldContinue()) {
+            end();
+            throw abortedException();
+        }
+    }
+
+    /**
+     * This is called by the progress hook of libwebp.
+     * @return Whether to go on encoding.
+     */
+    boolean report(int percent) {
+        this.percent = percent;
+        listener.accept(percent);
+        return shouldContinue();
+    }
+
+    private boolean shouldContinue() {
+        if (hasDeadline && System.nanoTime() - deadline >= 0) deadlineExceeded = true;
+        aborted = cancelled || deadlineExceeded;
+        return !aborted;
+    }
+
+    void setStats(WebPEncodeStats stats) {
+        this.stats = stats;
+    }
+
+    void end() {
+        endTime = System.nanoTime();
+        running = false;
+    }
+
+    CancellationException abortedException() {
+        return new CancellationException((deadlineExceeded ? "Encoding deadline exceeded" : "Encoding cancelled")
+                + " at " + percent + "%");
+    }
+
+}
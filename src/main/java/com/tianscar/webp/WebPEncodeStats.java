@@ -0,0 +1,209 @@
+package com.tianscar.webp;
+
+import jnr.ffi.Struct;
+
+import java.util.Arrays;
+
+/**
+ * These are the statistics libwebp gathers while encoding an image, which
+ * tell where the bytes went: the header, the alpha plane, each segment of a
+ * lossy image, or the transforms and color cache of a lossless one. Fields
+ * that do not apply to the kind of image encoded are 0.
+ * @see WebPEncodeProgress#setStatsEnabled(boolean)
+ */
+public final class WebPEncodeStats {
+
+    /**
+     * These are the bits of {@link #getLosslessFeatures()}.
+     */
+    public static final int FEATURE_PREDICTION = 1 << 0;
+    public static final int FEATURE_CROSS_COLOR = 1 << 1;
+    public static final int FEATURE_SUBTRACT_GREEN = 1 << 2;
+    public static final int FEATURE_COLOR_INDEXING = 1 << 3;
+
+    /**
+     * These are the indices of {@link #getPSNR(int)}.
+     */
+    public static final int PSNR_Y = 0;
+    public static final int PSNR_U = 1;
+    public static final int PSNR_V = 2;
+    public static final int PSNR_ALL = 3;
+    public static final int PSNR_ALPHA = 4;
+
+    private final int codedSize;
+    private final float[] psnr;
+    private final int[] blockCount;
+    private final int[] headerBytes;
+    private final int[] residualBytes;
+    private final int[] segmentSize, segmentQuant, segmentLevel;
+    private final int alphaDataSize, layerDataSize;
+    private final int losslessFeatures;
+    private final int histogramBits, transformBits, cacheBits, paletteSize;
+    private final int losslessSize, losslessHeaderSize, losslessDataSize;
+
+    WebPEncodeStats(JNRFFI.WebPAuxStats stats) {
+        codedSize = stats.coded_size.get();
+        psnr = new float[stats.PSNR.length];
+        for (int i = 0; i < psnr.length; i ++) psnr[i] = stats.PSNR[i].get();
+        blockCount = toArray(stats.block_count);
+        headerBytes = toArray(stats.header_bytes);
+        residualBytes = toArray(stats.residual_bytes);
+        segmentSize = toArray(stats.segment_size);
+        segmentQuant = toArray(stats.segment_quant);
+        segmentLevel = toArray(stats.segment_level);
+        alphaDataSize = stats.alpha_data_size.get();
+        layerDataSize = stats.layer_data_size.get();
+        losslessFeatures = (int) stats.lossless_features.get();
+        histogramBits = stats.histogram_bits.get();
+        transformBits = stats.transform_bits.get();
+        cacheBits = stats.cache_bits.get();
+        paletteSize = stats.palette_size.get();
+        losslessSize = stats.lossless_size.get();
+        losslessHeaderSize = stats.lossless_hdr_size.get();
+        losslessDataSize = stats.lossless_data_size.get();
+    }
+
+    private static int[] toArray(Struct.Signed32[] fields) {
+        int[] values = new int[fields.length];
+        for (int i = 0; i < values.length; i ++) values[i] = fields[i].get();
+        return values;
+    }
+
+    /**
+     * This returns the size of the encoded file.
+     * @return The size in bytes.
+     */
+    public int getCodedSize() {
+        return codedSize;
+    }
+
+    /**
+     * This returns the peak signal-to-noise ratio of a channel of a lossy
+     * image.
+     * @param channel One of the PSNR_ constants.
+     * @return The PSNR in dB.
+     */
+    public float getPSNR(int channel) {
+        if (channel < 0 || channel >= psnr.length) throw new IndexOutOfBoundsException("channel: " + channel);
+        return psnr[channel];
+    }
+
+    /**
+     * This returns how many macroblocks of a lossy image were coded as
+     * intra16, intra4 and skipped.
+     * @return The three counts.
+     */
+    public int[] getBlockCount() {
+        return blockCount.clone();
+    }
+
+    /**
+     * This returns the size of the header and of the mode partition of a
+     * lossy image.
+     * @return The two sizes in bytes.
+     */
+    public int[] getHeaderBytes() {
+        return headerBytes.clone();
+    }
+
+    /**
+     * This returns the size of the DC, AC and UV coefficients of a segment
+     * of a lossy image.
+     * @param type 0 for DC, 1 for AC and 2 for UV.
+     * @param segment The segment, from 0 to 3.
+     * @return The size in bytes.
+     */
+    public int getResidualBytes(int type, int segment) {
+        if (type < 0 || type > 2) throw new IndexOutOfBoundsException("type: " + type);
+        if (segment < 0 || segment > 3) throw new IndexOutOfBoundsException("segment: " + segment);
+        return residualBytes[type * 4 + segment];
+    }
+
+    /**
+     * This returns how many macroblocks fell into each of the 4 segments.
+     * @return The four counts.
+     */
+    public int[] getSegmentSize() {
+        return segmentSize.clone();
+    }
+
+    public int[] getSegmentQuantizer() {
+        return segmentQuant.clone();
+    }
+
+    public int[] getSegmentFilterLevel() {
+        return segmentLevel.clone();
+    }
+
+    /**
+     * This returns the size of the compressed alpha plane.
+     * @return The size in bytes.
+     */
+    public int getAlphaDataSize() {
+        return alphaDataSize;
+    }
+
+    public int getLayerDataSize() {
+        return layerDataSize;
+    }
+
+    /**
+     * This returns the transforms a lossless image was coded with.
+     * @return A combination of the FEATURE_ constants.
+     */
+    public int getLosslessFeatures() {
+        return losslessFeatures;
+    }
+
+    public int getHistogramBits() {
+        return histogramBits;
+    }
+
+    public int getTransformBits() {
+        return transformBits;
+    }
+
+    /**
+     * This returns the size of the color cache of a lossless image.
+     * @return The number of bits of the cache index, or 0 if there is none.
+     */
+    public int getCacheBits() {
+        return cacheBits;
+    }
+
+    public int getPaletteSize() {
+        return paletteSize;
+    }
+
+    /**
+     * This returns the size of the lossless bitstream, which for a lossy
+     * image is the one of its alpha plane.
+     * @return The size in bytes.
+     */
+    public int getLosslessSize() {
+        return losslessSize;
+    }
+
+    public int getLosslessHeaderSize() {
+        return losslessHeaderSize;
+    }
+
+    public int getLosslessDataSize() {
+        return losslessDataSize;
+    }
+
+    @Override
+    public String toString() {
+        return "WebPEncodeStats{codedSize=" + codedSize
+                + ", psnr=" + Arrays.toString(psnr)
+                + ", blockCount=" + Arrays.toString(blockCount)
+                + ", headerBytes=" + Arrays.toString(headerBytes)
+                + ", segmentSize=" + Arrays.toString(segmentSize)
+                + ", alphaDataSize=" + alphaDataSize
+                + ", losslessFeatures=" + losslessFeatures
+                + ", cacheBits=" + cacheBits
+                + ", paletteSize=" + paletteSize
+                + ", losslessSize=" + losslessSize + "}";
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.tianscar.webp;
+
+/**
+ * These are the options for encoding an image through libwebp's advanced
+ * encoding API. Unlike the simple encoding functions, this lets the encoder
+ * trade speed for size, and reports its progress to a {@link
+ * WebPEncodeProgress}.
+ * @see WebPFactory#encodeImage(java.awt.image.BufferedImage, WebPEncoderOptions, WebPEncodeProgress)
+ */
+public class WebPEncoderOptions {
+
+    private float quality = 75;
+    private boolean lossless = false;
+    private int method = 4;
+    private int targetSize = 0;
+    private float targetPSNR = 0;
+    private int passes = 0;
+
+    public WebPEncoderOptions() {
+    }
+
+    public WebPEncoderOptions(WebPEncoderOptions options) {
+        quality = options.quality;
+        lossless = options.lossless;
+        method = options.method;
+        targetSize = options.targetSize;
+        targetPSNR = options.targetPSNR;
+        passes = options.passes;
+    }
+
+    /**
+     * This sets the quality factor, which is the effort for lossless images.
+     * The default is 75.
+     * @param quality The quality factor, from 0 to 100.
+     * @return This object.
+     */
+    public WebPEncoderOptions setQuality(float quality) {
+        if (!(quality >= 0 && quality <= 100)) throw new IllegalArgumentException("quality out of range [0, 100]");
+        this.quality = quality;
+        return this;
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    /**
+     * This sets whether the image is encoded losslessly. The default is false.
+     * @param lossless Whether to encode losslessly.
+     * @return This object.
+     */
+    public WebPEncoderOptions setLossless(boolean lossless) {
+        this.lossless = lossless;
+        return this;
+    }
+
+    public boolean isLossless() {
+        return lossless;
+    }
+
+    /**
+     * This sets the trade-off between encoding speed and size. The default is
+     * 4.
+     * @param method The method, from 0 (fastest) to 6 (smallest).
+     * @return This object.
+     */
+    public WebPEncoderOptions setMethod(int method) {
+        if (method < 0 || method > 6) throw new IllegalArgumentException("method out of range [0, 6]");
+        this.method = method;
+        return this;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    /**
+     * This makes libwebp search for the quantization that comes closest to 
+     * the given size, in place of the quality factor, over several passes of 
+     * its statistics. The search is only done for lossy images and may 
+     * overshoot a little, see {@link WebPFactory#encodeWithinSize(
+     * java.awt.image.BufferedImage, int, WebPEncoderOptions)} for a hard 
+     * budget. The default is 0, which disables it.
+     * @param targetSize The size of the encoded file in bytes, or 0.
+     * @return This object.
+     */
+    public WebPEncoderOptions setTargetSize(int targetSize) {
+        if (targetSize < 0) throw new IllegalArgumentException("targetSize < 0");
+        this.targetSize = targetSize;
+        return this;
+    }
+
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    /**
+     * This makes libwebp search for the quantization that comes closest to 
+     * the given PSNR, like {@link #setTargetSize(int)}. The target size wins 
+     * if both are set. The default is 0, which disables it.
+     * @param targetPSNR The PSNR in dB, or 0.
+     * @return This object.
+     */
+    public WebPEncoderOptions setTargetPSNR(float targetPSNR) {
+        if (!(targetPSNR >= 0 && targetPSNR <= 99)) throw new IllegalArgumentException("targetPSNR out of range [0, 99]");
+        this.targetPSNR = targetPSNR;
+        return this;
+    }
+
+    public float getTargetPSNR() {
+        return targetPSNR;
+    }
+
+    /**
+     * This sets the number of passes of the search for a target size or 
+     * PSNR. The default is 0, which picks 1 without a target and 6 with one.
+     * @param passes The number of passes, from 1 to 10, or 0.
+     * @return This object.
+     */
+    public WebPEncoderOptions setPasses(int passes) {
+        if (passes < 0 || passes > 10) throw new IllegalArgumentException("passes out of range [0, 10]");
+        this.passes = passes;
+        return this;
+    }
+
+    public int getPasses() {
+        return passes;
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.tianscar.webp;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * This is the base of the Flight Recorder events emitted by the library. These 
+ * classes are only loaded when jdk.jfr is available.
+ * @see WebPEvents
+ */
+@Category("WebP")
+@StackTrace(true)
+abstract class WebPEvent extends Event {
+
+    @Label("Chunk Type")
+    String chunkType;
+
+    @Label("Mode")
+    String mode;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Input Size")
+    @DataAmount
+    long inputBytes;
+
+    @Label("Output Size")
+    @DataAmount
+    long outputBytes;
+
+}
@@ -0,0 +1,72 @@
+package com.tianscar.webp;
+
+/**
+ * This creates and commits the Flight Recorder events. Events are passed around 
+ * as plain objects, so that classes calling this one can be loaded and verified 
+ * on runtimes that do not have jdk.jfr. This class must only be used when 
+ * {@link Trace#JFR_AVAILABLE} is true.
+ */
+final class WebPEvents {
+
+    private WebPEvents() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * This starts timing an event for the given operation.
+     * @return The event, or null if the event type is not being recorded.
+     */
+    static Object begin(WebPOperation operation) {
+        WebPEvent event;
+        switch (operation) {
+            case DECODE:
+                event = new WebPDecodeEvent();
+                break;
+            case ENCODE:
+                event = new WebPEncodeEvent();
+                break;
+            case DEMUX:
+                event = new WebPDemuxEvent();
+                break;
+            case MUX:
+                event = new WebPMuxEvent();
+                break;
+            default:
+                throw new IllegalArgumentException(String.valueOf(operation));
+        }
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object event, String chunkType, String mode, int width, int height,
+                       long inputBytes, long outputBytes) {
+        WebPEvent webPEvent = (WebPEvent) event;
+        webPEvent.end();
+        if (!webPEvent.shouldCommit()) return;
+        webPEvent.chunkType = chunkType;
+        webPEvent.mode = mode;
+        webPEvent.width = width;
+        webPEvent.height = height;
+        webPEvent.inputBytes = inputBytes;
+        webPEvent.outputBytes = outputBytes;
+        webPEvent.commit();
+    }
+
+    static Object beginNativeFree() {
+        WebPNativeFreeEvent event = new WebPNativeFreeEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    static void commitNativeFree(Object event, long address, long bytes) {
+        WebPNativeFreeEvent freeEvent = (WebPNativeFreeEvent) event;
+        freeEvent.end();
+        if (!freeEvent.shouldCommit()) return;
+        freeEvent.address = address;
+        freeEvent.bytes = bytes;
+        freeEvent.commit();
+    }
+
+}
@@ -12,16 +12,43 @@ import static com.tianscar.webp.VP8LChunk.VP8L;
 import static com.tianscar.webp.VP8XChunk.VP8X;
 import static com.tianscar.webp.WebPChunk.WEBP;
 import static com.tianscar.webp.XMPChunk.XMP;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 import jnr.ffi.Pointer;
+import jnr.ffi.Struct;
 import jnr.ffi.byref.IntByReference;
 import jnr.ffi.byref.PointerByReference;
 
 public final class WebPFactory {
+    /**
+     * This is whether 0xAARRGGBB ints are laid out as BGRA bytes in memory.
+     */
+    static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
     /**
      * This is the default name of the libwebp library.
      */
@@ -91,19 +118,164 @@ public final class WebPFactory {
         if (!getAdditionalSearchDirectories().contains(path))
             getAdditionalSearchDirectories().add(path);
     }
+    /**
+     * This returns the name of the binding used for the simple decoding and
+     * encoding functions. This is "ffm" when running on Java 22 or later with
+     * native access, in which case the Foreign Function and Memory API is
+     * used, and "jnr" otherwise. The binding is chosen the first time this or
+     * a codec method is called, so the library name and search directories
+     * should be set before then. Setting the system property {@code
+     * webp.binding} to {@code jnr} always selects jnr-ffi.
+     * @return The name of the binding in use.
+     */
+    public static String getNativeBindingName(){
+        NativeBinding binding = NativeBinding.FOREIGN;
+        return (binding != null)?binding.getName():"jnr";
+    }
+
+    /**
+     * This is the metrics listeners that are currently registered. This array 
+     * is replaced rather than modified, so it can be read without locking.
+     */
+    static volatile WebPMetricsListener[] metricsListeners = new WebPMetricsListener[0];
+    /**
+     * This registers a listener to be notified after every demux, decode, encode 
+     * and mux. While no listeners are registered, operations are not measured 
+     * at all. Adding a listener that is already registered does nothing.
+     * @param listener The listener to add (cannot be null).
+     * @throws NullPointerException If the given listener is null.
+     * @see #removeMetricsListener(com.tianscar.webp.WebPMetricsListener) 
+     */
+    public static synchronized void addMetricsListener(WebPMetricsListener listener){
+        Objects.requireNonNull(listener);
+        List<WebPMetricsListener> listeners = new ArrayList<>(Arrays.asList(metricsListeners));
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+            metricsListeners = listeners.toArray(new WebPMetricsListener[0]);
+        }
+    }
+    /**
+     * This unregisters a listener that was added with {@link 
+     * #addMetricsListener(com.tianscar.webp.WebPMetricsListener) 
+     * addMetricsListener}.
+     * @param listener The listener to remove.
+     * @return Whether the listener was registered.
+     */
+    public static synchronized boolean removeMetricsListener(WebPMetricsListener listener){
+        List<WebPMetricsListener> listeners = new ArrayList<>(Arrays.asList(metricsListeners));
+        boolean removed = listeners.remove(listener);
+        if (removed) metricsListeners = listeners.toArray(new WebPMetricsListener[0]);
+        return removed;
+    }
+    /**
+     * This returns the metrics listeners that are currently registered.
+     * @return An unmodifiable snapshot of the registered listeners.
+     */
+    public static List<WebPMetricsListener> getMetricsListeners(){
+        return Collections.unmodifiableList(Arrays.asList(metricsListeners));
+    }
 
     private WebPFactory() {
         throw new UnsupportedOperationException();
     }
 
     public static WebPChunk demux(InputStream in) throws IOException {
+        return demux(in, new WebPDemuxLimits());
+    }
+
+    /**
+     * This parses a WebP file into chunks, failing as soon as a header 
+     * declares more than the given limits allow. Chunk sizes are also checked 
+     * against the space left in their parent, and payloads are read 
+     * incrementally, so memory only grows with the bytes actually received.
+     * @param in The stream to read, which is closed afterwards.
+     * @param limits The limits to enforce.
+     * @return The chunks of the file.
+     * @throws IOException If the file is malformed, exceeds a limit, or an I/O 
+     * error occurs.
+     */
+    public static WebPChunk demux(InputStream in, WebPDemuxLimits limits) throws IOException {
+        return demux(in, limits, true);
+    }
+
+    /**
+     * This parses a WebP file that is part of a longer stream, such as a 
+     * multipart body or an archive entry.
+     * @param in The stream to read.
+     * @param limits The limits to enforce.
+     * @param closeStream Whether to close the stream afterwards. If not, the 
+     * stream is left positioned just after the RIFF.
+     * @return The chunks of the file.
+     * @throws IOException If the file is malformed, exceeds a limit, or an I/O 
+     * error occurs.
+     * @see #demux(InputStream, WebPDemuxLimits) 
+     */
+    public static WebPChunk demux(InputStream in, WebPDemuxLimits limits, boolean closeStream) throws IOException {
         Objects.requireNonNull(in);
-        byte[] riffChunkHeader = readFourCC(in);
+        Objects.requireNonNull(limits);
+        return demux(DemuxInput.of(in, closeStream), limits);
+    }
+
+    public static WebPChunk demux(byte[] data, int offset, int length) throws IOException {
+        return demux(data, offset, length, new WebPDemuxLimits(), false);
+    }
+
+    /**
+     * This parses a WebP file that is already in memory, in place.
+     * @param data The array holding the file.
+     * @param offset The index of the RIFF header.
+     * @param length The number of bytes available from the offset.
+     * @param limits The limits to enforce.
+     * @param shareData Whether the chunk payloads are views of the array 
+     * rather than copies. The array must then not change while the chunks 
+     * are in use.
+     * @return The chunks of the file.
+     * @throws IOException If the file is malformed, truncated or exceeds a 
+     * limit.
+     */
+    public static WebPChunk demux(byte[] data, int offset, int length, WebPDemuxLimits limits, boolean shareData) 
+            throws IOException {
+        Objects.requireNonNull(data);
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length + ", array: " + data.length);
+        }
+        return demux(ByteBuffer.wrap(data, offset, length), limits, shareData);
+    }
+
+    public static WebPChunk demux(ByteBuffer buffer) throws IOException {
+        return demux(buffer, new WebPDemuxLimits(), false);
+    }
+
+    /**
+     * This parses a WebP file from the remaining bytes of a buffer, in place. 
+     * On success the position of the buffer is moved just past the RIFF.
+     * @param buffer The buffer holding the file.
+     * @param limits The limits to enforce.
+     * @param shareData Whether the chunk payloads are views of the buffer 
+     * rather than copies. The buffer must then not change while the chunks 
+     * are in use.
+     * @return The chunks of the file.
+     * @throws IOException If the file is malformed, truncated or exceeds a 
+     * limit.
+     */
+    public static WebPChunk demux(ByteBuffer buffer, WebPDemuxLimits limits, boolean shareData) throws IOException {
+        Objects.requireNonNull(buffer);
+        Objects.requireNonNull(limits);
+        return demux(DemuxInput.of(buffer, shareData), limits);
+    }
+
+    private static WebPChunk demux(DemuxInput input, WebPDemuxLimits limits) throws IOException {
+        Trace trace = Trace.start(WebPOperation.DEMUX, null);
+        byte[] riffChunkHeader = input.readFourCC();
         if (!arrayEquals(riffChunkHeader, RIFF)) {
             throw new IOException("Illegal magic number: " + new String(riffChunkHeader));
         }
-        long fileSize = readUInt32(in);
-        byte[] webpChunkHeader = readFourCC(in);
+        long fileSize = input.readUInt32();
+        long inputBytes = fileSize + 8;
+        if (inputBytes > limits.getMaxTotalBytes()) {
+            throw new IOException("File size " + inputBytes + " exceeds the limit of " + limits.getMaxTotalBytes());
+        }
+        byte[] webpChunkHeader = input.readFourCC();
         if (!arrayEquals(webpChunkHeader, WEBP)) {
             throw new IOException("Illegal magic number: " + new String(riffChunkHeader) + new String(webpChunkHeader));
         }
@@ -114,338 +286,2302 @@ public final class WebPFactory {
             filePad = true;
         }
         fileSize -= 4;
-        byte[] vp8ChunkHeader = readFourCC(in);
-        long vp8ChunkSize = readUInt32(in);
+        byte[] vp8ChunkHeader = input.readFourCC();
+        long vp8ChunkSize = input.readUInt32();
         fileSize -= 8;
+        checkChunkSize(vp8ChunkHeader, vp8ChunkSize, fileSize, limits);
         fileSize -= vp8ChunkSize;
         boolean vp8ChunkPad = false;
         if (isOdd(vp8ChunkSize)) {
             fileSize -= 1;
+            checkPad(vp8ChunkHeader, fileSize);
             vp8ChunkPad = true;
         }
         if (arrayEquals(vp8ChunkHeader, VP8X)) {
+            if (vp8ChunkSize < 10) throw new IOException("VP8X chunk too short");
             List<Chunk> chunks = new ArrayList<>();
-            chunks.add(new VP8XChunk(readInt32(in), read1Based(in), read1Based(in)));
-            if (vp8ChunkPad) skip1Byte(in);
+            VP8XChunk vp8XChunk = new VP8XChunk(input.readInt32(), input.read1Based(), input.read1Based());
+            checkPixels("Canvas", vp8XChunk.getCanvasWidth(), vp8XChunk.getCanvasHeight(), limits.getMaxCanvasPixels());
+            chunks.add(vp8XChunk);
+            input.skip(vp8ChunkSize - 10);
+            if (vp8ChunkPad) input.skip(1);
             byte[] chunkHeader;
             long chunkSize;
-            boolean chunkPad = false;
+            boolean chunkPad;
+            int frames = 0;
             while (fileSize > 0) {
-                chunkHeader = readFourCC(in);
-                chunkSize = readUInt32(in);
+                chunkHeader = input.readFourCC();
+                chunkSize = input.readUInt32();
                 fileSize -= 8;
+                checkChunkSize(chunkHeader, chunkSize, fileSize, limits);
                 fileSize -= chunkSize;
-                if (isOdd(chunkSize)) {
+                chunkPad = isOdd(chunkSize);
+                if (chunkPad) {
                     fileSize -= 1;
-                    chunkPad = true;
+                    checkPad(chunkHeader, fileSize);
                 }
-                if (chunkSize > Integer.MAX_VALUE) throw new IOException("chunk too large to read");
                 if (arrayEquals(chunkHeader, ICCP)) {
-                    chunks.add(new ICCPChunk(readNBytes(in, (int) chunkSize)));
+                    chunks.add(new ICCPChunk(input.readPayload((int) chunkSize)));
                 }
                 else if (arrayEquals(chunkHeader, EXIF)) {
-                    chunks.add(new EXIFChunk(readNBytes(in, (int) chunkSize)));
+                    chunks.add(new EXIFChunk(input.readPayload((int) chunkSize)));
                 }
                 else if (arrayEquals(chunkHeader, XMP)) {
-                    chunks.add(new XMPChunk(readNBytes(in, (int) chunkSize)));
+                    chunks.add(new XMPChunk(input.readPayload((int) chunkSize)));
                 }
                 else if (arrayEquals(chunkHeader, VP8)) {
-                    chunks.add(new VP8Chunk(readNBytes(in, (int) chunkSize)));
+                    chunks.add(new VP8Chunk(input.readPayload((int) chunkSize)));
                 }
                 else if (arrayEquals(chunkHeader, VP8L)) {
-                    chunks.add(new VP8LChunk(readNBytes(in, (int) chunkSize)));
+                    chunks.add(new VP8LChunk(input.readPayload((int) chunkSize)));
                 }
                 else if (arrayEquals(chunkHeader, ALPH)) {
-                    chunks.add(new ALPHChunk(readNBytes(in, (int) chunkSize)));
+                    chunks.add(new ALPHChunk(input.readPayload((int) chunkSize)));
                 }
                 else if (arrayEquals(chunkHeader, ANIM)) {
-                    chunks.add(new ANIMChunk(readInt32(in), readUInt16(in)));
+                    if (chunkSize < 6) throw new IOException("ANIM chunk too short");
+                    chunks.add(new ANIMChunk(input.readInt32(), input.readUInt16()));
+                    input.skip(chunkSize - 6);
                 }
                 else if (arrayEquals(chunkHeader, ANMF)) {
-                    int x = readUInt24(in);
-                    int y = readUInt24(in);
-                    int width = read1Based(in);
-                    int height = read1Based(in);
-                    int duration = readUInt24(in);
-                    int reservedBD = readInt8(in);
+                    if (++ frames > limits.getMaxFrames()) {
+                        throw new IOException("Frame count exceeds the limit of " + limits.getMaxFrames());
+                    }
+                    if (chunkSize < 16) throw new IOException("ANMF chunk too short");
+                    int x = input.readUInt24();
+                    int y = input.readUInt24();
+                    int width = input.read1Based();
+                    int height = input.read1Based();
+                    int duration = input.readUInt24();
+                    int reservedBD = input.readInt8();
+                    checkPixels("Frame", width, height, limits.getMaxFramePixels());
                     chunkSize -= 16;
                     List<Chunk> framesubchunks = new ArrayList<>();
                     byte[] framesubchunkHeader;
                     long framesubchunkSize;
-                    boolean framesubchunkPad = false;
                     while (chunkSize > 0) {
-                        framesubchunkHeader = readFourCC(in);
-                        framesubchunkSize = readUInt32(in);
-                        if (isOdd(framesubchunkSize)) {
-                            chunkSize -= 1;
-                            framesubchunkPad = true;
-                        }
+                        framesubchunkHeader = input.readFourCC();
+                        framesubchunkSize = input.readUInt32();
                         chunkSize -= 8;
+                        checkChunkSize(framesubchunkHeader, framesubchunkSize, chunkSize, limits);
                         chunkSize -= framesubchunkSize;
-                        if (framesubchunkSize > Integer.MAX_VALUE) throw new IOException("chunk too large to read");
+                        boolean framesubchunkPad = isOdd(framesubchunkSize);
+                        if (framesubchunkPad) {
+                            chunkSize -= 1;
+                            checkPad(framesubchunkHeader, chunkSize);
+                        }
                         if (arrayEquals(framesubchunkHeader, VP8)) {
-                            framesubchunks.add(new VP8Chunk(readNBytes(in, (int) framesubchunkSize)));
+                            framesubchunks.add(new VP8Chunk(input.readPayload((int) framesubchunkSize)));
                         }
                         else if (arrayEquals(framesubchunkHeader, VP8L)) {
-                            framesubchunks.add(new VP8LChunk(readNBytes(in, (int) framesubchunkSize)));
+                            framesubchunks.add(new VP8LChunk(input.readPayload((int) framesubchunkSize)));
                         }
                         else if (arrayEquals(framesubchunkHeader, ALPH)) {
-                            framesubchunks.add(new ALPHChunk(readNBytes(in, (int) framesubchunkSize)));
+                            framesubchunks.add(new ALPHChunk(input.readPayload((int) framesubchunkSize)));
                         }
                         else {
-                            framesubchunks.add(new UnknownChunk(framesubchunkHeader, readNBytes(in, (int) framesubchunkSize)));
+                            framesubchunks.add(new UnknownChunk(framesubchunkHeader, input.readPayload((int) framesubchunkSize)));
                         }
+                        if (framesubchunkPad) input.skip(1);
                     }
                     chunks.add(new ANMFChunk(x, y, width, height, duration, reservedBD, framesubchunks.toArray(new Chunk[0])));
-                    if (framesubchunkPad) skip1Byte(in);
                 }
                 else {
-                    chunks.add(new UnknownChunk(chunkHeader, readNBytes(in, (int) chunkSize)));
+                    chunks.add(new UnknownChunk(chunkHeader, input.readPayload((int) chunkSize)));
                 }
-                if (chunkPad) skip1Byte(in);
+                if (chunkPad) input.skip(1);
             }
             webPChunk = new WebPChunk(chunks.toArray(new Chunk[0]));
         }
         else if (arrayEquals(vp8ChunkHeader, VP8)) {
-            if (vp8ChunkSize > Integer.MAX_VALUE) throw new IOException("chunk too large to read");
-            webPChunk = new WebPChunk(new VP8Chunk(readNBytes(in, (int) vp8ChunkSize)));
+            ByteBuffer data = input.readPayload((int) vp8ChunkSize);
+            checkBitstreamPixels(false, data, limits);
+            webPChunk = new WebPChunk(new VP8Chunk(data));
         }
         else if (arrayEquals(vp8ChunkHeader, VP8L)) {
-            if (vp8ChunkSize > Integer.MAX_VALUE) throw new IOException("chunk too large to read");
-            webPChunk = new WebPChunk(new VP8LChunk(readNBytes(in, (int) vp8ChunkSize)));
+            ByteBuffer data = input.readPayload((int) vp8ChunkSize);
+            checkBitstreamPixels(true, data, limits);
+            webPChunk = new WebPChunk(new VP8LChunk(data));
         }
         else {
             throw new IOException("No VP8 data found");
         }
-        if (filePad) skip1Byte(in);
-        in.close();
+        if (!arrayEquals(vp8ChunkHeader, VP8X)) {
+            // A simple file ends with its bitstream, anything after it is skipped
+            if (vp8ChunkPad) input.skip(1);
+            input.skip(fileSize);
+        }
+        if (filePad) input.skip(1);
+        input.finish();
+        trace.end(vp8ChunkHeader, inputBytes, webPChunk.getFullSize(), 0, 0);
         return webPChunk;
     }
 
+    /**
+     * This checks that the pad byte of an odd-sized chunk is still within its 
+     * parent, as a parent whose size leaves it out would otherwise lose a byte 
+     * to it, or take one from whatever follows the RIFF.
+     * @param available The number of bytes left in the parent chunk after the 
+     * pad.
+     */
+    private static void checkPad(byte[] fourCC, long available) throws IOException {
+        if (available < 0) throw new IOException("Pad byte of chunk " + new String(fourCC) + " exceeds its parent");
+    }
+
+    /**
+     * This checks a declared chunk size before anything is read for it.
+     * @param available The number of bytes left in the parent chunk.
+     */
+    private static void checkChunkSize(byte[] fourCC, long size, long available, WebPDemuxLimits limits) throws IOException {
+        if (size > available) {
+            throw new IOException("Chunk " + new String(fourCC) + " of " + size + " bytes exceeds its parent");
+        }
+        if (size > limits.getMaxChunkBytes()) {
+            throw new IOException("Chunk " + new String(fourCC) + " of " + size + " bytes exceeds the limit of " 
+                    + limits.getMaxChunkBytes());
+        }
+        if (size > Integer.MAX_VALUE) throw new IOException("chunk too large to read");
+    }
+
+    private static void checkPixels(String name, int width, int height, long maxPixels) throws IOException {
+        if ((long) width * height > maxPixels) {
+            throw new IOException(name + " of " + width + "x" + height + " exceeds the limit of " + maxPixels + " pixels");
+        }
+    }
+
+    private static void checkBitstreamPixels(boolean lossless, ByteBuffer data, WebPDemuxLimits limits) throws IOException {
+        if (limits.getMaxCanvasPixels() == Long.MAX_VALUE) return;
+        byte[] header = new byte[Math.min(data.remaining(), 10)];
+        data.duplicate().get(header);
+        int[] size;
+        try {
+            size = bitstreamSize(lossless, header);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        checkPixels("Canvas", size[0], size[1], limits.getMaxCanvasPixels());
+    }
+
+    /**
+     * This copies a WebP file while removing or replacing its ICC profile, 
+     * EXIF and XMP metadata. Only the chunk headers are read, every other 
+     * chunk is transferred from the source as it is, so this costs I/O but 
+     * never decodes or copies a bitstream to the heap. The VP8X flags and the 
+     * RIFF size are updated to match, and a simple file that gains metadata 
+     * is turned into an extended one. The ICC profile is written after the 
+     * VP8X chunk and EXIF and XMP at the end, where the format places them.
+     * @param in The file to read.
+     * @param out Where to write the edited file. This can be another file, or 
+     * a stream wrapped with {@link java.nio.channels.Channels#newChannel(java.io.OutputStream)}.
+     * @param edit The changes to make.
+     * @throws IOException If the file is not a WebP file or an I/O error 
+     * occurs.
+     */
+    public static void editMetadata(FileChannel in, WritableByteChannel out, WebPMetadataEdit edit) throws IOException {
+        Objects.requireNonNull(in);
+        Objects.requireNonNull(out);
+        Objects.requireNonNull(edit);
+        Trace trace = Trace.start(WebPOperation.MUX, null);
+        List<ChannelChunk> chunks = ChannelChunk.scan(in);
+        ChannelChunk vp8xChunk = null, iccpChunk = null, exifChunk = null, xmpChunk = null;
+        List<ChannelChunk> body = new ArrayList<>();
+        for (ChannelChunk chunk : chunks) {
+            if (chunk.is(VP8X) && vp8xChunk == null) vp8xChunk = chunk;
+            else if (chunk.is(ICCP)) iccpChunk = iccpChunk == null ? chunk : iccpChunk;
+            else if (chunk.is(EXIF)) exifChunk = exifChunk == null ? chunk : exifChunk;
+            else if (chunk.is(XMP)) xmpChunk = xmpChunk == null ? chunk : xmpChunk;
+            else body.add(chunk);
+        }
+        if (edit.isICCPSet()) iccpChunk = null;
+        if (edit.isEXIFSet()) exifChunk = null;
+        if (edit.isXMPSet()) xmpChunk = null;
+        boolean hasICCP = iccpChunk != null || edit.getICCP() != null;
+        boolean hasEXIF = exifChunk != null || edit.getEXIF() != null;
+        boolean hasXMP = xmpChunk != null || edit.getXMP() != null;
+        VP8XChunk vp8x = null;
+        if (vp8xChunk != null) {
+            byte[] payload = vp8xChunk.readPayload(in, 10);
+            if (payload.length < 10) throw new IOException("VP8X chunk too short");
+            int flags = toInt32(Arrays.copyOf(payload, 4)) & ~(VP8XChunk.FLAG_ICCP | VP8XChunk.FLAG_EXIF | VP8XChunk.FLAG_XMP);
+            vp8x = new VP8XChunk(metadataFlags(flags, hasICCP, hasEXIF, hasXMP),
+                    ((payload[4] & 0xff) | (payload[5] & 0xff) << 8 | (payload[6] & 0xff) << 16) + 1,
+                    ((payload[7] & 0xff) | (payload[8] & 0xff) << 8 | (payload[9] & 0xff) << 16) + 1);
+        }
+        else if (hasICCP || hasEXIF || hasXMP) {
+            if (body.isEmpty()) throw new IOException("No VP8 data found");
+            ChannelChunk bitstream = body.get(0);
+            boolean lossless = bitstream.is(VP8L);
+            if (!lossless && !bitstream.is(VP8)) throw new IOException("No VP8 data found");
+            byte[] header = bitstream.readPayload(in, 10);
+            int[] size = bitstreamSize(lossless, header);
+            int flags = lossless && (header[4] & 0x10) != 0 ? VP8XChunk.FLAG_ALPH : 0;
+            vp8x = new VP8XChunk(metadataFlags(flags, hasICCP, hasEXIF, hasXMP), size[0], size[1]);
+        }
+        long riffSize = 4;
+        if (vp8x != null) riffSize += vp8x.getFullSize();
+        if (iccpChunk != null) riffSize += iccpChunk.getFullSize();
+        else if (edit.getICCP() != null) riffSize += edit.getICCP().getFullSize();
+        for (ChannelChunk chunk : body) {
+            riffSize += chunk.getFullSize();
+        }
+        if (exifChunk != null) riffSize += exifChunk.getFullSize();
+        else if (edit.getEXIF() != null) riffSize += edit.getEXIF().getFullSize();
+        if (xmpChunk != null) riffSize += xmpChunk.getFullSize();
+        else if (edit.getXMP() != null) riffSize += edit.getXMP().getFullSize();
+        ChannelChunk.writeRIFFHeader(riffSize, out);
+        if (vp8x != null) ChannelChunk.write(vp8x, out);
+        if (iccpChunk != null) iccpChunk.transferTo(in, out);
+        else if (edit.getICCP() != null) ChannelChunk.write(edit.getICCP(), out);
+        for (ChannelChunk chunk : body) {
+            chunk.transferTo(in, out);
+        }
+        if (exifChunk != null) exifChunk.transferTo(in, out);
+        else if (edit.getEXIF() != null) ChannelChunk.write(edit.getEXIF(), out);
+        if (xmpChunk != null) xmpChunk.transferTo(in, out);
+        else if (edit.getXMP() != null) ChannelChunk.write(edit.getXMP(), out);
+        trace.end(WEBP, in.size(), riffSize + 8, 0, 0);
+    }
+
+    /**
+     * This copies a WebP file to another while editing its metadata.
+     * @param source The file to read.
+     * @param target The file to write, which must not be the source.
+     * @param edit The changes to make.
+     * @throws IOException If the file is not a WebP file or an I/O error 
+     * occurs.
+     * @see #editMetadata(FileChannel, WritableByteChannel, WebPMetadataEdit)
+     */
+    public static void editMetadata(Path source, Path target, WebPMetadataEdit edit) throws IOException {
+        Objects.requireNonNull(source);
+        Objects.requireNonNull(target);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            editMetadata(in, out, edit);
+        }
+    }
+
+    private static int metadataFlags(int flags, boolean iccp, boolean exif, boolean xmp) {
+        if (iccp) flags |= VP8XChunk.FLAG_ICCP;
+        if (exif) flags |= VP8XChunk.FLAG_EXIF;
+        if (xmp) flags |= VP8XChunk.FLAG_XMP;
+        return flags;
+    }
+
     public static byte[] decodeRGBA(BitstreamChunk chunk, int[] size) {
         Objects.requireNonNull(chunk);
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        IntByReference width = new IntByReference();
-        IntByReference height = new IntByReference();
-        Pointer webPData = webP.WebPDecodeRGBA(chunk.getRawData(), chunk.getSize(), width, height);
-        size[0] = width.intValue();
-        size[1] = height.intValue();
-        byte[] buf = new byte[size[0] * size[1] * 4];
-        webPData.get(0, buf, 0, buf.length);
-        webP.WebPFree(webPData);
-        return buf;
+        checkSizeArray(size);
+        return decodeBytes(JNRFFI.WebP::WebPDecodeRGBA, JNRFFI.MODE_RGBA, "RGBA", bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), size, 4);
     }
 
     public static byte[] decodeARGB(BitstreamChunk chunk, int[] size) {
         Objects.requireNonNull(chunk);
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        IntByReference width = new IntByReference();
-        IntByReference height = new IntByReference();
-        Pointer webPData = webP.WebPDecodeARGB(chunk.getRawData(), chunk.getSize(), width, height);
-        size[0] = width.intValue();
-        size[1] = height.intValue();
-        byte[] buf = new byte[size[0] * size[1] * 4];
-        webPData.get(0, buf, 0, buf.length);
-        webP.WebPFree(webPData);
-        return buf;
+        checkSizeArray(size);
+        return decodeBytes(JNRFFI.WebP::WebPDecodeARGB, JNRFFI.MODE_ARGB, "ARGB", bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), size, 4);
     }
 
     public static int[] decodeBGRA(BitstreamChunk chunk, int[] size) {
         Objects.requireNonNull(chunk);
-        if (size == null || size.length != 2) throw new IllegalArgumentException("size length must be 2");
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        IntByReference width = new IntByReference();
-        IntByReference height = new IntByReference();
-        Pointer webPData = webP.WebPDecodeBGRA(chunk.getRawData(), chunk.getSize(), width, height);
-        size[0] = width.intValue();
-        size[1] = height.intValue();
-        int[] buf = new int[size[0] * size[1]];
-        webPData.get(0, buf, 0, buf.length);
-        webP.WebPFree(webPData);
-        return buf;
+        checkSizeArray(size);
+        return decodeInts(JNRFFI.WebP::WebPDecodeBGRA, JNRFFI.MODE_BGRA, "BGRA", bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), size);
     }
 
     public static byte[] decodeARGB(ALPHChunk alphChunk, VP8Chunk vp8Chunk, int[] size) {
-        Objects.requireNonNull(alphChunk);
-        Objects.requireNonNull(vp8Chunk);
-        if (size == null || size.length != 2) throw new IllegalArgumentException("size length must be 2");
-        long chunkFullSize = alphChunk.getFullSize() + vp8Chunk.getFullSize();
-        if (chunkFullSize > Integer.MAX_VALUE) throw new IllegalArgumentException("chunk too large to read");
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        IntByReference width = new IntByReference();
-        IntByReference height = new IntByReference();
-        byte[] chunkData = new byte[(int) chunkFullSize];
-        System.arraycopy(alphChunk.getRawData(), 0, chunkData, 0, (int) alphChunk.getFullSize());
-        System.arraycopy(vp8Chunk.getRawData(), 0, chunkData, (int) alphChunk.getFullSize(), (int) vp8Chunk.getFullSize());
-        Pointer webPData = webP.WebPDecodeBGRA(chunkData, chunkFullSize, width, height);
-        size[0] = width.intValue();
-        size[1] = height.intValue();
-        byte[] buf = new byte[size[0] * size[1] * 4];
-        webPData.get(0, buf, 0, buf.length);
-        webP.WebPFree(webPData);
-        return buf;
+        checkSizeArray(size);
+        byte[] chunkData = concatChunks(alphChunk, vp8Chunk);
+        return decodeBytes(JNRFFI.WebP::WebPDecodeARGB, JNRFFI.MODE_ARGB, "ARGB", VP8, chunkData, chunkData.length, size, 4);
     }
 
     public static int[] decodeBGRA(ALPHChunk alphChunk, VP8Chunk vp8Chunk, int[] size) {
-        Objects.requireNonNull(alphChunk);
-        Objects.requireNonNull(vp8Chunk);
-        if (size == null || size.length != 2) throw new IllegalArgumentException("size length must be 2");
-        long chunkFullSize = alphChunk.getFullSize() + vp8Chunk.getFullSize();
-        if (chunkFullSize > Integer.MAX_VALUE) throw new IllegalArgumentException("chunk too large to read");
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        IntByReference width = new IntByReference();
-        IntByReference height = new IntByReference();
-        byte[] chunkData = new byte[(int) chunkFullSize];
-        System.arraycopy(alphChunk.getRawData(), 0, chunkData, 0, (int) alphChunk.getFullSize());
-        System.arraycopy(vp8Chunk.getRawData(), 0, chunkData, (int) alphChunk.getFullSize(), (int) vp8Chunk.getFullSize());
-        Pointer webPData = webP.WebPDecodeBGRA(chunkData, chunkFullSize, width, height);
-        size[0] = width.intValue();
-        size[1] = height.intValue();
-        int[] buf = new int[size[0] * size[1]];
-        webPData.get(0, buf, 0, buf.length);
-        webP.WebPFree(webPData);
-        return buf;
+        checkSizeArray(size);
+        byte[] chunkData = concatChunks(alphChunk, vp8Chunk);
+        return decodeInts(JNRFFI.WebP::WebPDecodeBGRA, JNRFFI.MODE_BGRA, "BGRA", VP8, chunkData, chunkData.length, size);
     }
 
     public static byte[] decodeRGB(BitstreamChunk chunk, int[] size) {
         Objects.requireNonNull(chunk);
-        if (size == null || size.length != 2) throw new IllegalArgumentException("size length must be 2");
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        IntByReference width = new IntByReference();
-        IntByReference height = new IntByReference();
-        Pointer webPData = webP.WebPDecodeRGB(chunk.getRawData(), chunk.getSize(), width, height);
-        size[0] = width.intValue();
-        size[1] = height.intValue();
-        byte[] buf = new byte[width.intValue() * height.intValue() * 3];
-        webPData.get(0, buf, 0, buf.length);
-        webP.WebPFree(webPData);
-        return buf;
+        checkSizeArray(size);
+        return decodeBytes(JNRFFI.WebP::WebPDecodeRGB, JNRFFI.MODE_RGB, "RGB", bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), size, 3);
     }
 
     public static byte[] decodeBGR(BitstreamChunk chunk, int[] size) {
         Objects.requireNonNull(chunk);
-        if (size == null || size.length != 2) throw new IllegalArgumentException("size length must be 2");
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        IntByReference width = new IntByReference();
-        IntByReference height = new IntByReference();
-        Pointer webPData = webP.WebPDecodeBGR(chunk.getRawData(), chunk.getSize(), width, height);
-        size[0] = width.intValue();
-        size[1] = height.intValue();
-        byte[] buf = new byte[width.intValue() * height.intValue() * 3];
-        webPData.get(0, buf, 0, buf.length);
-        webP.WebPFree(webPData);
-        return buf;
+        checkSizeArray(size);
+        return decodeBytes(JNRFFI.WebP::WebPDecodeBGR, JNRFFI.MODE_BGR, "BGR", bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), size, 3);
     }
 
-    public static VP8LChunk encodeLosslessBGRA(int[] bgra, int width, int height, int stride) {
-        Objects.requireNonNull(bgra);
-        PointerByReference webPDataRef = new PointerByReference();
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        webP.WebPEncodeLosslessBGRA(bgra, width, height, stride * 4, webPDataRef);
-        return getVP8LChunk(webPDataRef);
+    public static byte[] decodeRGBA(BitstreamChunk chunk, WebPDecoderOptions options, int[] size) {
+        Objects.requireNonNull(chunk);
+        return decodeBytes(JNRFFI.MODE_RGBA, "RGBA", bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), options, size, 4);
     }
 
-    private static VP8LChunk getVP8LChunk(PointerByReference webPDataRef) {
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        Pointer webPData = webPDataRef.getValue();
-        byte[] lengthBuf = new byte[4];
-        webPData.get(16, lengthBuf, 0, 4);
-        long length = Util.toUInt32(lengthBuf);
-        byte[] buf = new byte[(int) length];
-        webPData.get(20, buf, 0, buf.length);
-        webP.WebPFree(webPData);
-        return new VP8LChunk(buf);
+    public static byte[] decodeARGB(BitstreamChunk chunk, WebPDecoderOptions options, int[] size) {
+        Objects.requireNonNull(chunk);
+        return decodeBytes(JNRFFI.MODE_ARGB, "ARGB", bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), options, size, 4);
     }
 
-    public static VP8LChunk encodeLosslessRGBA(byte[] rgba, int width, int height, int stride) {
-        Objects.requireNonNull(rgba);
-        PointerByReference webPDataRef = new PointerByReference();
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        webP.WebPEncodeLosslessRGBA(rgba, width, height, stride * 4, webPDataRef);
-        return getVP8LChunk(webPDataRef);
+    public static int[] decodeBGRA(BitstreamChunk chunk, WebPDecoderOptions options, int[] size) {
+        Objects.requireNonNull(chunk);
+        return decodeInts(JNRFFI.MODE_BGRA, "BGRA", bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), options, size);
     }
 
-    public static VP8LChunk encodeLosslessRGB(byte[] rgb, int width, int height, int stride) {
-        Objects.requireNonNull(rgb);
-        PointerByReference webPDataRef = new PointerByReference();
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        webP.WebPEncodeLosslessRGB(rgb, width, height, stride * 3, webPDataRef);
-        return getVP8LChunk(webPDataRef);
+    public static byte[] decodeARGB(ALPHChunk alphChunk, VP8Chunk vp8Chunk, WebPDecoderOptions options, int[] size) {
+        byte[] chunkData = concatChunks(alphChunk, vp8Chunk);
+        return decodeBytes(JNRFFI.MODE_ARGB, "ARGB", VP8, chunkData, chunkData.length, options, size, 4);
     }
 
-    public static VP8LChunk encodeLosslessBGR(byte[] bgr, int width, int height, int stride) {
-        Objects.requireNonNull(bgr);
-        PointerByReference webPDataRef = new PointerByReference();
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        webP.WebPEncodeLosslessBGR(bgr, width, height, stride * 3, webPDataRef);
-        return getVP8LChunk(webPDataRef);
+    public static int[] decodeBGRA(ALPHChunk alphChunk, VP8Chunk vp8Chunk, WebPDecoderOptions options, int[] size) {
+        byte[] chunkData = concatChunks(alphChunk, vp8Chunk);
+        return decodeInts(JNRFFI.MODE_BGRA, "BGRA", VP8, chunkData, chunkData.length, options, size);
     }
 
-    public static Chunk[] encodeBGRA(int[] bgra, int width, int height, int stride, float quality) {
-        Objects.requireNonNull(bgra);
-        PointerByReference webPDataRef = new PointerByReference();
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        webP.WebPEncodeBGRA(bgra, width, height, stride * 4, quality, webPDataRef);
-        return getLossyChunks(webPDataRef);
+    public static byte[] decodeRGB(BitstreamChunk chunk, WebPDecoderOptions options, int[] size) {
+        Objects.requireNonNull(chunk);
+        return decodeBytes(JNRFFI.MODE_RGB, "RGB", bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), options, size, 3);
     }
 
-    public static Chunk[] encodeRGBA(byte[] rgba, int width, int height, int stride, float quality) {
-        Objects.requireNonNull(rgba);
-        PointerByReference webPDataRef = new PointerByReference();
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        webP.WebPEncodeRGBA(rgba, width, height, stride * 4, quality, webPDataRef);
-        return getLossyChunks(webPDataRef);
+    public static byte[] decodeBGR(BitstreamChunk chunk, WebPDecoderOptions options, int[] size) {
+        Objects.requireNonNull(chunk);
+        return decodeBytes(JNRFFI.MODE_BGR, "BGR", bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), options, size, 3);
     }
 
-    private static Chunk[] getLossyChunks(PointerByReference webPDataRef) {
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        Pointer webPData = webPDataRef.getValue();
-        byte[] chunkHeaderBuf = new byte[4];
-        webPData.get(12, chunkHeaderBuf, 0, 4);
-        byte[] lengthBuf = new byte[4];
-        if (arrayEquals(chunkHeaderBuf, VP8)) {
-            return new Chunk[] { getVP8Chunk(webPDataRef) };
+    /**
+     * This decodes a bitstream into the given color mode. The conversion is 
+     * done by libwebp while decoding, so premultiplied and 16-bit output cost 
+     * no extra pass.
+     * @param chunk The bitstream to decode.
+     * @param mode The layout of the decoded pixels.
+     * @param options The options to decode with.
+     * @param size An array receiving the width and height of the image.
+     * @return The decoded pixels, {@code mode.getBytesPerPixel()} bytes each.
+     */
+    public static byte[] decode(BitstreamChunk chunk, WebPColorMode mode, WebPDecoderOptions options, int[] size) {
+        Objects.requireNonNull(chunk);
+        Objects.requireNonNull(mode);
+        return decodeBytes(mode.mode, mode.name(), bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), 
+                options, size, mode.getBytesPerPixel());
+    }
+
+    public static byte[] decode(BitstreamChunk chunk, WebPColorMode mode, int[] size) {
+        return decode(chunk, mode, new WebPDecoderOptions(), size);
+    }
+
+    public static byte[] decode(ALPHChunk alphChunk, VP8Chunk vp8Chunk, WebPColorMode mode, WebPDecoderOptions options, int[] size) {
+        Objects.requireNonNull(mode);
+        byte[] chunkData = concatChunks(alphChunk, vp8Chunk);
+        return decodeBytes(mode.mode, mode.name(), VP8, chunkData, chunkData.length, options, size, mode.getBytesPerPixel());
+    }
+
+    public static byte[] decode(ALPHChunk alphChunk, VP8Chunk vp8Chunk, WebPColorMode mode, int[] size) {
+        return decode(alphChunk, vp8Chunk, mode, new WebPDecoderOptions(), size);
+    }
+
+    /**
+     * This decodes a bitstream into a new image of the given type. 
+     * {@code TYPE_INT_ARGB}, {@code TYPE_INT_ARGB_PRE}, {@code TYPE_4BYTE_ABGR} 
+     * and {@code TYPE_3BYTE_BGR} images are decoded straight into their data 
+     * buffer, and any other type is converted from {@code TYPE_INT_ARGB}.
+     * @param chunk The bitstream to decode.
+     * @param imageType The type of the image to return.
+     * @return The decoded image.
+     */
+    public static BufferedImage decodeImage(BitstreamChunk chunk, int imageType) {
+        Objects.requireNonNull(chunk);
+        return decodeImage(bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), imageType, null);
+    }
+
+    public static BufferedImage decodeImage(ALPHChunk alphChunk, VP8Chunk vp8Chunk, int imageType) {
+        byte[] chunkData = concatChunks(alphChunk, vp8Chunk);
+        return decodeImage(VP8, chunkData, chunkData.length, imageType, null);
+    }
+
+    /**
+     * This decodes a bitstream into the top left corner of an existing image, 
+     * which must be at least as large as the bitstream. The pixels outside of 
+     * the decoded area are left as they are.
+     * @param chunk The bitstream to decode.
+     * @param destination The image to decode into.
+     * @return The destination image.
+     * @see #decodeImage(BitstreamChunk, int)
+     */
+    public static BufferedImage decodeImage(BitstreamChunk chunk, BufferedImage destination) {
+        Objects.requireNonNull(chunk);
+        Objects.requireNonNull(destination);
+        return decodeImage(bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), destination.getType(), destination);
+    }
+
+    public static BufferedImage decodeImage(ALPHChunk alphChunk, VP8Chunk vp8Chunk, BufferedImage destination) {
+        Objects.requireNonNull(destination);
+        byte[] chunkData = concatChunks(alphChunk, vp8Chunk);
+        return decodeImage(VP8, chunkData, chunkData.length, destination.getType(), destination);
+    }
+
+    /**
+     * This decodes a bitstream into new YUV 4:2:0 planes, with an alpha plane 
+     * if the bitstream has alpha. Lossy bitstreams are decoded without any 
+     * colorspace conversion.
+     * @param chunk The bitstream to decode.
+     * @return The decoded planes.
+     */
+    public static WebPYUVImage decodeYUV(BitstreamChunk chunk) {
+        Objects.requireNonNull(chunk);
+        return decodeYUV(bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), null);
+    }
+
+    public static WebPYUVImage decodeYUV(ALPHChunk alphChunk, VP8Chunk vp8Chunk) {
+        byte[] chunkData = concatChunks(alphChunk, vp8Chunk);
+        return decodeYUV(VP8, chunkData, chunkData.length, null);
+    }
+
+    /**
+     * This decodes a bitstream into the top left corner of existing planes, 
+     * which must be at least as large as the bitstream. Without an alpha 
+     * plane, the planes are written by libwebp directly.
+     * @param chunk The bitstream to decode.
+     * @param destination The planes to decode into.
+     * @return The destination planes.
+     */
+    public static WebPYUVImage decodeYUV(BitstreamChunk chunk, WebPYUVImage destination) {
+        Objects.requireNonNull(chunk);
+        Objects.requireNonNull(destination);
+        return decodeYUV(bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize(), destination);
+    }
+
+    public static WebPYUVImage decodeYUV(ALPHChunk alphChunk, VP8Chunk vp8Chunk, WebPYUVImage destination) {
+        Objects.requireNonNull(destination);
+        byte[] chunkData = concatChunks(alphChunk, vp8Chunk);
+        return decodeYUV(VP8, chunkData, chunkData.length, destination);
+    }
+
+    /**
+     * This decodes many bitstreams at once into a single array. The 
+     * bitstreams are copied into native memory together, decoded in parallel 
+     * straight into one shared output buffer, and copied out together, so 
+     * that small images do not each pay for their own allocations and 
+     * copies.
+     * @param chunks The bitstreams to decode.
+     * @param mode The layout of the decoded pixels.
+     * @return The decoded images, in the order of the chunks.
+     */
+    public static WebPPixelBatch decodeBatch(BitstreamChunk[] chunks, WebPColorMode mode) {
+        Objects.requireNonNull(chunks);
+        Objects.requireNonNull(mode);
+        RawDataChunk[][] items = new RawDataChunk[chunks.length][];
+        byte[][] fourCCs = new byte[chunks.length][];
+        int[] widths = new int[chunks.length];
+        int[] heights = new int[chunks.length];
+        for (int i = 0; i < chunks.length; i ++) {
+            BitstreamChunk chunk = Objects.requireNonNull(chunks[i]);
+            items[i] = new RawDataChunk[] { chunk };
+            fourCCs[i] = bitstreamFourCC(chunk);
+            int[] size = bitstreamSize(chunk instanceof VP8LChunk, chunk.getRawData());
+            widths[i] = size[0];
+            heights[i] = size[1];
         }
-        else {
-            webPData.get(34, lengthBuf, 0, 4);
-            long lengthALPH = Util.toUInt32(lengthBuf);
-            int pad = isOdd(lengthALPH) ? 1 : 0;
-            byte[] bufALPH = new byte[(int) lengthALPH];
-            webPData.get(38, bufALPH, 0, bufALPH.length);
-            webPData.get(42 + bufALPH.length + pad, lengthBuf, 0, 4);
-            long lengthVP8 = Util.toUInt32(lengthBuf);
-            byte[] bufVP8 = new byte[(int) lengthVP8];
-            webPData.get(46 + bufALPH.length + pad, bufVP8, 0, bufVP8.length);
-            webP.WebPFree(webPData);
-            return new Chunk[] { new ALPHChunk(bufALPH), new VP8Chunk(bufVP8) };
+        return decodeBatch(items, fourCCs, widths, heights, mode);
+    }
+
+    /**
+     * This decodes the frames of an animation at once into a single array. 
+     * The frames are not composited.
+     * @param frames The frames to decode.
+     * @param mode The layout of the decoded pixels.
+     * @return The decoded frames, in order.
+     * @see #decodeBatch(BitstreamChunk[], WebPColorMode)
+     */
+    public static WebPPixelBatch decodeBatch(ANMFChunk[] frames, WebPColorMode mode) {
+        Objects.requireNonNull(frames);
+        Objects.requireNonNull(mode);
+        RawDataChunk[][] items = new RawDataChunk[frames.length][];
+        byte[][] fourCCs = new byte[frames.length][];
+        int[] widths = new int[frames.length];
+        int[] heights = new int[frames.length];
+        for (int i = 0; i < frames.length; i ++) {
+            ANMFChunk frame = Objects.requireNonNull(frames[i]);
+            ALPHChunk alphChunk = null;
+            BitstreamChunk bitstreamChunk = null;
+            for (Chunk subchunk : frame.subchunks()) {
+                if (subchunk instanceof ALPHChunk) alphChunk = (ALPHChunk) subchunk;
+                else if (subchunk instanceof BitstreamChunk) bitstreamChunk = (BitstreamChunk) subchunk;
+            }
+            if (bitstreamChunk == null) throw new IllegalArgumentException("No VP8 data found in frame " + i);
+            if (alphChunk != null && bitstreamChunk instanceof VP8Chunk) items[i] = new RawDataChunk[] { alphChunk, bitstreamChunk };
+            else items[i] = new RawDataChunk[] { bitstreamChunk };
+            fourCCs[i] = bitstreamFourCC(bitstreamChunk);
+            widths[i] = frame.getFrameWidth();
+            heights[i] = frame.getFrameHeight();
         }
+        return decodeBatch(items, fourCCs, widths, heights, mode);
     }
 
-    public static VP8Chunk encodeBGR(byte[] bgr, int width, int height, int stride, float quality) {
-        Objects.requireNonNull(bgr);
-        PointerByReference webPDataRef = new PointerByReference();
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        webP.WebPEncodeBGR(bgr, width, height, stride * 3, quality, webPDataRef);
-        return getVP8Chunk(webPDataRef);
+    /**
+     * This decodes the bitstream of a frame into ints holding the channels of 
+     * the given mode from the most to the least significant byte, e.g. 
+     * 0xAARRGGBB for ARGB, whatever the byte order of the platform. The frame 
+     * is not composited.
+     * @see #intMode(WebPColorMode)
+     */
+    static int[] decodeFrame(ANMFChunk frame, WebPColorMode mode, WebPDecoderOptions options, int[] size) {
+        int cspMode = intMode(mode);
+        ALPHChunk alphChunk = null;
+        BitstreamChunk bitstreamChunk = null;
+        for (Chunk subchunk : frame.subchunks()) {
+            if (subchunk instanceof ALPHChunk) alphChunk = (ALPHChunk) subchunk;
+            else if (subchunk instanceof BitstreamChunk) bitstreamChunk = (BitstreamChunk) subchunk;
+        }
+        if (bitstreamChunk == null) throw new IllegalArgumentException("No VP8 data found in frame");
+        if (alphChunk != null && bitstreamChunk instanceof VP8Chunk) {
+            byte[] chunkData = concatChunks(alphChunk, (VP8Chunk) bitstreamChunk);
+            return decodeInts(cspMode, mode.name(), VP8, chunkData, chunkData.length, options, size);
+        }
+        return decodeInts(cspMode, mode.name(), bitstreamFourCC(bitstreamChunk), bitstreamChunk.getRawData(), 
+                bitstreamChunk.getSize(), options, size);
     }
 
-    public static VP8Chunk encodeRGB(byte[] rgb, int width, int height, int stride, float quality) {
-        Objects.requireNonNull(rgb);
-        PointerByReference webPDataRef = new PointerByReference();
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        webP.WebPEncodeRGB(rgb, width, height, stride * 3, quality, webPDataRef);
-        return getVP8Chunk(webPDataRef);
+    /**
+     * This returns the WEBP_CSP_MODE that, read from native memory as ints, 
+     * gives the channels of the given mode from the most to the least 
+     * significant byte. Only the 4 byte modes with alpha first or last can be 
+     * packed this way on either byte order.
+     * @throws IllegalArgumentException If the mode cannot be packed into ints.
+     */
+    static int intMode(WebPColorMode mode) {
+        Objects.requireNonNull(mode);
+        switch (mode) {
+            case ARGB:
+                return LITTLE_ENDIAN ? JNRFFI.MODE_BGRA : JNRFFI.MODE_ARGB;
+            case BGRA:
+                return LITTLE_ENDIAN ? JNRFFI.MODE_ARGB : JNRFFI.MODE_BGRA;
+            case PREMULTIPLIED_ARGB:
+                return LITTLE_ENDIAN ? JNRFFI.MODE_bgrA : JNRFFI.MODE_Argb;
+            case PREMULTIPLIED_BGRA:
+                return LITTLE_ENDIAN ? JNRFFI.MODE_Argb : JNRFFI.MODE_bgrA;
+            default:
+                throw new IllegalArgumentException("Cannot pack " + mode + " into ints");
+        }
     }
 
-    private static VP8Chunk getVP8Chunk(PointerByReference webPDataRef) {
-        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
-        Pointer webPData = webPDataRef.getValue();
-        byte[] lengthBuf = new byte[4];
-        webPData.get(16, lengthBuf, 0, 4);
-        long length = Util.toUInt32(lengthBuf);
-        byte[] buf = new byte[(int) length];
-        webPData.get(20, buf, 0, buf.length);
-        webP.WebPFree(webPData);
+    /**
+     * This encodes many images at once as lossy bitstreams. The pixels are 
+     * copied into native memory once and encoded in parallel.
+     * @param batch The images to encode, as RGB, BGR, RGBA or BGRA.
+     * @param quality The quality factor, from 0 to 100.
+     * @return The chunks of each image, as returned by the single image 
+     * encode methods.
+     */
+    public static Chunk[][] encodeBatch(WebPPixelBatch batch, float quality) {
+        return encodeBatch(batch, false, quality);
+    }
+
+    /**
+     * This encodes many images at once as lossless bitstreams.
+     * @param batch The images to encode, as RGB, BGR, RGBA or BGRA.
+     * @return The VP8L chunk of each image.
+     * @see #encodeBatch(WebPPixelBatch, float)
+     */
+    public static VP8LChunk[] encodeLosslessBatch(WebPPixelBatch batch) {
+        Chunk[][] chunks = encodeBatch(batch, true, 0);
+        VP8LChunk[] vp8lChunks = new VP8LChunk[chunks.length];
+        for (int i = 0; i < chunks.length; i ++) {
+            vp8lChunks[i] = (VP8LChunk) chunks[i][0];
+        }
+        return vp8lChunks;
+    }
+
+    /**
+     * This encodes several sizes of an image from a single decode. The image 
+     * is decoded once into native memory, and the renditions are made from 
+     * it largest first, each rescaled by libwebp from the one before rather 
+     * than from the source, which makes each one cheaper than the last. Each 
+     * rendition is encoded on the common pool as soon as the next one has 
+     * been made from it.
+     * @param chunk The image.
+     * @param renditions The sizes and encoder settings of the renditions.
+     * @return A still WebP file for each rendition, in the given order.
+     */
+    public static WebPChunk[] encodeRenditions(BitstreamChunk chunk, WebPRendition... renditions) {
+        Objects.requireNonNull(chunk);
+        checkRenditions(renditions, null);
+        return encodeRenditions(decodePicture(bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize()), 
+                renditions, null);
+    }
+
+    /**
+     * This encodes several sizes of a lossy image with alpha from a single 
+     * decode.
+     * @param alphChunk The alpha of the image.
+     * @param vp8Chunk The image.
+     * @param renditions The sizes and encoder settings of the renditions.
+     * @return A still WebP file for each rendition, in the given order.
+     * @see #encodeRenditions(BitstreamChunk, WebPRendition...)
+     */
+    public static WebPChunk[] encodeRenditions(ALPHChunk alphChunk, VP8Chunk vp8Chunk, WebPRendition... renditions) {
+        checkRenditions(renditions, null);
+        byte[] chunkData = concatChunks(alphChunk, vp8Chunk);
+        return encodeRenditions(decodePicture(VP8, chunkData, chunkData.length), renditions, null);
+    }
+
+    /**
+     * This encodes several sizes of an image given as 0xAARRGGBB ints, which 
+     * are copied into native memory once.
+     * @param argb The pixels, row by row without padding.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param renditions The sizes and encoder settings of the renditions.
+     * @return A still WebP file for each rendition, in the given order.
+     * @see #encodeRenditions(BitstreamChunk, WebPRendition...)
+     */
+    public static WebPChunk[] encodeRenditions(int[] argb, int width, int height, WebPRendition... renditions) {
+        Objects.requireNonNull(argb);
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("size <= 0");
+        if (argb.length < (long) width * height) throw new IllegalArgumentException("argb too short for the image");
+        checkRenditions(renditions, null);
+        JNRFFI.WebPPicture picture = newARGBPicture(width, height);
+        Pointer pixels = picture.argb.get();
+        int stride = picture.argb_stride.get();
+        if (stride == width) pixels.put(0, argb, 0, width * height);
+        else for (int y = 0; y < height; y ++) {
+            pixels.put((long) y * stride * 4, argb, y * width, width);
+        }
+        return encodeRenditions(picture, renditions, null);
+    }
+
+    /**
+     * This encodes several sizes of an image from a single decode, and writes 
+     * each as soon as it is encoded, from the thread that encoded it. The 
+     * sinks are not closed.
+     * @param chunk The image.
+     * @param renditions The sizes and encoder settings of the renditions.
+     * @param sinks Where to write each rendition, in the same order.
+     * @throws IOException If writing to a sink fails.
+     * @see #encodeRenditions(BitstreamChunk, WebPRendition...)
+     */
+    public static void writeRenditions(BitstreamChunk chunk, WebPRendition[] renditions, OutputStream[] sinks) 
+            throws IOException {
+        Objects.requireNonNull(chunk);
+        checkRenditions(renditions, sinks);
+        try {
+            encodeRenditions(decodePicture(bitstreamFourCC(chunk), chunk.getRawData(), chunk.getSize()), 
+                    renditions, sinks);
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * This writes several sizes of a lossy image with alpha from a single 
+     * decode.
+     * @param alphChunk The alpha of the image.
+     * @param vp8Chunk The image.
+     * @param renditions The sizes and encoder settings of the renditions.
+     * @param sinks Where to write each rendition, in the same order.
+     * @throws IOException If writing to a sink fails.
+     * @see #writeRenditions(BitstreamChunk, WebPRendition[], OutputStream[])
+     */
+    public static void writeRenditions(ALPHChunk alphChunk, VP8Chunk vp8Chunk, WebPRendition[] renditions, 
+            OutputStream[] sinks) throws IOException {
+        checkRenditions(renditions, sinks);
+        byte[] chunkData = concatChunks(alphChunk, vp8Chunk);
+        try {
+            encodeRenditions(decodePicture(VP8, chunkData, chunkData.length), renditions, sinks);
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void checkSizeArray(int[] size) {
+        if (size == null || size.length != 2) throw new IllegalArgumentException("size length must be 2");
+    }
+
+    private static byte[] bitstreamFourCC(BitstreamChunk chunk) {
+        return chunk instanceof VP8LChunk ? VP8L : VP8;
+    }
+
+    /**
+     * This joins an ALPH chunk and the VP8 chunk it belongs to, headers 
+     * included, which is the form libwebp accepts for lossy images with alpha.
+     */
+    private static byte[] concatChunks(ALPHChunk alphChunk, VP8Chunk vp8Chunk) {
+        Objects.requireNonNull(alphChunk);
+        Objects.requireNonNull(vp8Chunk);
+        long chunkFullSize = alphChunk.getFullSize() + vp8Chunk.getFullSize();
+        if (chunkFullSize > Integer.MAX_VALUE) throw new IllegalArgumentException("chunk too large to read");
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) chunkFullSize);
+        try {
+            alphChunk.write(out);
+            vp8Chunk.write(out);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private interface Decoder {
+        Pointer decode(JNRFFI.WebP webP, byte[] data, long dataSize, IntByReference width, IntByReference height);
+    }
+
+    private static byte[] decodeBytes(Decoder decoder, int cspMode, String mode, byte[] fourCC, byte[] data, long dataSize, int[] size, int bytesPerPixel) {
+        Trace trace = Trace.start(WebPOperation.DECODE, mode);
+        NativeBinding binding = NativeBinding.FOREIGN;
+        if (binding != null) {
+            if (!binding.getInfo(data, dataSize, size)) throw new IllegalArgumentException("Failed to decode the bitstream");
+            byte[] buf = new byte[size[0] * size[1] * bytesPerPixel];
+            trace.nativeStart();
+            boolean decoded = binding.decodeInto(cspMode, data, dataSize, buf, size[0] * bytesPerPixel, trace);
+            trace.nativeEnd();
+            if (!decoded) throw new IllegalArgumentException("Failed to decode the bitstream");
+            trace.end(fourCC, dataSize, buf.length, size[0], size[1]);
+            return buf;
+        }
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        IntByReference width = new IntByReference();
+        IntByReference height = new IntByReference();
+        trace.nativeStart();
+        Pointer webPData = decoder.decode(webP, data, dataSize, width, height);
+        trace.nativeEnd();
+        if (webPData == null) throw new IllegalArgumentException("Failed to decode the bitstream");
+        size[0] = width.intValue();
+        size[1] = height.intValue();
+        byte[] buf;
+        try (NativeBuffer webPBuffer = NativeBuffer.wrap(webPData, (long) size[0] * size[1] * bytesPerPixel, trace)) {
+            buf = new byte[(int) webPBuffer.getSize()];
+            webPBuffer.getPointer().get(0, buf, 0, buf.length);
+        }
+        trace.end(fourCC, dataSize, buf.length, size[0], size[1]);
+        return buf;
+    }
+
+    private static int[] decodeInts(Decoder decoder, int cspMode, String mode, byte[] fourCC, byte[] data, long dataSize, int[] size) {
+        Trace trace = Trace.start(WebPOperation.DECODE, mode);
+        NativeBinding binding = NativeBinding.FOREIGN;
+        if (binding != null) {
+            if (!binding.getInfo(data, dataSize, size)) throw new IllegalArgumentException("Failed to decode the bitstream");
+            int[] buf = new int[size[0] * size[1]];
+            trace.nativeStart();
+            boolean decoded = binding.decodeInto(cspMode, data, dataSize, buf, size[0] * 4, trace);
+            trace.nativeEnd();
+            if (!decoded) throw new IllegalArgumentException("Failed to decode the bitstream");
+            trace.end(fourCC, dataSize, buf.length * 4L, size[0], size[1]);
+            return buf;
+        }
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        IntByReference width = new IntByReference();
+        IntByReference height = new IntByReference();
+        trace.nativeStart();
+        Pointer webPData = decoder.decode(webP, data, dataSize, width, height);
+        trace.nativeEnd();
+        if (webPData == null) throw new IllegalArgumentException("Failed to decode the bitstream");
+        size[0] = width.intValue();
+        size[1] = height.intValue();
+        int[] buf;
+        try (NativeBuffer webPBuffer = NativeBuffer.wrap(webPData, (long) size[0] * size[1] * 4, trace)) {
+            buf = new int[size[0] * size[1]];
+            webPBuffer.getPointer().get(0, buf, 0, buf.length);
+        }
+        trace.end(fourCC, dataSize, buf.length * 4L, size[0], size[1]);
+        return buf;
+    }
+
+    /**
+     * This decodes a bitstream with libwebp's advanced decoding API. The 
+     * returned buffer holds the rows of the decoded image, and {@code layout} 
+     * receives the number of leading columns and the first row to copy 
+     * followed by the stride of the rows in bytes.
+     * @param mode The WEBP_CSP_MODE of the output.
+     * @param data The bitstream, which may start with the chunk header of its 
+     * ALPH, VP8 or VP8L chunk.
+     * @param options The options to decode with.
+     * @param size An array receiving the width and height of the image.
+     * @param layout An array of length 3 receiving the layout of the buffer.
+     */
+    private static NativeBuffer decodeAdvanced(int mode, byte[] data, long dataSize, WebPDecoderOptions options, 
+            int[] size, int[] layout, Trace trace) {
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        JNRFFI.WebPDecoderConfig config = newDecoderConfig();
+        options.apply(config.options, layout);
+        config.output.colorspace.set(mode);
+        trace.nativeStart();
+        int status = webP.WebPDecode(data, dataSize, config);
+        trace.nativeEnd();
+        if (status != JNRFFI.VP8_STATUS_OK)
+            throw new IllegalArgumentException("Failed to decode the bitstream (" + JNRFFI.statusName(status) + ")");
+        JNRFFI.WebPRGBABuffer rgba = config.output.u.RGBA;
+        NativeBuffer buffer = NativeBuffer.wrap(config.output, rgba.rgba.get(), rgba.size.get(), trace);
+        size[0] = config.output.width.get() - layout[0];
+        size[1] = config.output.height.get() - layout[1];
+        // A flipped image has the extra row at the bottom
+        if (options.isFlip()) layout[1] = 0;
+        layout[2] = rgba.stride.get();
+        return buffer;
+    }
+
+    private static JNRFFI.WebPDecoderConfig newDecoderConfig() {
+        JNRFFI.WebPDecoderConfig config = JNRFFI.allocate(new JNRFFI.WebPDecoderConfig(JNRFFI.runtime()));
+        if (JNRFFI.WebP.INSTANCE.WebPInitDecoderConfigInternal(config, JNRFFI.WEBP_DECODER_ABI_VERSION) == 0)
+            throw new IllegalStateException("Incompatible libwebp decoder version");
+        return config;
+    }
+
+    private static WebPYUVImage decodeYUV(byte[] fourCC, byte[] data, long dataSize, WebPYUVImage destination) {
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        JNRFFI.WebPBitstreamFeatures features = JNRFFI.allocate(new JNRFFI.WebPBitstreamFeatures(JNRFFI.runtime()));
+        int status = webP.WebPGetFeaturesInternal(data, dataSize, features, JNRFFI.WEBP_DECODER_ABI_VERSION);
+        if (status != JNRFFI.VP8_STATUS_OK)
+            throw new IllegalArgumentException("Failed to decode the bitstream (" + JNRFFI.statusName(status) + ")");
+        int width = features.width.get();
+        int height = features.height.get();
+        if (destination == null) destination = new WebPYUVImage(width, height, features.has_alpha.get() != 0);
+        else if (destination.getWidth() < width || destination.getHeight() < height)
+            throw new IllegalArgumentException("destination smaller than the image");
+        byte[] y = destination.getY();
+        byte[] u = destination.getU();
+        byte[] v = destination.getV();
+        int uvWidth = WebPYUVImage.uvWidth(width);
+        int uvHeight = WebPYUVImage.uvHeight(height);
+        Trace trace = Trace.start(WebPOperation.DECODE, destination.hasAlpha() ? "YUVA" : "YUV");
+        if (!destination.hasAlpha()) {
+            trace.nativeStart();
+            Pointer luma = webP.WebPDecodeYUVInto(data, dataSize, y, y.length, destination.getYStride(),
+                    u, u.length, destination.getUVStride(), v, v.length, destination.getUVStride());
+            trace.nativeEnd();
+            if (luma == null) throw new IllegalArgumentException("Failed to decode the bitstream");
+        }
+        else {
+            // There is no Into function with alpha, so this copies the planes 
+            // from the buffer of the advanced decoding API
+            JNRFFI.WebPDecoderConfig config = newDecoderConfig();
+            config.output.colorspace.set(JNRFFI.MODE_YUVA);
+            trace.nativeStart();
+            status = webP.WebPDecode(data, dataSize, config);
+            trace.nativeEnd();
+            if (status != JNRFFI.VP8_STATUS_OK)
+                throw new IllegalArgumentException("Failed to decode the bitstream (" + JNRFFI.statusName(status) + ")");
+            JNRFFI.WebPYUVABuffer yuva = config.output.u.YUVA;
+            long size = yuva.y_size.get() + yuva.u_size.get() + yuva.v_size.get() + yuva.a_size.get();
+            NativeBuffer decBuffer = NativeBuffer.wrap(config.output, config.output.private_memory.get(), size, trace);
+            try {
+                copyPlane(yuva.y.get(), yuva.y_stride.get(), y, destination.getYStride(), width, height);
+                copyPlane(yuva.u.get(), yuva.u_stride.get(), u, destination.getUVStride(), uvWidth, uvHeight);
+                copyPlane(yuva.v.get(), yuva.v_stride.get(), v, destination.getUVStride(), uvWidth, uvHeight);
+                copyPlane(yuva.a.get(), yuva.a_stride.get(), destination.getA(), destination.getAStride(), width, height);
+            }
+            finally {
+                decBuffer.close();
+            }
+        }
+        long outputBytes = (long) width * height * (destination.hasAlpha() ? 2 : 1) + 2L * uvWidth * uvHeight;
+        trace.end(fourCC, dataSize, outputBytes, width, height);
+        return destination;
+    }
+
+    private static void copyPlane(Pointer src, int srcStride, byte[] dst, int dstStride, int width, int height) {
+        if (srcStride == width && dstStride == width) src.get(0, dst, 0, width * height);
+        else for (int y = 0; y < height; y ++) {
+            src.get((long) y * srcStride, dst, y * dstStride, width);
+        }
+    }
+
+    private static void copyPlane(byte[] src, int srcStride, Pointer dst, int dstStride, int width, int height) {
+        if (srcStride == width && dstStride == width) dst.put(0, src, 0, width * height);
+        else for (int y = 0; y < height; y ++) {
+            dst.put((long) y * dstStride, src, y * srcStride, width);
+        }
+    }
+
+    private static byte[] decodeBytes(int mode, String modeName, byte[] fourCC, byte[] data, long dataSize, 
+            WebPDecoderOptions options, int[] size, int bytesPerPixel) {
+        Objects.requireNonNull(options);
+        checkSizeArray(size);
+        Trace trace = Trace.start(WebPOperation.DECODE, modeName);
+        int[] layout = new int[3];
+        byte[] buf;
+        try (NativeBuffer decBuffer = decodeAdvanced(mode, data, dataSize, options, size, layout, trace)) {
+            Pointer pixels = decBuffer.getPointer();
+            int rowSize = size[0] * bytesPerPixel;
+            buf = new byte[rowSize * size[1]];
+            if (layout[2] == rowSize && layout[1] == 0) pixels.get(0, buf, 0, buf.length);
+            else for (int y = 0; y < size[1]; y ++) {
+                pixels.get((long) (y + layout[1]) * layout[2] + layout[0] * bytesPerPixel, buf, y * rowSize, rowSize);
+            }
+        }
+        trace.end(fourCC, dataSize, buf.length, size[0], size[1]);
+        return buf;
+    }
+
+    static int[] decodeInts(int mode, String modeName, byte[] fourCC, byte[] data, long dataSize, 
+            WebPDecoderOptions options, int[] size) {
+        Objects.requireNonNull(options);
+        checkSizeArray(size);
+        Trace trace = Trace.start(WebPOperation.DECODE, modeName);
+        int[] layout = new int[3];
+        int[] buf;
+        try (NativeBuffer decBuffer = decodeAdvanced(mode, data, dataSize, options, size, layout, trace)) {
+            Pointer pixels = decBuffer.getPointer();
+            buf = new int[size[0] * size[1]];
+            if (layout[2] == size[0] * 4 && layout[1] == 0) pixels.get(0, buf, 0, buf.length);
+            else for (int y = 0; y < size[1]; y ++) {
+                pixels.get((long) (y + layout[1]) * layout[2] + layout[0] * 4L, buf, y * size[0], size[0]);
+            }
+        }
+        trace.end(fourCC, dataSize, buf.length * 4L, size[0], size[1]);
+        return buf;
+    }
+
+    static BufferedImage decodeImage(byte[] fourCC, byte[] data, long dataSize, int imageType, BufferedImage destination) {
+        NativeBinding binding = NativeBinding.FOREIGN;
+        JNRFFI.WebP webP = binding == null ? JNRFFI.WebP.INSTANCE : null;
+        int width, height;
+        if (binding != null) {
+            int[] size = new int[2];
+            if (!binding.getInfo(data, dataSize, size)) throw new IllegalArgumentException("Failed to decode the bitstream");
+            width = size[0];
+            height = size[1];
+        }
+        else {
+            IntByReference widthRef = new IntByReference();
+            IntByReference heightRef = new IntByReference();
+            if (webP.WebPGetInfo(data, dataSize, widthRef, heightRef) == 0) 
+                throw new IllegalArgumentException("Failed to decode the bitstream");
+            width = widthRef.intValue();
+            height = heightRef.intValue();
+        }
+        if (destination == null) destination = new BufferedImage(width, height, imageType);
+        else if (destination.getWidth() < width || destination.getHeight() < height) 
+            throw new IllegalArgumentException("destination smaller than the image");
+        if (!isDirectlyAccessible(destination)) {
+            BufferedImage image = decodeImage(fourCC, data, dataSize, BufferedImage.TYPE_INT_ARGB, null);
+            destination.setRGB(0, 0, width, height, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0, width);
+            return destination;
+        }
+        WritableRaster raster = destination.getRaster();
+        Trace trace;
+        boolean decoded;
+        switch (imageType) {
+            case BufferedImage.TYPE_INT_ARGB: {
+                int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+                int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                trace = Trace.start(WebPOperation.DECODE, LITTLE_ENDIAN ? "BGRA" : "ARGB");
+                trace.nativeStart();
+                // Both give 0xAARRGGBB ints in the byte order of the platform
+                if (binding != null) decoded = binding.decodeInto(LITTLE_ENDIAN ? JNRFFI.MODE_BGRA : JNRFFI.MODE_ARGB, 
+                        data, dataSize, pixels, stride * 4, trace);
+                else if (LITTLE_ENDIAN) decoded = webP.WebPDecodeBGRAInto(data, dataSize, pixels, pixels.length * 4L, stride * 4) != null;
+                else decoded = webP.WebPDecodeARGBInto(data, dataSize, pixels, pixels.length * 4L, stride * 4) != null;
+                trace.nativeEnd();
+                break;
+            }
+            case BufferedImage.TYPE_INT_ARGB_PRE: {
+                // There is no Into function for premultiplied output, so this 
+                // copies from the buffer of the advanced decoding API
+                int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+                int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                WebPColorMode mode = LITTLE_ENDIAN ? WebPColorMode.PREMULTIPLIED_BGRA : WebPColorMode.PREMULTIPLIED_ARGB;
+                trace = Trace.start(WebPOperation.DECODE, mode.name());
+                int[] layout = new int[3];
+                try (NativeBuffer decBuffer = decodeAdvanced(mode.mode, 
+                        data, dataSize, new WebPDecoderOptions(), new int[2], layout, trace)) {
+                    Pointer pixelData = decBuffer.getPointer();
+                    for (int y = 0; y < height; y ++) {
+                        pixelData.get((long) y * layout[2], pixels, y * stride, width);
+                    }
+                }
+                decoded = true;
+                break;
+            }
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                byte[] pixels = ((DataBufferByte) raster.getDataBuffer()).getData();
+                int stride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+                trace = Trace.start(WebPOperation.DECODE, "RGBA");
+                trace.nativeStart();
+                if (binding != null) decoded = binding.decodeInto(JNRFFI.MODE_RGBA, data, dataSize, pixels, stride, trace);
+                else decoded = webP.WebPDecodeRGBAInto(data, dataSize, pixels, pixels.length, stride) != null;
+                trace.nativeEnd();
+                // libwebp has no ABGR output, which is RGBA reversed
+                if (decoded) for (int y = 0; y < height; y ++) {
+                    PixelKernels.INSTANCE.swizzle(pixels, y * stride, pixels, y * stride, width, PixelKernels.REVERSE);
+                }
+                break;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR: {
+                byte[] pixels = ((DataBufferByte) raster.getDataBuffer()).getData();
+                int stride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+                trace = Trace.start(WebPOperation.DECODE, "BGR");
+                trace.nativeStart();
+                if (binding != null) decoded = binding.decodeInto(JNRFFI.MODE_BGR, data, dataSize, pixels, stride, trace);
+                else decoded = webP.WebPDecodeBGRInto(data, dataSize, pixels, pixels.length, stride) != null;
+                trace.nativeEnd();
+                break;
+            }
+            default:
+                throw new AssertionError();
+        }
+        if (!decoded) throw new IllegalArgumentException("Failed to decode the bitstream");
+        trace.end(fourCC, dataSize, (long) width * height * (imageType == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4), width, height);
+        return destination;
+    }
+
+    /**
+     * This returns whether the pixels of an image start at the beginning of 
+     * its data array, in one of the layouts libwebp can read and write 
+     * directly.
+     */
+    private static boolean isDirectlyAccessible(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_ARGB_PRE:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+                break;
+            default:
+                return false;
+        }
+        WritableRaster raster = image.getRaster();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        SampleModel sampleModel = raster.getSampleModel();
+        if (dataBuffer.getNumBanks() != 1) return false;
+        int x = -raster.getSampleModelTranslateX();
+        int y = -raster.getSampleModelTranslateY();
+        int offset;
+        if (sampleModel instanceof SinglePixelPackedSampleModel) {
+            offset = ((SinglePixelPackedSampleModel) sampleModel).getOffset(x, y);
+        }
+        else if (sampleModel instanceof ComponentSampleModel) {
+            ComponentSampleModel componentSampleModel = (ComponentSampleModel) sampleModel;
+            offset = y * componentSampleModel.getScanlineStride() + x * componentSampleModel.getPixelStride();
+        }
+        else return false;
+        return dataBuffer.getOffset() + offset == 0;
+    }
+
+    /**
+     * This encodes an image as a lossy bitstream, with an ALPH chunk if the 
+     * image has transparent pixels. {@code TYPE_INT_ARGB} and 
+     * {@code TYPE_3BYTE_BGR} images are read straight from their data buffer. 
+     * {@code TYPE_INT_ARGB_PRE} and {@code TYPE_4BYTE_ABGR} images take one 
+     * pass to convert into a layout libwebp can import, and any other type is 
+     * read through {@link BufferedImage#getRGB}.
+     * @param image The image to encode.
+     * @param quality The quality factor, from 0 to 100.
+     * @return The VP8 chunk, preceded by its ALPH chunk if there is one.
+     */
+    public static Chunk[] encodeImage(BufferedImage image, float quality) {
+        return encodeImage(image, false, quality);
+    }
+
+    /**
+     * This encodes an image as a lossless bitstream.
+     * @param image The image to encode.
+     * @return The VP8L chunk.
+     * @see #encodeImage(BufferedImage, float)
+     */
+    public static VP8LChunk encodeLosslessImage(BufferedImage image) {
+        return (VP8LChunk) encodeImage(image, true, 0)[0];
+    }
+
+    private static Chunk[] encodeImage(BufferedImage image, boolean lossless, float quality) {
+        Objects.requireNonNull(image);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (isDirectlyAccessible(image)) {
+            WritableRaster raster = image.getRaster();
+            switch (image.getType()) {
+                case BufferedImage.TYPE_INT_ARGB: {
+                    int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+                    int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                    if (!LITTLE_ENDIAN) break;
+                    if (lossless) return new Chunk[] { encodeLosslessBGRA(pixels, width, height, stride) };
+                    return encodeBGRA(pixels, width, height, stride, quality);
+                }
+                case BufferedImage.TYPE_INT_ARGB_PRE: {
+                    int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+                    int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                    int[] argb = new int[width * height];
+                    for (int y = 0; y < height; y ++) {
+                        PixelKernels.INSTANCE.unpremultiply(pixels, y * stride, argb, y * width, width);
+                    }
+                    return encodeARGB(argb, width, height, lossless, quality);
+                }
+                case BufferedImage.TYPE_4BYTE_ABGR: {
+                    byte[] pixels = ((DataBufferByte) raster.getDataBuffer()).getData();
+                    int stride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+                    byte[] rgba = new byte[width * height * 4];
+                    for (int y = 0; y < height; y ++) {
+                        PixelKernels.INSTANCE.swizzle(pixels, y * stride, rgba, y * width * 4, width, PixelKernels.REVERSE);
+                    }
+                    if (lossless) return new Chunk[] { encodeLosslessRGBA(rgba, width, height, width) };
+                    return encodeRGBA(rgba, width, height, width, quality);
+                }
+                case BufferedImage.TYPE_3BYTE_BGR: {
+                    byte[] pixels = ((DataBufferByte) raster.getDataBuffer()).getData();
+                    int stride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride() / 3;
+                    if (lossless) return new Chunk[] { encodeLosslessBGR(pixels, width, height, stride) };
+                    return new Chunk[] { encodeBGR(pixels, width, height, stride, quality) };
+                }
+            }
+        }
+        return encodeARGB(image.getRGB(0, 0, width, height, null, 0, width), width, height, lossless, quality);
+    }
+
+    /**
+     * This encodes 0xAARRGGBB ints, which are BGRA bytes on little endian 
+     * platforms and have to be repacked as RGBA bytes otherwise.
+     */
+    static Chunk[] encodeARGB(int[] argb, int width, int height, boolean lossless, float quality) {
+        if (LITTLE_ENDIAN) {
+            if (lossless) return new Chunk[] { encodeLosslessBGRA(argb, width, height, width) };
+            return encodeBGRA(argb, width, height, width, quality);
+        }
+        byte[] rgba = toRGBA(argb);
+        if (lossless) return new Chunk[] { encodeLosslessRGBA(rgba, width, height, width) };
+        return encodeRGBA(rgba, width, height, width, quality);
+    }
+
+    /**
+     * This encodes YUV 4:2:0 planes as a lossy bitstream. The planes are 
+     * copied into the picture as they are, so there is no colorspace 
+     * conversion.
+     * @param image The planes to encode.
+     * @param quality The quality factor, from 0 to 100.
+     * @return The VP8 chunk, preceded by its ALPH chunk if the image has 
+     * transparent pixels.
+     */
+    public static Chunk[] encodeYUV(WebPYUVImage image, float quality) {
+        Objects.requireNonNull(image);
+        Trace trace = Trace.start(WebPOperation.ENCODE, image.hasAlpha() ? "YUVA" : "YUV");
+        JNRFFI.WebPConfig config = newEncoderConfig(quality);
+        JNRFFI.WebPPicture picture = newPicture();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int uvWidth = image.getUVWidth();
+        int uvHeight = image.getUVHeight();
+        picture.use_argb.set(0);
+        picture.colorspace.set(image.hasAlpha() ? JNRFFI.WEBP_YUV420A : JNRFFI.WEBP_YUV420);
+        picture.width.set(width);
+        picture.height.set(height);
+        if (JNRFFI.WebP.INSTANCE.WebPPictureAlloc(picture) == 0) throw new OutOfMemoryError("Failed to allocate the picture");
+        long inputBytes = (long) width * height * (image.hasAlpha() ? 2 : 1) + 2L * uvWidth * uvHeight;
+        byte[] output;
+        NativeBuffer planes = NativeBuffer.wrap(picture, picture.memory_.get(), inputBytes, trace);
+        try {
+            copyPlane(image.getY(), image.getYStride(), picture.y.get(), picture.y_stride.get(), width, height);
+            copyPlane(image.getU(), image.getUVStride(), picture.u.get(), picture.uv_stride.get(), uvWidth, uvHeight);
+            copyPlane(image.getV(), image.getUVStride(), picture.v.get(), picture.uv_stride.get(), uvWidth, uvHeight);
+            if (image.hasAlpha()) {
+                copyPlane(image.getA(), image.getAStride(), picture.a.get(), picture.a_stride.get(), width, height);
+            }
+            output = encodePicture(config, picture, trace);
+        }
+        finally {
+            planes.close();
+        }
+        return getBitstreamChunks(output, trace, inputBytes, width, height);
+    }
+
+    /**
+     * This encodes an image through the advanced encoding API, which honors 
+     * all the options and can be followed and aborted with a progress.
+     * @param image The image to encode.
+     * @param options The encoder settings.
+     * @param progress The progress of the encode, or null.
+     * @return The VP8L chunk, or the VP8 chunk preceded by its ALPH chunk if 
+     * the image has transparent pixels.
+     * @throws java.util.concurrent.CancellationException If the progress 
+     * was cancelled or its deadline passed.
+     */
+    public static Chunk[] encodeImage(BufferedImage image, WebPEncoderOptions options, WebPEncodeProgress progress) {
+        return imageEncoder(image).encode(options, progress);
+    }
+
+    /**
+     * This encodes an image as a lossy bitstream no larger than the given 
+     * size, at the highest quality found. One round of encodes runs at once 
+     * on the common pool, as many as it has threads, up to 8: libwebp's own 
+     * search for the target size, see {@link 
+     * WebPEncoderOptions#setTargetSize(int)}, the quality of the options and 
+     * qualities spread evenly from 0 below it. The largest result within the 
+     * budget is returned right away if it comes from the quality of the 
+     * options or from libwebp's search, or is at least 90% of the budget, 
+     * which takes about one encode of wall time with enough cores. Only 
+     * otherwise are the qualities between the highest one that fits and the 
+     * lowest one that does not bisected, as many at a time, until they are 
+     * less than 1 apart or a result is close enough. With 4 threads and 
+     * quality 75, that is at most 4 rounds, and with a single thread, where 
+     * every encode runs in turn, at most 10 encodes.
+     * @param image The image to encode.
+     * @param maxBytes The budget, for the returned chunks with their headers.
+     * @param options The lossy encoder settings, whose quality is the highest 
+     * tried.
+     * @return The VP8 chunk, preceded by its ALPH chunk if the image has 
+     * transparent pixels.
+     * @throws IllegalArgumentException If even quality 0 exceeds the budget.
+     */
+    public static Chunk[] encodeWithinSize(BufferedImage image, int maxBytes, WebPEncoderOptions options) {
+        Objects.requireNonNull(options);
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+        if (options.isLossless()) throw new IllegalArgumentException("Cannot target a size losslessly");
+        ImageEncoder encoder = imageEncoder(image);
+        int parallelism = Math.max(1, Math.min(8, ForkJoinPool.getCommonPoolParallelism()));
+        long closeEnough = maxBytes * 9L / 10;
+        float quality = options.getQuality();
+        List<WebPEncoderOptions> trials = new ArrayList<>();
+        trials.add(new WebPEncoderOptions(options).setTargetSize(maxBytes));
+        trials.add(withQuality(options, quality));
+        for (int i = 0; i < parallelism - 2; i ++) trials.add(withQuality(options, quality * i / (parallelism - 2)));
+        List<Chunk[]> results = encodeAll(encoder, trials);
+        Chunk[] best = largestWithin(results, maxBytes, null);
+        if (fullSize(results.get(0)) <= maxBytes || fullSize(results.get(1)) <= maxBytes) return best;
+        if (best != null && fullSize(best) >= closeEnough) return best;
+        // The bisection starts from the qualities of the first round
+        float low = 0, high = quality;
+        boolean zeroTried = false;
+        for (int i = 1; i < trials.size(); i ++) {
+            if (fullSize(results.get(i)) <= maxBytes) low = Math.max(low, trials.get(i).getQuality());
+            if (trials.get(i).getQuality() == 0) zeroTried = true;
+        }
+        for (int i = 1; i < trials.size(); i ++) {
+            float trial = trials.get(i).getQuality();
+            if (trial > low && fullSize(results.get(i)) > maxBytes) high = Math.min(high, trial);
+        }
+        if (best == null && zeroTried) {
+            throw new IllegalArgumentException("Cannot encode the image in " + maxBytes + " bytes");
+        }
+        // Each round tries qualities evenly spaced between the highest one that fits and the lowest one that does not
+        while (high - low > 1 && (best == null || fullSize(best) < closeEnough)) {
+            trials.clear();
+            for (int i = 1; i <= parallelism; i ++) {
+                trials.add(withQuality(options, low + (high - low) * i / (parallelism + 1)));
+            }
+            results = encodeAll(encoder, trials);
+            best = largestWithin(results, maxBytes, best);
+            float fits = low;
+            for (int i = 0; i < results.size(); i ++) {
+                if (fullSize(results.get(i)) > maxBytes) {
+                    high = trials.get(i).getQuality();
+                    break;
+                }
+                fits = trials.get(i).getQuality();
+            }
+            low = fits;
+        }
+        if (best == null && !zeroTried) {
+            Chunk[] chunks = encoder.encode(withQuality(options, 0), null);
+            if (fullSize(chunks) <= maxBytes) best = chunks;
+        }
+        if (best == null) throw new IllegalArgumentException("Cannot encode the image in " + maxBytes + " bytes");
+        return best;
+    }
+
+    /**
+     * This returns a copy of the options at the given quality, without a 
+     * target for libwebp to search for.
+     */
+    private static WebPEncoderOptions withQuality(WebPEncoderOptions options, float quality) {
+        return new WebPEncoderOptions(options).setTargetSize(0).setTargetPSNR(0).setQuality(quality);
+    }
+
+    private static List<Chunk[]> encodeAll(ImageEncoder encoder, List<WebPEncoderOptions> trials) {
+        List<CompletableFuture<Chunk[]>> futures = new ArrayList<>(trials.size());
+        for (WebPEncoderOptions trial : trials) {
+            futures.add(CompletableFuture.supplyAsync(() -> encoder.encode(trial, null)));
+        }
+        joinAll(futures.toArray(new CompletableFuture<?>[0]));
+        List<Chunk[]> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<Chunk[]> future : futures) results.add(future.join());
+        return results;
+    }
+
+    /**
+     * This returns the largest of the results and the best one so far that 
+     * is within the budget.
+     */
+    private static Chunk[] largestWithin(List<Chunk[]> results, int maxBytes, Chunk[] best) {
+        long bestSize = best == null ? 0 : fullSize(best);
+        for (Chunk[] chunks : results) {
+            long size = fullSize(chunks);
+            if (size <= maxBytes && size > bestSize) {
+                best = chunks;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    private static long fullSize(Chunk[] chunks) {
+        long size = 0;
+        for (Chunk chunk : chunks) size += chunk.getFullSize();
+        return size;
+    }
+
+    private interface ImageEncoder {
+        Chunk[] encode(WebPEncoderOptions options, WebPEncodeProgress progress);
+    }
+
+    /**
+     * This takes the pixels out of an image once, for one or more encodes.
+     */
+    private static ImageEncoder imageEncoder(BufferedImage image) {
+        Objects.requireNonNull(image);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (LITTLE_ENDIAN && image.getType() == BufferedImage.TYPE_INT_ARGB && isDirectlyAccessible(image)) {
+            WritableRaster raster = image.getRaster();
+            int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            return (options, progress) -> encodeBGRA(pixels, width, height, stride, options, progress);
+        }
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        if (LITTLE_ENDIAN) return (options, progress) -> encodeBGRA(argb, width, height, width, options, progress);
+        byte[] rgba = toRGBA(argb);
+        return (options, progress) -> encodeRGBA(rgba, width, height, width, options, progress);
+    }
+
+    /**
+     * This encodes 0xAARRGGBB ints through the advanced encoding API.
+     * @see #encodeARGB(int[], int, int, boolean, float)
+     */
+    static Chunk[] encodeARGB(int[] argb, int width, int height, WebPEncoderOptions options, WebPEncodeProgress progress) {
+        if (LITTLE_ENDIAN) return encodeBGRA(argb, width, height, width, options, progress);
+        return encodeRGBA(toRGBA(argb), width, height, width, options, progress);
+    }
+
+    private static byte[] toRGBA(int[] argb) {
+        byte[] rgba = new byte[argb.length * 4];
+        for (int i = 0; i < argb.length; i ++) {
+            int pixel = argb[i];
+            rgba[i * 4] = (byte) (pixel >>> 16);
+            rgba[i * 4 + 1] = (byte) (pixel >>> 8);
+            rgba[i * 4 + 2] = (byte) pixel;
+            rgba[i * 4 + 3] = (byte) (pixel >>> 24);
+        }
+        return rgba;
+    }
+
+    /**
+     * This encodes an image as a frame of an animation. The frame keeps how 
+     * long libwebp took to encode it, and the statistics of the encode if the 
+     * progress has them enabled, see {@link ANMFChunk#getEncodeNanos()} and 
+     * {@link ANMFChunk#getEncodeStats()}.
+     * @param image The image to encode, whose size is the size of the frame.
+     * @param x The X offset of the frame in units of 2 pixels, as returned by 
+     * {@link ANMFChunk#getFrameX()}.
+     * @param y The Y offset of the frame in units of 2 pixels.
+     * @param duration The duration of the frame in milliseconds.
+     * @param flags The blending and disposal flags of the frame.
+     * @param options The encoder settings.
+     * @param progress The progress of the encode, or null.
+     * @return The frame.
+     * @see #encodeImage(BufferedImage, WebPEncoderOptions, WebPEncodeProgress)
+     */
+    public static ANMFChunk encodeFrame(BufferedImage image, int x, int y, int duration, int flags, 
+            WebPEncoderOptions options, WebPEncodeProgress progress) {
+        WebPEncodeProgress tracker = progress == null ? new WebPEncodeProgress() : progress;
+        Chunk[] chunks = encodeImage(image, options, tracker);
+        return new ANMFChunk(x, y, image.getWidth(), image.getHeight(), duration, flags, 
+                tracker.getElapsedNanos(), tracker.getStats(), chunks);
+    }
+
+    /**
+     * This encodes BGRA pixels through the advanced encoding API.
+     * @param bgra The pixels.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param stride The distance between the starts of two rows, in pixels.
+     * @param options The encoder settings.
+     * @param progress The progress of the encode, or null.
+     * @return The VP8L chunk, or the VP8 chunk preceded by its ALPH chunk if 
+     * the image has transparent pixels.
+     * @see #encodeImage(BufferedImage, WebPEncoderOptions, WebPEncodeProgress)
+     */
+    public static Chunk[] encodeBGRA(int[] bgra, int width, int height, int stride, WebPEncoderOptions options, 
+            WebPEncodeProgress progress) {
+        Objects.requireNonNull(bgra);
+        checkPixels(bgra.length, width, height, stride);
+        return encodeImported("BGRA", picture -> JNRFFI.WebP.INSTANCE.WebPPictureImportBGRA(picture, bgra, stride * 4), 
+                width, height, (long) stride * height * 4, options, progress);
+    }
+
+    /**
+     * This encodes RGBA pixels through the advanced encoding API.
+     * @param rgba The pixels.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param stride The distance between the starts of two rows, in pixels.
+     * @param options The encoder settings.
+     * @param progress The progress of the encode, or null.
+     * @return The VP8L chunk, or the VP8 chunk preceded by its ALPH chunk if 
+     * the image has transparent pixels.
+     * @see #encodeImage(BufferedImage, WebPEncoderOptions, WebPEncodeProgress)
+     */
+    public static Chunk[] encodeRGBA(byte[] rgba, int width, int height, int stride, WebPEncoderOptions options, 
+            WebPEncodeProgress progress) {
+        Objects.requireNonNull(rgba);
+        checkPixels(rgba.length / 4, width, height, stride);
+        return encodeImported("RGBA", picture -> JNRFFI.WebP.INSTANCE.WebPPictureImportRGBA(picture, rgba, stride * 4), 
+                width, height, (long) stride * height * 4, options, progress);
+    }
+
+    private static void checkPixels(int length, int width, int height, int stride) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("size <= 0");
+        if (stride < width) throw new IllegalArgumentException("stride < width");
+        if ((long) stride * (height - 1) + width > length) throw new IllegalArgumentException("pixels too short for the image");
+    }
+
+    private interface PictureImporter {
+        int importPixels(JNRFFI.WebPPicture picture);
+    }
+
+    /**
+     * This imports pixels into a new picture, as ARGB for lossless images and 
+     * converted to YUV otherwise, and encodes it.
+     */
+    private static Chunk[] encodeImported(String modeName, PictureImporter importer, int width, int height, 
+            long inputBytes, WebPEncoderOptions options, WebPEncodeProgress progress) {
+        Objects.requireNonNull(options);
+        Trace trace = Trace.start(WebPOperation.ENCODE, modeName);
+        JNRFFI.WebPConfig config = newEncoderConfig(options);
+        JNRFFI.WebPPicture picture = newPicture();
+        picture.use_argb.set(options.isLossless() ? 1 : 0);
+        picture.width.set(width);
+        picture.height.set(height);
+        if (importer.importPixels(picture) == 0) throw new OutOfMemoryError("Failed to import the pixels");
+        Pointer memory = options.isLossless() ? picture.memory_argb_.get() : picture.memory_.get();
+        long memorySize = options.isLossless() ? (long) width * height * 4 : (long) width * height * 5 / 2;
+        byte[] output;
+        NativeBuffer planes = NativeBuffer.wrap(picture, memory, memorySize, trace);
+        try {
+            output = encodePicture(config, picture, trace, progress);
+        }
+        finally {
+            planes.close();
+        }
+        return getBitstreamChunks(output, trace, inputBytes, width, height);
+    }
+
+    private static JNRFFI.WebPConfig newEncoderConfig(WebPEncoderOptions options) {
+        JNRFFI.WebPConfig config = newEncoderConfig(options.getQuality());
+        config.lossless.set(options.isLossless() ? 1 : 0);
+        config.method.set(options.getMethod());
+        config.target_size.set(options.getTargetSize());
+        config.target_PSNR.set(options.getTargetPSNR());
+        boolean search = options.getTargetSize() > 0 || options.getTargetPSNR() > 0;
+        config.pass.set(options.getPasses() > 0 ? options.getPasses() : search ? 6 : 1);
+        return config;
+    }
+
+    private static JNRFFI.WebPConfig newEncoderConfig(float quality) {
+        JNRFFI.WebPConfig config = JNRFFI.allocate(new JNRFFI.WebPConfig(JNRFFI.runtime()));
+        if (JNRFFI.WebP.INSTANCE.WebPConfigInitInternal(config, JNRFFI.WEBP_PRESET_DEFAULT, quality, 
+                JNRFFI.WEBP_ENCODER_ABI_VERSION) == 0) {
+            throw new IllegalStateException("Incompatible libwebp encoder version");
+        }
+        return config;
+    }
+
+    private static JNRFFI.WebPPicture newPicture() {
+        JNRFFI.WebPPicture picture = JNRFFI.allocate(new JNRFFI.WebPPicture(JNRFFI.runtime()));
+        if (JNRFFI.WebP.INSTANCE.WebPPictureInitInternal(picture, JNRFFI.WEBP_ENCODER_ABI_VERSION) == 0)
+            throw new IllegalStateException("Incompatible libwebp encoder version");
+        return picture;
+    }
+
+    /**
+     * This collects the output of WebPEncode on the Java heap.
+     */
+    private static final class ByteArrayWriter implements JNRFFI.WebPWriterFunction {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        @Override
+        public int write(Pointer data, long dataSize, Pointer picture) {
+            byte[] buf = new byte[(int) dataSize];
+            data.get(0, buf, 0, buf.length);
+            out.write(buf, 0, buf.length);
+            return 1;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+    }
+
+    /**
+     * This hands the checkpoints of WebPEncode to a progress. Anything the 
+     * listener throws is kept until WebPEncode returns rather than thrown 
+     * through the native frames.
+     */
+    private static final class ProgressHook implements JNRFFI.WebPProgressHook {
+
+        private final WebPEncodeProgress progress;
+        private Throwable failure;
+
+        ProgressHook(WebPEncodeProgress progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public int progress(int percent, Pointer picture) {
+            try {
+                return progress.report(percent) ? 1 : 0;
+            }
+            catch (RuntimeException | Error e) {
+                failure = e;
+                return 0;
+            }
+        }
+
+    }
+
+    private static byte[] encodePicture(JNRFFI.WebPConfig config, JNRFFI.WebPPicture picture, Trace trace) {
+        return encodePicture(config, picture, trace, null);
+    }
+
+    /**
+     * This runs the encoder on a picture whose pixels are set up.
+     * @param progress The progress to report to, or null.
+     * @return The encoded WebP file.
+     */
+    private static byte[] encodePicture(JNRFFI.WebPConfig config, JNRFFI.WebPPicture picture, Trace trace, 
+            WebPEncodeProgress progress) {
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        if (webP.WebPValidateConfig(config) == 0) throw new IllegalArgumentException("Invalid encoder configuration");
+        ByteArrayWriter writer = new ByteArrayWriter();
+        picture.writer.set(writer);
+        ProgressHook hook = null;
+        JNRFFI.WebPAuxStats stats = null;
+        if (progress != null) {
+            hook = new ProgressHook(progress);
+            picture.progress_hook.set(hook);
+            if (progress.isStatsEnabled()) {
+                stats = JNRFFI.allocate(new JNRFFI.WebPAuxStats(JNRFFI.runtime()));
+                picture.stats.set(Struct.getMemory(stats));
+            }
+            progress.start();
+        }
+        int ok;
+        try {
+            trace.nativeStart();
+            ok = webP.WebPEncode(config, picture);
+            trace.nativeEnd();
+        }
+        finally {
+            if (progress != null) progress.end();
+        }
+        if (hook != null && hook.failure != null) {
+            if (hook.failure instanceof RuntimeException) throw (RuntimeException) hook.failure;
+            throw (Error) hook.failure;
+        }
+        if (ok == 0) {
+            int error = picture.error_code.get();
+            if (progress != null && error == JNRFFI.VP8_ENC_ERROR_USER_ABORT) throw progress.abortedException();
+            throw new IllegalArgumentException("Failed to encode the image (" 
+                    + JNRFFI.encodingErrorName(error) + ")");
+        }
+        if (stats != null) progress.setStats(new WebPEncodeStats(stats));
+        return writer.toByteArray();
+    }
+
+    /**
+     * This takes the bitstream chunks (ALPH, VP8 and VP8L) out of an encoded 
+     * WebP file.
+     */
+    private static Chunk[] getBitstreamChunks(byte[] webP, Trace trace, long inputBytes, int width, int height) {
+        List<Chunk> chunks = new ArrayList<>(2);
+        byte[] fourCC = VP8;
+        long outputBytes = 0;
+        int offset = 12;
+        while (offset + 8 <= webP.length) {
+            byte[] chunkHeader = Arrays.copyOfRange(webP, offset, offset + 4);
+            int chunkSize = (int) toUInt32(Arrays.copyOfRange(webP, offset + 4, offset + 8));
+            int payloadOffset = offset + 8;
+            Chunk chunk = null;
+            if (arrayEquals(chunkHeader, ALPH)) {
+                chunk = new ALPHChunk(Arrays.copyOfRange(webP, payloadOffset, payloadOffset + chunkSize));
+            }
+            else if (arrayEquals(chunkHeader, VP8)) {
+                chunk = new VP8Chunk(Arrays.copyOfRange(webP, payloadOffset, payloadOffset + chunkSize));
+            }
+            else if (arrayEquals(chunkHeader, VP8L)) {
+                chunk = new VP8LChunk(Arrays.copyOfRange(webP, payloadOffset, payloadOffset + chunkSize));
+                fourCC = VP8L;
+            }
+            if (chunk != null) {
+                chunks.add(chunk);
+                outputBytes += chunkSize;
+            }
+            offset = payloadOffset + chunkSize + (chunkSize & 1);
+        }
+        if (chunks.isEmpty()) throw new IllegalArgumentException("Failed to encode the image");
+        trace.end(fourCC, inputBytes, outputBytes, width, height);
+        return chunks.toArray(new Chunk[0]);
+    }
+
+    /**
+     * This takes the bitstream chunks out of a WebP file encoded by the 
+     * foreign binding.
+     */
+    private static Chunk[] foreignEncoded(byte[] webP, Trace trace, long inputBytes, int width, int height) {
+        if (webP == null) throw new IllegalArgumentException("Failed to encode the image");
+        return getBitstreamChunks(webP, trace, inputBytes, width, height);
+    }
+
+    interface BatchTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * This splits a batch into ranges and runs them on the common pool. Each 
+     * range sets up its native state once and reuses it for all its items.
+     */
+    static void runBatch(int count, BatchTask task) {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        int ranges = Math.min(count, parallelism * 4);
+        if (parallelism <= 1 || ranges <= 1) {
+            task.run(0, count);
+            return;
+        }
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[ranges];
+        for (int i = 0; i < ranges; i ++) {
+            int from = (int) ((long) count * i / ranges);
+            int to = (int) ((long) count * (i + 1) / ranges);
+            futures[i] = CompletableFuture.runAsync(() -> task.run(from, to));
+        }
+        joinAll(futures);
+    }
+
+    private static void joinAll(CompletableFuture<?>... futures) {
+        try {
+            CompletableFuture.allOf(futures).join();
+        }
+        catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    private static void checkRenditions(WebPRendition[] renditions, OutputStream[] sinks) {
+        Objects.requireNonNull(renditions);
+        for (WebPRendition rendition : renditions) Objects.requireNonNull(rendition);
+        if (sinks != null) {
+            if (sinks.length != renditions.length) throw new IllegalArgumentException("sinks.length != renditions.length");
+            for (OutputStream sink : sinks) Objects.requireNonNull(sink);
+        }
+    }
+
+    private static JNRFFI.WebPPicture newARGBPicture(int width, int height) {
+        JNRFFI.WebPPicture picture = newPicture();
+        picture.use_argb.set(1);
+        picture.width.set(width);
+        picture.height.set(height);
+        if (JNRFFI.WebP.INSTANCE.WebPPictureAlloc(picture) == 0) throw new OutOfMemoryError("Failed to allocate the picture");
+        return picture;
+    }
+
+    /**
+     * This decodes a bitstream straight into the ARGB plane of a new picture, 
+     * whose 0xAARRGGBB words are BGRA bytes on little endian platforms.
+     */
+    private static JNRFFI.WebPPicture decodePicture(byte[] fourCC, byte[] data, long dataSize) {
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        Trace trace = Trace.start(WebPOperation.DECODE, LITTLE_ENDIAN ? "BGRA" : "ARGB");
+        JNRFFI.WebPDecoderConfig config = newDecoderConfig();
+        int status = webP.WebPGetFeaturesInternal(data, dataSize, config.input, JNRFFI.WEBP_DECODER_ABI_VERSION);
+        if (status != JNRFFI.VP8_STATUS_OK)
+            throw new IllegalArgumentException("Failed to decode the bitstream (" + JNRFFI.statusName(status) + ")");
+        int width = config.input.width.get();
+        int height = config.input.height.get();
+        JNRFFI.WebPPicture picture = newARGBPicture(width, height);
+        int stride = picture.argb_stride.get() * 4;
+        JNRFFI.WebPDecBuffer buffer = config.output;
+        buffer.colorspace.set(LITTLE_ENDIAN ? JNRFFI.MODE_BGRA : JNRFFI.MODE_ARGB);
+        buffer.is_external_memory.set(1);
+        buffer.u.RGBA.rgba.set(picture.argb.get());
+        buffer.u.RGBA.stride.set(stride);
+        buffer.u.RGBA.size.set((long) stride * height);
+        trace.nativeStart();
+        status = webP.WebPDecode(data, dataSize, config);
+        trace.nativeEnd();
+        if (status != JNRFFI.VP8_STATUS_OK) {
+            webP.WebPPictureFree(picture);
+            throw new IllegalArgumentException("Failed to decode the bitstream (" + JNRFFI.statusName(status) + ")");
+        }
+        trace.end(fourCC, dataSize, (long) width * height * 4, width, height);
+        return picture;
+    }
+
+    /**
+     * This makes the renditions of a picture, which it frees, largest first, 
+     * and encodes each one once the next has been made from it.
+     * @param sinks Where to write the renditions, or null to return them.
+     */
+    private static WebPChunk[] encodeRenditions(JNRFFI.WebPPicture source, WebPRendition[] renditions, OutputStream[] sinks) {
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        int sourceWidth = source.width.get();
+        int sourceHeight = source.height.get();
+        int count = renditions.length;
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i ++) {
+            widths[i] = renditions[i].getWidth(sourceWidth, sourceHeight);
+            heights[i] = renditions[i].getHeight(sourceWidth, sourceHeight);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare((long) widths[b] * heights[b], (long) widths[a] * heights[a]));
+        WebPChunk[] results = new WebPChunk[count];
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[count];
+        List<NativeBuffer> pictures = new ArrayList<>(count);
+        NativeBuffer sourceBuffer = NativeBuffer.wrap(source, source.memory_argb_.get(), 
+                (long) source.argb_stride.get() * sourceHeight * 4, Trace.disabled());
+        try {
+            JNRFFI.WebPPicture previous = source;
+            int previousIndex = -1;
+            for (int i : order) {
+                JNRFFI.WebPPicture picture = newPicture();
+                if (webP.WebPPictureCopy(previous, picture) == 0) throw new OutOfMemoryError("Failed to copy the picture");
+                if ((widths[i] != picture.width.get() || heights[i] != picture.height.get())
+                        && webP.WebPPictureRescale(picture, widths[i], heights[i]) == 0) {
+                    webP.WebPPictureFree(picture);
+                    throw new IllegalArgumentException("Failed to rescale the picture");
+                }
+                pictures.add(NativeBuffer.wrap(picture, picture.memory_argb_.get(), 
+                        (long) picture.argb_stride.get() * heights[i] * 4, Trace.disabled()));
+                if (previousIndex < 0) sourceBuffer.close();
+                else futures[previousIndex] = encodeRendition(previous, renditions[previousIndex], 
+                        sinks == null ? null : sinks[previousIndex], results, previousIndex);
+                previous = picture;
+                previousIndex = i;
+            }
+            if (previousIndex >= 0) futures[previousIndex] = encodeRendition(previous, renditions[previousIndex], 
+                    sinks == null ? null : sinks[previousIndex], results, previousIndex);
+            joinAll(futures);
+        }
+        finally {
+            // The pictures can only be freed once no encoder reads them
+            for (CompletableFuture<?> future : futures) {
+                if (future != null) future.handle((result, e) -> null).join();
+            }
+            sourceBuffer.close();
+            for (NativeBuffer picture : pictures) picture.close();
+        }
+        return results;
+    }
+
+    private static CompletableFuture<?> encodeRendition(JNRFFI.WebPPicture picture, WebPRendition rendition, 
+            OutputStream sink, WebPChunk[] results, int index) {
+        return CompletableFuture.runAsync(() -> {
+            int width = picture.width.get();
+            int height = picture.height.get();
+            Trace trace = Trace.start(WebPOperation.ENCODE, LITTLE_ENDIAN ? "BGRA" : "ARGB");
+            JNRFFI.WebPConfig config = newEncoderConfig(rendition.getQuality());
+            config.lossless.set(rendition.isLossless() ? 1 : 0);
+            config.method.set(rendition.getMethod());
+            byte[] webP = encodePicture(config, picture, trace);
+            long inputBytes = (long) width * height * 4;
+            if (sink == null) {
+                Chunk[] chunks = getBitstreamChunks(webP, trace, inputBytes, width, height);
+                // Lossy images with alpha need the extended format
+                results[index] = chunks.length == 1 ? new WebPChunk(chunks) 
+                        : new WebPChunk(new VP8XChunk(VP8XChunk.FLAG_ALPH, width, height), chunks[0], chunks[1]);
+                return;
+            }
+            trace.end(rendition.isLossless() ? VP8L : VP8, inputBytes, webP.length, width, height);
+            try {
+                sink.write(webP);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static NativeBuffer malloc(long size) {
+        Pointer pointer = JNRFFI.WebP.INSTANCE.WebPMalloc(Math.max(1, size));
+        if (pointer == null) throw new OutOfMemoryError("Failed to allocate " + size + " bytes");
+        return NativeBuffer.wrap(pointer, size, Trace.disabled());
+    }
+
+    /**
+     * This returns the size of a batch item in native memory. An ALPH chunk 
+     * and its VP8 chunk are stored with their headers, a lone bitstream 
+     * without.
+     */
+    private static long itemSize(RawDataChunk[] item) {
+        if (item.length == 1) return item[0].getSize();
+        long size = 0;
+        for (RawDataChunk chunk : item) {
+            size += chunk.getFullSize();
+        }
+        return size;
+    }
+
+    private static void putItem(Pointer memory, long offset, RawDataChunk[] item) {
+        if (item.length == 1) {
+            memory.put(offset, item[0].getRawData(), 0, (int) item[0].getSize());
+            return;
+        }
+        for (RawDataChunk chunk : item) {
+            long size = chunk.getSize();
+            byte[] header = Arrays.copyOf(chunk.getFourCC(), 8);
+            header[4] = (byte) size;
+            header[5] = (byte) (size >>> 8);
+            header[6] = (byte) (size >>> 16);
+            header[7] = (byte) (size >>> 24);
+            memory.put(offset, header, 0, 8);
+            memory.put(offset + 8, chunk.getRawData(), 0, (int) size);
+            if (chunk.getPadding() != 0) memory.putByte(offset + 8 + size, (byte) 0);
+            offset += chunk.getFullSize();
+        }
+    }
+
+    private static WebPPixelBatch decodeBatch(RawDataChunk[][] items, byte[][] fourCCs, int[] widths, int[] heights, 
+            WebPColorMode mode) {
+        int count = items.length;
+        int bytesPerPixel = mode.getBytesPerPixel();
+        long[] inputOffsets = new long[count + 1];
+        int[] outputOffsets = new int[count];
+        long outputSize = 0;
+        for (int i = 0; i < count; i ++) {
+            inputOffsets[i + 1] = inputOffsets[i] + itemSize(items[i]);
+            outputOffsets[i] = (int) outputSize;
+            outputSize += (long) widths[i] * heights[i] * bytesPerPixel;
+            if (outputSize > Integer.MAX_VALUE) throw new IllegalArgumentException("batch too large to decode");
+        }
+        byte[] pixels = new byte[(int) outputSize];
+        try (NativeBuffer inputBuffer = malloc(inputOffsets[count]); NativeBuffer outputBuffer = malloc(outputSize)) {
+            Pointer input = inputBuffer.getPointer();
+            Pointer output = outputBuffer.getPointer();
+            for (int i = 0; i < count; i ++) {
+                putItem(input, inputOffsets[i], items[i]);
+            }
+            runBatch(count, (from, to) -> {
+                JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+                JNRFFI.WebPDecoderConfig config = newDecoderConfig();
+                JNRFFI.WebPDecBuffer buffer = config.output;
+                buffer.colorspace.set(mode.mode);
+                buffer.is_external_memory.set(1);
+                for (int i = from; i < to; i ++) {
+                    long size = (long) widths[i] * heights[i] * bytesPerPixel;
+                    long dataSize = inputOffsets[i + 1] - inputOffsets[i];
+                    buffer.u.RGBA.rgba.set(output.slice(outputOffsets[i], size));
+                    buffer.u.RGBA.stride.set(widths[i] * bytesPerPixel);
+                    buffer.u.RGBA.size.set(size);
+                    Trace trace = Trace.start(WebPOperation.DECODE, mode.name());
+                    trace.nativeStart();
+                    int status = webP.WebPDecode(input.slice(inputOffsets[i], dataSize), dataSize, config);
+                    trace.nativeEnd();
+                    if (status != JNRFFI.VP8_STATUS_OK) {
+                        throw new IllegalArgumentException("Failed to decode image " + i + " of the batch (" 
+                                + JNRFFI.statusName(status) + ")");
+                    }
+                    trace.end(fourCCs[i], dataSize, size, widths[i], heights[i]);
+                }
+            });
+            output.get(0, pixels, 0, pixels.length);
+        }
+        return new WebPPixelBatch(pixels, mode, outputOffsets, widths, heights);
+    }
+
+    private static Chunk[][] encodeBatch(WebPPixelBatch batch, boolean lossless, float quality) {
+        Objects.requireNonNull(batch);
+        WebPColorMode mode = batch.getColorMode();
+        switch (mode) {
+            case RGB: case BGR: case RGBA: case BGRA:
+                break;
+            default:
+                throw new IllegalArgumentException("Cannot encode from " + mode);
+        }
+        byte[] pixels = batch.getPixels();
+        Chunk[][] results = new Chunk[batch.size()][];
+        try (NativeBuffer inputBuffer = malloc(pixels.length)) {
+            Pointer input = inputBuffer.getPointer();
+            input.put(0, pixels, 0, pixels.length);
+            runBatch(batch.size(), (from, to) -> {
+                JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+                PointerByReference webPDataRef = new PointerByReference();
+                for (int i = from; i < to; i ++) {
+                    int width = batch.getWidth(i);
+                    int height = batch.getHeight(i);
+                    int stride = batch.getStride(i);
+                    Pointer data = input.slice(batch.getOffset(i));
+                    Trace trace = Trace.start(WebPOperation.ENCODE, mode.name());
+                    trace.nativeStart();
+                    long outputSize;
+                    switch (mode) {
+                        case RGB:
+                            outputSize = lossless ? webP.WebPEncodeLosslessRGB(data, width, height, stride, webPDataRef)
+                                    : webP.WebPEncodeRGB(data, width, height, stride, quality, webPDataRef);
+                            break;
+                        case BGR:
+                            outputSize = lossless ? webP.WebPEncodeLosslessBGR(data, width, height, stride, webPDataRef)
+                                    : webP.WebPEncodeBGR(data, width, height, stride, quality, webPDataRef);
+                            break;
+                        case RGBA:
+                            outputSize = lossless ? webP.WebPEncodeLosslessRGBA(data, width, height, stride, webPDataRef)
+                                    : webP.WebPEncodeRGBA(data, width, height, stride, quality, webPDataRef);
+                            break;
+                        default:
+                            outputSize = lossless ? webP.WebPEncodeLosslessBGRA(data, width, height, stride, webPDataRef)
+                                    : webP.WebPEncodeBGRA(data, width, height, stride, quality, webPDataRef);
+                            break;
+                    }
+                    trace.nativeEnd();
+                    long inputBytes = (long) stride * height;
+                    if (lossless) results[i] = new Chunk[] { getVP8LChunk(webPDataRef, outputSize, trace, inputBytes, width, height) };
+                    else if (mode.hasAlpha()) results[i] = getLossyChunks(webPDataRef, outputSize, trace, inputBytes, width, height);
+                    else results[i] = new Chunk[] { getVP8Chunk(webPDataRef, outputSize, trace, inputBytes, width, height) };
+                }
+            });
+        }
+        return results;
+    }
+
+    public static VP8LChunk encodeLosslessBGRA(int[] bgra, int width, int height, int stride) {
+        Objects.requireNonNull(bgra);
+        Trace trace = Trace.start(WebPOperation.ENCODE, "BGRA");
+        NativeBinding binding = NativeBinding.FOREIGN;
+        if (binding != null) {
+            trace.nativeStart();
+            byte[] webPFile = binding.encode(JNRFFI.MODE_BGRA, true, bgra, width, height, stride * 4, 0, trace);
+            trace.nativeEnd();
+            return (VP8LChunk) foreignEncoded(webPFile, trace, bgra.length * 4L, width, height)[0];
+        }
+        PointerByReference webPDataRef = new PointerByReference();
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        trace.nativeStart();
+        long outputSize = webP.WebPEncodeLosslessBGRA(bgra, width, height, stride * 4, webPDataRef);
+        trace.nativeEnd();
+        return getVP8LChunk(webPDataRef, outputSize, trace, bgra.length * 4L, width, height);
+    }
+
+    /**
+     * This encodes BGRA pixels losslessly, reading them in place from a direct 
+     * buffer, such as a mapped file or the buffer view of a native memory 
+     * segment, which saves copying them to the heap and back.
+     * @param bgra The pixels, from the position of the buffer.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param stride The distance between the starts of two rows, in pixels.
+     * @return The encoded image.
+     * @throws IllegalArgumentException If the buffer is not direct or is too 
+     * short for the image.
+     */
+    public static VP8LChunk encodeLosslessBGRA(ByteBuffer bgra, int width, int height, int stride) {
+        return (VP8LChunk) encodeBuffer(JNRFFI.MODE_BGRA, true, bgra, width, height, stride, 0)[0];
+    }
+
+    /**
+     * @see #encodeLosslessBGRA(ByteBuffer, int, int, int)
+     */
+    public static VP8LChunk encodeLosslessRGBA(ByteBuffer rgba, int width, int height, int stride) {
+        return (VP8LChunk) encodeBuffer(JNRFFI.MODE_RGBA, true, rgba, width, height, stride, 0)[0];
+    }
+
+    /**
+     * @see #encodeLosslessBGRA(ByteBuffer, int, int, int)
+     */
+    public static VP8LChunk encodeLosslessRGB(ByteBuffer rgb, int width, int height, int stride) {
+        return (VP8LChunk) encodeBuffer(JNRFFI.MODE_RGB, true, rgb, width, height, stride, 0)[0];
+    }
+
+    /**
+     * @see #encodeLosslessBGRA(ByteBuffer, int, int, int)
+     */
+    public static VP8LChunk encodeLosslessBGR(ByteBuffer bgr, int width, int height, int stride) {
+        return (VP8LChunk) encodeBuffer(JNRFFI.MODE_BGR, true, bgr, width, height, stride, 0)[0];
+    }
+
+    /**
+     * This encodes BGRA pixels, reading them in place from a direct buffer.
+     * @param bgra The pixels, from the position of the buffer.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param stride The distance between the starts of two rows, in pixels.
+     * @param quality The quality factor, from 0 to 100.
+     * @return The VP8 chunk, preceded by an ALPH chunk if the image has 
+     * transparent pixels.
+     * @see #encodeLosslessBGRA(ByteBuffer, int, int, int)
+     */
+    public static Chunk[] encodeBGRA(ByteBuffer bgra, int width, int height, int stride, float quality) {
+        return encodeBuffer(JNRFFI.MODE_BGRA, false, bgra, width, height, stride, quality);
+    }
+
+    /**
+     * @see #encodeBGRA(ByteBuffer, int, int, int, float)
+     */
+    public static Chunk[] encodeRGBA(ByteBuffer rgba, int width, int height, int stride, float quality) {
+        return encodeBuffer(JNRFFI.MODE_RGBA, false, rgba, width, height, stride, quality);
+    }
+
+    /**
+     * @see #encodeBGRA(ByteBuffer, int, int, int, float)
+     */
+    public static VP8Chunk encodeRGB(ByteBuffer rgb, int width, int height, int stride, float quality) {
+        return (VP8Chunk) encodeBuffer(JNRFFI.MODE_RGB, false, rgb, width, height, stride, quality)[0];
+    }
+
+    /**
+     * @see #encodeBGRA(ByteBuffer, int, int, int, float)
+     */
+    public static VP8Chunk encodeBGR(ByteBuffer bgr, int width, int height, int stride, float quality) {
+        return (VP8Chunk) encodeBuffer(JNRFFI.MODE_BGR, false, bgr, width, height, stride, quality)[0];
+    }
+
+    private static Chunk[] encodeBuffer(int mode, boolean lossless, ByteBuffer pixels, int width, int height, 
+            int stride, float quality) {
+        Objects.requireNonNull(pixels);
+        if (!pixels.isDirect()) throw new IllegalArgumentException("pixels is not a direct buffer");
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("size <= 0");
+        if (stride < width) throw new IllegalArgumentException("stride < width");
+        int bytesPerPixel = mode == JNRFFI.MODE_RGB || mode == JNRFFI.MODE_BGR ? 3 : 4;
+        // libwebp reads every row in full, so the buffer must hold them all
+        if ((long) stride * bytesPerPixel * (height - 1) + (long) width * bytesPerPixel > pixels.remaining())
+            throw new IllegalArgumentException("pixels too short for the image");
+        String modeName = mode == JNRFFI.MODE_RGB ? "RGB" : mode == JNRFFI.MODE_BGR ? "BGR" 
+                : mode == JNRFFI.MODE_RGBA ? "RGBA" : "BGRA";
+        long inputBytes = (long) stride * bytesPerPixel * height;
+        int strideBytes = stride * bytesPerPixel;
+        Trace trace = Trace.start(WebPOperation.ENCODE, modeName);
+        NativeBinding binding = NativeBinding.FOREIGN;
+        if (binding != null) {
+            trace.nativeStart();
+            byte[] webPFile = binding.encode(mode, lossless, pixels, width, height, strideBytes, quality, trace);
+            trace.nativeEnd();
+            return foreignEncoded(webPFile, trace, inputBytes, width, height);
+        }
+        PointerByReference webPDataRef = new PointerByReference();
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        trace.nativeStart();
+        long outputSize;
+        switch (mode) {
+            case JNRFFI.MODE_RGB:
+                outputSize = lossless ? webP.WebPEncodeLosslessRGB(pixels, width, height, strideBytes, webPDataRef)
+                        : webP.WebPEncodeRGB(pixels, width, height, strideBytes, quality, webPDataRef);
+                break;
+            case JNRFFI.MODE_BGR:
+                outputSize = lossless ? webP.WebPEncodeLosslessBGR(pixels, width, height, strideBytes, webPDataRef)
+                        : webP.WebPEncodeBGR(pixels, width, height, strideBytes, quality, webPDataRef);
+                break;
+            case JNRFFI.MODE_RGBA:
+                outputSize = lossless ? webP.WebPEncodeLosslessRGBA(pixels, width, height, strideBytes, webPDataRef)
+                        : webP.WebPEncodeRGBA(pixels, width, height, strideBytes, quality, webPDataRef);
+                break;
+            default:
+                outputSize = lossless ? webP.WebPEncodeLosslessBGRA(pixels, width, height, strideBytes, webPDataRef)
+                        : webP.WebPEncodeBGRA(pixels, width, height, strideBytes, quality, webPDataRef);
+                break;
+        }
+        trace.nativeEnd();
+        if (lossless) return new Chunk[] { getVP8LChunk(webPDataRef, outputSize, trace, inputBytes, width, height) };
+        if (bytesPerPixel == 4) return getLossyChunks(webPDataRef, outputSize, trace, inputBytes, width, height);
+        return new Chunk[] { getVP8Chunk(webPDataRef, outputSize, trace, inputBytes, width, height) };
+    }
+
+    /**
+     * This takes ownership of the WebP file written by one of the simple 
+     * encoding functions.
+     */
+    private static NativeBuffer encodedData(PointerByReference webPDataRef, long outputSize, Trace trace) {
+        Pointer webPData = webPDataRef.getValue();
+        if (webPData == null) throw new IllegalArgumentException("Failed to encode the image");
+        NativeBuffer webPBuffer = NativeBuffer.wrap(webPData, outputSize, trace);
+        if (outputSize == 0) {
+            webPBuffer.close();
+            throw new IllegalArgumentException("Failed to encode the image");
+        }
+        return webPBuffer;
+    }
+
+    private static VP8LChunk getVP8LChunk(PointerByReference webPDataRef, long outputSize, Trace trace, long inputBytes, int width, int height) {
+        byte[] buf;
+        try (NativeBuffer webPBuffer = encodedData(webPDataRef, outputSize, trace)) {
+            Pointer webPData = webPBuffer.getPointer();
+            byte[] lengthBuf = new byte[4];
+            webPData.get(16, lengthBuf, 0, 4);
+            long length = Util.toUInt32(lengthBuf);
+            buf = new byte[(int) length];
+            webPData.get(20, buf, 0, buf.length);
+        }
+        trace.end(VP8L, inputBytes, buf.length, width, height);
+        return new VP8LChunk(buf);
+    }
+
+    public static VP8LChunk encodeLosslessRGBA(byte[] rgba, int width, int height, int stride) {
+        Objects.requireNonNull(rgba);
+        Trace trace = Trace.start(WebPOperation.ENCODE, "RGBA");
+        NativeBinding binding = NativeBinding.FOREIGN;
+        if (binding != null) {
+            trace.nativeStart();
+            byte[] webPFile = binding.encode(JNRFFI.MODE_RGBA, true, rgba, width, height, stride * 4, 0, trace);
+            trace.nativeEnd();
+            return (VP8LChunk) foreignEncoded(webPFile, trace, rgba.length, width, height)[0];
+        }
+        PointerByReference webPDataRef = new PointerByReference();
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        trace.nativeStart();
+        long outputSize = webP.WebPEncodeLosslessRGBA(rgba, width, height, stride * 4, webPDataRef);
+        trace.nativeEnd();
+        return getVP8LChunk(webPDataRef, outputSize, trace, rgba.length, width, height);
+    }
+
+    public static VP8LChunk encodeLosslessRGB(byte[] rgb, int width, int height, int stride) {
+        Objects.requireNonNull(rgb);
+        Trace trace = Trace.start(WebPOperation.ENCODE, "RGB");
+        NativeBinding binding = NativeBinding.FOREIGN;
+        if (binding != null) {
+            trace.nativeStart();
+            byte[] webPFile = binding.encode(JNRFFI.MODE_RGB, true, rgb, width, height, stride * 3, 0, trace);
+            trace.nativeEnd();
+            return (VP8LChunk) foreignEncoded(webPFile, trace, rgb.length, width, height)[0];
+        }
+        PointerByReference webPDataRef = new PointerByReference();
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        trace.nativeStart();
+        long outputSize = webP.WebPEncodeLosslessRGB(rgb, width, height, stride * 3, webPDataRef);
+        trace.nativeEnd();
+        return getVP8LChunk(webPDataRef, outputSize, trace, rgb.length, width, height);
+    }
+
+    public static VP8LChunk encodeLosslessBGR(byte[] bgr, int width, int height, int stride) {
+        Objects.requireNonNull(bgr);
+        Trace trace = Trace.start(WebPOperation.ENCODE, "BGR");
+        NativeBinding binding = NativeBinding.FOREIGN;
+        if (binding != null) {
+            trace.nativeStart();
+            byte[] webPFile = binding.encode(JNRFFI.MODE_BGR, true, bgr, width, height, stride * 3, 0, trace);
+            trace.nativeEnd();
+            return (VP8LChunk) foreignEncoded(webPFile, trace, bgr.length, width, height)[0];
+        }
+        PointerByReference webPDataRef = new PointerByReference();
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        trace.nativeStart();
+        long outputSize = webP.WebPEncodeLosslessBGR(bgr, width, height, stride * 3, webPDataRef);
+        trace.nativeEnd();
+        return getVP8LChunk(webPDataRef, outputSize, trace, bgr.length, width, height);
+    }
+
+    public static Chunk[] encodeBGRA(int[] bgra, int width, int height, int stride, float quality) {
+        Objects.requireNonNull(bgra);
+        Trace trace = Trace.start(WebPOperation.ENCODE, "BGRA");
+        NativeBinding binding = NativeBinding.FOREIGN;
+        if (binding != null) {
+            trace.nativeStart();
+            byte[] webPFile = binding.encode(JNRFFI.MODE_BGRA, false, bgra, width, height, stride * 4, quality, trace);
+            trace.nativeEnd();
+            return foreignEncoded(webPFile, trace, bgra.length * 4L, width, height);
+        }
+        PointerByReference webPDataRef = new PointerByReference();
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        trace.nativeStart();
+        long outputSize = webP.WebPEncodeBGRA(bgra, width, height, stride * 4, quality, webPDataRef);
+        trace.nativeEnd();
+        return getLossyChunks(webPDataRef, outputSize, trace, bgra.length * 4L, width, height);
+    }
+
+    public static Chunk[] encodeRGBA(byte[] rgba, int width, int height, int stride, float quality) {
+        Objects.requireNonNull(rgba);
+        Trace trace = Trace.start(WebPOperation.ENCODE, "RGBA");
+        NativeBinding binding = NativeBinding.FOREIGN;
+        if (binding != null) {
+            trace.nativeStart();
+            byte[] webPFile = binding.encode(JNRFFI.MODE_RGBA, false, rgba, width, height, stride * 4, quality, trace);
+            trace.nativeEnd();
+            return foreignEncoded(webPFile, trace, rgba.length, width, height);
+        }
+        PointerByReference webPDataRef = new PointerByReference();
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        trace.nativeStart();
+        long outputSize = webP.WebPEncodeRGBA(rgba, width, height, stride * 4, quality, webPDataRef);
+        trace.nativeEnd();
+        return getLossyChunks(webPDataRef, outputSize, trace, rgba.length, width, height);
+    }
+
+    private static Chunk[] getLossyChunks(PointerByReference webPDataRef, long outputSize, Trace trace, long inputBytes, int width, int height) {
+        byte[] bufALPH = null;
+        byte[] bufVP8;
+        try (NativeBuffer webPBuffer = encodedData(webPDataRef, outputSize, trace)) {
+            Pointer webPData = webPBuffer.getPointer();
+            byte[] chunkHeaderBuf = new byte[4];
+            webPData.get(12, chunkHeaderBuf, 0, 4);
+            byte[] lengthBuf = new byte[4];
+            if (arrayEquals(chunkHeaderBuf, VP8)) {
+                webPData.get(16, lengthBuf, 0, 4);
+                bufVP8 = new byte[(int) Util.toUInt32(lengthBuf)];
+                webPData.get(20, bufVP8, 0, bufVP8.length);
+            }
+            else {
+                webPData.get(34, lengthBuf, 0, 4);
+                long lengthALPH = Util.toUInt32(lengthBuf);
+                int pad = isOdd(lengthALPH) ? 1 : 0;
+                bufALPH = new byte[(int) lengthALPH];
+                webPData.get(38, bufALPH, 0, bufALPH.length);
+                webPData.get(42 + bufALPH.length + pad, lengthBuf, 0, 4);
+                long lengthVP8 = Util.toUInt32(lengthBuf);
+                bufVP8 = new byte[(int) lengthVP8];
+                webPData.get(46 + bufALPH.length + pad, bufVP8, 0, bufVP8.length);
+            }
+        }
+        if (bufALPH == null) {
+            trace.end(VP8, inputBytes, bufVP8.length, width, height);
+            return new Chunk[] { new VP8Chunk(bufVP8) };
+        }
+        trace.end(VP8, inputBytes, bufALPH.length + bufVP8.length, width, height);
+        return new Chunk[] { new ALPHChunk(bufALPH), new VP8Chunk(bufVP8) };
+    }
+
+    public static VP8Chunk encodeBGR(byte[] bgr, int width, int height, int stride, float quality) {
+        Objects.requireNonNull(bgr);
+        Trace trace = Trace.start(WebPOperation.ENCODE, "BGR");
+        NativeBinding binding = NativeBinding.FOREIGN;
+        if (binding != null) {
+            trace.nativeStart();
+            byte[] webPFile = binding.encode(JNRFFI.MODE_BGR, false, bgr, width, height, stride * 3, quality, trace);
+            trace.nativeEnd();
+            return (VP8Chunk) foreignEncoded(webPFile, trace, bgr.length, width, height)[0];
+        }
+        PointerByReference webPDataRef = new PointerByReference();
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        trace.nativeStart();
+        long outputSize = webP.WebPEncodeBGR(bgr, width, height, stride * 3, quality, webPDataRef);
+        trace.nativeEnd();
+        return getVP8Chunk(webPDataRef, outputSize, trace, bgr.length, width, height);
+    }
+
+    public static VP8Chunk encodeRGB(byte[] rgb, int width, int height, int stride, float quality) {
+        Objects.requireNonNull(rgb);
+        Trace trace = Trace.start(WebPOperation.ENCODE, "RGB");
+        NativeBinding binding = NativeBinding.FOREIGN;
+        if (binding != null) {
+            trace.nativeStart();
+            byte[] webPFile = binding.encode(JNRFFI.MODE_RGB, false, rgb, width, height, stride * 3, quality, trace);
+            trace.nativeEnd();
+            return (VP8Chunk) foreignEncoded(webPFile, trace, rgb.length, width, height)[0];
+        }
+        PointerByReference webPDataRef = new PointerByReference();
+        JNRFFI.WebP webP = JNRFFI.WebP.INSTANCE;
+        trace.nativeStart();
+        long outputSize = webP.WebPEncodeRGB(rgb, width, height, stride * 3, quality, webPDataRef);
+        trace.nativeEnd();
+        return getVP8Chunk(webPDataRef, outputSize, trace, rgb.length, width, height);
+    }
+
+    private static VP8Chunk getVP8Chunk(PointerByReference webPDataRef, long outputSize, Trace trace, long inputBytes, int width, int height) {
+        byte[] buf;
+        try (NativeBuffer webPBuffer = encodedData(webPDataRef, outputSize, trace)) {
+            Pointer webPData = webPBuffer.getPointer();
+            byte[] lengthBuf = new byte[4];
+            webPData.get(16, lengthBuf, 0, 4);
+            long length = Util.toUInt32(lengthBuf);
+            buf = new byte[(int) length];
+            webPData.get(20, buf, 0, buf.length);
+        }
+        trace.end(VP8, inputBytes, buf.length, width, height);
         return new VP8Chunk(buf);
     }
 
@@ -0,0 +1,33 @@
+package com.tianscar.webp;
+
+/**
+ * This receives the frames of an animation played by a {@link WebPPlayer}.
+ * Its methods are called on the presenter thread of the player, one at a
+ * time.
+ * @see WebPSurface
+ */
+public interface WebPFrameListener {
+
+    /**
+     * This is called when a frame is due. The canvas is reused for later
+     * frames as soon as this returns, so it must be copied to be kept, and it
+     * must not be modified.
+     * @param player The player.
+     * @param canvas The composited canvas, row by row, as 0xAARRGGBB ints
+     * unless the player has another {@link WebPPlayer#getColorMode()}.
+     * @param index The index of the frame in the animation.
+     * @param time When the frame is shown, in milliseconds from the start of
+     * the playback, counting the frames of every loop before.
+     */
+    void frameReady(WebPPlayer player, int[] canvas, int index, long time);
+
+    /**
+     * This is called once after the last frame, or when the playback stops
+     * or fails.
+     * @param player The player.
+     * @param failure Why the playback failed, or null if it did not.
+     */
+    default void playbackEnded(WebPPlayer player, Throwable failure) {
+    }
+
+}
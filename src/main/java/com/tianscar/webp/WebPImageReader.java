@@ -0,0 +1,300 @@
+package com.tianscar.webp;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.tianscar.webp.ALPHChunk.ALPH;
+import static com.tianscar.webp.ANMFChunk.ANMF;
+import static com.tianscar.webp.RIFFChunk.RIFF;
+import static com.tianscar.webp.Util.arrayEquals;
+import static com.tianscar.webp.VP8Chunk.VP8;
+import static com.tianscar.webp.VP8LChunk.VP8L;
+import static com.tianscar.webp.VP8XChunk.VP8X;
+import static com.tianscar.webp.WebPChunk.WEBP;
+
+/**
+ * This reads WebP images through {@link javax.imageio.ImageIO}. Instead of
+ * demuxing the whole file, the reader scans the chunk headers once to build an
+ * index of the frames, and then reads and decodes only the frame that is
+ * requested.
+ * <p>
+ * The source region and the source subsampling of the {@link ImageReadParam}
+ * are passed on to libwebp as its cropping and scaling options, so only the
+ * requested pixels are reconstructed. Subsampling is therefore done by
+ * resampling rather than by picking every n-th pixel.
+ * <p>
+ * The frames of an animation are returned as they are stored, without being
+ * composited onto the canvas; {@link #getWidth(int)} and {@link #getHeight(int)}
+ * return the size of the frame.
+ */
+public class WebPImageReader extends ImageReader {
+
+    /**
+     * This is where a frame is stored in the stream.
+     */
+    private static final class Frame {
+        final long offset;
+        final int length;
+        final byte[] fourCC;
+        final int width;
+        final int height;
+
+        Frame(long offset, long length, byte[] fourCC, int width, int height) throws IIOException {
+            if (length > Integer.MAX_VALUE) throw new IIOException("chunk too large to read");
+            this.offset = offset;
+            this.length = (int) length;
+            this.fourCC = fourCC;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private List<Frame> frames = null;
+
+    public WebPImageReader(ImageReaderSpi originatingProvider) {
+        super(originatingProvider);
+    }
+
+    @Override
+    public void setInput(Object input, boolean seekForwardOnly, boolean ignoreMetadata) {
+        super.setInput(input, seekForwardOnly, ignoreMetadata);
+        frames = null;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        frames = null;
+    }
+
+    @Override
+    public int getNumImages(boolean allowSearch) throws IOException {
+        return getFrames().size();
+    }
+
+    @Override
+    public int getWidth(int imageIndex) throws IOException {
+        return getFrame(imageIndex).width;
+    }
+
+    @Override
+    public int getHeight(int imageIndex) throws IOException {
+        return getFrame(imageIndex).height;
+    }
+
+    @Override
+    public boolean isRandomAccessEasy(int imageIndex) throws IOException {
+        getFrame(imageIndex);
+        return true;
+    }
+
+    @Override
+    public Iterator<ImageTypeSpecifier> getImageTypes(int imageIndex) throws IOException {
+        getFrame(imageIndex);
+        return Arrays.asList(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB),
+                ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB_PRE),
+                ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_4BYTE_ABGR)).iterator();
+    }
+
+    @Override
+    public IIOMetadata getStreamMetadata() {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getImageMetadata(int imageIndex) throws IOException {
+        getFrame(imageIndex);
+        return null;
+    }
+
+    @Override
+    public BufferedImage read(int imageIndex, ImageReadParam param) throws IOException {
+        Frame frame = getFrame(imageIndex);
+        BufferedImage image = getDestination(param, getImageTypes(imageIndex), frame.width, frame.height);
+        checkReadParamBandSettings(param, 4, image.getSampleModel().getNumBands());
+        Rectangle sourceRegion = new Rectangle();
+        Rectangle destRegion = new Rectangle();
+        computeRegions(param, frame.width, frame.height, image, sourceRegion, destRegion);
+        processImageStarted(imageIndex);
+        if (destRegion.isEmpty()) {
+            processImageComplete();
+            return image;
+        }
+        WebPDecoderOptions options = new WebPDecoderOptions();
+        if (sourceRegion.x != 0 || sourceRegion.y != 0
+                || sourceRegion.width != frame.width || sourceRegion.height != frame.height) {
+            options.setCropping(sourceRegion.x, sourceRegion.y, sourceRegion.width, sourceRegion.height);
+        }
+        if (destRegion.width != sourceRegion.width || destRegion.height != sourceRegion.height) {
+            options.setScaling(destRegion.width, destRegion.height);
+        }
+        ImageInputStream stream = (ImageInputStream) input;
+        byte[] data = new byte[frame.length];
+        stream.seek(frame.offset);
+        stream.readFully(data);
+        if (abortRequested()) {
+            processReadAborted();
+            return image;
+        }
+        if (!options.isCropping() && !options.isScaling() && destRegion.x == 0 && destRegion.y == 0
+                && image.getWidth() == frame.width && image.getHeight() == frame.height) {
+            // Decode straight into the data buffer of the image
+            try {
+                WebPFactory.decodeImage(frame.fourCC, data, data.length, image.getType(), image);
+            }
+            catch (IllegalArgumentException e) {
+                throw new IIOException(e.getMessage(), e);
+            }
+            processImageUpdate(image, 0, 0, frame.width, frame.height, 1, 1, new int[] { 0, 1, 2, 3 });
+            processImageProgress(100.0f);
+            processImageComplete();
+            return image;
+        }
+        int[] size = new int[2];
+        int[] pixels;
+        try {
+            // These are 0xAARRGGBB ints, whatever the byte order of the platform
+            pixels = WebPFactory.decodeInts(WebPFactory.LITTLE_ENDIAN ? JNRFFI.MODE_BGRA : JNRFFI.MODE_ARGB,
+                    WebPFactory.LITTLE_ENDIAN ? "BGRA" : "ARGB", frame.fourCC, data, data.length, options, size);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IIOException(e.getMessage(), e);
+        }
+        int width = Math.min(size[0], destRegion.width);
+        int height = Math.min(size[1], destRegion.height);
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && width == size[0]) {
+            image.getRaster().setDataElements(destRegion.x, destRegion.y, width, height, pixels);
+        }
+        else {
+            image.setRGB(destRegion.x, destRegion.y, width, height, pixels, 0, size[0]);
+        }
+        processImageUpdate(image, destRegion.x, destRegion.y, width, height, 1, 1, new int[] { 0, 1, 2, 3 });
+        processImageProgress(100.0f);
+        processImageComplete();
+        return image;
+    }
+
+    private Frame getFrame(int imageIndex) throws IOException {
+        List<Frame> frames = getFrames();
+        checkIndex(imageIndex, frames.size());
+        return frames.get(imageIndex);
+    }
+
+    private void checkIndex(int imageIndex, int numImages) {
+        if (imageIndex < minIndex) throw new IndexOutOfBoundsException("imageIndex < minIndex");
+        if (imageIndex >= numImages) throw new IndexOutOfBoundsException("imageIndex >= numImages");
+    }
+
+    /**
+     * This builds the frame index by walking the chunk headers. Only the
+     * headers are read; the payloads are skipped with seeks.
+     */
+    private List<Frame> getFrames() throws IOException {
+        if (frames != null) return frames;
+        if (input == null) throw new IllegalStateException("No input set");
+        ImageInputStream stream = (ImageInputStream) input;
+        stream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+        long start = stream.getStreamPosition();
+        byte[] fourCC = new byte[4];
+        stream.readFully(fourCC);
+        if (!arrayEquals(fourCC, RIFF)) throw new IIOException("Illegal magic number: " + new String(fourCC));
+        long end = start + 8 + stream.readUnsignedInt();
+        stream.readFully(fourCC);
+        if (!arrayEquals(fourCC, WEBP)) throw new IIOException("Illegal magic number: RIFF" + new String(fourCC));
+        List<Frame> frames = new ArrayList<>();
+        int canvasWidth = 0;
+        int canvasHeight = 0;
+        long alphOffset = -1;
+        long position = stream.getStreamPosition();
+        while (position + 8 <= end) {
+            byte[] chunkHeader = new byte[4];
+            stream.readFully(chunkHeader);
+            long chunkSize = stream.readUnsignedInt();
+            long next = position + 8 + chunkSize + (chunkSize & 1);
+            if (arrayEquals(chunkHeader, VP8X)) {
+                stream.skipBytes(4);
+                canvasWidth = readUInt24(stream) + 1;
+                canvasHeight = readUInt24(stream) + 1;
+            }
+            else if (arrayEquals(chunkHeader, ALPH)) {
+                alphOffset = position;
+            }
+            else if (arrayEquals(chunkHeader, VP8) || arrayEquals(chunkHeader, VP8L)) {
+                int width = canvasWidth;
+                int height = canvasHeight;
+                if (width == 0) {
+                    int[] size = readBitstreamSize(stream, chunkHeader);
+                    width = size[0];
+                    height = size[1];
+                }
+                long offset = alphOffset < 0 ? position : alphOffset;
+                frames.add(new Frame(offset, position + 8 + chunkSize - offset, chunkHeader, width, height));
+                alphOffset = -1;
+            }
+            else if (arrayEquals(chunkHeader, ANMF)) {
+                stream.skipBytes(6);
+                int width = readUInt24(stream) + 1;
+                int height = readUInt24(stream) + 1;
+                long subchunkPosition = position + 8 + 16;
+                long subchunkEnd = position + 8 + chunkSize;
+                long frameAlphOffset = -1;
+                while (subchunkPosition + 8 <= subchunkEnd) {
+                    stream.seek(subchunkPosition);
+                    byte[] subchunkHeader = new byte[4];
+                    stream.readFully(subchunkHeader);
+                    long subchunkSize = stream.readUnsignedInt();
+                    if (arrayEquals(subchunkHeader, ALPH)) {
+                        frameAlphOffset = subchunkPosition;
+                    }
+                    else if (arrayEquals(subchunkHeader, VP8) || arrayEquals(subchunkHeader, VP8L)) {
+                        long offset = frameAlphOffset < 0 ? subchunkPosition : frameAlphOffset;
+                        frames.add(new Frame(offset, subchunkPosition + 8 + subchunkSize - offset, subchunkHeader,
+                                width, height));
+                        break;
+                    }
+                    subchunkPosition += 8 + subchunkSize + (subchunkSize & 1);
+                }
+            }
+            stream.seek(next);
+            position = next;
+        }
+        if (frames.isEmpty()) throw new IIOException("No VP8 data found");
+        this.frames = frames;
+        return frames;
+    }
+
+    private static int readUInt24(ImageInputStream stream) throws IOException {
+        return stream.readUnsignedShort() | stream.readUnsignedByte() << 16;
+    }
+
+    /**
+     * This reads the size of the image from the header of a VP8 or VP8L
+     * bitstream, which is where a simple file stores it.
+     */
+    private static int[] readBitstreamSize(ImageInputStream stream, byte[] fourCC) throws IOException {
+        if (arrayEquals(fourCC, VP8L)) {
+            if (stream.readUnsignedByte() != 0x2f) throw new IIOException("Illegal VP8L signature");
+            long bits = stream.readUnsignedInt();
+            return new int[] { (int) (bits & 0x3fff) + 1, (int) (bits >> 14 & 0x3fff) + 1 };
+        }
+        stream.skipBytes(3);
+        if (stream.readUnsignedByte() != 0x9d || stream.readUnsignedByte() != 0x01 || stream.readUnsignedByte() != 0x2a) {
+            throw new IIOException("Illegal VP8 start code");
+        }
+        return new int[] { stream.readUnsignedShort() & 0x3fff, stream.readUnsignedShort() & 0x3fff };
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.tianscar.webp;
+
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Locale;
+
+import static com.tianscar.webp.RIFFChunk.RIFF;
+import static com.tianscar.webp.WebPChunk.WEBP;
+
+/**
+ * This is the service provider of {@link WebPImageReader}. It is registered
+ * through {@code META-INF/services}, so WebP images can be read with
+ * {@link javax.imageio.ImageIO} once this library is on the classpath.
+ */
+public class WebPImageReaderSpi extends ImageReaderSpi {
+
+    static final String VENDOR_NAME = "Tianscar";
+    static final String VERSION = "1.1.0";
+    static final String[] NAMES = { "webp", "WEBP", "WebP" };
+    static final String[] SUFFIXES = { "webp" };
+    static final String[] MIME_TYPES = { "image/webp" };
+
+    public WebPImageReaderSpi() {
+        super(VENDOR_NAME, VERSION, NAMES, SUFFIXES, MIME_TYPES,
+                "com.tianscar.webp.WebPImageReader",
+                new Class<?>[] { ImageInputStream.class },
+                new String[] { "com.tianscar.webp.WebPImageWriterSpi" },
+                false, null, null, null, null,
+                false, null, null, null, null);
+    }
+
+    @Override
+    public boolean canDecodeInput(Object source) throws IOException {
+        if (!(source instanceof ImageInputStream)) return false;
+        ImageInputStream stream = (ImageInputStream) source;
+        byte[] header = new byte[12];
+        stream.mark();
+        try {
+            stream.readFully(header);
+        }
+        catch (EOFException e) {
+            return false;
+        }
+        finally {
+            stream.reset();
+        }
+        for (int i = 0; i < 4; i ++) {
+            if (header[i] != RIFF[i] || header[i + 8] != WEBP[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public ImageReader createReaderInstance(Object extension) {
+        return new WebPImageReader(this);
+    }
+
+    @Override
+    public String getDescription(Locale locale) {
+        return "WebP image reader";
+    }
+
+}
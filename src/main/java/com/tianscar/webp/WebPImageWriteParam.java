@@ -0,0 +1,64 @@
+package com.tianscar.webp;
+
+import javax.imageio.ImageWriteParam;
+import java.util.Locale;
+
+import static com.tianscar.webp.Util.checkUInt16;
+import static com.tianscar.webp.Util.checkUInt24;
+
+/**
+ * These are the parameters of {@link WebPImageWriter}. The compression type is
+ * either {@value #LOSSY} or {@value #LOSSLESS}, and the compression quality of
+ * lossy images maps onto the 0 to 100 quality factor of libwebp. The frame
+ * duration and loop count are used when writing an animation with
+ * {@link WebPImageWriter#writeToSequence}.
+ */
+public class WebPImageWriteParam extends ImageWriteParam {
+
+    public static final String LOSSY = "Lossy";
+    public static final String LOSSLESS = "Lossless";
+
+    private int frameDuration = 100;
+    private int loopCount = 0;
+
+    public WebPImageWriteParam(Locale locale) {
+        super(locale);
+        canWriteCompressed = true;
+        compressionTypes = new String[] { LOSSY, LOSSLESS };
+        compressionType = LOSSY;
+        compressionQuality = 0.75f;
+    }
+
+    @Override
+    public boolean isCompressionLossless() {
+        if (getCompressionMode() != MODE_EXPLICIT) throw new IllegalStateException("Compression mode not MODE_EXPLICIT");
+        return LOSSLESS.equals(getCompressionType());
+    }
+
+    /**
+     * This returns the duration in milliseconds given to each frame of an
+     * animation.
+     * @return The frame duration.
+     */
+    public int getFrameDuration() {
+        return frameDuration;
+    }
+
+    public void setFrameDuration(int frameDuration) {
+        this.frameDuration = checkUInt24(frameDuration);
+    }
+
+    /**
+     * This returns the number of times an animation is played, where 0 means
+     * forever.
+     * @return The loop count.
+     */
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    public void setLoopCount(int loopCount) {
+        this.loopCount = checkUInt16(loopCount);
+    }
+
+}
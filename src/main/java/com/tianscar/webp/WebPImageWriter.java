@@ -0,0 +1,199 @@
+package com.tianscar.webp;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This writes WebP images through {@link javax.imageio.ImageIO}. A single
+ * image is written as a still image, and a sequence written with
+ * {@link #writeToSequence} is written as an animation whose frames are placed
+ * at the top left corner of a canvas large enough for all of them.
+ * @see WebPImageWriteParam
+ */
+public class WebPImageWriter extends ImageWriter {
+
+    private List<ANMFChunk> sequence = null;
+    private boolean sequenceHasAlpha;
+    private int sequenceLoopCount;
+
+    public WebPImageWriter(ImageWriterSpi originatingProvider) {
+        super(originatingProvider);
+    }
+
+    @Override
+    public void setOutput(Object output) {
+        super.setOutput(output);
+        sequence = null;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        sequence = null;
+    }
+
+    @Override
+    public ImageWriteParam getDefaultWriteParam() {
+        return new WebPImageWriteParam(getLocale());
+    }
+
+    @Override
+    public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType, ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertStreamMetadata(IIOMetadata inData, ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertImageMetadata(IIOMetadata inData, ImageTypeSpecifier imageType, ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public void write(IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param) throws IOException {
+        ImageOutputStream stream = getOutputStream();
+        Objects.requireNonNull(image);
+        if (image.hasRaster()) throw new UnsupportedOperationException("Cannot write rasters");
+        RenderedImage renderedImage = image.getRenderedImage();
+        processImageStarted(0);
+        Chunk[] chunks = encode(renderedImage, param);
+        WebPChunk webPChunk;
+        if (chunks.length == 1) webPChunk = new WebPChunk(chunks);
+        else {
+            // Lossy images with alpha need the extended format
+            webPChunk = new WebPChunk(new VP8XChunk(VP8XChunk.FLAG_ALPH, renderedImage.getWidth(), renderedImage.getHeight()),
+                    chunks[0], chunks[1]);
+        }
+        webPChunk.write(new StreamAdapter(stream));
+        stream.flush();
+        processImageComplete();
+    }
+
+    @Override
+    public boolean canWriteSequence() {
+        return true;
+    }
+
+    @Override
+    public void prepareWriteSequence(IIOMetadata streamMetadata) {
+        getOutputStream();
+        sequence = new ArrayList<>();
+        sequenceHasAlpha = false;
+        sequenceLoopCount = 0;
+    }
+
+    /**
+     * This encodes the next frame of the animation. The frame duration and the
+     * loop count are taken from the parameters if they are a
+     * {@link WebPImageWriteParam}; the loop count of the last frame is used.
+     */
+    @Override
+    public void writeToSequence(IIOImage image, ImageWriteParam param) throws IOException {
+        if (sequence == null) throw new IllegalStateException("prepareWriteSequence was not called");
+        Objects.requireNonNull(image);
+        if (image.hasRaster()) throw new UnsupportedOperationException("Cannot write rasters");
+        RenderedImage renderedImage = image.getRenderedImage();
+        int duration = 100;
+        if (param instanceof WebPImageWriteParam) {
+            duration = ((WebPImageWriteParam) param).getFrameDuration();
+            sequenceLoopCount = ((WebPImageWriteParam) param).getLoopCount();
+        }
+        processImageStarted(sequence.size());
+        Chunk[] chunks = encode(renderedImage, param);
+        if (chunks.length > 1 || renderedImage.getColorModel().hasAlpha()) sequenceHasAlpha = true;
+        sequence.add(new ANMFChunk(0, 0, renderedImage.getWidth(), renderedImage.getHeight(), duration,
+                ANMFChunk.FLAG_NO_BLEND | ANMFChunk.FLAG_NO_DISPOSE, chunks));
+        processImageComplete();
+    }
+
+    @Override
+    public void endWriteSequence() throws IOException {
+        if (sequence == null) throw new IllegalStateException("prepareWriteSequence was not called");
+        if (sequence.isEmpty()) throw new IllegalStateException("No frames were written");
+        int canvasWidth = 0;
+        int canvasHeight = 0;
+        for (ANMFChunk frame : sequence) {
+            canvasWidth = Math.max(canvasWidth, frame.getFrameWidth());
+            canvasHeight = Math.max(canvasHeight, frame.getFrameHeight());
+        }
+        Chunk[] chunks = new Chunk[2 + sequence.size()];
+        chunks[0] = new VP8XChunk(VP8XChunk.FLAG_ANIM | (sequenceHasAlpha ? VP8XChunk.FLAG_ALPH : 0),
+                canvasWidth, canvasHeight);
+        chunks[1] = new ANIMChunk(0x00000000, sequenceLoopCount);
+        for (int i = 0; i < sequence.size(); i ++) {
+            chunks[2 + i] = sequence.get(i);
+        }
+        sequence = null;
+        ImageOutputStream stream = getOutputStream();
+        new WebPChunk(chunks).write(new StreamAdapter(stream));
+        stream.flush();
+    }
+
+    private ImageOutputStream getOutputStream() {
+        if (output == null) throw new IllegalStateException("No output set");
+        return (ImageOutputStream) output;
+    }
+
+    private static Chunk[] encode(RenderedImage renderedImage, ImageWriteParam param) {
+        boolean lossless = false;
+        float quality = 75;
+        if (param != null && param.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT) {
+            lossless = WebPImageWriteParam.LOSSLESS.equals(param.getCompressionType());
+            quality = param.getCompressionQuality() * 100;
+        }
+        BufferedImage image = toBufferedImage(renderedImage);
+        if (lossless) return new Chunk[] { WebPFactory.encodeLosslessImage(image) };
+        return WebPFactory.encodeImage(image, quality);
+    }
+
+    private static BufferedImage toBufferedImage(RenderedImage renderedImage) {
+        if (renderedImage instanceof BufferedImage) return (BufferedImage) renderedImage;
+        BufferedImage image = new BufferedImage(renderedImage.getColorModel(),
+                renderedImage.copyData(null), renderedImage.getColorModel().isAlphaPremultiplied(), null);
+        return image;
+    }
+
+    /**
+     * This lets the chunks write themselves to an ImageOutputStream.
+     */
+    private static final class StreamAdapter extends OutputStream {
+
+        private final ImageOutputStream stream;
+
+        StreamAdapter(ImageOutputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            stream.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            stream.write(b, off, len);
+        }
+
+    }
+
+}
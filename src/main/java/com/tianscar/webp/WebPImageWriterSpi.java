@@ -0,0 +1,43 @@
+package com.tianscar.webp;
+
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.color.ColorSpace;
+import java.util.Locale;
+
+/**
+ * This is the service provider of {@link WebPImageWriter}. It is registered
+ * through {@code META-INF/services}, so WebP images can be written with
+ * {@link javax.imageio.ImageIO} once this library is on the classpath.
+ */
+public class WebPImageWriterSpi extends ImageWriterSpi {
+
+    public WebPImageWriterSpi() {
+        super(WebPImageReaderSpi.VENDOR_NAME, WebPImageReaderSpi.VERSION,
+                WebPImageReaderSpi.NAMES, WebPImageReaderSpi.SUFFIXES, WebPImageReaderSpi.MIME_TYPES,
+                "com.tianscar.webp.WebPImageWriter",
+                new Class<?>[] { ImageOutputStream.class },
+                new String[] { "com.tianscar.webp.WebPImageReaderSpi" },
+                false, null, null, null, null,
+                false, null, null, null, null);
+    }
+
+    @Override
+    public boolean canEncodeImage(ImageTypeSpecifier type) {
+        int colorSpaceType = type.getColorModel().getColorSpace().getType();
+        return colorSpaceType == ColorSpace.TYPE_RGB || colorSpaceType == ColorSpace.TYPE_GRAY;
+    }
+
+    @Override
+    public ImageWriter createWriterInstance(Object extension) {
+        return new WebPImageWriter(this);
+    }
+
+    @Override
+    public String getDescription(Locale locale) {
+        return "WebP image writer";
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.tianscar.webp;
+
+/**
+ * This describes how {@link WebPFactory#editMetadata(java.nio.channels.FileChannel,
+ * java.nio.channels.WritableByteChannel, WebPMetadataEdit) editMetadata}
+ * changes the ICC profile, EXIF and XMP metadata of a file. Each kind of
+ * metadata is kept as it is unless it is set, and setting it to null removes
+ * it. Note that removing the ICC profile can change how the colors of the
+ * image are displayed.
+ */
+public final class WebPMetadataEdit {
+
+    private boolean iccpSet, exifSet, xmpSet;
+    private ICCPChunk iccp;
+    private EXIFChunk exif;
+    private XMPChunk xmp;
+
+    public WebPMetadataEdit() {
+    }
+
+    /**
+     * This returns an edit that removes the EXIF and XMP metadata, which is
+     * where cameras and editors put locations, device names and timestamps,
+     * and keeps the ICC profile.
+     * @return A new edit.
+     */
+    public static WebPMetadataEdit stripPrivate() {
+        return new WebPMetadataEdit().setEXIF(null).setXMP(null);
+    }
+
+    /**
+     * This returns an edit that removes all metadata, including the ICC
+     * profile.
+     * @return A new edit.
+     */
+    public static WebPMetadataEdit stripAll() {
+        return stripPrivate().setICCP(null);
+    }
+
+    /**
+     * This replaces the ICC profile.
+     * @param iccp The new profile, or null to remove it.
+     * @return This object.
+     */
+    public WebPMetadataEdit setICCP(ICCPChunk iccp) {
+        this.iccp = iccp;
+        iccpSet = true;
+        return this;
+    }
+
+    /**
+     * This replaces the EXIF metadata.
+     * @param exif The new metadata, or null to remove it.
+     * @return This object.
+     */
+    public WebPMetadataEdit setEXIF(EXIFChunk exif) {
+        this.exif = exif;
+        exifSet = true;
+        return this;
+    }
+
+    /**
+     * This replaces the XMP metadata.
+     * @param xmp The new metadata, or null to remove it.
+     * @return This object.
+     */
+    public WebPMetadataEdit setXMP(XMPChunk xmp) {
+        this.xmp = xmp;
+        xmpSet = true;
+        return this;
+    }
+
+    public boolean isICCPSet() {
+        return iccpSet;
+    }
+
+    public ICCPChunk getICCP() {
+        return iccp;
+    }
+
+    public boolean isEXIFSet() {
+        return exifSet;
+    }
+
+    public EXIFChunk getEXIF() {
+        return exif;
+    }
+
+    public boolean isXMPSet() {
+        return xmpSet;
+    }
+
+    public XMPChunk getXMP() {
+        return xmp;
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.tianscar.webp;
+
+/**
+ * This holds the measurements for a single completed operation.
+ * @see WebPMetricsListener
+ */
+public final class WebPMetrics {
+
+    private final WebPOperation operation;
+    private final String chunkType;
+    private final long wallTimeNanos;
+    private final long nativeTimeNanos;
+    private final long inputBytes;
+    private final long outputBytes;
+    private final long pixelCount;
+    private final Thread thread;
+
+    WebPMetrics(WebPOperation operation, String chunkType, long wallTimeNanos, long nativeTimeNanos,
+                long inputBytes, long outputBytes, long pixelCount, Thread thread) {
+        this.operation = operation;
+        this.chunkType = chunkType;
+        this.wallTimeNanos = wallTimeNanos;
+        this.nativeTimeNanos = nativeTimeNanos;
+        this.inputBytes = inputBytes;
+        this.outputBytes = outputBytes;
+        this.pixelCount = pixelCount;
+        this.thread = thread;
+    }
+
+    public WebPOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * This returns the FourCC of the chunk that was worked on. For decode and 
+     * encode this is the bitstream type ("VP8 " or "VP8L"), for demux it is the 
+     * first chunk of the file ("VP8 ", "VP8L" or "VP8X"), and for mux it is the 
+     * RIFF form type ("WEBP").
+     * @return The chunk type.
+     */
+    public String getChunkType() {
+        return chunkType;
+    }
+
+    /**
+     * This returns the total time the operation took, including the time spent 
+     * in libwebp.
+     * @return The elapsed time in nanoseconds.
+     * @see #getNativeTimeNanos() 
+     */
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    /**
+     * This returns the time spent inside libwebp calls. This is zero for demux 
+     * and mux, which are done entirely in Java.
+     * @return The time spent in native code in nanoseconds.
+     */
+    public long getNativeTimeNanos() {
+        return nativeTimeNanos;
+    }
+
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * This returns the number of pixels decoded or encoded, or zero for demux 
+     * and mux.
+     * @return The number of pixels.
+     */
+    public long getPixelCount() {
+        return pixelCount;
+    }
+
+    /**
+     * This returns the thread that performed the operation.
+     * @return The thread.
+     */
+    public Thread getThread() {
+        return thread;
+    }
+
+    @Override
+    public String toString() {
+        return "WebPMetrics{" +
+                "operation=" + operation +
+                ", chunkType='" + chunkType + '\'' +
+                ", wallTimeNanos=" + wallTimeNanos +
+                ", nativeTimeNanos=" + nativeTimeNanos +
+                ", inputBytes=" + inputBytes +
+                ", outputBytes=" + outputBytes +
+                ", pixelCount=" + pixelCount +
+                ", thread=" + thread.getName() +
+                '}';
+    }
+
+}
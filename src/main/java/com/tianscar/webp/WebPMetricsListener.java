@@ -0,0 +1,15 @@
+package com.tianscar.webp;
+
+/**
+ * This is notified after each demux, decode, encode and mux performed by the 
+ * library. Listeners are called synchronously on the thread that did the work, 
+ * so they should return quickly and must be thread safe.
+ * @see WebPFactory#addMetricsListener(com.tianscar.webp.WebPMetricsListener) 
+ */
+public interface WebPMetricsListener {
+    /**
+     * This is called when an operation completes successfully.
+     * @param metrics The measurements for the operation.
+     */
+    void record(WebPMetrics metrics);
+}
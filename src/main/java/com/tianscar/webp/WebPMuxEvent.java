@@ -0,0 +1,11 @@
+package com.tianscar.webp;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.tianscar.webp.WebPMux")
+@Label("WebP Mux")
+@Description("The writing of a WebP file from chunks")
+final class WebPMuxEvent extends WebPEvent {
+}
@@ -0,0 +1,27 @@
+package com.tianscar.webp;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.MemoryAddress;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.tianscar.webp.WebPNativeFree")
+@Label("WebP Native Free")
+@Description("The release of memory allocated by libwebp")
+@Category("WebP")
+@StackTrace(true)
+final class WebPNativeFreeEvent extends Event {
+
+    @Label("Address")
+    @MemoryAddress
+    long address;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+}
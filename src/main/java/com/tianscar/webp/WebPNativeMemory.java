@@ -0,0 +1,172 @@
+package com.tianscar.webp;
+
+import java.io.PrintStream;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This keeps count of the memory that libwebp has allocated on behalf of this 
+ * library and that has not been freed yet. Every buffer returned by a libwebp 
+ * decode or encode call is counted from the moment it is returned until it is 
+ * freed. On Java 22 and later, where the Foreign Function and Memory API passes 
+ * large images to libwebp through native memory of its own rather than 
+ * buffers of libwebp, that memory is counted the same way.
+ * <p>
+ * In debug mode, the stack trace of each allocation is recorded as well, and 
+ * any allocation that is still outstanding when the JVM shuts down is reported 
+ * to {@code System.err}. Debug mode can be enabled by setting the system 
+ * property "{@value #DEBUG_PROPERTY}" to true, or by calling {@link 
+ * #setDebugEnabled(boolean)}.
+ */
+public final class WebPNativeMemory {
+    /**
+     * This is the system property that enables debug mode at startup.
+     */
+    public static final String DEBUG_PROPERTY = "com.tianscar.webp.nativeMemoryDebug";
+
+    private static final AtomicLong liveBytes = new AtomicLong();
+    private static final AtomicLong liveAllocations = new AtomicLong();
+    private static final AtomicLong peakBytes = new AtomicLong();
+    private static final AtomicLong peakAllocations = new AtomicLong();
+    private static final AtomicLong totalAllocations = new AtomicLong();
+    private static final AtomicLong totalBytes = new AtomicLong();
+    /**
+     * This is the allocations that are still outstanding, only tracked while 
+     * debug mode is enabled.
+     */
+    private static final Set<NativeBuffer> outstanding = ConcurrentHashMap.newKeySet();
+    private static volatile boolean debug = false;
+    private static boolean shutdownHookAdded = false;
+
+    static {
+        if (Boolean.getBoolean(DEBUG_PROPERTY)) setDebugEnabled(true);
+    }
+
+    private WebPNativeMemory() {
+        throw new UnsupportedOperationException();
+    }
+    /**
+     * This returns the number of bytes allocated by libwebp that have not been 
+     * freed yet.
+     * @return The number of live bytes.
+     */
+    public static long getLiveBytes(){
+        return liveBytes.get();
+    }
+    /**
+     * This returns the number of allocations made by libwebp that have not been 
+     * freed yet.
+     * @return The number of live allocations.
+     */
+    public static long getLiveAllocations(){
+        return liveAllocations.get();
+    }
+    /**
+     * This returns the largest value {@link #getLiveBytes()} has reached since 
+     * startup or since the last call to {@link #resetPeaks()}.
+     * @return The high-water mark of live bytes.
+     */
+    public static long getPeakBytes(){
+        return peakBytes.get();
+    }
+    /**
+     * This returns the largest value {@link #getLiveAllocations()} has reached 
+     * since startup or since the last call to {@link #resetPeaks()}.
+     * @return The high-water mark of live allocations.
+     */
+    public static long getPeakAllocations(){
+        return peakAllocations.get();
+    }
+    /**
+     * This returns the number of allocations made by libwebp since startup, 
+     * freed or not.
+     * @return The total number of allocations.
+     */
+    public static long getTotalAllocations(){
+        return totalAllocations.get();
+    }
+    /**
+     * This returns the number of bytes allocated by libwebp since startup, freed 
+     * or not.
+     * @return The total number of bytes allocated.
+     */
+    public static long getTotalBytes(){
+        return totalBytes.get();
+    }
+    /**
+     * This resets the high-water marks to the current live values.
+     */
+    public static void resetPeaks(){
+        peakBytes.set(liveBytes.get());
+        peakAllocations.set(liveAllocations.get());
+    }
+    /**
+     * This returns whether allocation stack traces are being recorded.
+     * @return Whether debug mode is enabled.
+     */
+    public static boolean isDebugEnabled(){
+        return debug;
+    }
+    /**
+     * This sets whether allocation stack traces are recorded. Only allocations 
+     * made while debug mode is enabled are tracked. The first time debug mode 
+     * is enabled, a shutdown hook is installed that reports the allocations 
+     * still outstanding at exit.
+     * @param enabled Whether to enable debug mode.
+     * @see #printOutstandingAllocations(java.io.PrintStream) 
+     */
+    public static synchronized void setDebugEnabled(boolean enabled){
+        debug = enabled;
+        if (enabled && !shutdownHookAdded) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> printOutstandingAllocations(System.err),
+                    "WebP native memory leak report"));
+            shutdownHookAdded = true;
+        }
+        if (!enabled) outstanding.clear();
+    }
+    /**
+     * This prints each tracked allocation that has not been freed yet, together 
+     * with the stack trace of the code that made it. Only allocations made in 
+     * debug mode are tracked.
+     * @param out The stream to print to (cannot be null).
+     * @return The number of outstanding allocations printed.
+     * @see #setDebugEnabled(boolean) 
+     */
+    public static int printOutstandingAllocations(PrintStream out){
+        Objects.requireNonNull(out);
+        int count = 0;
+        for (NativeBuffer buffer : outstanding) {
+            Throwable site = buffer.getAllocationSite();
+            if (site == null) continue;
+            out.println("WebP native memory leak: " + buffer.getSize() + " bytes were never freed");
+            site.printStackTrace(out);
+            count ++;
+        }
+        return count;
+    }
+
+    static void allocated(NativeBuffer buffer) {
+        long size = buffer.getSize();
+        totalAllocations.incrementAndGet();
+        totalBytes.addAndGet(size);
+        updatePeak(peakBytes, liveBytes.addAndGet(size));
+        updatePeak(peakAllocations, liveAllocations.incrementAndGet());
+        if (buffer.getAllocationSite() != null) outstanding.add(buffer);
+    }
+
+    static void freed(NativeBuffer buffer) {
+        liveBytes.addAndGet(-buffer.getSize());
+        liveAllocations.decrementAndGet();
+        if (buffer.getAllocationSite() != null) outstanding.remove(buffer);
+    }
+
+    private static void updatePeak(AtomicLong peak, long value) {
+        long current;
+        while (value > (current = peak.get())) {
+            if (peak.compareAndSet(current, value)) return;
+        }
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.tianscar.webp;
+
+/**
+ * This is the kind of work reported to a {@link WebPMetricsListener}.
+ */
+public enum WebPOperation {
+    /**
+     * Parsing a WebP file into chunks.
+     * @see WebPFactory#demux(java.io.InputStream) 
+     */
+    DEMUX,
+    /**
+     * Decoding a bitstream into pixels.
+     */
+    DECODE,
+    /**
+     * Encoding pixels into a bitstream.
+     */
+    ENCODE,
+    /**
+     * Writing a WebP file from chunks.
+     * @see Chunk#write(java.io.OutputStream) 
+     */
+    MUX
+}
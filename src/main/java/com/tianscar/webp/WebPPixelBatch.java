@@ -0,0 +1,80 @@
+package com.tianscar.webp;
+
+import java.util.Objects;
+
+/**
+ * These are many images stored one after another in a single array, each
+ * with tightly packed rows. This is what batch decoding produces and what
+ * batch encoding consumes, so that a whole sprite sheet or emoji pack crosses
+ * into and out of native memory in one copy.
+ * @see WebPFactory#decodeBatch(BitstreamChunk[], WebPColorMode)
+ * @see WebPFactory#encodeBatch(WebPPixelBatch, float)
+ */
+public final class WebPPixelBatch {
+
+    private final byte[] pixels;
+    private final WebPColorMode mode;
+    private final int[] offsets;
+    private final int[] widths;
+    private final int[] heights;
+
+    /**
+     * @param pixels The pixels of all the images.
+     * @param mode The layout of the pixels.
+     * @param offsets The index in {@code pixels} where each image starts.
+     * @param widths The width of each image.
+     * @param heights The height of each image.
+     */
+    public WebPPixelBatch(byte[] pixels, WebPColorMode mode, int[] offsets, int[] widths, int[] heights) {
+        this.pixels = Objects.requireNonNull(pixels);
+        this.mode = Objects.requireNonNull(mode);
+        this.offsets = Objects.requireNonNull(offsets);
+        this.widths = Objects.requireNonNull(widths);
+        this.heights = Objects.requireNonNull(heights);
+        if (offsets.length != widths.length || offsets.length != heights.length)
+            throw new IllegalArgumentException("offsets, widths and heights must have the same length");
+        for (int i = 0; i < offsets.length; i ++) {
+            if (widths[i] <= 0 || heights[i] <= 0) throw new IllegalArgumentException("size <= 0");
+            if (offsets[i] < 0 || offsets[i] + (long) widths[i] * heights[i] * mode.getBytesPerPixel() > pixels.length)
+                throw new IllegalArgumentException("image " + i + " out of bounds");
+        }
+    }
+
+    public byte[] getPixels() {
+        return pixels;
+    }
+
+    public WebPColorMode getColorMode() {
+        return mode;
+    }
+
+    /**
+     * This returns the number of images in this batch.
+     * @return The number of images.
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    public int getWidth(int index) {
+        return widths[index];
+    }
+
+    public int getHeight(int index) {
+        return heights[index];
+    }
+
+    /**
+     * This returns the distance in bytes between the rows of an image.
+     * @param index The index of the image.
+     * @return The stride of the image.
+     */
+    public int getStride(int index) {
+        return widths[index] * mode.getBytesPerPixel();
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.tianscar.webp;
+
+import java.util.Objects;
+
+/**
+ * These convert pixels between the layouts libwebp and Java use, and blend
+ * them. Pixels packed into ints are 0xAARRGGBB, as in {@link
+ * java.awt.image.BufferedImage#TYPE_INT_ARGB}, unless stated otherwise. On
+ * Java 17 and later these run on the Vector API when the {@code
+ * jdk.incubator.vector} module is added, see {@link #isVectorized()}.
+ * <p>
+ * The source and destination may be the same array at the same offset,
+ * except for {@link #expand} and {@link #strip}, whose ranges must not
+ * overlap.
+ */
+public final class WebPPixels {
+
+    private WebPPixels() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * This returns whether the conversions run on the Vector API. This is
+     * false on runtimes older than Java 17, when the {@code
+     * jdk.incubator.vector} module has not been added with {@code
+     * --add-modules}, when the platform has no SIMD registers of at least 128
+     * bits, or when the system property {@code webp.vector} is set to {@code
+     * false}.
+     * @return Whether the conversions are vectorized.
+     */
+    public static boolean isVectorized() {
+        return PixelKernels.INSTANCE.isVectorized();
+    }
+
+    /**
+     * This reorders the channels of 4 byte pixels, e.g. from RGBA to BGRA as
+     * libwebp decodes them to ARGB. This does not change whether the colors
+     * are premultiplied.
+     * @param from The layout of the source, RGBA, BGRA or ARGB, or one of
+     * their premultiplied counterparts.
+     * @param to The layout of the destination, premultiplied if and only if
+     * {@code from} is.
+     * @param pixels The number of pixels to convert.
+     */
+    public static void swizzle(WebPColorMode from, byte[] src, int srcOffset,
+            WebPColorMode to, byte[] dst, int dstOffset, int pixels) {
+        int[] order = order(channels(from), channels(to));
+        if (from.isPremultiplied() != to.isPremultiplied())
+            throw new IllegalArgumentException("Cannot swizzle " + from + " to " + to);
+        checkRange(src.length, srcOffset, pixels, 4);
+        checkRange(dst.length, dstOffset, pixels, 4);
+        PixelKernels.INSTANCE.swizzle(src, srcOffset, dst, dstOffset, pixels, order);
+    }
+
+    private static String channels(WebPColorMode mode) {
+        Objects.requireNonNull(mode);
+        switch (mode) {
+            case RGBA:
+            case PREMULTIPLIED_RGBA:
+                return "RGBA";
+            case BGRA:
+            case PREMULTIPLIED_BGRA:
+                return "BGRA";
+            case ARGB:
+            case PREMULTIPLIED_ARGB:
+                return "ARGB";
+            default:
+                throw new IllegalArgumentException("Cannot swizzle " + mode);
+        }
+    }
+
+    /**
+     * This returns where in the source pixel each byte of the destination
+     * pixel is, given the names of their channels in memory order.
+     */
+    static int[] order(String from, String to) {
+        int[] order = new int[4];
+        for (int i = 0; i < 4; i ++) order[i] = from.indexOf(to.charAt(i));
+        return order;
+    }
+
+    /**
+     * This swaps the red and blue channels of packed pixels, which turns
+     * 0xAARRGGBB into 0xAABBGGRR and back. On little endian platforms that is
+     * the same as converting BGRA bytes to RGBA bytes.
+     * @param pixels The number of pixels to convert.
+     */
+    public static void swapRedBlue(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        checkRange(src.length, srcOffset, pixels, 1);
+        checkRange(dst.length, dstOffset, pixels, 1);
+        PixelKernels.INSTANCE.swapRedBlue(src, srcOffset, dst, dstOffset, pixels);
+    }
+
+    /**
+     * This multiplies the color channels of packed pixels by their alpha, as
+     * in {@link java.awt.image.BufferedImage#TYPE_INT_ARGB_PRE}, rounding to
+     * the nearest value. Only the alpha has to be in the highest byte, so
+     * 0xAABBGGRR pixels work as well.
+     * @param pixels The number of pixels to convert.
+     */
+    public static void premultiply(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        checkRange(src.length, srcOffset, pixels, 1);
+        checkRange(dst.length, dstOffset, pixels, 1);
+        PixelKernels.INSTANCE.premultiply(src, srcOffset, dst, dstOffset, pixels);
+    }
+
+    /**
+     * This divides the color channels of premultiplied packed pixels by their
+     * alpha, rounding to the nearest value. Fully transparent pixels become 0.
+     * @param pixels The number of pixels to convert.
+     * @see #premultiply(int[], int, int[], int, int)
+     */
+    public static void unpremultiply(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        checkRange(src.length, srcOffset, pixels, 1);
+        checkRange(dst.length, dstOffset, pixels, 1);
+        PixelKernels.INSTANCE.unpremultiply(src, srcOffset, dst, dstOffset, pixels);
+    }
+
+    /**
+     * This adds an opaque alpha channel to 3 byte pixels, turning RGB into
+     * RGBA and BGR into BGRA.
+     * @param pixels The number of pixels to convert.
+     */
+    public static void expand(byte[] src, int srcOffset, byte[] dst, int dstOffset, int pixels) {
+        checkRange(src.length, srcOffset, pixels, 3);
+        checkRange(dst.length, dstOffset, pixels, 4);
+        PixelKernels.INSTANCE.expand(src, srcOffset, dst, dstOffset, pixels);
+    }
+
+    /**
+     * This drops the last byte of 4 byte pixels, turning RGBA into RGB and
+     * BGRA into BGR.
+     * @param pixels The number of pixels to convert.
+     */
+    public static void strip(byte[] src, int srcOffset, byte[] dst, int dstOffset, int pixels) {
+        checkRange(src.length, srcOffset, pixels, 4);
+        checkRange(dst.length, dstOffset, pixels, 3);
+        PixelKernels.INSTANCE.strip(src, srcOffset, dst, dstOffset, pixels);
+    }
+
+    /**
+     * This draws packed pixels over the destination with source-over
+     * blending, as the WebP container specification describes for frames
+     * with {@link ANMFChunk#FLAG_ALPHA_BLENDING}. The colors are not
+     * premultiplied.
+     * @param pixels The number of pixels to blend.
+     */
+    public static void blend(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        checkRange(src.length, srcOffset, pixels, 1);
+        checkRange(dst.length, dstOffset, pixels, 1);
+        PixelKernels.INSTANCE.blend(src, srcOffset, dst, dstOffset, pixels);
+    }
+
+    /**
+     * This draws premultiplied packed pixels over the destination with
+     * source-over blending, as in {@link
+     * java.awt.image.BufferedImage#TYPE_INT_ARGB_PRE}. The result is the same
+     * as blending with {@link #blend} and premultiplying, up to rounding.
+     * @param pixels The number of pixels to blend.
+     */
+    public static void blendPremultiplied(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        checkRange(src.length, srcOffset, pixels, 1);
+        checkRange(dst.length, dstOffset, pixels, 1);
+        PixelKernels.INSTANCE.blendPremultiplied(src, srcOffset, dst, dstOffset, pixels);
+    }
+
+    private static void checkRange(int length, int offset, int pixels, int elementsPerPixel) {
+        if (pixels < 0) throw new IllegalArgumentException("pixels < 0");
+        if (offset < 0 || offset + (long) pixels * elementsPerPixel > length)
+            throw new ArrayIndexOutOfBoundsException("Range [" + offset + ", " + offset + " + "
+                    + (long) pixels * elementsPerPixel + ") out of bounds for length " + length);
+    }
+
+}
@@ -0,0 +1,333 @@
+package com.tianscar.webp;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This plays an animation on two daemon threads. The compositor thread
+ * decodes and composites frames ahead of time into a pool of canvases, as
+ * many as fit in the memory budget. The presenter thread hands each canvas
+ * to a {@link WebPFrameListener} when its frame is due, according to the
+ * frame durations, and repeats the animation as many times as the loop count
+ * of the ANIM chunk says.
+ * <p>
+ * In real time, which is the default, frames that are late are dropped: the
+ * presenter skips a frame when the one after it is already due, and when the
+ * compositor itself falls behind it jumps to the frame that is due,
+ * compositing from the closest key frame. Frames that last 0 ms are thus
+ * never shown, as intended by encoders that use them to build up the canvas.
+ * An animation whose frames all last 0 ms is played once.
+ * Otherwise every frame is delivered in order as fast as the listener takes
+ * them, with its time stamp, which suits exporting the animation.
+ */
+public final class WebPPlayer implements AutoCloseable {
+
+    private static final AtomicInteger PLAYER_COUNT = new AtomicInteger();
+
+    /**
+     * This is a composited canvas waiting to be shown, or in the pool.
+     */
+    private static final class Frame {
+        final int[] canvas;
+        int index;
+        long time;
+
+        Frame(int[] canvas) {
+            this.canvas = canvas;
+        }
+    }
+
+    private static final Frame END = new Frame(null);
+
+    private final WebPCompositor compositor;
+    private final WebPFrameListener listener;
+    /**
+     * These are when each frame starts, in milliseconds from the start of a
+     * loop.
+     */
+    private final long[] frameTimes;
+    private final long loopDuration;
+    private long memoryBudget = 64L << 20;
+    private boolean realTime = true;
+    private int loopCount;
+    private final AtomicLong presentedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private BlockingQueue<Frame> pool, queue;
+    private Thread compositorThread, presenterThread;
+    /**
+     * This is {@link System#nanoTime()} at time 0 of the playback, set when
+     * the first frame is shown.
+     */
+    private volatile long startTime;
+    private volatile boolean started, stopped, clockStarted;
+    private volatile Throwable failure;
+
+    /**
+     * This creates a player for an animated WebP file.
+     * @param animation The animation, which must have a VP8X chunk and at
+     * least one ANMF chunk.
+     * @param listener The receiver of the frames.
+     */
+    public WebPPlayer(WebPChunk animation, WebPFrameListener listener) {
+        this(animation, WebPColorMode.ARGB, listener);
+    }
+
+    /**
+     * This creates a player whose canvases hold pixels of the given mode.
+     * @param animation The animation, which must have a VP8X chunk and at
+     * least one ANMF chunk.
+     * @param colorMode The layout of the canvases, as for {@link
+     * WebPCompositor#WebPCompositor(WebPChunk, WebPColorMode)}.
+     * @param listener The receiver of the frames.
+     */
+    public WebPPlayer(WebPChunk animation, WebPColorMode colorMode, WebPFrameListener listener) {
+        this.compositor = new WebPCompositor(animation, colorMode);
+        this.listener = Objects.requireNonNull(listener);
+        frameTimes = new long[compositor.getFrameCount()];
+        long time = 0;
+        for (int i = 0; i < frameTimes.length; i ++) {
+            frameTimes[i] = time;
+            time += compositor.getFrameDuration(i);
+        }
+        loopDuration = time;
+        loopCount = compositor.getLoopCount();
+    }
+
+    public WebPColorMode getColorMode() {
+        return compositor.getColorMode();
+    }
+
+    public int getCanvasWidth() {
+        return compositor.getCanvasWidth();
+    }
+
+    public int getCanvasHeight() {
+        return compositor.getCanvasHeight();
+    }
+
+    public int getFrameCount() {
+        return compositor.getFrameCount();
+    }
+
+    /**
+     * This sets how much memory the composited canvases waiting to be shown
+     * may take. At least two canvases are kept however small the budget is.
+     * The default is 64 MiB.
+     * @param memoryBudget The budget, in bytes.
+     * @return This object.
+     */
+    public WebPPlayer setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 0) throw new IllegalArgumentException("memoryBudget < 0");
+        checkNotStarted();
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * This sets whether the frames are paced by their durations and dropped
+     * when late, which is the default.
+     * @param realTime Whether to play in real time.
+     * @return This object.
+     */
+    public WebPPlayer setRealTime(boolean realTime) {
+        checkNotStarted();
+        this.realTime = realTime;
+        return this;
+    }
+
+    /**
+     * This overrides the loop count of the ANIM chunk.
+     * @param loopCount The number of times to play the animation, or 0 for
+     * forever.
+     * @return This object.
+     */
+    public WebPPlayer setLoopCount(int loopCount) {
+        if (loopCount < 0) throw new IllegalArgumentException("loopCount < 0");
+        checkNotStarted();
+        this.loopCount = loopCount;
+        return this;
+    }
+
+    private void checkNotStarted() {
+        if (started) throw new IllegalStateException("Player already started");
+    }
+
+    /**
+     * This starts the playback. A player can only be started once.
+     */
+    public synchronized void start() {
+        checkNotStarted();
+        started = true;
+        int canvasSize = compositor.getCanvas().length;
+        long budgeted = memoryBudget / Math.max(1L, canvasSize * 4L);
+        int buffers = (int) Math.max(2, Math.min(budgeted, compositor.getFrameCount()));
+        pool = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i ++) pool.add(new Frame(new int[canvasSize]));
+        // One more for the end of the playback
+        queue = new ArrayBlockingQueue<>(buffers + 1);
+        int player = PLAYER_COUNT.incrementAndGet();
+        compositorThread = new Thread(this::runCompositor, "webp-player-" + player + "-compositor");
+        presenterThread = new Thread(this::runPresenter, "webp-player-" + player + "-presenter");
+        compositorThread.setDaemon(true);
+        presenterThread.setDaemon(true);
+        compositorThread.start();
+        presenterThread.start();
+    }
+
+    /**
+     * This stops the playback without waiting for the threads to finish. The
+     * listener is still told that the playback ended.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (compositorThread != null) compositorThread.interrupt();
+        if (presenterThread != null) presenterThread.interrupt();
+    }
+
+    /**
+     * This waits for the playback to end, which never happens for an
+     * animation that loops forever unless it is stopped.
+     * @throws InterruptedException If the current thread is interrupted.
+     */
+    public void await() throws InterruptedException {
+        Thread presenter;
+        synchronized (this) {
+            presenter = presenterThread;
+        }
+        if (presenter != null) presenter.join();
+    }
+
+    /**
+     * This stops the playback and waits for the threads to finish.
+     */
+    @Override
+    public void close() {
+        stop();
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                await();
+                synchronized (this) {
+                    if (compositorThread != null) compositorThread.join();
+                }
+                break;
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    public boolean isPlaying() {
+        Thread presenter = presenterThread;
+        return presenter != null && presenter.isAlive();
+    }
+
+    /**
+     * This returns how many frames have been handed to the listener.
+     * @return The number of frames shown.
+     */
+    public long getPresentedFrameCount() {
+        return presentedFrames.get();
+    }
+
+    /**
+     * This returns how many frames were skipped because they were late.
+     * @return The number of frames dropped.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * This returns when a frame of the playback starts, counting the loops
+     * before it.
+     */
+    long timeOf(long sequence) {
+        return sequence / frameTimes.length * loopDuration + frameTimes[(int) (sequence % frameTimes.length)];
+    }
+
+    /**
+     * This returns the frame of the playback that is due at the given time.
+     */
+    long sequenceAt(long time) {
+        if (loopDuration == 0) return Long.MAX_VALUE;
+        int index = Arrays.binarySearch(frameTimes, time % loopDuration);
+        if (index < 0) index = -index - 2;
+        // Of the frames that start at the same time, the last is shown
+        while (index + 1 < frameTimes.length && frameTimes[index + 1] == frameTimes[index]) index ++;
+        return time / loopDuration * frameTimes.length + index;
+    }
+
+    private void runCompositor() {
+        long end = loopCount == 0 && loopDuration > 0 ? Long.MAX_VALUE : (long) Math.max(1, loopCount) * frameTimes.length;
+        try {
+            for (long sequence = 0; sequence < end && !stopped; sequence ++) {
+                Frame frame = pool.take();
+                if (realTime && clockStarted) {
+                    long due = Math.min(end - 1, sequenceAt(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+                    if (due > sequence) {
+                        droppedFrames.addAndGet(due - sequence);
+                        sequence = due;
+                    }
+                }
+                frame.index = (int) (sequence % frameTimes.length);
+                frame.time = timeOf(sequence);
+                System.arraycopy(compositor.composite(frame.index), 0, frame.canvas, 0, frame.canvas.length);
+                queue.put(frame);
+            }
+        }
+        catch (InterruptedException e) {
+            // Stopped
+        }
+        catch (RuntimeException | Error e) {
+            failure = e;
+        }
+        finally {
+            queue.add(END);
+        }
+    }
+
+    private void runPresenter() {
+        try {
+            for (Frame frame = queue.take(); frame != END && !stopped; frame = queue.take()) {
+                if (realTime) {
+                    if (!clockStarted) {
+                        startTime = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(frame.time);
+                        clockStarted = true;
+                    }
+                    long delay = startTime + TimeUnit.MILLISECONDS.toNanos(frame.time) - System.nanoTime();
+                    if (delay > 0) TimeUnit.NANOSECONDS.sleep(delay);
+                    Frame next = queue.peek();
+                    if (next != null && next != END
+                            && System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(next.time)) {
+                        droppedFrames.incrementAndGet();
+                        pool.add(frame);
+                        continue;
+                    }
+                }
+                listener.frameReady(this, frame.canvas, frame.index, frame.time);
+                presentedFrames.incrementAndGet();
+                pool.add(frame);
+            }
+        }
+        catch (InterruptedException e) {
+            // Stopped
+        }
+        catch (RuntimeException | Error e) {
+            failure = e;
+        }
+        finally {
+            stopped = true;
+            compositorThread.interrupt();
+            listener.playbackEnded(this, failure);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.tianscar.webp;
+
+/**
+ * This describes one size of an image to encode with {@link
+ * WebPFactory#encodeRenditions(BitstreamChunk, WebPRendition...)}, along with
+ * its own encoder settings.
+ */
+public final class WebPRendition {
+
+    private final int width, height;
+    private float quality = 75;
+    private boolean lossless = false;
+    private int method = 4;
+
+    /**
+     * This creates a rendition of the given size. If one of the dimensions is
+     * zero, it is computed from the other so as to preserve the aspect ratio
+     * of the source.
+     * @param width The width of the rendition.
+     * @param height The height of the rendition.
+     */
+    public WebPRendition(int width, int height) {
+        if (width < 0 || height < 0) throw new IllegalArgumentException("size < 0");
+        if (width == 0 && height == 0) throw new IllegalArgumentException("size == 0");
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * This sets the quality factor, which is the effort for lossless
+     * renditions. The default is 75.
+     * @param quality The quality factor, from 0 to 100.
+     * @return This object.
+     */
+    public WebPRendition setQuality(float quality) {
+        if (!(quality >= 0 && quality <= 100)) throw new IllegalArgumentException("quality out of range [0, 100]");
+        this.quality = quality;
+        return this;
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    /**
+     * This sets whether the rendition is encoded losslessly. The default is
+     * false.
+     * @param lossless Whether to encode losslessly.
+     * @return This object.
+     */
+    public WebPRendition setLossless(boolean lossless) {
+        this.lossless = lossless;
+        return this;
+    }
+
+    public boolean isLossless() {
+        return lossless;
+    }
+
+    /**
+     * This sets the trade-off between encoding speed and size. The default is
+     * 4.
+     * @param method The method, from 0 (fastest) to 6 (smallest).
+     * @return This object.
+     */
+    public WebPRendition setMethod(int method) {
+        if (method < 0 || method > 6) throw new IllegalArgumentException("method out of range [0, 6]");
+        this.method = method;
+        return this;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    /**
+     * This returns the width of the rendition of a source of the given size.
+     */
+    int getWidth(int sourceWidth, int sourceHeight) {
+        if (width != 0) return width;
+        return (int) Math.max(1, Math.round((double) height * sourceWidth / sourceHeight));
+    }
+
+    /**
+     * This returns the height of the rendition of a source of the given size.
+     */
+    int getHeight(int sourceWidth, int sourceHeight) {
+        if (height != 0) return height;
+        return (int) Math.max(1, Math.round((double) width * sourceHeight / sourceWidth));
+    }
+
+}
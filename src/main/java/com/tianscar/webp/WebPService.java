@@ -0,0 +1,215 @@
+package com.tianscar.webp;
+
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This runs the operations of {@link WebPFactory} asynchronously, on a fixed
+ * number of worker threads that bounds how much native work runs at once.
+ * Tasks wait in a queue of bounded capacity, and when it is full a task fails
+ * immediately with a {@link RejectedExecutionException} instead of blocking
+ * the caller.
+ * <p>
+ * Since the native calls run on the workers, callers on virtual threads only
+ * park while waiting for the returned futures, and never pin their carrier
+ * thread inside libwebp.
+ */
+public final class WebPService implements AutoCloseable {
+
+    private static final AtomicInteger SERVICE_COUNT = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * This creates a service with daemon worker threads.
+     * @param permits The number of operations that may run at once.
+     * @param queueCapacity The number of operations that may wait for a
+     * worker.
+     */
+    public WebPService(int permits, int queueCapacity) {
+        this(permits, queueCapacity, newThreadFactory());
+    }
+
+    /**
+     * This creates a service whose workers are made by the given factory.
+     * @param permits The number of operations that may run at once.
+     * @param queueCapacity The number of operations that may wait for a
+     * worker.
+     * @param threadFactory The factory of the worker threads.
+     */
+    public WebPService(int permits, int queueCapacity, ThreadFactory threadFactory) {
+        if (permits <= 0) throw new IllegalArgumentException("permits <= 0");
+        if (queueCapacity <= 0) throw new IllegalArgumentException("queueCapacity <= 0");
+        Objects.requireNonNull(threadFactory);
+        executor = new ThreadPoolExecutor(permits, permits, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        int service = SERVICE_COUNT.incrementAndGet();
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "webp-service-" + service + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * This runs a task on one of the workers of this service. The task is
+     * skipped if the future is cancelled before it starts.
+     * @param task The task to run.
+     * @return A future completed with the result of the task, or failed with
+     * a {@link RejectedExecutionException} if the queue is full or this
+     * service is closed.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        Objects.requireNonNull(task);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) return;
+                try {
+                    future.complete(task.call());
+                }
+                catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public CompletableFuture<WebPChunk> demux(InputStream in) {
+        Objects.requireNonNull(in);
+        return submit(() -> WebPFactory.demux(in));
+    }
+
+    public CompletableFuture<WebPChunk> demux(InputStream in, WebPDemuxLimits limits) {
+        Objects.requireNonNull(in);
+        Objects.requireNonNull(limits);
+        WebPDemuxLimits copy = new WebPDemuxLimits(limits);
+        return submit(() -> WebPFactory.demux(in, copy));
+    }
+
+    public CompletableFuture<BufferedImage> decodeImage(BitstreamChunk chunk, int imageType) {
+        Objects.requireNonNull(chunk);
+        return submit(() -> WebPFactory.decodeImage(chunk, imageType));
+    }
+
+    public CompletableFuture<BufferedImage> decodeImage(ALPHChunk alphChunk, VP8Chunk vp8Chunk, int imageType) {
+        Objects.requireNonNull(alphChunk);
+        Objects.requireNonNull(vp8Chunk);
+        return submit(() -> WebPFactory.decodeImage(alphChunk, vp8Chunk, imageType));
+    }
+
+    public CompletableFuture<WebPYUVImage> decodeYUV(BitstreamChunk chunk) {
+        Objects.requireNonNull(chunk);
+        return submit(() -> WebPFactory.decodeYUV(chunk));
+    }
+
+    public CompletableFuture<WebPYUVImage> decodeYUV(ALPHChunk alphChunk, VP8Chunk vp8Chunk) {
+        Objects.requireNonNull(alphChunk);
+        Objects.requireNonNull(vp8Chunk);
+        return submit(() -> WebPFactory.decodeYUV(alphChunk, vp8Chunk));
+    }
+
+    public CompletableFuture<Chunk[]> encodeImage(BufferedImage image, float quality) {
+        Objects.requireNonNull(image);
+        return submit(() -> WebPFactory.encodeImage(image, quality));
+    }
+
+    public CompletableFuture<VP8LChunk> encodeLosslessImage(BufferedImage image) {
+        Objects.requireNonNull(image);
+        return submit(() -> WebPFactory.encodeLosslessImage(image));
+    }
+
+    public CompletableFuture<Chunk[]> encodeYUV(WebPYUVImage image, float quality) {
+        Objects.requireNonNull(image);
+        return submit(() -> WebPFactory.encodeYUV(image, quality));
+    }
+
+    /**
+     * This encodes an image with the given options. Cancelling the returned 
+     * future cancels the progress, which aborts the native encode at its next 
+     * checkpoint and frees the worker.
+     * @param image The image to encode.
+     * @param options The encoder settings, which are copied.
+     * @param progress The progress of the encode.
+     * @return A future completed with the chunks of the image.
+     * @see WebPFactory#encodeImage(BufferedImage, WebPEncoderOptions, WebPEncodeProgress)
+     */
+    public CompletableFuture<Chunk[]> encodeImage(BufferedImage image, WebPEncoderOptions options, 
+            WebPEncodeProgress progress) {
+        Objects.requireNonNull(image);
+        Objects.requireNonNull(options);
+        Objects.requireNonNull(progress);
+        WebPEncoderOptions copy = new WebPEncoderOptions(options);
+        CompletableFuture<Chunk[]> future = submit(() -> WebPFactory.encodeImage(image, copy, progress));
+        future.whenComplete((chunks, e) -> {
+            if (future.isCancelled()) progress.cancel();
+        });
+        return future;
+    }
+
+    /**
+     * This returns the number of operations that may run at once.
+     * @return The number of workers.
+     */
+    public int getPermits() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * This returns the number of operations waiting for a worker.
+     * @return The length of the queue.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * This returns the number of operations currently running.
+     * @return The number of busy workers.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public boolean isClosed() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * This waits for the queued operations to finish after {@link #close()}.
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return Whether all operations finished.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * This stops accepting new operations. Queued and running operations
+     * still complete.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+}
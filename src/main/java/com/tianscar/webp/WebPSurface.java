@@ -0,0 +1,118 @@
+package com.tianscar.webp;
+
+import java.awt.image.BufferedImage;
+import java.util.Objects;
+
+/**
+ * This keeps the latest frame of a {@link WebPPlayer} in a pair of images, so
+ * that it can be painted while the next frame is written. Each frame is
+ * written to the image that is not shown, and the two are swapped once it is
+ * complete. Readers hold the shown image between {@link #acquire()} and
+ * {@link #release(BufferedImage)}, and a frame is only written to an image
+ * that no reader holds, so a slow reader holds up the player rather than
+ * seeing a torn frame.
+ * <p>
+ * The images are {@link BufferedImage#TYPE_INT_ARGB}, or {@link
+ * BufferedImage#TYPE_INT_ARGB_PRE} for a player in {@link
+ * WebPColorMode#PREMULTIPLIED_ARGB}, which Java 2D draws without converting.
+ * They are written with their raster methods so that they stay eligible for
+ * hardware acceleration.
+ */
+public final class WebPSurface implements WebPFrameListener {
+
+    private final Object lock = new Object();
+    private final Runnable onSwap;
+    private final BufferedImage[] images = new BufferedImage[2];
+    private final int[] readers = new int[2];
+    private int front = -1;
+    private int frameIndex = -1;
+
+    public WebPSurface() {
+        this(() -> {});
+    }
+
+    /**
+     * This creates a surface that calls back after each swap, e.g. to
+     * schedule a repaint.
+     * @param onSwap The callback, run on the presenter thread of the player.
+     */
+    public WebPSurface(Runnable onSwap) {
+        this.onSwap = Objects.requireNonNull(onSwap);
+    }
+
+    @Override
+    public void frameReady(WebPPlayer player, int[] canvas, int index, long time) {
+        int width = player.getCanvasWidth();
+        int height = player.getCanvasHeight();
+        int back;
+        synchronized (lock) {
+            back = front == 0 ? 1 : 0;
+            try {
+                while (readers[back] > 0) lock.wait();
+            }
+            catch (InterruptedException e) {
+                // The player is stopping
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (images[back] == null) images[back] = new BufferedImage(width, height, imageType(player.getColorMode()));
+        }
+        // Readers only acquire the front image, so this one is not shared
+        images[back].getRaster().setDataElements(0, 0, width, height, canvas);
+        synchronized (lock) {
+            front = back;
+            frameIndex = index;
+        }
+        onSwap.run();
+    }
+
+    private static int imageType(WebPColorMode colorMode) {
+        switch (colorMode) {
+            case ARGB:
+                return BufferedImage.TYPE_INT_ARGB;
+            case PREMULTIPLIED_ARGB:
+                return BufferedImage.TYPE_INT_ARGB_PRE;
+            default:
+                throw new IllegalArgumentException("Cannot show " + colorMode + " canvases");
+        }
+    }
+
+    /**
+     * This returns the image of the latest frame and holds it until it is
+     * released. No frame is written to it in the meantime.
+     * @return The image, or null if no frame has been shown yet.
+     */
+    public BufferedImage acquire() {
+        synchronized (lock) {
+            if (front < 0) return null;
+            readers[front] ++;
+            return images[front];
+        }
+    }
+
+    /**
+     * This releases an image returned by {@link #acquire()}.
+     * @param image The image, or null, which is ignored.
+     */
+    public void release(BufferedImage image) {
+        if (image == null) return;
+        synchronized (lock) {
+            int slot = image == images[0] ? 0 : image == images[1] ? 1 : -1;
+            if (slot < 0 || readers[slot] == 0) throw new IllegalStateException("Image not acquired");
+            readers[slot] --;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * This returns the index of the frame in the image {@link #acquire()}
+     * returns.
+     * @return The index of the frame, or -1 if no frame has been shown yet.
+     */
+    public int getFrameIndex() {
+        synchronized (lock) {
+            return frameIndex;
+        }
+    }
+
+}
@@ -0,0 +1,314 @@
+package com.tianscar.webp;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.tianscar.webp.Util.*;
+import static com.tianscar.webp.WebPChunk.WEBP;
+
+/**
+ * This makes a smaller copy of an animation in a single pass. Each frame is
+ * decoded already scaled by libwebp and composited on a canvas of the target
+ * size, see {@link WebPCompositor}, so the full size canvas is never built.
+ * Each resulting canvas that differs from the one before is cropped to the
+ * pixels that changed and encoded on the common pool, while the following
+ * frames are composited, and the frames are written in order as soon as they
+ * are encoded. Only a few frames are in flight at a time, so the memory used
+ * does not grow with the number of frames.
+ * <p>
+ * The written frames replace the pixels under them without blending or
+ * disposal. Frames that last 0 ms only build up the canvas and are not
+ * written on their own, and with a frame interval, frames that start less
+ * than the interval after the last written frame are merged into it. The
+ * last frame is always written, so the thumbnail ends on the same picture as
+ * the animation, and takes over the time of the frames skipped before it.
+ */
+public final class WebPThumbnailer {
+
+    /**
+     * This is a written frame, whose duration is known once the next one
+     * starts.
+     */
+    private static final class Frame {
+        final int x, y, width, height;
+        final long time;
+        final CompletableFuture<Chunk[]> chunks;
+
+        Frame(int x, int y, int width, int height, long time, CompletableFuture<Chunk[]> chunks) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.time = time;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * This picks the frames to write from their durations, one frame after
+     * the other.
+     */
+    static final class FrameSelector {
+        private final int frameInterval;
+        private long time = 0, nextTime = 0, skippedTime = -1;
+
+        FrameSelector(int frameInterval) {
+            this.frameInterval = frameInterval;
+        }
+
+        /**
+         * This returns when the next frame starts if it is to be written.
+         * @param duration The duration of the frame.
+         * @param last Whether this is the last frame.
+         * @return The start time of the frame, or -1 if it is skipped.
+         */
+        long next(int duration, boolean last) {
+            long start = -1;
+            if (duration > 0 || last) {
+                if (time >= nextTime) start = time;
+                else if (last) start = skippedTime >= 0 ? skippedTime : time;
+                else if (skippedTime < 0) skippedTime = time;
+            }
+            if (start >= 0) skippedTime = -1;
+            time += duration;
+            return start;
+        }
+
+        /**
+         * This is called when a frame was written, as frames that change
+         * nothing are not.
+         */
+        void written(long start) {
+            nextTime = start + frameInterval;
+        }
+
+        /**
+         * This returns the end of the frames so far.
+         */
+        long getTime() {
+            return time;
+        }
+    }
+
+    private final int width, height;
+    private float quality = 75;
+    private boolean lossless = false;
+    private int frameInterval = 0;
+
+    /**
+     * This creates a thumbnailer for the given size. If one of the
+     * dimensions is zero, it is computed from the other so as to preserve the
+     * aspect ratio of each animation.
+     * @param width The width of the thumbnails.
+     * @param height The height of the thumbnails.
+     */
+    public WebPThumbnailer(int width, int height) {
+        if (width < 0 || height < 0) throw new IllegalArgumentException("size < 0");
+        if (width == 0 && height == 0) throw new IllegalArgumentException("size == 0");
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * This sets the quality of the lossy frames. The default is 75.
+     * @param quality The quality factor, from 0 to 100.
+     * @return This object.
+     */
+    public WebPThumbnailer setQuality(float quality) {
+        if (!(quality >= 0 && quality <= 100)) throw new IllegalArgumentException("quality out of range [0, 100]");
+        this.quality = quality;
+        return this;
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    /**
+     * This sets whether the frames are encoded losslessly. The default is
+     * false.
+     * @param lossless Whether to encode losslessly.
+     * @return This object.
+     */
+    public WebPThumbnailer setLossless(boolean lossless) {
+        this.lossless = lossless;
+        return this;
+    }
+
+    public boolean isLossless() {
+        return lossless;
+    }
+
+    /**
+     * This sets the shortest time between two written frames, which drops
+     * frames of animations with a higher frame rate. The default is 0, which
+     * keeps every visible frame.
+     * @param frameInterval The interval in milliseconds.
+     * @return This object.
+     */
+    public WebPThumbnailer setFrameInterval(int frameInterval) {
+        this.frameInterval = checkUInt24(frameInterval);
+        return this;
+    }
+
+    public int getFrameInterval() {
+        return frameInterval;
+    }
+
+    /**
+     * This writes a thumbnail of an animation, starting at the current
+     * position of the channel, which is moved back once at the end to fill
+     * in the size of the file.
+     * @param animation The animation, which must have a VP8X chunk and at
+     * least one ANMF chunk.
+     * @param out Where to write the thumbnail.
+     * @throws IOException If an I/O error occurs.
+     * @throws IllegalArgumentException If a frame cannot be decoded or
+     * encoded.
+     */
+    public void write(WebPChunk animation, SeekableByteChannel out) throws IOException {
+        Objects.requireNonNull(animation);
+        Objects.requireNonNull(out);
+        VP8XChunk source = null;
+        for (Chunk chunk : animation.subchunks()) {
+            if (chunk instanceof VP8XChunk) source = (VP8XChunk) chunk;
+        }
+        if (source == null) throw new IllegalArgumentException("No VP8X chunk found");
+        int canvasWidth = width == 0
+                ? (int) Math.max(1, Math.round((double) height * source.getCanvasWidth() / source.getCanvasHeight())) : width;
+        int canvasHeight = height == 0
+                ? (int) Math.max(1, Math.round((double) width * source.getCanvasHeight() / source.getCanvasWidth())) : height;
+        WebPCompositor compositor = new WebPCompositor(animation, WebPColorMode.ARGB, canvasWidth, canvasHeight);
+        Trace trace = Trace.start(WebPOperation.MUX, null);
+        VP8XChunk vp8x = new VP8XChunk(VP8XChunk.FLAG_ANIM | VP8XChunk.FLAG_ALPH, canvasWidth, canvasHeight);
+        ANIMChunk anim = new ANIMChunk(compositor.getBackgroundColor(), compositor.getLoopCount());
+        long start = out.position();
+        // The size is filled in at the end
+        ChannelChunk.writeRIFFHeader(0, out);
+        ChannelChunk.write(vp8x, out);
+        ChannelChunk.write(anim, out);
+        long riffSize = 4 + vp8x.getFullSize() + anim.getFullSize();
+        int window = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+        ArrayDeque<Frame> frames = new ArrayDeque<>();
+        int[] shown = new int[canvasWidth * canvasHeight];
+        FrameSelector selector = new FrameSelector(frameInterval);
+        try {
+            for (int i = 0, count = compositor.getFrameCount(); i < count; i ++) {
+                int[] canvas = compositor.composite(i);
+                long time = selector.next(compositor.getFrameDuration(i), i == count - 1);
+                if (time >= 0) {
+                    Frame frame = changedFrame(frames.isEmpty(), shown, canvas, canvasWidth, canvasHeight, time);
+                    if (frame != null) {
+                        frames.add(frame);
+                        System.arraycopy(canvas, 0, shown, 0, canvas.length);
+                        selector.written(time);
+                    }
+                }
+                while (frames.size() > window) {
+                    Frame frame = frames.poll();
+                    riffSize += writeFrame(frame, frames.peek().time - frame.time, out);
+                }
+            }
+            while (!frames.isEmpty()) {
+                Frame frame = frames.poll();
+                riffSize += writeFrame(frame, (frames.isEmpty() ? selector.getTime() : frames.peek().time) - frame.time, out);
+            }
+        }
+        finally {
+            for (Frame frame : frames) frame.chunks.cancel(false);
+        }
+        long end = out.position();
+        out.position(start);
+        ChannelChunk.writeRIFFHeader(riffSize, out);
+        out.position(end);
+        trace.end(WEBP, animation.getFullSize(), riffSize + 8, canvasWidth, canvasHeight);
+    }
+
+    /**
+     * This writes a thumbnail of an animation to a file.
+     * @param animation The animation.
+     * @param target The file to write.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void write(WebPChunk animation, Path target) throws IOException {
+        Objects.requireNonNull(target);
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(animation, out);
+        }
+    }
+
+    /**
+     * This crops the canvas to the pixels that differ from the last written
+     * frame, with the offset rounded down to even as ANMF chunks require, and
+     * starts encoding them. The first frame covers the whole canvas.
+     * @return The frame, or null if nothing changed.
+     */
+    private Frame changedFrame(boolean first, int[] shown, int[] canvas, int canvasWidth, int canvasHeight, long time) {
+        int left = 0, top = 0, right = canvasWidth, bottom = canvasHeight;
+        if (!first) {
+            left = canvasWidth;
+            top = canvasHeight;
+            right = bottom = 0;
+            for (int y = 0; y < canvasHeight; y ++) {
+                int row = y * canvasWidth;
+                int x = 0;
+                while (x < canvasWidth && shown[row + x] == canvas[row + x]) x ++;
+                if (x == canvasWidth) continue;
+                int lastX = canvasWidth - 1;
+                while (shown[row + lastX] == canvas[row + lastX]) lastX --;
+                left = Math.min(left, x);
+                right = Math.max(right, lastX + 1);
+                top = Math.min(top, y);
+                bottom = y + 1;
+            }
+            if (right == 0) return null;
+            left &= ~1;
+            top &= ~1;
+        }
+        int frameWidth = right - left;
+        int frameHeight = bottom - top;
+        int[] pixels = new int[frameWidth * frameHeight];
+        for (int y = 0; y < frameHeight; y ++) {
+            System.arraycopy(canvas, (top + y) * canvasWidth + left, pixels, y * frameWidth, frameWidth);
+        }
+        boolean lossless = this.lossless;
+        float quality = this.quality;
+        return new Frame(left, top, frameWidth, frameHeight, time, CompletableFuture.supplyAsync(
+                () -> WebPFactory.encodeARGB(pixels, frameWidth, frameHeight, lossless, quality)));
+    }
+
+    private static long writeFrame(Frame frame, long duration, SeekableByteChannel out) throws IOException {
+        Chunk[] chunks;
+        try {
+            chunks = frame.chunks.join();
+        }
+        catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+        ANMFChunk anmf = new ANMFChunk(frame.x / 2, frame.y / 2, frame.width, frame.height,
+                (int) Math.min(duration, UINT24_MAX), ANMFChunk.FLAG_NO_BLEND | ANMFChunk.FLAG_NO_DISPOSE, chunks);
+        ChannelChunk.write(anmf, out);
+        return anmf.getFullSize();
+    }
+
+}
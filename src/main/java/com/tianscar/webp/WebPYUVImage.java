@@ -0,0 +1,137 @@
+package com.tianscar.webp;
+
+import java.util.Objects;
+
+/**
+ * This is an image in planar YUV 4:2:0, the colorspace lossy WebP is coded
+ * in, with an optional alpha plane. The U and V planes are half the size of
+ * the image in each direction, rounded up. Decoding into and encoding from
+ * these planes skips the conversion to and from RGB.
+ * @see WebPFactory#decodeYUV(BitstreamChunk, WebPYUVImage)
+ * @see WebPFactory#encodeYUV(WebPYUVImage, float)
+ */
+public final class WebPYUVImage {
+
+    private final int width;
+    private final int height;
+    private final byte[] y;
+    private final int yStride;
+    private final byte[] u;
+    private final byte[] v;
+    private final int uvStride;
+    private final byte[] a;
+    private final int aStride;
+
+    /**
+     * This creates an image with new, tightly packed planes.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param alpha Whether to create an alpha plane.
+     */
+    public WebPYUVImage(int width, int height, boolean alpha) {
+        this(width, height, new byte[checkedArea(width, height)], width,
+                new byte[uvWidth(width) * uvHeight(height)], new byte[uvWidth(width) * uvHeight(height)], uvWidth(width),
+                alpha ? new byte[width * height] : null, alpha ? width : 0);
+    }
+
+    /**
+     * This creates an image backed by the given planes, so that a pipeline
+     * can decode into and encode from its own buffers.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param y The luma plane.
+     * @param yStride The distance in bytes between the rows of the luma plane.
+     * @param u The U plane.
+     * @param v The V plane.
+     * @param uvStride The distance in bytes between the rows of the U and V
+     * planes.
+     * @param a The alpha plane, or null if the image has no alpha.
+     * @param aStride The distance in bytes between the rows of the alpha plane.
+     */
+    public WebPYUVImage(int width, int height, byte[] y, int yStride, byte[] u, byte[] v, int uvStride,
+            byte[] a, int aStride) {
+        checkedArea(width, height);
+        this.width = width;
+        this.height = height;
+        this.y = checkPlane(Objects.requireNonNull(y), yStride, width, height, "y");
+        this.yStride = yStride;
+        this.u = checkPlane(Objects.requireNonNull(u), uvStride, uvWidth(width), uvHeight(height), "u");
+        this.v = checkPlane(Objects.requireNonNull(v), uvStride, uvWidth(width), uvHeight(height), "v");
+        this.uvStride = uvStride;
+        this.a = a == null ? null : checkPlane(a, aStride, width, height, "a");
+        this.aStride = aStride;
+    }
+
+    private static int checkedArea(int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("size <= 0");
+        if ((long) width * height > Integer.MAX_VALUE) throw new IllegalArgumentException("image too large");
+        return width * height;
+    }
+
+    private static byte[] checkPlane(byte[] plane, int stride, int width, int height, String name) {
+        if (stride < width) throw new IllegalArgumentException(name + " stride < " + name + " width");
+        if ((long) stride * (height - 1) + width > plane.length) throw new IllegalArgumentException(name + " plane too small");
+        return plane;
+    }
+
+    static int uvWidth(int width) {
+        return (width + 1) / 2;
+    }
+
+    static int uvHeight(int height) {
+        return (height + 1) / 2;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public byte[] getY() {
+        return y;
+    }
+
+    public int getYStride() {
+        return yStride;
+    }
+
+    public byte[] getU() {
+        return u;
+    }
+
+    public byte[] getV() {
+        return v;
+    }
+
+    public int getUVStride() {
+        return uvStride;
+    }
+
+    /**
+     * This returns the alpha plane of this image.
+     * @return The alpha plane, or null if this image has none.
+     */
+    public byte[] getA() {
+        return a;
+    }
+
+    public int getAStride() {
+        return aStride;
+    }
+
+    public boolean hasAlpha() {
+        return a != null;
+    }
+
+    public int getUVWidth() {
+        return uvWidth(width);
+    }
+
+    public int getUVHeight() {
+        return uvHeight(height);
+    }
+
+}
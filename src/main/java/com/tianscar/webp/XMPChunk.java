@@ -1,9 +1,15 @@
 package com.tianscar.webp;
 
+import java.nio.ByteBuffer;
+
 public class XMPChunk extends RawDataChunk {
 
     static final byte[] XMP = new byte[] { 'X', 'M', 'P', ' ' };
 
+    public XMPChunk(ByteBuffer data) {
+        super(XMP, data);
+    }
+
     public XMPChunk(byte[] data) {
         super(XMP, data);
     }
@@ -0,0 +1,239 @@
+package com.tianscar.webp;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.LSHL;
+import static jdk.incubator.vector.VectorOperators.LSHR;
+
+/**
+ * These run the pixel loops on the preferred vector species of the platform,
+ * leaving the pixels that do not fill a whole vector to the scalar loops.
+ * Divisions by a constant 255 are done with shifts, which is exact for the
+ * products of two channels. Divisions by alpha are done in float, which is
+ * exact as well since the quotients are never closer than 1 / 255 to the next
+ * integer. Ints and floats are converted through their bits, as the lanewise
+ * conversions are slower than the scalar loops on Java 17. C2 also stops
+ * compiling a loop into vector instructions once it holds more than a couple
+ * of these divisions, so the loops that divide by alpha go over a block of
+ * pixels once for each color channel.
+ */
+final class VectorPixelKernels extends PixelKernels {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    /**
+     * This is how many pixels {@link #blend} and {@link #unpremultiply} do at
+     * a time, one channel after another.
+     */
+    private static final int BLOCK = 1024;
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+    /**
+     * These are the shuffles of {@link #swizzle}, indexed by the order packed
+     * two bits per byte.
+     */
+    private final VectorShuffle<?>[] swizzles = new VectorShuffle<?>[256];
+    private final VectorShuffle<Byte> expand;
+    private final VectorMask<Byte> expandAlpha;
+    private final VectorShuffle<Byte> strip;
+
+    VectorPixelKernels() {
+        // Anything narrower is emulated, and slower than the scalar loops
+        if (BYTES.vectorBitSize() < 128) throw new UnsupportedOperationException("No SIMD registers");
+        expand = VectorShuffle.fromOp(BYTES, i -> (i & 3) == 3 ? 0 : (i >> 2) * 3 + (i & 3));
+        expandAlpha = VectorMask.fromLong(BYTES, 0x8888888888888888L);
+        strip = VectorShuffle.fromOp(BYTES, i -> i < BYTES.length() / 4 * 3 ? i / 3 * 4 + i % 3 : 0);
+    }
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private VectorShuffle<Byte> swizzleShuffle(int[] order) {
+        int key = order[0] | order[1] << 2 | order[2] << 4 | order[3] << 6;
+        VectorShuffle<Byte> shuffle = (VectorShuffle<Byte>) swizzles[key];
+        if (shuffle == null) {
+            shuffle = VectorShuffle.fromOp(BYTES, i -> (i & ~3) + order[i & 3]);
+            swizzles[key] = shuffle;
+        }
+        return shuffle;
+    }
+
+    @Override
+    void swizzle(byte[] src, int srcOffset, byte[] dst, int dstOffset, int pixels, int[] order) {
+        VectorShuffle<Byte> shuffle = swizzleShuffle(order);
+        int bytes = pixels * 4;
+        int i = 0;
+        for (int bound = BYTES.loopBound(bytes); i < bound; i += BYTES.length()) {
+            ByteVector.fromArray(BYTES, src, srcOffset + i).rearrange(shuffle).intoArray(dst, dstOffset + i);
+        }
+        super.swizzle(src, srcOffset + i, dst, dstOffset + i, pixels - i / 4, order);
+    }
+
+    @Override
+    void swapRedBlue(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        int i = 0;
+        for (int bound = INTS.loopBound(pixels); i < bound; i += INTS.length()) {
+            IntVector pixel = IntVector.fromArray(INTS, src, srcOffset + i);
+            pixel.and(0xFF00FF00)
+                    .or(pixel.lanewise(LSHR, 16).and(0xFF))
+                    .or(pixel.lanewise(LSHL, 16).and(0xFF0000))
+                    .intoArray(dst, dstOffset + i);
+        }
+        super.swapRedBlue(src, srcOffset + i, dst, dstOffset + i, pixels - i);
+    }
+
+    /**
+     * This divides by 255, rounding down, for anything below 65535.
+     */
+    private static IntVector div255(IntVector x) {
+        return x.add(x.lanewise(LSHR, 8)).add(1).lanewise(LSHR, 8);
+    }
+
+    private static IntVector channel(IntVector pixel, int shift) {
+        return pixel.lanewise(LSHR, shift).and(0xFF);
+    }
+
+    private static IntVector pack(IntVector a, IntVector r, IntVector g, IntVector b) {
+        return a.lanewise(LSHL, 24).or(r.lanewise(LSHL, 16)).or(g.lanewise(LSHL, 8)).or(b);
+    }
+
+    /**
+     * This converts ints from 0 to 2^23 to float by putting them in the
+     * mantissa of 2^23, which is much cheaper than a lanewise conversion.
+     */
+    private static FloatVector toFloat(IntVector x) {
+        return x.or(0x4B000000).reinterpretAsFloats().sub(0x1p23f);
+    }
+
+    /**
+     * This divides and rounds down. The quotient is either a whole number or
+     * at least 1 / 255 away from one, so shifting it down by a little less
+     * than half and rounding to the nearest whole number gives the same. The
+     * rounding is done by adding 1.5 * 2^23, where floats are whole numbers.
+     */
+    private static IntVector divide(IntVector dividend, FloatVector divisor) {
+        return toFloat(dividend).div(divisor).sub(0.499f).add(0x1.8p23f).reinterpretAsInts().and(0x3FFFFF);
+    }
+
+    @Override
+    void premultiply(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        int i = 0;
+        for (int bound = INTS.loopBound(pixels); i < bound; i += INTS.length()) {
+            IntVector pixel = IntVector.fromArray(INTS, src, srcOffset + i);
+            IntVector a = pixel.lanewise(LSHR, 24);
+            IntVector r = div255(channel(pixel, 16).mul(a).add(127));
+            IntVector g = div255(channel(pixel, 8).mul(a).add(127));
+            IntVector b = div255(channel(pixel, 0).mul(a).add(127));
+            pack(a, r, g, b).intoArray(dst, dstOffset + i);
+        }
+        super.premultiply(src, srcOffset + i, dst, dstOffset + i, pixels - i);
+    }
+
+    @Override
+    void unpremultiply(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        int bound = INTS.loopBound(pixels);
+        int[] colors = new int[Math.min(bound, BLOCK)];
+        for (int block = 0; block < bound; block += BLOCK) {
+            int end = Math.min(bound, block + BLOCK);
+            for (int shift = 0; shift <= 16; shift += 8) {
+                for (int i = block; i < end; i += INTS.length()) {
+                    IntVector pixel = IntVector.fromArray(INTS, src, srcOffset + i);
+                    IntVector a = pixel.lanewise(LSHR, 24);
+                    IntVector color = divide(channel(pixel, shift).mul(255).add(a.lanewise(LSHR, 1)), toFloat(a))
+                            .min(255)
+                            .lanewise(LSHL, shift);
+                    if (shift == 0) color.intoArray(colors, i - block);
+                    else if (shift == 8) color.or(IntVector.fromArray(INTS, colors, i - block)).intoArray(colors, i - block);
+                    else color.or(IntVector.fromArray(INTS, colors, i - block))
+                            .or(a.lanewise(LSHL, 24))
+                            .blend(pixel, a.eq(0xFF))
+                            .blend(0, a.eq(0))
+                            .intoArray(dst, dstOffset + i);
+                }
+            }
+        }
+        super.unpremultiply(src, srcOffset + bound, dst, dstOffset + bound, pixels - bound);
+    }
+
+    @Override
+    void expand(byte[] src, int srcOffset, byte[] dst, int dstOffset, int pixels) {
+        int perVector = BYTES.length() / 4;
+        int i = 0;
+        // Each load reads a quarter of a vector past the pixels it expands
+        for (; (i + perVector) * 3 + BYTES.length() / 4 <= pixels * 3; i += perVector) {
+            ByteVector.fromArray(BYTES, src, srcOffset + i * 3)
+                    .rearrange(expand)
+                    .blend((byte) 0xFF, expandAlpha)
+                    .intoArray(dst, dstOffset + i * 4);
+        }
+        super.expand(src, srcOffset + i * 3, dst, dstOffset + i * 4, pixels - i);
+    }
+
+    @Override
+    void strip(byte[] src, int srcOffset, byte[] dst, int dstOffset, int pixels) {
+        int perVector = BYTES.length() / 4;
+        int i = 0;
+        // Each store writes a quarter of a vector past the pixels it strips,
+        // which the next store or the scalar loop overwrites
+        for (; (i + perVector) * 3 + BYTES.length() / 4 <= pixels * 3; i += perVector) {
+            ByteVector.fromArray(BYTES, src, srcOffset + i * 4)
+                    .rearrange(strip)
+                    .intoArray(dst, dstOffset + i * 3);
+        }
+        super.strip(src, srcOffset + i * 4, dst, dstOffset + i * 3, pixels - i);
+    }
+
+    @Override
+    void blend(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        int bound = INTS.loopBound(pixels);
+        int[] colors = new int[Math.min(bound, BLOCK)];
+        for (int block = 0; block < bound; block += BLOCK) {
+            int end = Math.min(bound, block + BLOCK);
+            // The destination is only written once its last channel is done
+            for (int shift = 0; shift <= 16; shift += 8) {
+                for (int i = block; i < end; i += INTS.length()) {
+                    IntVector source = IntVector.fromArray(INTS, src, srcOffset + i);
+                    IntVector destination = IntVector.fromArray(INTS, dst, dstOffset + i);
+                    IntVector srcA = source.lanewise(LSHR, 24);
+                    IntVector dstFactorA = div255(destination.lanewise(LSHR, 24).mul(srcA.neg().add(255)));
+                    IntVector a = srcA.add(dstFactorA);
+                    IntVector color = divide(channel(source, shift).mul(srcA)
+                            .add(channel(destination, shift).mul(dstFactorA)), toFloat(a))
+                            .lanewise(LSHL, shift);
+                    if (shift == 0) color.intoArray(colors, i - block);
+                    else if (shift == 8) color.or(IntVector.fromArray(INTS, colors, i - block)).intoArray(colors, i - block);
+                    else color.or(IntVector.fromArray(INTS, colors, i - block))
+                            .or(a.lanewise(LSHL, 24))
+                            .blend(source, srcA.eq(0xFF))
+                            .blend(destination, srcA.eq(0))
+                            .intoArray(dst, dstOffset + i);
+                }
+            }
+        }
+        super.blend(src, srcOffset + bound, dst, dstOffset + bound, pixels - bound);
+    }
+
+    @Override
+    void blendPremultiplied(int[] src, int srcOffset, int[] dst, int dstOffset, int pixels) {
+        int i = 0;
+        for (int bound = INTS.loopBound(pixels); i < bound; i += INTS.length()) {
+            IntVector source = IntVector.fromArray(INTS, src, srcOffset + i);
+            IntVector destination = IntVector.fromArray(INTS, dst, dstOffset + i);
+            IntVector factor = source.lanewise(LSHR, 24).neg().add(255);
+            IntVector a = channel(source, 24).add(div255(channel(destination, 24).mul(factor).add(127))).min(255);
+            IntVector r = channel(source, 16).add(div255(channel(destination, 16).mul(factor).add(127))).min(255);
+            IntVector g = channel(source, 8).add(div255(channel(destination, 8).mul(factor).add(127))).min(255);
+            IntVector b = channel(source, 0).add(div255(channel(destination, 0).mul(factor).add(127))).min(255);
+            pack(a, r, g, b).intoArray(dst, dstOffset + i);
+        }
+        super.blendPremultiplied(src, srcOffset + i, dst, dstOffset + i, pixels - i);
+    }
+
+}
@@ -0,0 +1,305 @@
+package com.tianscar.webp;
+
+import jnr.ffi.Platform;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * This binds the simple decoding and encoding functions of libwebp with the
+ * Foreign Function and Memory API. Calls on small images are linked as
+ * critical, which lets libwebp read and write the Java arrays in place.
+ * Critical calls hold off garbage collection while they run, so larger images
+ * are copied through a confined arena and use ordinary downcalls instead.
+ * <p>
+ * The files libwebp encodes and the memory of the arenas are held in {@link
+ * NativeBuffer}s, so that {@link WebPNativeMemory}, Flight Recorder and the
+ * metrics listeners see them as they see the buffers of jnr-ffi.
+ */
+final class ForeignBinding extends NativeBinding {
+
+    /**
+     * This is the largest number of pixels that is decoded or encoded with a
+     * critical call.
+     */
+    private static final long CRITICAL_PIXELS = 256 * 256;
+
+    private static final String[] MODE_NAMES = { "RGB", "RGBA", "BGR", "BGRA", "ARGB" };
+    private static final int[] MODE_BYTES = { 3, 4, 3, 4, 4 };
+
+    private static final FunctionDescriptor GET_INFO =
+            FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_LONG, ADDRESS, ADDRESS);
+    private static final FunctionDescriptor DECODE_INTO =
+            FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_LONG, ADDRESS, JAVA_LONG, JAVA_INT);
+    private static final FunctionDescriptor ENCODE =
+            FunctionDescriptor.of(JAVA_LONG, ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT, JAVA_FLOAT, ADDRESS);
+    private static final FunctionDescriptor ENCODE_LOSSLESS =
+            FunctionDescriptor.of(JAVA_LONG, ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS);
+
+    private final MethodHandle getInfo;
+    private final MethodHandle free;
+    private final MethodHandle[] decodeInto = new MethodHandle[MODE_NAMES.length];
+    private final MethodHandle[] criticalDecodeInto = new MethodHandle[MODE_NAMES.length];
+    private final MethodHandle[] encode = new MethodHandle[4];
+    private final MethodHandle[] criticalEncode = new MethodHandle[4];
+    private final MethodHandle[] encodeLossless = new MethodHandle[4];
+    private final MethodHandle[] criticalEncodeLossless = new MethodHandle[4];
+
+    ForeignBinding() {
+        Linker linker = Linker.nativeLinker();
+        if (linker.canonicalLayouts().get("size_t").byteSize() != 8 || ADDRESS.byteSize() != 8) {
+            throw new UnsupportedOperationException("Only 64-bit platforms are supported");
+        }
+        SymbolLookup lookup = findLibrary();
+        Linker.Option critical = Linker.Option.critical(true);
+        getInfo = linker.downcallHandle(find(lookup, "WebPGetInfo"), GET_INFO, critical);
+        free = linker.downcallHandle(find(lookup, "WebPFree"), FunctionDescriptor.ofVoid(ADDRESS));
+        for (int mode = 0; mode < MODE_NAMES.length; mode ++) {
+            MemorySegment symbol = find(lookup, "WebPDecode" + MODE_NAMES[mode] + "Into");
+            decodeInto[mode] = linker.downcallHandle(symbol, DECODE_INTO);
+            criticalDecodeInto[mode] = linker.downcallHandle(symbol, DECODE_INTO, critical);
+        }
+        for (int mode = 0; mode < encode.length; mode ++) {
+            MemorySegment symbol = find(lookup, "WebPEncode" + MODE_NAMES[mode]);
+            encode[mode] = linker.downcallHandle(symbol, ENCODE);
+            criticalEncode[mode] = linker.downcallHandle(symbol, ENCODE, critical);
+            symbol = find(lookup, "WebPEncodeLossless" + MODE_NAMES[mode]);
+            encodeLossless[mode] = linker.downcallHandle(symbol, ENCODE_LOSSLESS);
+            criticalEncodeLossless[mode] = linker.downcallHandle(symbol, ENCODE_LOSSLESS, critical);
+        }
+    }
+
+    /**
+     * This looks for libwebp with the locator of jnr-ffi, as {@link
+     * JNRFFI} loads it: in the additional search directories and then in the
+     * paths of the system, versioned file names included, before leaving the
+     * name to the system loader. The locator adds the "lib" prefix itself, so
+     * a name that already has it is also looked up without it.
+     */
+    private static SymbolLookup findLibrary() {
+        String name = WebPFactory.getWebPLibraryName();
+        String base = name.startsWith("lib") ? name.substring(3) : name;
+        Platform platform = Platform.getNativePlatform();
+        List<String> searchPaths = new ArrayList<>(WebPFactory.getAdditionalSearchDirectories());
+        List<String> locations = new ArrayList<>(platform.libraryLocations(name, searchPaths));
+        if (!base.equals(name)) locations.addAll(platform.libraryLocations(base, searchPaths));
+        for (String location : locations) {
+            try {
+                return SymbolLookup.libraryLookup(Paths.get(location), Arena.global());
+            }
+            catch (IllegalArgumentException e) {
+                // Not loadable, e.g. built for another architecture
+            }
+        }
+        return SymbolLookup.libraryLookup(platform.mapLibraryName(base), Arena.global());
+    }
+
+    private static MemorySegment find(SymbolLookup lookup, String name) {
+        return lookup.find(name).orElseThrow(() -> new UnsatisfiedLinkError(name));
+    }
+
+    /**
+     * This is a confined arena whose memory is held in a {@link NativeBuffer}
+     * per allocation, freed on the trace of the call when the arena is closed.
+     */
+    private static final class TracedArena implements Arena {
+
+        private final Arena arena = Arena.ofConfined();
+        private final Trace trace;
+        private final List<NativeBuffer> buffers = new ArrayList<>(2);
+
+        TracedArena(Trace trace) {
+            this.trace = trace;
+        }
+
+        @Override
+        public MemorySegment allocate(long byteSize, long byteAlignment) {
+            MemorySegment segment = arena.allocate(byteSize, byteAlignment);
+            // The memory itself goes with the arena
+            buffers.add(NativeBuffer.wrap(segment.address(), byteSize, trace, () -> {}));
+            return segment;
+        }
+
+        @Override
+        public MemorySegment.Scope scope() {
+            return arena.scope();
+        }
+
+        @Override
+        public void close() {
+            try {
+                for (NativeBuffer buffer : buffers) buffer.close();
+            }
+            finally {
+                arena.close();
+            }
+        }
+
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) return (RuntimeException) e;
+        if (e instanceof Error) throw (Error) e;
+        return new IllegalStateException(e);
+    }
+
+    @Override
+    String getName() {
+        return "ffm";
+    }
+
+    @Override
+    boolean getInfo(byte[] data, long dataSize, int[] size) {
+        int[] info = new int[2];
+        MemorySegment infoSegment = MemorySegment.ofArray(info);
+        try {
+            if ((int) getInfo.invokeExact(MemorySegment.ofArray(data), dataSize,
+                    infoSegment.asSlice(0, 4), infoSegment.asSlice(4, 4)) == 0) return false;
+        }
+        catch (Throwable e) {
+            throw rethrow(e);
+        }
+        size[0] = info[0];
+        size[1] = info[1];
+        return true;
+    }
+
+    @Override
+    boolean decodeInto(int mode, byte[] data, long dataSize, byte[] output, int stride, Trace trace) {
+        long outputSize = output.length;
+        try {
+            if (outputSize / MODE_BYTES[mode] <= CRITICAL_PIXELS) {
+                MemorySegment result = (MemorySegment) criticalDecodeInto[mode].invokeExact(MemorySegment.ofArray(data),
+                        dataSize, MemorySegment.ofArray(output), outputSize, stride);
+                return result.address() != 0;
+            }
+            try (Arena arena = new TracedArena(trace)) {
+                MemorySegment in = arena.allocate(dataSize);
+                MemorySegment.copy(data, 0, in, JAVA_BYTE, 0, (int) dataSize);
+                MemorySegment out = arena.allocate(outputSize);
+                MemorySegment result = (MemorySegment) decodeInto[mode].invokeExact(in, dataSize, out, outputSize, stride);
+                if (result.address() == 0) return false;
+                MemorySegment.copy(out, JAVA_BYTE, 0, output, 0, output.length);
+                return true;
+            }
+        }
+        catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    boolean decodeInto(int mode, byte[] data, long dataSize, int[] output, int stride, Trace trace) {
+        long outputSize = output.length * 4L;
+        try {
+            if (output.length <= CRITICAL_PIXELS) {
+                MemorySegment result = (MemorySegment) criticalDecodeInto[mode].invokeExact(MemorySegment.ofArray(data),
+                        dataSize, MemorySegment.ofArray(output), outputSize, stride);
+                return result.address() != 0;
+            }
+            try (Arena arena = new TracedArena(trace)) {
+                MemorySegment in = arena.allocate(dataSize);
+                MemorySegment.copy(data, 0, in, JAVA_BYTE, 0, (int) dataSize);
+                MemorySegment out = arena.allocate(outputSize, 4);
+                MemorySegment result = (MemorySegment) decodeInto[mode].invokeExact(in, dataSize, out, outputSize, stride);
+                if (result.address() == 0) return false;
+                MemorySegment.copy(out, JAVA_INT, 0, output, 0, output.length);
+                return true;
+            }
+        }
+        catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @Override
+    byte[] encode(int mode, boolean lossless, byte[] pixels, int width, int height, int stride, float quality, 
+            Trace trace) {
+        if ((long) width * height <= CRITICAL_PIXELS) {
+            return encode(mode, lossless, MemorySegment.ofArray(pixels), width, height, stride, quality, true, trace);
+        }
+        try (Arena arena = new TracedArena(trace)) {
+            MemorySegment in = arena.allocate(pixels.length);
+            MemorySegment.copy(pixels, 0, in, JAVA_BYTE, 0, pixels.length);
+            return encode(mode, lossless, in, width, height, stride, quality, false, trace);
+        }
+    }
+
+    @Override
+    byte[] encode(int mode, boolean lossless, int[] pixels, int width, int height, int stride, float quality, 
+            Trace trace) {
+        if ((long) width * height <= CRITICAL_PIXELS) {
+            return encode(mode, lossless, MemorySegment.ofArray(pixels), width, height, stride, quality, true, trace);
+        }
+        try (Arena arena = new TracedArena(trace)) {
+            MemorySegment in = arena.allocate(pixels.length * 4L, 4);
+            MemorySegment.copy(pixels, 0, in, JAVA_INT, 0, pixels.length);
+            return encode(mode, lossless, in, width, height, stride, quality, false, trace);
+        }
+    }
+
+    @Override
+    byte[] encode(int mode, boolean lossless, ByteBuffer pixels, int width, int height, int stride, float quality, 
+            Trace trace) {
+        // The segment of a direct buffer is native memory, so it is passed 
+        // as is whatever the size
+        return encode(mode, lossless, MemorySegment.ofBuffer(pixels), width, height, stride, quality, false, trace);
+    }
+
+    private byte[] encode(int mode, boolean lossless, MemorySegment pixels, int width, int height, int stride,
+            float quality, boolean critical, Trace trace) {
+        // The output pointer is written into a long, which a critical call
+        // can also take from the heap
+        long[] output = new long[1];
+        MemorySegment outputRef = critical ? MemorySegment.ofArray(output) : null;
+        try (Arena arena = critical ? null : Arena.ofConfined()) {
+            if (!critical) outputRef = arena.allocate(ADDRESS);
+            long size;
+            if (lossless) {
+                MethodHandle handle = critical ? criticalEncodeLossless[mode] : encodeLossless[mode];
+                size = (long) handle.invokeExact(pixels, width, height, stride, outputRef);
+            }
+            else {
+                MethodHandle handle = critical ? criticalEncode[mode] : encode[mode];
+                size = (long) handle.invokeExact(pixels, width, height, stride, quality, outputRef);
+            }
+            long address = critical ? output[0] : outputRef.get(ValueLayout.JAVA_LONG, 0);
+            if (address == 0) return null;
+            NativeBuffer webPBuffer = NativeBuffer.wrap(address, size, trace, () -> free(address));
+            try {
+                return size == 0 ? null : MemorySegment.ofAddress(address).reinterpret(size).toArray(JAVA_BYTE);
+            }
+            finally {
+                webPBuffer.close();
+            }
+        }
+        catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private void free(long address) {
+        try {
+            free.invokeExact(MemorySegment.ofAddress(address));
+        }
+        catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.tianscar.webp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.tianscar.webp.WebPTestFiles.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DemuxInputTest {
+
+    private static final byte[] FIELDS = { 'V', 'P', '8', 'X', 1, 2, 3, (byte) 0x84, 5, 6, 7, 8, 9, 10, 11,
+            (byte) 0xFF, (byte) 0xFE, 12, (byte) 0x80 };
+
+    private static final class TrackedStream extends ByteArrayInputStream {
+        boolean closed;
+
+        TrackedStream(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteBuffer buffer = ByteBuffer.allocate(Arrays.stream(parts).mapToInt(part -> part.length).sum());
+        for (byte[] part : parts) buffer.put(part);
+        return buffer.array();
+    }
+
+    private static void assertReadsFields(DemuxInput input) throws IOException {
+        assertArrayEquals("VP8X".getBytes(), input.readFourCC());
+        assertEquals(0x84030201L, input.readUInt32());
+        assertEquals(0x08070605, input.readInt32());
+        assertEquals(0x0B0A09, input.readUInt24());
+        assertEquals(0xFEFF, input.readUInt16());
+        input.skip(1);
+        assertEquals(0x80, input.readInt8());
+        assertThrows(EOFException.class, input::readInt8);
+        input.finish();
+    }
+
+    @Test
+    public void streamAndBufferReadTheSameFields() throws IOException {
+        assertReadsFields(DemuxInput.of(new ByteArrayInputStream(FIELDS), true));
+        assertReadsFields(DemuxInput.of(ByteBuffer.wrap(FIELDS), false));
+    }
+
+    @Test
+    public void bufferReadsPastTheEndFail() throws IOException {
+        DemuxInput input = DemuxInput.of(ByteBuffer.wrap(FIELDS, 0, 6), false);
+        input.readFourCC();
+        assertThrows(EOFException.class, input::readUInt32);
+        assertThrows(EOFException.class, () -> input.skip(3));
+        assertThrows(EOFException.class, () -> input.readPayload(3));
+        assertThrows(IllegalArgumentException.class, () -> input.skip(-1));
+        input.skip(2);
+    }
+
+    @Test
+    public void negativeSkipsFailOnStreamsToo() {
+        DemuxInput input = DemuxInput.of(new ByteArrayInputStream(FIELDS), false);
+        assertThrows(IllegalArgumentException.class, () -> input.skip(-1));
+    }
+
+    /**
+     * This checks that a file fails on both inputs, and that the stream is
+     * not read past the end of the RIFF even then.
+     */
+    private static void assertMalformed(byte[] file) throws IOException {
+        TrackedStream stream = new TrackedStream(concat(file, new byte[] { 7, 8 }));
+        assertThrows(IOException.class, () -> WebPFactory.demux(stream, new WebPDemuxLimits(), false));
+        assertTrue(stream.available() >= 2);
+        ByteBuffer buffer = ByteBuffer.wrap(concat(file, new byte[] { 7, 8 }));
+        assertThrows(IOException.class, () -> WebPFactory.demux(buffer));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void padsLeftOutOfTheRIFFAreRejected() throws IOException {
+        // The RIFF size of 17 counts the 5 bytes of the VP8L payload but not its pad
+        byte[] simple = riff(chunk("VP8L", new byte[] { 0x2f, 0, 0, 0, 0 }));
+        simple[4] = 17;
+        assertMalformed(Arrays.copyOf(simple, simple.length - 1));
+        // The ANMF size of 29 leaves out the pad of its VP8L subchunk, which would take the ANMF pad as its own
+        byte[] frame = anmf(8, 8, 100, vp8l(false));
+        frame[4] = 29;
+        assertMalformed(riff(vp8x(VP8XChunk.FLAG_ANIM, 8, 8), chunk("ANIM", new byte[6]), frame));
+    }
+
+    @Test
+    public void bufferPayloadsAreCopiedOrShared() throws IOException {
+        byte[] data = FIELDS.clone();
+        ByteBuffer copy = DemuxInput.of(ByteBuffer.wrap(data, 4, 8), false).readPayload(4);
+        ByteBuffer shared = DemuxInput.of(ByteBuffer.wrap(data, 4, 8), true).readPayload(4);
+        data[4] = 42;
+        assertEquals(1, copy.get(0));
+        assertEquals(42, shared.get(0));
+        assertEquals(4, shared.remaining());
+    }
+
+    @Test
+    public void bufferMovesPastTheRIFFOnlyWhenFinished() throws IOException {
+        byte[] file = riff(chunk("VP8L", new byte[] { 0x2f, 0, 0, 0, 0 }));
+        ByteBuffer buffer = ByteBuffer.wrap(concat(file, file, new byte[] { 1, 2 }));
+        WebPChunk first = WebPFactory.demux(buffer);
+        assertEquals(file.length, buffer.position());
+        WebPChunk second = WebPFactory.demux(buffer);
+        assertEquals(file.length * 2, buffer.position());
+        assertEquals(2, buffer.remaining());
+        assertTrue(first.subchunks().get(0) instanceof VP8LChunk);
+        assertTrue(second.subchunks().get(0) instanceof VP8LChunk);
+        DemuxInput input = DemuxInput.of(buffer, false);
+        input.readUInt16();
+        assertEquals(2, buffer.remaining());
+    }
+
+    @Test
+    public void arraysAreParsedInPlace() throws IOException {
+        byte[] file = riff(chunk("VP8L", new byte[] { 0x2f, 0, 0, 0, 0 }));
+        byte[] data = concat(new byte[3], file, new byte[5]);
+        WebPChunk copied = WebPFactory.demux(data, 3, file.length);
+        WebPChunk shared = WebPFactory.demux(data, 3, file.length, new WebPDemuxLimits(), true);
+        data[3 + 12 + 8] = 0x11;
+        assertEquals(0x2f, ((VP8LChunk) copied.subchunks().get(0)).getData().get(0));
+        assertEquals(0x11, ((VP8LChunk) shared.subchunks().get(0)).getData().get(0));
+        assertThrows(IndexOutOfBoundsException.class, () -> WebPFactory.demux(data, 3, data.length));
+        assertThrows(EOFException.class, () -> WebPFactory.demux(data, 3, file.length - 1));
+    }
+
+    @Test
+    public void streamsCanBeLeftOpenAfterTheRIFF() throws IOException {
+        byte[] file = riff(vp8x(VP8XChunk.FLAG_ANIM, 8, 8), chunk("ANIM", new byte[6]), anmf(8, 8, 100, vp8()));
+        TrackedStream open = new TrackedStream(concat(file, new byte[] { 7, 8 }));
+        WebPFactory.demux(open, new WebPDemuxLimits(), false);
+        assertFalse(open.closed);
+        assertEquals(7, open.read());
+        TrackedStream closed = new TrackedStream(file);
+        WebPFactory.demux(closed);
+        assertTrue(closed.closed);
+    }
+
+}
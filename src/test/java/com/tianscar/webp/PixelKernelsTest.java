@@ -0,0 +1,150 @@
+package com.tianscar.webp;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * These check that the Vector API kernels give the same pixels as the scalar
+ * ones. They only run on Java 17 and later with the {@code
+ * jdk.incubator.vector} module added and the Java 17 classes on the class
+ * path, which the build does with -Pjava17.
+ */
+public class PixelKernelsTest {
+
+    private static final PixelKernels SCALAR = new PixelKernels();
+
+    private interface IntKernel {
+        void apply(PixelKernels kernels, int[] src, int srcOffset, int[] dst, int dstOffset, int pixels);
+    }
+
+    private interface ByteKernel {
+        void apply(PixelKernels kernels, byte[] src, int srcOffset, byte[] dst, int dstOffset, int pixels);
+    }
+
+    private static PixelKernels vector() {
+        assumeTrue(PixelKernels.INSTANCE.isVectorized(), "The Vector API kernels are not loaded");
+        return PixelKernels.INSTANCE;
+    }
+
+    /**
+     * This returns a pixel for each alpha and each value of the color
+     * channels, which go through all 256 values in a different order each.
+     */
+    private static int[] allAlphasAndChannels() {
+        int[] pixels = new int[256 * 256];
+        for (int i = 0; i < pixels.length; i ++) {
+            pixels[i] = (i >>> 8) << 24 | color(i & 0xFF);
+        }
+        return pixels;
+    }
+
+    private static int color(int value) {
+        return value << 16 | (255 - value) << 8 | (value * 7 & 0xFF);
+    }
+
+    private static byte[] toBytes(int[] pixels) {
+        ByteBuffer bytes = ByteBuffer.allocate(pixels.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asIntBuffer().put(pixels);
+        return bytes.array();
+    }
+
+    /**
+     * This runs a kernel over the whole arrays, and again from an offset
+     * that leaves a few pixels to the scalar loop at the end.
+     */
+    private static void assertSameInts(PixelKernels vector, IntKernel kernel, int[] src, int[] dst, String message) {
+        for (int offset : new int[] { 0, 3 }) {
+            int[] expected = dst.clone();
+            int[] actual = dst.clone();
+            kernel.apply(SCALAR, src, offset, expected, offset, src.length - offset);
+            kernel.apply(vector, src, offset, actual, offset, src.length - offset);
+            assertArrayEquals(expected, actual, message + " at offset " + offset);
+        }
+    }
+
+    private static void assertSameBytes(PixelKernels vector, ByteKernel kernel, byte[] src, int srcPixelSize,
+            int dstPixelSize, String message) {
+        int pixels = src.length / srcPixelSize;
+        for (int offset : new int[] { 0, 3 }) {
+            byte[] expected = new byte[pixels * dstPixelSize];
+            byte[] actual = new byte[pixels * dstPixelSize];
+            kernel.apply(SCALAR, src, offset * srcPixelSize, expected, offset * dstPixelSize, pixels - offset);
+            kernel.apply(vector, src, offset * srcPixelSize, actual, offset * dstPixelSize, pixels - offset);
+            assertArrayEquals(expected, actual, message + " at offset " + offset);
+        }
+    }
+
+    @Test
+    public void premultiplyMatchesScalar() {
+        PixelKernels vector = vector();
+        int[] pixels = allAlphasAndChannels();
+        assertSameInts(vector, PixelKernels::premultiply, pixels, new int[pixels.length], "premultiply");
+    }
+
+    @Test
+    public void unpremultiplyMatchesScalar() {
+        PixelKernels vector = vector();
+        int[] pixels = allAlphasAndChannels();
+        // Channels above alpha are not premultiplied, but must still be clamped the same way
+        assertSameInts(vector, PixelKernels::unpremultiply, pixels, new int[pixels.length], "unpremultiply");
+        for (int i = 0; i < pixels.length; i ++) pixels[i] = PixelKernels.premultiply(pixels[i]);
+        assertSameInts(vector, PixelKernels::unpremultiply, pixels, new int[pixels.length], "unpremultiply");
+    }
+
+    @Test
+    public void blendMatchesScalar() {
+        PixelKernels vector = vector();
+        int[] src = new int[256 * 256];
+        int[] dst = allAlphasAndChannels();
+        for (int srcA = 0; srcA < 256; srcA ++) {
+            for (int i = 0; i < src.length; i ++) src[i] = srcA << 24 | color(255 - (i & 0xFF));
+            assertSameInts(vector, PixelKernels::blend, src, dst, "blend with source alpha " + srcA);
+        }
+    }
+
+    @Test
+    public void blendPremultipliedMatchesScalar() {
+        PixelKernels vector = vector();
+        int[] src = new int[256 * 256];
+        int[] dst = allAlphasAndChannels();
+        for (int i = 0; i < dst.length; i ++) dst[i] = PixelKernels.premultiply(dst[i]);
+        for (int srcA = 0; srcA < 256; srcA ++) {
+            for (int i = 0; i < src.length; i ++) src[i] = PixelKernels.premultiply(srcA << 24 | color(255 - (i & 0xFF)));
+            assertSameInts(vector, PixelKernels::blendPremultiplied, src, dst, "blendPremultiplied with source alpha " + srcA);
+        }
+    }
+
+    @Test
+    public void swapRedBlueMatchesScalar() {
+        PixelKernels vector = vector();
+        int[] pixels = allAlphasAndChannels();
+        assertSameInts(vector, PixelKernels::swapRedBlue, pixels, new int[pixels.length], "swapRedBlue");
+    }
+
+    @Test
+    public void swizzleMatchesScalar() {
+        PixelKernels vector = vector();
+        byte[] pixels = toBytes(allAlphasAndChannels());
+        int[][] orders = { { 0, 1, 2, 3 }, { 2, 1, 0, 3 }, { 3, 0, 1, 2 }, { 1, 2, 3, 0 }, PixelKernels.REVERSE };
+        for (int[] order : orders) {
+            assertSameBytes(vector, (kernels, src, srcOffset, dst, dstOffset, count)
+                    -> kernels.swizzle(src, srcOffset, dst, dstOffset, count, order), pixels, 4, 4, "swizzle");
+        }
+    }
+
+    @Test
+    public void expandAndStripMatchScalar() {
+        PixelKernels vector = vector();
+        byte[] pixels = toBytes(allAlphasAndChannels());
+        assertSameBytes(vector, PixelKernels::strip, pixels, 4, 3, "strip");
+        byte[] rgb = new byte[pixels.length / 4 * 3];
+        SCALAR.strip(pixels, 0, rgb, 0, pixels.length / 4);
+        assertSameBytes(vector, PixelKernels::expand, rgb, 3, 4, "expand");
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.tianscar.webp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static com.tianscar.webp.WebPTestFiles.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebPAnimationEditorTest {
+
+    private static int vp8xFlags(FileChannel channel) throws IOException {
+        List<ChannelChunk> chunks = ChannelChunk.scan(channel);
+        assertTrue(chunks.get(0).is(VP8XChunk.VP8X));
+        return Util.toInt32(chunks.get(0).readPayload(channel, 4));
+    }
+
+    private static Path edit(byte[] file, EditorAction action) throws IOException {
+        Path source = Files.createTempFile("editor", ".webp");
+        Path target = Files.createTempFile("edited", ".webp");
+        try {
+            Files.write(source, file);
+            try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+                WebPAnimationEditor editor = new WebPAnimationEditor(channel);
+                action.apply(editor);
+                editor.write(target);
+            }
+            return target;
+        }
+        finally {
+            Files.delete(source);
+        }
+    }
+
+    private interface EditorAction {
+        void apply(WebPAnimationEditor editor);
+    }
+
+    @Test
+    public void riffSizeCountsTheWrittenANIMChunk() throws IOException {
+        // An ANIM chunk with 2 bytes past its 6 byte payload is rewritten to 6 bytes
+        byte[] anim = chunk("ANIM", new byte[] { 1, 2, 3, 4, 5, 0, 9, 9 });
+        byte[] file = riff(vp8x(VP8XChunk.FLAG_ANIM, 4, 4), anim, anmf(4, 4, 100, vp8()), anmf(4, 4, 100, vp8()));
+        Path target = edit(file, editor -> editor.setLoopCount(3));
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            assertEquals(file.length - 2, channel.size());
+            List<ChannelChunk> chunks = ChannelChunk.scan(channel);
+            assertEquals(4, chunks.size());
+            assertTrue(chunks.get(1).is(ANIMChunk.ANIM));
+            assertEquals(6, chunks.get(1).size);
+            byte[] payload = chunks.get(1).readPayload(channel, 6);
+            assertEquals(3, payload[4] | payload[5] << 8);
+        }
+        finally {
+            Files.delete(target);
+        }
+    }
+
+    @Test
+    public void riffSizeFollowsRemovedFrames() throws IOException {
+        byte[] dropped = anmf(4, 4, 100, vp8l(false));
+        byte[] file = riff(vp8x(VP8XChunk.FLAG_ANIM, 4, 4), chunk("ANIM", new byte[6]), anmf(4, 4, 100, vp8()),
+                dropped, chunk("EXIF", new byte[3]));
+        Path target = edit(file, editor -> editor.removeFrame(1));
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            assertEquals(file.length - dropped.length, channel.size());
+            List<ChannelChunk> chunks = ChannelChunk.scan(channel);
+            assertEquals(4, chunks.size());
+            assertTrue(chunks.get(3).is("EXIF".getBytes()));
+        }
+        finally {
+            Files.delete(target);
+        }
+    }
+
+    @Test
+    public void alphaFlagIsClearedWithTheLastAlphaFrame() throws IOException {
+        byte[] file = riff(vp8x(VP8XChunk.FLAG_ANIM | VP8XChunk.FLAG_ALPH, 4, 4), chunk("ANIM", new byte[6]),
+                anmf(4, 4, 100, chunk("ALPH", new byte[1]), vp8()), anmf(4, 4, 100, vp8l(true)),
+                anmf(4, 4, 100, vp8l(false)));
+        Path kept = edit(file, editor -> editor.removeFrame(0));
+        Path dropped = edit(file, editor -> editor.retainFrames(2, 3));
+        try (FileChannel keptChannel = FileChannel.open(kept, StandardOpenOption.READ);
+             FileChannel droppedChannel = FileChannel.open(dropped, StandardOpenOption.READ)) {
+            assertEquals(VP8XChunk.FLAG_ANIM | VP8XChunk.FLAG_ALPH, vp8xFlags(keptChannel));
+            assertEquals(VP8XChunk.FLAG_ANIM, vp8xFlags(droppedChannel));
+        }
+        finally {
+            Files.delete(kept);
+            Files.delete(dropped);
+        }
+    }
+
+    @Test
+    public void alphaFlagIsSetFromTheFrames() throws IOException {
+        byte[] file = riff(vp8x(VP8XChunk.FLAG_ANIM | VP8XChunk.FLAG_EXIF, 4, 4), chunk("ANIM", new byte[6]),
+                anmf(4, 4, 100, vp8()), anmf(4, 4, 100, chunk("ALPH", new byte[1]), vp8()));
+        Path target = edit(file, editor -> editor.moveFrame(1, 0));
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            assertEquals(VP8XChunk.FLAG_ANIM | VP8XChunk.FLAG_EXIF | VP8XChunk.FLAG_ALPH, vp8xFlags(channel));
+        }
+        finally {
+            Files.delete(target);
+        }
+    }
+
+}
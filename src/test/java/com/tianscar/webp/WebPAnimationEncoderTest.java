@@ -0,0 +1,58 @@
+package com.tianscar.webp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebPAnimationEncoderTest {
+
+    @Test
+    public void emptyPixelsHaveNoColors() {
+        assertEquals(0, WebPAnimationEncoder.countColors(new int[0], 257));
+    }
+
+    @Test
+    public void repeatedColorsAreCountedOnce() {
+        int[] argb = { 0xFF000000, 0xFF000000, 0xFFFFFFFF, 0xFF000000, 0xFFFFFFFF, 0xFFFFFFFF, 0 };
+        assertEquals(3, WebPAnimationEncoder.countColors(argb, 257));
+    }
+
+    @Test
+    public void runsStartingWithZeroAreCounted() {
+        // 0 is also the color before the first pixel, which must not skip it
+        assertEquals(1, WebPAnimationEncoder.countColors(new int[] { 0, 0, 0 }, 257));
+        assertEquals(2, WebPAnimationEncoder.countColors(new int[] { 0, 0, 1, 1 }, 257));
+    }
+
+    @Test
+    public void countingStopsAtTheLimit() {
+        int[] argb = new int[1000];
+        for (int i = 0; i < argb.length; i ++) argb[i] = 0xFF000000 | i;
+        assertEquals(257, WebPAnimationEncoder.countColors(argb, 257));
+        assertEquals(1000, WebPAnimationEncoder.countColors(argb, 1001));
+        assertEquals(1, WebPAnimationEncoder.countColors(argb, 1));
+    }
+
+    @Test
+    public void colorsThatShareSlotsAreAllCounted() {
+        // With hundreds of random colors in the set, many probe past a used slot
+        Random random = new Random(42);
+        for (int colors : new int[] { 3, 100, 256, 257 }) {
+            int[] palette = new int[colors];
+            for (int i = 0; i < colors; i ++) palette[i] = random.nextInt();
+            int[] argb = new int[colors * 8];
+            Set<Integer> distinct = new HashSet<>();
+            for (int i = 0; i < argb.length; i ++) {
+                argb[i] = palette[random.nextInt(colors)];
+                distinct.add(argb[i]);
+            }
+            assertEquals(distinct.size(), WebPAnimationEncoder.countColors(argb, 1024), colors + " colors");
+            assertEquals(Math.min(distinct.size(), 257), WebPAnimationEncoder.countColors(argb, 257), colors + " colors");
+        }
+    }
+
+}
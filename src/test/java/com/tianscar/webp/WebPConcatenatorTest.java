@@ -0,0 +1,149 @@
+package com.tianscar.webp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.tianscar.webp.WebPTestFiles.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebPConcatenatorTest {
+
+    private static Path concatenate(WebPConcatenatorAction action, byte[]... sources) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        List<FileChannel> channels = new ArrayList<>();
+        Path target = Files.createTempFile("joined", ".webp");
+        try {
+            WebPConcatenator concatenator = new WebPConcatenator();
+            for (byte[] source : sources) {
+                Path path = Files.createTempFile("source", ".webp");
+                paths.add(path);
+                Files.write(path, source);
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                channels.add(channel);
+                concatenator.add(channel);
+            }
+            action.apply(concatenator);
+            concatenator.write(target);
+            return target;
+        }
+        finally {
+            for (FileChannel channel : channels) channel.close();
+            for (Path path : paths) Files.delete(path);
+        }
+    }
+
+    private interface WebPConcatenatorAction {
+        void apply(WebPConcatenator concatenator);
+    }
+
+    /**
+     * This reads the x, y, width, height, duration and flags of each frame.
+     */
+    private static List<int[]> frames(FileChannel channel, List<ChannelChunk> chunks) throws IOException {
+        List<int[]> frames = new ArrayList<>();
+        for (ChannelChunk chunk : chunks) {
+            if (!chunk.is(ANMFChunk.ANMF)) continue;
+            byte[] header = chunk.readPayload(channel, 16);
+            frames.add(new int[] { ChannelChunk.uint24(header, 0), ChannelChunk.uint24(header, 3),
+                    ChannelChunk.uint24(header, 6) + 1, ChannelChunk.uint24(header, 9) + 1,
+                    ChannelChunk.uint24(header, 12), header[15] & 0xFF });
+        }
+        return frames;
+    }
+
+    @Test
+    public void riffSizeCoversEveryFrame() throws IOException {
+        byte[] first = riff(vp8x(VP8XChunk.FLAG_ANIM, 8, 8), chunk("ANIM", new byte[6]),
+                anmf(8, 8, 100, vp8()), anmf(8, 8, 50, chunk("ALPH", new byte[3]), vp8()));
+        byte[] second = riff(vp8x(VP8XChunk.FLAG_ANIM, 8, 8), chunk("ANIM", new byte[6]),
+                anmf(8, 8, 70, vp8l(true)), chunk("EXIF", new byte[5]));
+        Path target = concatenate(concatenator -> { }, first, second);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            List<ChannelChunk> chunks = ChannelChunk.scan(channel);
+            // The frames are carried over as they are, the EXIF chunk is not
+            long frameBytes = 0;
+            for (ChannelChunk chunk : chunks) if (chunk.is(ANMFChunk.ANMF)) frameBytes += chunk.getFullSize();
+            assertEquals(12 + 18 + 14 + frameBytes, channel.size());
+            assertEquals((24 + 18) + (24 + 12 + 18) + (24 + 14), frameBytes);
+            assertEquals(5, chunks.size());
+            List<int[]> frames = frames(channel, chunks);
+            assertEquals(100, frames.get(0)[4]);
+            assertEquals(50, frames.get(1)[4]);
+            assertEquals(70, frames.get(2)[4]);
+            assertEquals(ANMFChunk.FLAG_NO_BLEND, frames.get(2)[5] & ANMFChunk.BLENDING_MASK);
+        }
+        finally {
+            Files.delete(target);
+        }
+    }
+
+    @Test
+    public void smallerSourcesAreCenteredOnTheCanvas() throws IOException {
+        byte[] small = riff(vp8x(VP8XChunk.FLAG_ANIM, 4, 4), chunk("ANIM", new byte[6]), anmf(4, 4, 100, vp8()));
+        byte[] large = riff(vp8x(VP8XChunk.FLAG_ANIM, 12, 8), chunk("ANIM", new byte[6]), anmf(12, 8, 100, vp8()));
+        Path target = concatenate(concatenator -> { }, small, large);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            List<ChannelChunk> chunks = ChannelChunk.scan(channel);
+            byte[] vp8x = chunks.get(0).readPayload(channel, 10);
+            assertEquals(12, ChannelChunk.uint24(vp8x, 4) + 1);
+            assertEquals(8, ChannelChunk.uint24(vp8x, 7) + 1);
+            List<int[]> frames = frames(channel, chunks);
+            // Offsets are in units of 2 pixels
+            assertArrayEquals(new int[] { 2, 1, 4, 4 }, Arrays.copyOf(frames.get(0), 4));
+            assertArrayEquals(new int[] { 0, 0, 12, 8 }, Arrays.copyOf(frames.get(1), 4));
+        }
+        finally {
+            Files.delete(target);
+        }
+    }
+
+    @Test
+    public void stillImagesBecomeFrames() throws IOException {
+        byte[] still = riff(vp8x(VP8XChunk.FLAG_ALPH, 4, 4), chunk("ALPH", new byte[3]), chunk("VP8 ", vp8Header(4, 4)));
+        byte[] lossless = riff(chunk("VP8L", vp8lHeader(4, 4)));
+        Path target = concatenate(concatenator -> concatenator.setStillFrameDuration(250).setLoopCount(2), still, lossless);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+            List<ChannelChunk> chunks = ChannelChunk.scan(channel);
+            assertEquals(4, chunks.size());
+            // The ALPH chunk and the bitstream are both carried over
+            assertEquals(8 + 16 + (8 + 4) + (8 + 10), chunks.get(2).getFullSize());
+            assertEquals(8 + 16 + (8 + 5 + 1), chunks.get(3).getFullSize());
+            long size = 12;
+            for (ChannelChunk chunk : chunks) size += chunk.getFullSize();
+            assertEquals(channel.size(), size);
+            List<int[]> frames = frames(channel, chunks);
+            assertEquals(250, frames.get(0)[4]);
+            assertEquals(250, frames.get(1)[4]);
+            byte[] anim = chunks.get(1).readPayload(channel, 6);
+            assertEquals(2, anim[4]);
+        }
+        finally {
+            Files.delete(target);
+        }
+    }
+
+    /**
+     * This returns the start of a VP8 key frame of the given size.
+     */
+    private static byte[] vp8Header(int width, int height) {
+        return new byte[] { 0, 0, 0, (byte) 0x9d, 0x01, 0x2a, (byte) width, (byte) (width >> 8),
+                (byte) height, (byte) (height >> 8) };
+    }
+
+    /**
+     * This returns the header of a VP8L bitstream of the given size.
+     */
+    private static byte[] vp8lHeader(int width, int height) {
+        int bits = (width - 1) | (height - 1) << 14;
+        return new byte[] { 0x2f, (byte) bits, (byte) (bits >> 8), (byte) (bits >> 16), (byte) (bits >> 24) };
+    }
+
+}
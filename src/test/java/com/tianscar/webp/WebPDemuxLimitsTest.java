@@ -0,0 +1,124 @@
+package com.tianscar.webp;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.tianscar.webp.WebPTestFiles.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebPDemuxLimitsTest {
+
+    private static WebPChunk demux(byte[] file, WebPDemuxLimits limits) throws IOException {
+        return WebPFactory.demux(new ByteArrayInputStream(file), limits);
+    }
+
+    private static byte[] animation(int frames) {
+        byte[][] chunks = new byte[2 + frames][];
+        chunks[0] = vp8x(VP8XChunk.FLAG_ANIM, 8, 8);
+        chunks[1] = chunk("ANIM", new byte[6]);
+        for (int i = 0; i < frames; i ++) chunks[2 + i] = anmf(8, 4, 100, vp8());
+        return riff(chunks);
+    }
+
+    /**
+     * This returns a RIFF header that declares the given size, followed by
+     * only the given bytes.
+     */
+    private static byte[] truncated(long riffSize, byte[]... chunks) {
+        byte[] file = riff(chunks);
+        ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN).putInt(4, (int) riffSize);
+        return file;
+    }
+
+    @Test
+    public void nothingIsLimitedByDefault() throws IOException {
+        WebPChunk webP = demux(animation(3), new WebPDemuxLimits());
+        assertEquals(5, webP.subchunks().size());
+    }
+
+    @Test
+    public void totalBytesAreCheckedAgainstTheRIFFHeader() {
+        // The file is short, but claims 1 GB
+        byte[] file = truncated(1 << 30, vp8x(VP8XChunk.FLAG_ANIM, 8, 8));
+        IOException e = assertThrows(IOException.class, () -> demux(file, new WebPDemuxLimits().setMaxTotalBytes(1 << 20)));
+        assertTrue(e.getMessage().contains("exceeds the limit"), e.getMessage());
+    }
+
+    @Test
+    public void frameCountIsLimited() throws IOException {
+        assertEquals(5, demux(animation(3), new WebPDemuxLimits().setMaxFrames(3)).subchunks().size());
+        IOException e = assertThrows(IOException.class, () -> demux(animation(3), new WebPDemuxLimits().setMaxFrames(2)));
+        assertTrue(e.getMessage().contains("Frame count"), e.getMessage());
+    }
+
+    @Test
+    public void canvasAndFramePixelsAreLimited() throws IOException {
+        demux(animation(1), new WebPDemuxLimits().setMaxCanvasPixels(64).setMaxFramePixels(32));
+        assertThrows(IOException.class, () -> demux(animation(1), new WebPDemuxLimits().setMaxCanvasPixels(63)));
+        assertThrows(IOException.class, () -> demux(animation(1), new WebPDemuxLimits().setMaxFramePixels(31)));
+    }
+
+    @Test
+    public void simpleFilesAreLimitedByTheirBitstream() throws IOException {
+        int bits = (100 - 1) | (50 - 1) << 14;
+        byte[] file = riff(chunk("VP8L", new byte[] { 0x2f, (byte) bits, (byte) (bits >> 8), (byte) (bits >> 16),
+                (byte) (bits >> 24) }));
+        demux(file, new WebPDemuxLimits().setMaxCanvasPixels(5000));
+        assertThrows(IOException.class, () -> demux(file, new WebPDemuxLimits().setMaxCanvasPixels(4999)));
+    }
+
+    @Test
+    public void chunkBytesAreLimited() throws IOException {
+        byte[] file = riff(vp8x(VP8XChunk.FLAG_ANIM, 8, 8), chunk("ANIM", new byte[6]),
+                anmf(8, 8, 100, chunk("VP8 ", new byte[100])));
+        demux(file, new WebPDemuxLimits().setMaxChunkBytes(100 + 16 + 8));
+        // The frame fits, its bitstream does not
+        assertThrows(IOException.class, () -> demux(file, new WebPDemuxLimits().setMaxChunkBytes(99 + 16 + 8)));
+    }
+
+    @Test
+    public void chunksMayNotExceedTheirParent() {
+        byte[] anim = chunk("ANIM", new byte[6]);
+        // The chunk claims more than the RIFF has left
+        ByteBuffer.wrap(anim).order(ByteOrder.LITTLE_ENDIAN).putInt(4, 1 << 20);
+        byte[] file = riff(vp8x(VP8XChunk.FLAG_ANIM, 8, 8), anim);
+        IOException e = assertThrows(IOException.class, () -> demux(file, new WebPDemuxLimits()));
+        assertTrue(e.getMessage().contains("exceeds its parent"), e.getMessage());
+    }
+
+    @Test
+    public void truncatedPayloadsFailWithoutTheirDeclaredSize() {
+        // The RIFF and the chunk both claim 256 MB, of which a few bytes arrive
+        byte[] exif = chunk("EXIF", new byte[16]);
+        ByteBuffer.wrap(exif).order(ByteOrder.LITTLE_ENDIAN).putInt(4, 1 << 28);
+        byte[] file = truncated((1 << 28) + 64, vp8x(VP8XChunk.FLAG_ANIM, 8, 8), exif);
+        assertThrows(EOFException.class, () -> demux(file, new WebPDemuxLimits()));
+    }
+
+    @Test
+    public void oddSubchunksArePaddedOneByOne() throws IOException {
+        byte[] file = riff(vp8x(VP8XChunk.FLAG_ANIM | VP8XChunk.FLAG_ALPH, 8, 8), chunk("ANIM", new byte[6]),
+                anmf(8, 8, 100, chunk("ALPH", new byte[3]), chunk("VP8 ", new byte[5])), anmf(8, 8, 100, vp8()));
+        WebPChunk webP = demux(file, new WebPDemuxLimits());
+        ANMFChunk first = (ANMFChunk) webP.subchunks().get(2);
+        assertEquals(2, first.subchunks().size());
+        assertEquals(3, ((ALPHChunk) first.subchunks().get(0)).getRawData().length);
+        assertEquals(5, ((VP8Chunk) first.subchunks().get(1)).getRawData().length);
+        assertTrue(webP.subchunks().get(3) instanceof ANMFChunk);
+    }
+
+    @Test
+    public void limitsMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new WebPDemuxLimits().setMaxFrames(0));
+        assertThrows(IllegalArgumentException.class, () -> new WebPDemuxLimits().setMaxChunkBytes(0));
+        assertThrows(IllegalArgumentException.class, () -> new WebPDemuxLimits().setMaxCanvasPixels(-1));
+        assertThrows(IllegalArgumentException.class, () -> new WebPDemuxLimits().setMaxFramePixels(0));
+        assertThrows(IllegalArgumentException.class, () -> new WebPDemuxLimits().setMaxTotalBytes(0));
+    }
+
+}
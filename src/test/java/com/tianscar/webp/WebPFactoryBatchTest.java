@@ -0,0 +1,69 @@
+package com.tianscar.webp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebPFactoryBatchTest {
+
+    private static List<int[]> ranges(int count) {
+        List<int[]> ranges = Collections.synchronizedList(new ArrayList<>());
+        WebPFactory.runBatch(count, (from, to) -> ranges.add(new int[] { from, to }));
+        List<int[]> sorted = new ArrayList<>(ranges);
+        sorted.sort((a, b) -> Integer.compare(a[0], b[0]));
+        return sorted;
+    }
+
+    @Test
+    public void rangesCoverTheBatchOnce() {
+        for (int count : new int[] { 1, 2, 3, 7, 64, 100, 1001 }) {
+            List<int[]> ranges = ranges(count);
+            int next = 0;
+            for (int[] range : ranges) {
+                assertEquals(next, range[0], "start of a range of " + count);
+                assertTrue(range[1] > range[0], "empty range of " + count);
+                next = range[1];
+            }
+            assertEquals(count, next, "end of the ranges of " + count);
+        }
+    }
+
+    @Test
+    public void rangesAreBalancedAndBounded() {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        for (int count : new int[] { 5, 100, 1001, 100000 }) {
+            List<int[]> ranges = ranges(count);
+            assertTrue(ranges.size() <= Math.max(1, parallelism * 4), ranges.size() + " ranges for " + count);
+            if (parallelism > 1) assertEquals(Math.min(count, parallelism * 4), ranges.size());
+            int min = Integer.MAX_VALUE, max = 0;
+            for (int[] range : ranges) {
+                min = Math.min(min, range[1] - range[0]);
+                max = Math.max(max, range[1] - range[0]);
+            }
+            assertTrue(max - min <= 1, "ranges of " + min + " to " + max + " items for " + count);
+        }
+    }
+
+    @Test
+    public void emptyBatchRunsOneEmptyRange() {
+        List<int[]> ranges = ranges(0);
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new int[] { 0, 0 }, ranges.get(0));
+    }
+
+    @Test
+    public void failuresAreRethrownUnwrapped() {
+        IllegalStateException failure = new IllegalStateException("range failed");
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> WebPFactory.runBatch(100,
+                (from, to) -> {
+                    if (from == 0) throw failure;
+                }));
+        assertSame(failure, thrown);
+    }
+
+}
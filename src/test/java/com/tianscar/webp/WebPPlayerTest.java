@@ -0,0 +1,65 @@
+package com.tianscar.webp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebPPlayerTest {
+
+    /**
+     * This returns a player of an animation with the given frame durations,
+     * which is never started, so its frames are never decoded.
+     */
+    private static WebPPlayer player(int... durations) {
+        Chunk[] chunks = new Chunk[2 + durations.length];
+        chunks[0] = new VP8XChunk(VP8XChunk.FLAG_ANIM, 8, 8);
+        chunks[1] = new ANIMChunk(0, 0);
+        for (int i = 0; i < durations.length; i ++) {
+            chunks[2 + i] = new ANMFChunk(0, 0, 8, 8, durations[i], ANMFChunk.FLAG_NO_BLEND, new VP8Chunk(new byte[10]));
+        }
+        return new WebPPlayer(new WebPChunk(chunks), (player, canvas, index, time) -> { });
+    }
+
+    @Test
+    public void framesStartAfterTheLoopsBeforeThem() {
+        WebPPlayer player = player(100, 0, 50, 50);
+        assertEquals(0, player.timeOf(0));
+        assertEquals(100, player.timeOf(1));
+        assertEquals(100, player.timeOf(2));
+        assertEquals(150, player.timeOf(3));
+        assertEquals(200, player.timeOf(4));
+        assertEquals(350, player.timeOf(7));
+        assertEquals(200L * 1000, player.timeOf(4000));
+    }
+
+    @Test
+    public void theFrameShownAtATimeIsTheLastThatStarted() {
+        WebPPlayer player = player(100, 0, 50, 50);
+        assertEquals(0, player.sequenceAt(0));
+        assertEquals(0, player.sequenceAt(99));
+        // The frame of 0 ms is never due, the one that starts with it is
+        assertEquals(2, player.sequenceAt(100));
+        assertEquals(2, player.sequenceAt(149));
+        assertEquals(3, player.sequenceAt(150));
+        assertEquals(3, player.sequenceAt(199));
+        assertEquals(4, player.sequenceAt(200));
+        assertEquals(6, player.sequenceAt(305));
+    }
+
+    @Test
+    public void sequencesAndTimesRoundTrip() {
+        WebPPlayer player = player(40, 30, 20, 10);
+        for (long sequence = 0; sequence < 100; sequence ++) {
+            assertEquals(sequence, player.sequenceAt(player.timeOf(sequence)));
+            assertEquals(sequence, player.sequenceAt(player.timeOf(sequence + 1) - 1));
+        }
+    }
+
+    @Test
+    public void animationsWithoutDurationAreNeverDue() {
+        WebPPlayer player = player(0, 0);
+        assertEquals(0, player.timeOf(5));
+        assertEquals(Long.MAX_VALUE, player.sequenceAt(1000));
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.tianscar.webp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * These build the chunks of small WebP files by hand, with fake bitstreams,
+ * for the tests that parse or rewrite files without decoding them.
+ */
+final class WebPTestFiles {
+
+    private WebPTestFiles() {
+    }
+
+    static byte[] chunk(String fourCC, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length + (payload.length & 1)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(fourCC.getBytes()).putInt(payload.length).put(payload);
+        return buffer.array();
+    }
+
+    static byte[] riff(byte[]... chunks) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] chunk : chunks) body.write(chunk, 0, chunk.length);
+        ByteBuffer buffer = ByteBuffer.allocate(12 + body.size()).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes()).putInt(4 + body.size()).put("WEBP".getBytes()).put(body.toByteArray());
+        return buffer.array();
+    }
+
+    static byte[] vp8x(int flags, int width, int height) {
+        ByteBuffer buffer = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(flags);
+        putUInt24(buffer, width - 1);
+        putUInt24(buffer, height - 1);
+        return chunk("VP8X", buffer.array());
+    }
+
+    static byte[] anmf(int width, int height, int duration, byte[]... subchunks) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        putUInt24(header, 0);
+        putUInt24(header, 0);
+        putUInt24(header, width - 1);
+        putUInt24(header, height - 1);
+        putUInt24(header, duration);
+        header.put((byte) 0);
+        payload.write(header.array(), 0, 16);
+        for (byte[] subchunk : subchunks) payload.write(subchunk, 0, subchunk.length);
+        return chunk("ANMF", payload.toByteArray());
+    }
+
+    /**
+     * This returns a VP8L chunk that only has a header, with the
+     * alpha_is_used bit set or not.
+     */
+    static byte[] vp8l(boolean alpha) {
+        return chunk("VP8L", new byte[] { 0x2f, 0, 0, 0, (byte) (alpha ? 0x10 : 0) });
+    }
+
+    static byte[] vp8() {
+        return chunk("VP8 ", new byte[10]);
+    }
+
+    private static void putUInt24(ByteBuffer buffer, int value) {
+        buffer.put((byte) value).put((byte) (value >> 8)).put((byte) (value >> 16));
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.tianscar.webp;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebPThumbnailerTest {
+
+    /**
+     * This runs a selector over the durations, as if every picked frame
+     * changed the canvas.
+     */
+    private static long[] select(int frameInterval, int... durations) {
+        WebPThumbnailer.FrameSelector selector = new WebPThumbnailer.FrameSelector(frameInterval);
+        long[] starts = new long[durations.length];
+        for (int i = 0; i < durations.length; i ++) {
+            starts[i] = selector.next(durations[i], i == durations.length - 1);
+            if (starts[i] >= 0) selector.written(starts[i]);
+        }
+        return starts;
+    }
+
+    @Test
+    public void everyFrameIsKeptWithoutInterval() {
+        assertArrayEquals(new long[] { 0, 40, 80 }, select(0, 40, 40, 40));
+    }
+
+    @Test
+    public void zeroDurationFramesOnlyBuildUpTheCanvas() {
+        assertArrayEquals(new long[] { -1, 0, -1, 100 }, select(0, 0, 100, 0, 50));
+    }
+
+    @Test
+    public void framesWithinTheIntervalAreSkipped() {
+        assertArrayEquals(new long[] { 0, -1, -1, 30, -1, -1, 60 }, select(25, 10, 10, 10, 10, 10, 10, 10));
+    }
+
+    @Test
+    public void lastFrameIsWrittenWithinTheInterval() {
+        // The last frame starts at 120, 20 ms after the one written at 100
+        assertArrayEquals(new long[] { 0, 100, -1, 110 }, select(50, 100, 10, 10, 10));
+    }
+
+    @Test
+    public void lastFrameWithoutSkippedFramesKeepsItsStart() {
+        assertArrayEquals(new long[] { 0, 10 }, select(50, 10, 10));
+    }
+
+    @Test
+    public void lastZeroDurationFrameIsWritten() {
+        assertArrayEquals(new long[] { 0, 100 }, select(0, 100, 0));
+    }
+
+    @Test
+    public void unchangedFramesDoNotMoveTheInterval() {
+        WebPThumbnailer.FrameSelector selector = new WebPThumbnailer.FrameSelector(50);
+        assertEquals(0, selector.next(40, false));
+        // Nothing changed, so the frame is not written
+        assertEquals(40, selector.next(40, false));
+        assertEquals(80, selector.next(40, false));
+        selector.written(80);
+        assertEquals(-1, selector.next(30, false));
+        assertEquals(150, selector.next(40, true));
+        assertEquals(190, selector.getTime());
+    }
+
+}
@@ -3,7 +3,7 @@ package com.tianscar.webp.test;
 import com.tianscar.webp.*;
 
 import javax.imageio.ImageIO;
-import java.awt.image.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -55,18 +55,7 @@ public class DecodeWebPExample {
                         System.out.println(new String(framesubchunk.getFourCC()));
                         if (framesubchunk instanceof VP8LChunk) {
                             hasVP8LChunk = true;
-                            int[] size = new int[2];
-                            int[] pixels = WebPFactory.decodeBGRA((BitstreamChunk) framesubchunk, size);
-                            int width = size[0];
-                            int height = size[1];
-                            DataBufferInt dataBufferInt = new DataBufferInt(pixels, pixels.length);
-                            int[] bandmasks = new int[] {
-                                    0x00ff0000,
-                                    0x0000ff00,
-                                    0x000000ff,
-                                    0xff000000};
-                            WritableRaster writableRaster = Raster.createPackedRaster(dataBufferInt, width, height, width, bandmasks, null);
-                            BufferedImage image = new BufferedImage(ColorModel.getRGBdefault(), writableRaster, false, null);
+                            BufferedImage image = WebPFactory.decodeImage((BitstreamChunk) framesubchunk, BufferedImage.TYPE_INT_ARGB);
                             ImageIO.write(image, "png", new File("frame_" + frameIndex + ".png"));
                         }
                         else if (framesubchunk instanceof ALPHChunk) {
@@ -77,33 +66,11 @@ public class DecodeWebPExample {
                         }
                     }
                     if (!hasVP8LChunk && alphChunk != null && vp8Chunk != null) {
-                        int[] size = new int[2];
-                        int[] pixels = WebPFactory.decodeBGRA(alphChunk, vp8Chunk, size);
-                        int width = size[0];
-                        int height = size[1];
-                        DataBufferInt dataBufferInt = new DataBufferInt(pixels, pixels.length);
-                        int[] bandmasks = new int[] {
-                                0x00ff0000,
-                                0x0000ff00,
-                                0x000000ff,
-                                0xff000000};
-                        WritableRaster writableRaster = Raster.createPackedRaster(dataBufferInt, width, height, width, bandmasks, null);
-                        BufferedImage image = new BufferedImage(ColorModel.getRGBdefault(), writableRaster, false, null);
+                        BufferedImage image = WebPFactory.decodeImage(alphChunk, vp8Chunk, BufferedImage.TYPE_INT_ARGB);
                         ImageIO.write(image, "png", new File("frame_" + frameIndex + ".png"));
                     }
                     else if (!hasVP8LChunk && vp8Chunk != null) {
-                        int[] size = new int[2];
-                        int[] pixels = WebPFactory.decodeBGRA(vp8Chunk, size);
-                        int width = size[0];
-                        int height = size[1];
-                        DataBufferInt dataBufferInt = new DataBufferInt(pixels, pixels.length);
-                        int[] bandmasks = new int[] {
-                                0x00ff0000,
-                                0x0000ff00,
-                                0x000000ff,
-                                0xff000000};
-                        WritableRaster writableRaster = Raster.createPackedRaster(dataBufferInt, width, height, width, bandmasks, null);
-                        BufferedImage image = new BufferedImage(ColorModel.getRGBdefault(), writableRaster, false, null);
+                        BufferedImage image = WebPFactory.decodeImage(vp8Chunk, BufferedImage.TYPE_INT_ARGB);
                         ImageIO.write(image, "png", new File("frame_" + frameIndex + ".png"));
                     }
                     frameIndex ++;